@@ -0,0 +1,47 @@
+package bemighty;
+
+import java.nio.file.Path;
+
+import lwjgl.ex.vulkan.BakedModel;
+import lwjgl.ex.vulkan.ModelSettings;
+import lwjgl.ex.vulkan.TextureCompression;
+import lwjgl.ex.vulkan.VertexAttributeType;
+
+/**
+ * モデルファイルをBakedModelに変換する（ビルド時に1回実行する想定）
+ * 引数なしの場合はMain.TEST_MODELを変換
+ * 引数: 変換元 [変換先]
+ */
+public class BakeModel {
+	public static void main(String[] args) throws Exception {
+		var modelPath = args.length > 0 ? Path.of(args[0]) : Main.TEST_MODEL;
+		var bakedPath = args.length > 1 ? Path.of(args[1]) : toBakedPath(modelPath);
+		
+		long startMilliseconds = System.currentTimeMillis();
+		// デバイスは不要
+		var settings = new ModelSettings(modelPath, null, null, null, null);
+		// 読み込み時ではないので、時間のかかる処理も行う
+		settings.setOptimizeVertexCache(true);
+		// 座標はモデルの範囲で16bitに正規化、テクスチャ座標は16bit float（20バイト → 12バイト）
+		settings.setPositionType(VertexAttributeType.SNORM16);
+		settings.setTextureCoordType(VertexAttributeType.HALF);
+		// テクスチャはミップマップ込みでBC7に圧縮（RGBA 4バイト → 1バイト）
+		settings.setTextureCompression(TextureCompression.BC7);
+		var geometryImport = BakedModel.bake(bakedPath, settings);
+		System.out.println(bakedPath + " " + (System.currentTimeMillis() - startMilliseconds) + "ms " + geometryImport);
+	}
+	
+	/**
+	 * 
+	 * @param modelPath
+	 * @return 同じフォルダの、拡張子をBakedModel.EXTENSIONにしたパス
+	 */
+	public static Path toBakedPath(Path modelPath) {
+		var name = modelPath.getFileName().toString();
+		var dot = name.lastIndexOf('.');
+		if (dot > 0) {
+			name = name.substring(0, dot);
+		}
+		return modelPath.resolveSibling(name + BakedModel.EXTENSION);
+	}
+}
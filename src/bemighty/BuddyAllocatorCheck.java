@@ -0,0 +1,166 @@
+package bemighty;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import lwjgl.ex.vulkan.BuddyAllocator;
+
+/**
+ * BuddyAllocatorの割り当てを確認する（Vulkanのデバイスは不要）
+ * 分割とまとめ直し、alignment、空きがない場合のFAILED、断片化の統計
+ * 異なる場合はIllegalStateExceptionを投げる
+ * 引数: [ランダムな割り当ての回数]
+ */
+public class BuddyAllocatorCheck {
+	public static final long SIZE = 1L << 20;
+	public static final long MIN_BYTES = 256;
+	public static final int DEFAULT_RANDOM_COUNT = 100000;
+
+	public static void main(String[] args) {
+		var randomCount = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_RANDOM_COUNT;
+		checkSplitAndMerge();
+		checkAlignment();
+		checkExhaustion();
+		checkFragmentation();
+		checkRandom(randomCount);
+		System.out.println("BuddyAllocator OK");
+	}
+
+	/**
+	 * 小さいものは大きいものを半分ずつに分けて作り、全て解放すると1つに戻る
+	 */
+	private static void checkSplitAndMerge() {
+		var buddy = new BuddyAllocator(SIZE, MIN_BYTES);
+		var a = buddy.allocate(100, 1);
+		var b = buddy.allocate(100, 1);
+		check(a == 0 && b == MIN_BYTES, "最小単位の隣同士に割り当てられていません " + a + ", " + b);
+		check(buddy.getUsedBytes() == MIN_BYTES * 2 && buddy.getRequestedBytes() == 200, "使用量が異なります " + buddy.getUsedBytes());
+		// 300は512に切り上げられ、次の512の境界に入る
+		var c = buddy.allocate(300, 1);
+		check(c == MIN_BYTES * 2, "切り上げた大きさの境界に割り当てられていません " + c);
+		check(buddy.getLargestFreeBytes() == SIZE / 2, "後ろ半分が空いていません " + buddy.getLargestFreeBytes());
+
+		buddy.free(a);
+		buddy.free(c);
+		buddy.free(b);
+		check(buddy.isEmpty() && buddy.getUsedBytes() == 0, "解放後に使用中のものがあります");
+		check(buddy.getLargestFreeBytes() == SIZE && buddy.getFragmentation() == 0, "解放後に1つにまとまっていません");
+		check(buddy.allocate(SIZE, 1) == 0, "全体を割り当てられません");
+
+		try {
+			buddy.free(MIN_BYTES);
+			throw new IllegalStateException("割り当てていない位置のfreeが通りました");
+		} catch (IllegalArgumentException e) {
+			// 期待通り
+		}
+	}
+
+	/**
+	 * 位置はalignmentの倍数になる
+	 */
+	private static void checkAlignment() {
+		var buddy = new BuddyAllocator(SIZE, MIN_BYTES);
+		buddy.allocate(1, 1);
+		for (long alignment = 1; alignment <= SIZE / 4; alignment <<= 1) {
+			var offset = buddy.allocate(16, alignment);
+			check(offset != BuddyAllocator.FAILED && offset % alignment == 0, "alignmentを満たしていません " + offset + ", " + alignment);
+		}
+		check(buddy.allocate(16, SIZE * 2) == BuddyAllocator.FAILED, "全体より大きいalignmentが通りました");
+		check(buddy.allocate(SIZE + 1, 1) == BuddyAllocator.FAILED, "全体より大きい割り当てが通りました");
+	}
+
+	/**
+	 * 空きがなくなるとFAILEDを返し、解放すると再び割り当てられる
+	 */
+	private static void checkExhaustion() {
+		var buddy = new BuddyAllocator(SIZE, MIN_BYTES);
+		var offsets = new ArrayList<Long>();
+		for (long i = 0; i < SIZE / MIN_BYTES; ++i) {
+			var offset = buddy.allocate(MIN_BYTES, 1);
+			check(offset != BuddyAllocator.FAILED, "空きがあるのに割り当てられません " + i);
+			offsets.add(offset);
+		}
+		check(buddy.getFreeBytes() == 0, "空きが残っています " + buddy.getFreeBytes());
+		check(buddy.allocate(1, 1) == BuddyAllocator.FAILED, "空きがないのに割り当てられました");
+		buddy.free(offsets.get(7));
+		check(buddy.allocate(1, 1) == offsets.get(7), "解放した位置に割り当てられません");
+		check(buddy.allocate(1, 1) == BuddyAllocator.FAILED, "空きがないのに割り当てられました");
+	}
+
+	/**
+	 * 1つおきに解放すると、空きは半分あっても最小単位しか割り当てられない
+	 */
+	private static void checkFragmentation() {
+		var buddy = new BuddyAllocator(SIZE, MIN_BYTES);
+		var count = (int) (SIZE / MIN_BYTES);
+		var offsets = new long[count];
+		for (int i = 0; i < count; ++i) {
+			offsets[i] = buddy.allocate(MIN_BYTES, 1);
+		}
+		for (int i = 0; i < count; i += 2) {
+			buddy.free(offsets[i]);
+		}
+		check(buddy.getFreeBytes() == SIZE / 2, "空きが半分になっていません " + buddy.getFreeBytes());
+		check(buddy.getLargestFreeBytes() == MIN_BYTES, "最大の空きが最小単位ではありません " + buddy.getLargestFreeBytes());
+		var expected = 1 - (double) MIN_BYTES / (SIZE / 2);
+		check(Math.abs(buddy.getFragmentation() - expected) < 1e-12, "断片化の値が異なります " + buddy.getFragmentation());
+		check(buddy.allocate(MIN_BYTES * 2, 1) == BuddyAllocator.FAILED, "細切れの空きに大きいものが割り当てられました");
+
+		for (int i = 1; i < count; i += 2) {
+			buddy.free(offsets[i]);
+		}
+		check(buddy.getFragmentation() == 0 && buddy.getLargestFreeBytes() == SIZE, "解放後にまとまっていません");
+	}
+
+	/**
+	 * ランダムに割り当てと解放を繰り返し、重なりがなく、統計が一致することを確認する
+	 */
+	private static void checkRandom(int count) {
+		var buddy = new BuddyAllocator(SIZE, MIN_BYTES);
+		var random = new Random(1);
+		// 最小単位ごとの使用中フラグ
+		var owner = new boolean[(int) (SIZE / MIN_BYTES)];
+		var offsets = new ArrayList<Long>();
+		var spans = new ArrayList<Long>();
+		for (int i = 0; i < count; ++i) {
+			if (!offsets.isEmpty() && random.nextInt(3) == 0) {
+				var index = random.nextInt(offsets.size());
+				var offset = offsets.remove(index);
+				var span = spans.remove(index);
+				buddy.free(offset);
+				for (long unit = offset / MIN_BYTES; unit < (offset + span) / MIN_BYTES; ++unit) {
+					owner[(int) unit] = false;
+				}
+				continue;
+			}
+			var bytes = 1 + random.nextInt((int) (SIZE / 16));
+			var alignment = 1L << random.nextInt(13);
+			var offset = buddy.allocate(bytes, alignment);
+			if (offset == BuddyAllocator.FAILED) {
+				continue;
+			}
+			check(offset % alignment == 0, "alignmentを満たしていません " + offset + ", " + alignment);
+			var span = Long.highestOneBit(Math.max(Math.max(bytes, alignment), MIN_BYTES) * 2 - 1);
+			check(offset % span == 0 && offset + span <= SIZE, "大きさの境界にありません " + offset + ", " + span);
+			for (long unit = offset / MIN_BYTES; unit < (offset + span) / MIN_BYTES; ++unit) {
+				check(!owner[(int) unit], "割り当てが重なっています " + offset);
+				owner[(int) unit] = true;
+			}
+			offsets.add(offset);
+			spans.add(span);
+		}
+		var used = spans.stream().mapToLong(Long::longValue).sum();
+		check(buddy.getUsedBytes() == used && buddy.getAllocationCount() == offsets.size(), "使用量が一致しません " + buddy.getUsedBytes() + ", " + used);
+		check(buddy.getLargestFreeBytes() <= buddy.getFreeBytes(), "最大の空きが空きの合計を超えています");
+		for (var offset : offsets) {
+			buddy.free(offset);
+		}
+		check(buddy.isEmpty() && buddy.getLargestFreeBytes() == SIZE, "全て解放した後にまとまっていません");
+	}
+
+	private static void check(boolean condition, String message) {
+		if (!condition) {
+			throw new IllegalStateException(message);
+		}
+	}
+}
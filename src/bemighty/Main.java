@@ -40,6 +40,7 @@ import lwjgl.ex.vulkan.GraphicPipelineSettings;
 import lwjgl.ex.vulkan.LogicalDevice;
 import lwjgl.ex.vulkan.LogicalDeviceSettings;
 import lwjgl.ex.vulkan.Model;
+import lwjgl.ex.vulkan.ModelCache;
 import lwjgl.ex.vulkan.PhysicalDevice;
 import lwjgl.ex.vulkan.Pipeline;
 import lwjgl.ex.vulkan.PipelineSettings;
@@ -52,13 +53,14 @@ import lwjgl.ex.vulkan.RenderSettings;
 import lwjgl.ex.vulkan.Sampler;
 import lwjgl.ex.vulkan.SamplerSettings;
 import lwjgl.ex.vulkan.DrawModelCommand;
-import lwjgl.ex.vulkan.Shader;
-import lwjgl.ex.vulkan.ShaderSettings;
+import lwjgl.ex.vulkan.ShaderLibrary;
+import lwjgl.ex.vulkan.ShaderLibrarySettings;
 import lwjgl.ex.vulkan.ShaderStageSettings;
 import lwjgl.ex.vulkan.Surface;
 import lwjgl.ex.vulkan.SurfaceSettings;
 import lwjgl.ex.vulkan.SwapChain;
 import lwjgl.ex.vulkan.SwapChainSettings;
+import lwjgl.ex.vulkan.UniformBufferObject;
 import lwjgl.ex.vulkan.VertexBindingBuilder;
 import lwjgl.ex.vulkan.Vulkan;
 import lwjgl.ex.vulkan.VulkanSettings;
@@ -72,8 +74,14 @@ public class Main {
 	public static Color BACKGROUND = Color.black;
 	public static final Path RESOURCE_PATH = FileSystems.getDefault().getPath("resources");
 	public static final Path SHADER_SPV = RESOURCE_PATH.resolve("shader/slang.spv");
+	public static final Path PIPELINE_CACHE = FileSystems.getDefault().getPath("cache", "pipeline.cache");
 	public static final Path TEST_MODEL = RESOURCE_PATH.resolve("models/test.gltf");
 //	public static final Path TEST_MODEL = RESOURCE_PATH.resolve("models/polyMesh.gltf");
+	// ModelCacheのディスクの段（BakedModelと依存ファイルの一覧）
+	// モデルや参照する画像が変更された場合は読み込み直す
+	public static final Path MODEL_CACHE = FileSystems.getDefault().getPath("cache", "models");
+	// 各キャッシュ・アロケーターの統計を表示する（計測するときだけtrue）
+	public static final boolean PRINT_STATISTICS = false;
 
 	public static void main(String[] args) throws Exception {
 		// 処理前の時刻を取得
@@ -118,6 +126,10 @@ public class Main {
 				var vkPhysicalDevice = PhysicalDevice.getFirstVkPhysicalDevice(vulkan);
 				var physicalDevice = new PhysicalDevice(vkPhysicalDevice);
 				var logicalDeviceSettings = new LogicalDeviceSettings(physicalDevice);
+				// 2回目以降の起動で、Pipelineの作成を速くする
+				logicalDeviceSettings.setPipelineCachePath(PIPELINE_CACHE);
+				// 2回目以降の起動で、モデルの読み込みを速くする
+				ModelCache.setDiskDirectory(MODEL_CACHE);
 				var surfaceSettings = new SurfaceSettings(vulkan, physicalDevice, window);
 				
 				// 並列にインスタンスを作成するべきだが、今はこのまま
@@ -128,20 +140,26 @@ public class Main {
 					
 					var commandPoolSettings = new CommandPoolSettings(logicalDevice);
 					var swapChainSettings = new SwapChainSettings(window, logicalDevice, surface);
-					var shaderSettings = new ShaderSettings(logicalDevice, SHADER_SPV);
+					var shaderLibrarySettings = new ShaderLibrarySettings(logicalDevice);
+					// 再読み込みに失敗しても、今のシェーダーで描画を続ける
+					shaderLibrarySettings.setErrorListener(e -> System.err.println("シェーダーの再読み込みに失敗しました " + e));
 					
 					var queueSettings = new QueueSettings(logicalDevice);
 					Queue queue = new Queue(queueSettings);
 					
 					try(var commandPool = new CommandPool(commandPoolSettings);
 							var swapChain = new SwapChain(swapChainSettings);
-							var shader = new Shader(shaderSettings);
+							// resources/shader/slang.spvが変更されると、Pipelineを作り直す
+							var shaderLibrary = new ShaderLibrary(shaderLibrarySettings);
 							var testModel = new Model(TEST_MODEL, logicalDevice, commandPool, queue, swapChain);
 									) {
 
+						var shader = shaderLibrary.getShader(SHADER_SPV);
+						// shader.slangのUniformBufferとUniformBufferObjectのレイアウトがずれていないか
+						UniformBufferObject.checkLayout(shader);
+						// マテリアルの画像はDrawModelCommandで切り替える
+						// （Pipelineの初期値は、画像がないマテリアルに使われる）
 						var samplerSettings = new SamplerSettings(logicalDevice,
-								
-								// テクスチャが複数の場合、不明
 								testModel.getTextures().get(0).getTextureImageView());
 						
 						try(var sampler = new Sampler(samplerSettings)) {
@@ -180,10 +198,18 @@ public class Main {
 								
 								// 頂点の重複を削除できてない。なぜ？
 	//							int importFileFlag = Assimp.aiProcess_JoinIdenticalVertices;
-								try(var graphic = Pipeline.createGraphics(graphicShaderSettings, graphicSettings, Model.createBinding())) {
+								try(var graphic = shaderLibrary.createGraphics(SHADER_SPV, graphicShaderSettings, graphicSettings, testModel.getBinding())) {
+									// 初回（cold）と2回目以降（warm）の比較用
+									if (PRINT_STATISTICS) {
+										System.out.println("PipelineCache " + logicalDevice.getPipelineCache().getStatistics());
+										System.out.println("MemoryAllocator " + logicalDevice.getMemoryAllocator().getStatistics());
+										System.out.println("StagingRing " + logicalDevice.getStagingRing().getStatistics());
+										System.out.println("UniformArena " + logicalDevice.getUniformArena().getStatistics());
+										System.out.println("MemoryTelemetry " + logicalDevice.getMemoryTelemetry().getStatistics());
+									}
 									
 									
-									try (var command = new DrawModelCommand(testModel, BACKGROUND, swapChain, graphic)) {
+									try (var command = new DrawModelCommand(testModel, BACKGROUND, swapChain, graphic, sampler)) {
 										final int testCount = 1;
 										for(int i = 0; i < testCount; ++i) {
 											if (window.shouldClose()) {
@@ -191,6 +217,8 @@ public class Main {
 											}
 											// ウィンドウをイベント待ちへ
 											window.pollEvents();
+											// 再読み込みしたシェーダーを反映
+											shaderLibrary.applyReloads();
 											
 											render.render(command);
 										}
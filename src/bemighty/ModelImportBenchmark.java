@@ -0,0 +1,148 @@
+package bemighty;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.lwjgl.assimp.AIScene;
+import org.lwjgl.assimp.Assimp;
+
+import lwjgl.ex.vulkan.Model;
+import lwjgl.ex.vulkan.ModelGeometry;
+
+/**
+ * ModelGeometry.readの逐次と並列を比較する（Vulkanのデバイスは不要）
+ * 引数なしの場合はメッシュの多いglTFを生成して使う
+ * 引数: [モデル] [繰り返し回数]
+ */
+public class ModelImportBenchmark {
+	public static final int GENERATED_MESH_COUNT = 512;
+
+	/**
+	 * 生成するメッシュ1つあたりの、1辺の頂点数
+	 */
+	public static final int GENERATED_GRID = 48;
+
+	public static final int DEFAULT_REPEAT = 20;
+
+	public static void main(String[] args) throws Exception {
+		var modelPath = args.length > 0 ? Path.of(args[0]) : writeManyMeshGltf(Files.createTempDirectory("bemighty"));
+		var repeat = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_REPEAT;
+
+		var scene = Assimp.aiImportFile(modelPath.toString(), Model.DEFAULT_IMPORT_FILE_FLAG);
+		if (scene == null) {
+			throw new IllegalArgumentException("モデルの読み込みに失敗しました " + modelPath + " " + Assimp.aiGetErrorString());
+		}
+		try {
+			var sequential = ModelGeometry.read(scene, false);
+			var parallel = ModelGeometry.read(scene, true);
+			// floatのビット単位で一致すること
+			if (!Arrays.equals(sequential.getVertices(), parallel.getVertices())
+					|| !Arrays.equals(sequential.getIndices(), parallel.getIndices())) {
+				throw new IllegalStateException("逐次と並列で結果が異なります");
+			}
+			System.out.println(modelPath + " meshes=" + scene.mNumMeshes()
+					+ " vertices=" + sequential.getVertexCount() + " indices=" + sequential.getIndexCount());
+
+			// JITのための空回し
+			for (int i = 0; i < repeat; ++i) {
+				ModelGeometry.read(scene, false);
+				ModelGeometry.read(scene, true);
+			}
+			var sequentialNanos = measure(scene, false, repeat);
+			var parallelNanos = measure(scene, true, repeat);
+			System.out.printf("sequential %.3fms%n", sequentialNanos / 1e6);
+			System.out.printf("parallel   %.3fms (x%.2f, %d cores)%n", parallelNanos / 1e6,
+					(double) sequentialNanos / parallelNanos, Runtime.getRuntime().availableProcessors());
+		} finally {
+			Assimp.aiReleaseImport(scene);
+		}
+	}
+
+	/**
+	 *
+	 * @return 1回あたりの中央値（ナノ秒）
+	 */
+	private static long measure(AIScene scene, boolean parallel, int repeat) {
+		var nanos = new long[repeat];
+		for (int i = 0; i < repeat; ++i) {
+			var start = System.nanoTime();
+			ModelGeometry.read(scene, parallel);
+			nanos[i] = System.nanoTime() - start;
+		}
+		Arrays.sort(nanos);
+		return nanos[repeat / 2];
+	}
+
+	/**
+	 * 格子状のメッシュをGENERATED_MESH_COUNT個並べたglTFを書き出す
+	 * @param directory
+	 * @return .gltfのパス
+	 */
+	public static Path writeManyMeshGltf(Path directory) throws Exception {
+		var vertexCount = GENERATED_GRID * GENERATED_GRID;
+		var indexCount = (GENERATED_GRID - 1) * (GENERATED_GRID - 1) * 6;
+		var positionBytes = vertexCount * 3 * Float.BYTES;
+		var textureCoordBytes = vertexCount * 2 * Float.BYTES;
+		var indexBytes = indexCount * Integer.BYTES;
+		var meshBytes = positionBytes + textureCoordBytes + indexBytes;
+
+		var bin = ByteBuffer.allocate(meshBytes * GENERATED_MESH_COUNT).order(ByteOrder.LITTLE_ENDIAN);
+		var nodes = new StringBuilder();
+		var meshes = new StringBuilder();
+		var accessors = new StringBuilder();
+		var bufferViews = new StringBuilder();
+		var sceneNodes = new StringBuilder();
+		var max = 1f / (GENERATED_GRID - 1);
+		for (int m = 0; m < GENERATED_MESH_COUNT; ++m) {
+			var base = m * meshBytes;
+			// 頂点ごとに値を変えて、並列時の書き込み位置の誤りが分かるようにする
+			for (int y = 0; y < GENERATED_GRID; ++y) {
+				for (int x = 0; x < GENERATED_GRID; ++x) {
+					bin.putFloat(x * max).putFloat(y * max).putFloat(m * 0.001f);
+				}
+			}
+			for (int y = 0; y < GENERATED_GRID; ++y) {
+				for (int x = 0; x < GENERATED_GRID; ++x) {
+					bin.putFloat(x * max).putFloat(y * max);
+				}
+			}
+			for (int y = 0; y < GENERATED_GRID - 1; ++y) {
+				for (int x = 0; x < GENERATED_GRID - 1; ++x) {
+					var i = y * GENERATED_GRID + x;
+					bin.putInt(i).putInt(i + 1).putInt(i + GENERATED_GRID)
+						.putInt(i + 1).putInt(i + GENERATED_GRID + 1).putInt(i + GENERATED_GRID);
+				}
+			}
+
+			var separator = m == 0 ? "" : ",";
+			bufferViews.append(separator)
+				.append("{\"buffer\":0,\"byteOffset\":").append(base).append(",\"byteLength\":").append(positionBytes).append(",\"target\":34962},")
+				.append("{\"buffer\":0,\"byteOffset\":").append(base + positionBytes).append(",\"byteLength\":").append(textureCoordBytes).append(",\"target\":34962},")
+				.append("{\"buffer\":0,\"byteOffset\":").append(base + positionBytes + textureCoordBytes).append(",\"byteLength\":").append(indexBytes).append(",\"target\":34963}");
+			accessors.append(separator)
+				.append("{\"bufferView\":").append(m * 3).append(",\"componentType\":5126,\"count\":").append(vertexCount)
+				.append(",\"type\":\"VEC3\",\"min\":[0,0,").append(m * 0.001f).append("],\"max\":[1,1,").append(m * 0.001f).append("]},")
+				.append("{\"bufferView\":").append(m * 3 + 1).append(",\"componentType\":5126,\"count\":").append(vertexCount).append(",\"type\":\"VEC2\"},")
+				.append("{\"bufferView\":").append(m * 3 + 2).append(",\"componentType\":5125,\"count\":").append(indexCount).append(",\"type\":\"SCALAR\"}");
+			meshes.append(separator)
+				.append("{\"primitives\":[{\"attributes\":{\"POSITION\":").append(m * 3).append(",\"TEXCOORD_0\":").append(m * 3 + 1)
+				.append("},\"indices\":").append(m * 3 + 2).append("}]}");
+			nodes.append(separator)
+				.append("{\"mesh\":").append(m).append(",\"translation\":[").append(m % 16).append(",").append(m / 16).append(",0]}");
+			sceneNodes.append(separator).append(m);
+		}
+
+		var binPath = directory.resolve("many_mesh.bin");
+		Files.write(binPath, bin.array());
+		var gltf = "{\"asset\":{\"version\":\"2.0\"},\"scene\":0,\"scenes\":[{\"nodes\":[" + sceneNodes + "]}],"
+				+ "\"nodes\":[" + nodes + "],\"meshes\":[" + meshes + "],\"accessors\":[" + accessors + "],"
+				+ "\"bufferViews\":[" + bufferViews + "],"
+				+ "\"buffers\":[{\"byteLength\":" + bin.capacity() + ",\"uri\":\"" + binPath.getFileName() + "\"}]}";
+		var gltfPath = directory.resolve("many_mesh.gltf");
+		Files.writeString(gltfPath, gltf);
+		return gltfPath;
+	}
+}
@@ -0,0 +1,192 @@
+package bemighty;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import org.lwjgl.assimp.Assimp;
+import org.lwjgl.system.MemoryUtil;
+
+import lwjgl.ex.vulkan.AssimpUtils;
+import lwjgl.ex.vulkan.Model;
+import lwjgl.ex.vulkan.TextureSource;
+
+/**
+ * AssimpUtils.decodeTexturesの逐次と並列を比較する（Vulkanのデバイスは不要）
+ * 引数なしの場合はテクスチャを埋め込んだglTFを生成して使う
+ * 引数: [モデル] [繰り返し回数]
+ */
+public class TextureDecodeBenchmark {
+	public static final int GENERATED_TEXTURE_COUNT = 40;
+
+	/**
+	 * 生成するテクスチャの1辺のピクセル数
+	 */
+	public static final int GENERATED_TEXTURE_SIZE = 2048;
+
+	public static final int DEFAULT_REPEAT = 3;
+
+	public static void main(String[] args) throws Exception {
+		var modelPath = args.length > 0 ? Path.of(args[0]) : writeManyTextureGltf(Files.createTempDirectory("bemighty"));
+		var repeat = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_REPEAT;
+
+		var scene = Assimp.aiImportFile(modelPath.toString(), Model.DEFAULT_IMPORT_FILE_FLAG);
+		if (scene == null) {
+			throw new IllegalArgumentException("モデルの読み込みに失敗しました " + modelPath + " " + Assimp.aiGetErrorString());
+		}
+		try {
+			var compressed = AssimpUtils.getCompressedTextures(scene);
+			// 逐次と並列で、展開結果がバイト単位で一致すること
+			if (!Arrays.equals(checksums(compressed, false), checksums(compressed, true))) {
+				throw new IllegalStateException("逐次と並列で結果が異なります");
+			}
+			var compressedBytes = compressed.stream().mapToLong(ByteBuffer::remaining).sum();
+			System.out.println(modelPath + " textures=" + compressed.size() + " compressedBytes=" + compressedBytes);
+
+			var sequentialNanos = measure(compressed, false, repeat);
+			var parallelNanos = measure(compressed, true, repeat);
+			System.out.printf("sequential %.3fms%n", sequentialNanos / 1e6);
+			System.out.printf("parallel   %.3fms (x%.2f, %d cores)%n", parallelNanos / 1e6,
+					(double) sequentialNanos / parallelNanos, Runtime.getRuntime().availableProcessors());
+		} finally {
+			Assimp.aiReleaseImport(scene);
+		}
+	}
+
+	/**
+	 *
+	 * @return 1回あたりの中央値（ナノ秒）
+	 */
+	private static long measure(List<ByteBuffer> compressed, boolean parallel, int repeat) {
+		var nanos = new long[repeat];
+		for (int i = 0; i < repeat; ++i) {
+			var start = System.nanoTime();
+			for (var future : AssimpUtils.decodeTextures(compressed, parallel)) {
+				AssimpUtils.join(future).close();
+			}
+			nanos[i] = System.nanoTime() - start;
+		}
+		Arrays.sort(nanos);
+		return nanos[repeat / 2];
+	}
+
+	private static long[] checksums(List<ByteBuffer> compressed, boolean parallel) {
+		var futures = AssimpUtils.decodeTextures(compressed, parallel);
+		var result = new long[futures.size()];
+		for (int i = 0; i < result.length; ++i) {
+			try (var source = AssimpUtils.join(futures.get(i))) {
+				result[i] = checksum(source);
+			}
+		}
+		return result;
+	}
+
+	private static long checksum(TextureSource source) {
+		var bytes = source.getBytes();
+		var address = MemoryUtil.nmemAlloc(bytes);
+		try {
+			source.write(address);
+			var hash = 1125899906842597L;
+			for (long i = 0; i < bytes; i += Long.BYTES) {
+				hash = 31 * hash + MemoryUtil.memGetLong(address + i);
+			}
+			return hash;
+		} finally {
+			MemoryUtil.nmemFree(address);
+		}
+	}
+
+	/**
+	 * PNGのテクスチャをGENERATED_TEXTURE_COUNT個埋め込んだglTFを書き出す
+	 * （data URIだと文字列が大きくなりすぎるので、画像は.binのbufferViewに置く）
+	 * @param directory
+	 * @return .gltfのパス
+	 */
+	public static Path writeManyTextureGltf(Path directory) throws Exception {
+		// 三角形1つ（XYZ、UV、index）
+		// Assimpはメッシュから参照されている画像しか取り込まないので、テクスチャごとにメッシュを作る
+		var triangle = ByteBuffer.allocate((3 * 3 + 3 * 2) * Float.BYTES + 3 * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+		triangle.putFloat(0).putFloat(0).putFloat(0).putFloat(1).putFloat(0).putFloat(0).putFloat(0).putFloat(1).putFloat(0);
+		triangle.putFloat(0).putFloat(0).putFloat(1).putFloat(0).putFloat(0).putFloat(1);
+		triangle.putInt(0).putInt(1).putInt(2);
+
+		var random = new Random(0);
+		var bufferViews = new ArrayList<String>();
+		bufferViews.add("{\"buffer\":0,\"byteOffset\":0,\"byteLength\":36}");
+		bufferViews.add("{\"buffer\":0,\"byteOffset\":36,\"byteLength\":24}");
+		bufferViews.add("{\"buffer\":0,\"byteOffset\":60,\"byteLength\":12}");
+		var images = new ArrayList<String>();
+		var textures = new ArrayList<String>();
+		var materials = new ArrayList<String>();
+		var meshes = new ArrayList<String>();
+		var nodes = new ArrayList<String>();
+		var binPath = directory.resolve("many_texture.bin");
+		long byteOffset = triangle.capacity();
+		try (var output = Files.newOutputStream(binPath)) {
+			output.write(triangle.array());
+			for (int t = 0; t < GENERATED_TEXTURE_COUNT; ++t) {
+				var png = createPng(random);
+				output.write(png);
+				images.add("{\"mimeType\":\"image/png\",\"bufferView\":" + bufferViews.size() + "}");
+				bufferViews.add("{\"buffer\":0,\"byteOffset\":" + byteOffset + ",\"byteLength\":" + png.length + "}");
+				byteOffset += png.length;
+				textures.add("{\"source\":" + t + "}");
+				materials.add("{\"pbrMetallicRoughness\":{\"baseColorTexture\":{\"index\":" + t + "}}}");
+				meshes.add("{\"primitives\":[{\"attributes\":{\"POSITION\":0,\"TEXCOORD_0\":1},\"indices\":2,\"material\":" + t + "}]}");
+				nodes.add("{\"mesh\":" + t + "}");
+			}
+		}
+
+		var sceneNodes = new ArrayList<String>();
+		for (int t = 0; t < GENERATED_TEXTURE_COUNT; ++t) {
+			sceneNodes.add(Integer.toString(t));
+		}
+		var gltf = "{\"asset\":{\"version\":\"2.0\"},\"scene\":0,\"scenes\":[{\"nodes\":[" + String.join(",", sceneNodes) + "]}],"
+				+ "\"nodes\":[" + String.join(",", nodes) + "],"
+				+ "\"meshes\":[" + String.join(",", meshes) + "],"
+				+ "\"accessors\":["
+				+ "{\"bufferView\":0,\"componentType\":5126,\"count\":3,\"type\":\"VEC3\",\"min\":[0,0,0],\"max\":[1,1,0]},"
+				+ "{\"bufferView\":1,\"componentType\":5126,\"count\":3,\"type\":\"VEC2\"},"
+				+ "{\"bufferView\":2,\"componentType\":5125,\"count\":3,\"type\":\"SCALAR\"}],"
+				+ "\"bufferViews\":[" + String.join(",", bufferViews) + "],"
+				+ "\"buffers\":[{\"byteLength\":" + byteOffset + ",\"uri\":\"" + binPath.getFileName() + "\"}],"
+				+ "\"images\":[" + String.join(",", images) + "],"
+				+ "\"textures\":[" + String.join(",", textures) + "],"
+				+ "\"materials\":[" + String.join(",", materials) + "]}";
+		var gltfPath = directory.resolve("many_texture.gltf");
+		Files.writeString(gltfPath, gltf);
+		return gltfPath;
+	}
+
+	/**
+	 * グラデーションにノイズを加えた画像
+	 * （単色だとPNGの圧縮が効きすぎて、展開の負荷が実際のテクスチャと大きく異なるため）
+	 */
+	private static byte[] createPng(Random random) throws Exception {
+		var image = new BufferedImage(GENERATED_TEXTURE_SIZE, GENERATED_TEXTURE_SIZE, BufferedImage.TYPE_INT_ARGB);
+		var pixels = new int[GENERATED_TEXTURE_SIZE * GENERATED_TEXTURE_SIZE];
+		var baseColor = random.nextInt();
+		for (int y = 0; y < GENERATED_TEXTURE_SIZE; ++y) {
+			for (int x = 0; x < GENERATED_TEXTURE_SIZE; ++x) {
+				var noise = random.nextInt(16);
+				var r = (x * 255 / GENERATED_TEXTURE_SIZE + noise + baseColor) & 0xFF;
+				var g = (y * 255 / GENERATED_TEXTURE_SIZE + noise + (baseColor >>> 8)) & 0xFF;
+				var b = ((x + y) * 127 / GENERATED_TEXTURE_SIZE + noise + (baseColor >>> 16)) & 0xFF;
+				pixels[y * GENERATED_TEXTURE_SIZE + x] = 0xFF000000 | r << 16 | g << 8 | b;
+			}
+		}
+		image.setRGB(0, 0, GENERATED_TEXTURE_SIZE, GENERATED_TEXTURE_SIZE, pixels, 0, GENERATED_TEXTURE_SIZE);
+		var output = new ByteArrayOutputStream();
+		ImageIO.write(image, "png", output);
+		return output.toByteArray();
+	}
+}
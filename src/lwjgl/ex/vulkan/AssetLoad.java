@@ -0,0 +1,174 @@
+package lwjgl.ex.vulkan;
+
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * AssetStreamerでの1モデルの読み込み
+ * cancelした場合は、次の段に進む時点で読み込んだものを解放する（GPUへの送信中の場合は、作成後にcloseする）
+ */
+public class AssetLoad extends CompletableFuture<Model> {
+	public enum Stage {
+		/**
+		 * 読み込みの順番待ち
+		 */
+		QUEUED,
+		READING,
+		DECODING,
+		UPLOADING,
+		/**
+		 * 完了、失敗、cancelのいずれか
+		 */
+		DONE
+	}
+
+	/**
+	 * getProgressでの各段の割合（送信は残り）
+	 */
+	private static final double READ_PROGRESS = 0.2;
+	private static final double DECODE_PROGRESS = 0.6;
+
+	private final Path path;
+	private final long startNanos = System.nanoTime();
+	private volatile long endNanos;
+	private volatile Stage stage = Stage.QUEUED;
+	private volatile long bytes;
+	private volatile boolean geometryDecoded;
+	private ModelImport imported;
+	/**
+	 * ModelCacheにあった場合
+	 */
+	private ModelMesh mesh;
+
+	AssetLoad(Path path) {
+		this.path = path;
+		whenComplete((model, e) -> endNanos = System.nanoTime());
+	}
+
+	public Path getPath() {
+		return path;
+	}
+
+	public Stage getStage() {
+		return isDone() ? Stage.DONE : stage;
+	}
+
+	/**
+	 *
+	 * @return 0〜1の目安（展開段は、展開が終わった画像の数から求める）
+	 */
+	public double getProgress() {
+		return switch (getStage()) {
+		case QUEUED, READING -> 0;
+		case DECODING -> {
+			var imported = getImport();
+			if (imported == null) {
+				yield READ_PROGRESS;
+			}
+			// 頂点の展開を画像1枚分とする
+			var done = imported.getDecodedTextureCount() + (geometryDecoded ? 1 : 0);
+			yield READ_PROGRESS + DECODE_PROGRESS * done / (imported.getTextureCount() + 1);
+		}
+		case UPLOADING -> READ_PROGRESS + DECODE_PROGRESS;
+		case DONE -> 1;
+		};
+	}
+
+	/**
+	 *
+	 * @return 読み込んだバイト数（読み込みが終わるまでは0）
+	 */
+	public long getBytes() {
+		return bytes;
+	}
+
+	/**
+	 *
+	 * @return loadを呼んでから完了まで（完了していない場合は現在まで）
+	 */
+	public long getElapsedNanos() {
+		var end = endNanos;
+		return (end != 0 ? end : System.nanoTime()) - startNanos;
+	}
+
+	/**
+	 *
+	 * @return このモデルのみの、読み込みから送信までのスループット（MB/s）
+	 */
+	public double getMegabytesPerSecond() {
+		return AssetStreamer.toMegabytesPerSecond(bytes, getElapsedNanos());
+	}
+
+	void setStage(Stage stage) {
+		this.stage = stage;
+	}
+
+	void setGeometryDecoded() {
+		geometryDecoded = true;
+	}
+
+	/**
+	 *
+	 * @param imported
+	 * @return cancelされていた場合はfalse（importedはcloseされる）
+	 */
+	synchronized boolean setImport(ModelImport imported) {
+		if (isDone()) {
+			imported.close();
+			return false;
+		}
+		this.imported = imported;
+		bytes = imported.getBytes();
+		stage = Stage.DECODING;
+		return true;
+	}
+
+	synchronized ModelImport getImport() {
+		return imported;
+	}
+	
+	/**
+	 * 
+	 * @param mesh ModelCacheから取得したもの
+	 * @return cancelされていた場合はfalse（meshはcloseされる）
+	 * @throws Exception
+	 */
+	synchronized boolean setMesh(ModelMesh mesh) throws Exception {
+		if (isDone()) {
+			mesh.close();
+			return false;
+		}
+		this.mesh = mesh;
+		bytes = mesh.getBytes();
+		return true;
+	}
+	
+	/**
+	 * 
+	 * @return Modelに移す。ModelCacheから取得していない場合はnull
+	 */
+	synchronized ModelMesh takeMesh() {
+		var mesh = this.mesh;
+		this.mesh = null;
+		return mesh;
+	}
+
+	/**
+	 * 読み込んだものを解放する（Modelに移していないもののみ）
+	 */
+	synchronized void release() throws Exception {
+		try {
+			if (mesh != null) {
+				mesh.close();
+			}
+		} finally {
+			mesh = null;
+			// 失敗した場合も、2回closeしないように先に外す
+			var imported = this.imported;
+			this.imported = null;
+			if (imported != null) {
+				imported.close();
+			}
+		}
+	}
+}
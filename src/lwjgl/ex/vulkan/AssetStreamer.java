@@ -0,0 +1,309 @@
+package lwjgl.ex.vulkan;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import motopgi.utils.ExceptionUtils;
+
+/**
+ * モデルを描画スレッドを止めずに読み込む
+ * 読み込み（仮想スレッド）→ 展開（コア数のスレッドプール）→ GPUへの送信（1スレッド）の3段を、
+ * 大きさの決まったキューでつなぐ。後ろの段が詰まっている場合は、前の段がキューに入れる時点で待つ
+ *
+ * 送信は専用のCommandPoolで行い、Queueへのアクセスのみ描画スレッドとロックで同期する
+ * （送信の完了はFenceで待つので、描画スレッドのsubmitやpresentを止めない）
+ *
+ * 例：
+ * var load = streamer.load(settings);
+ * // 毎フレーム
+ * if (load.isDone()) { model = load.join(); }
+ */
+public class AssetStreamer implements AutoCloseable {
+	/**
+	 * MB/sの1MB
+	 */
+	public static final double BYTES_PER_MEGABYTE = 1024 * 1024;
+
+	/**
+	 * closeで実行中の読み込みを待つ時間
+	 */
+	private static final long CLOSE_TIMEOUT_SECONDS = 60;
+
+	/**
+	 * キューがいっぱいの場合は、空くまで呼び出し元のスレッドで待つ
+	 * （呼び出し元はその前の段のスレッドなので、前の段が止まる）
+	 */
+	private static final RejectedExecutionHandler WAIT_FOR_SPACE = (task, executor) -> {
+		if (executor.isShutdown()) {
+			throw new RejectedExecutionException("AssetStreamerは終了しています");
+		}
+		try {
+			executor.getQueue().put(task);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RejectedExecutionException("キューの空きを待っている間に割り込まれました", e);
+		}
+	};
+
+	private final AssetStreamerSettings settings;
+	private final ExecutorService readExecutor = Executors.newVirtualThreadPerTaskExecutor();
+	private final Semaphore readPermits;
+	private final ThreadPoolExecutor decodeExecutor;
+	private final ThreadPoolExecutor uploadExecutor;
+	/**
+	 * 送信用のスレッドでのみ使う
+	 */
+	private final CommandPool commandPool;
+
+	private int loading;
+	private long busyStartNanos;
+	private long busyNanos;
+	private long loadedBytes;
+	private int loadedCount;
+
+	public AssetStreamer(AssetStreamerSettings settings) {
+		this.settings = settings;
+		readPermits = new Semaphore(settings.getMaxConcurrentReads());
+		decodeExecutor = createExecutor(settings.getDecodeThreads(), settings.getDecodeQueueCapacity(), "AssetStreamer-decode-");
+		uploadExecutor = createExecutor(1, settings.getUploadQueueCapacity(), "AssetStreamer-upload-");
+		commandPool = new CommandPool(new CommandPoolSettings(settings.getLogicalDevice()));
+	}
+
+	private static ThreadPoolExecutor createExecutor(int threads, int capacity, String name) {
+		var count = new AtomicInteger();
+		var executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(capacity), task -> {
+			var thread = new Thread(task, name + count.getAndIncrement());
+			thread.setDaemon(true);
+			return thread;
+		}, WAIT_FOR_SPACE);
+		// キューに直接入れた場合も実行されるように、先にスレッドを作っておく
+		executor.prestartAllCoreThreads();
+		return executor;
+	}
+
+	/**
+	 * 読み込みを開始する
+	 * @param settings commandPoolは転送用のものに置き換える（settings自体は変更しない）
+	 * @return Modelは、送信用のスレッドで完了する
+	 */
+	public AssetLoad load(ModelSettings settings) {
+		var copy = new ModelSettings(settings);
+		copy.setCommandPool(commandPool);
+		var load = new AssetLoad(copy.getModelPath());
+		started();
+		load.whenComplete((model, e) -> finished(load, e == null));
+		try {
+			readExecutor.execute(() -> read(load, copy));
+		} catch (RejectedExecutionException e) {
+			load.completeExceptionally(e);
+		}
+		return load;
+	}
+
+	/**
+	 * 読み込み段（仮想スレッド）
+	 * ModelCacheにある場合は、読み込みと展開を行わずに送信段に進む
+	 */
+	private void read(AssetLoad load, ModelSettings settings) {
+		try {
+			ModelImport imported;
+			readPermits.acquire();
+			try {
+				if (load.isDone()) {
+					return;
+				}
+				load.setStage(AssetLoad.Stage.READING);
+				var hash = ModelCache.hash(settings);
+				var mesh = ModelCache.acquire(settings.getLogicalDevice(), ModelCache.getMeshKey(hash, settings.getResidency()));
+				if (mesh != null) {
+					if (load.setMesh(mesh)) {
+						enqueueUpload(load, settings);
+					}
+					return;
+				}
+				imported = ModelCache.read(settings, hash);
+			} finally {
+				readPermits.release();
+			}
+			if (!load.setImport(imported)) {
+				return;
+			}
+			// 画像と頂点の展開をキューに入れる（いっぱいの場合はここで待つ）
+			imported.decodeTextures(decodeExecutor);
+			var geometry = CompletableFuture.runAsync(() -> {
+				if (!load.isDone()) {
+					imported.decodeGeometry();
+					load.setGeometryDecoded();
+					// ディスクの段に書き出す（画像の圧縮を行う場合もあるので展開段で行う）
+					try {
+						ModelCache.store(imported);
+					} catch (IOException e) {
+						throw new UncheckedIOException("ディスクキャッシュへの保存に失敗しました " + imported.getSettings().getModelPath(), e);
+					}
+					// 送信のキューで待つ間に残さない
+					imported.releaseScene();
+				}
+			}, decodeExecutor);
+			CompletableFuture.allOf(geometry, imported.getTexturesDecoded()).whenComplete((result, e) -> {
+				if (e != null) {
+					fail(load, e);
+					return;
+				}
+				// 最後に展開が終わったスレッドで送信のキューに入れる（いっぱいの場合はここで待つ）
+				enqueueUpload(load, settings);
+			});
+		} catch (Exception e) {
+			fail(load, e);
+		}
+	}
+	
+	private void enqueueUpload(AssetLoad load, ModelSettings settings) {
+		try {
+			uploadExecutor.execute(() -> upload(load, settings));
+		} catch (RuntimeException e) {
+			fail(load, e);
+		}
+	}
+
+	/**
+	 * 送信段（1スレッド）
+	 */
+	private void upload(AssetLoad load, ModelSettings settings) {
+		Model model = null;
+		try {
+			if (!load.isDone()) {
+				load.setStage(AssetLoad.Stage.UPLOADING);
+				var mesh = load.takeMesh();
+				if (mesh != null) {
+					// ModelCacheにあったものはUniformBufferObjectのみ作成する
+					model = new Model(settings, mesh);
+				}
+				else {
+					var imported = load.getImport();
+					if (imported != null) {
+						model = new Model(imported);
+					}
+				}
+			}
+			// 解放に失敗した場合はModelを渡さずに失敗にするため、完了にする前に解放する
+			load.release();
+			if (model != null) {
+				var created = model;
+				model = null;
+				if (!load.complete(created)) {
+					// 送信中にcancelされた
+					created.close();
+				}
+			}
+		} catch (Exception e) {
+			if (model != null) {
+				try {
+					model.close();
+				} catch (Exception ex) {
+					e.addSuppressed(ex);
+				}
+			}
+			fail(load, e);
+		}
+	}
+
+	/**
+	 * 読み込んだものを解放してから、失敗にする（解放での例外はeに追加する）
+	 */
+	private static void fail(AssetLoad load, Throwable e) {
+		try {
+			load.release();
+		} catch (Exception ex) {
+			e.addSuppressed(ex);
+		}
+		load.completeExceptionally(e);
+	}
+
+	private synchronized void started() {
+		if (loading++ == 0) {
+			busyStartNanos = System.nanoTime();
+		}
+	}
+
+	private synchronized void finished(AssetLoad load, boolean succeeded) {
+		if (--loading == 0) {
+			busyNanos += System.nanoTime() - busyStartNanos;
+		}
+		if (succeeded) {
+			loadedBytes += load.getBytes();
+			++loadedCount;
+		}
+	}
+
+	/**
+	 *
+	 * @return 完了したモデルのバイト数の合計を、読み込み中だった時間（複数の読み込みが重なっている時間は1回分）で割ったもの（MB/s）
+	 */
+	public synchronized double getMegabytesPerSecond() {
+		var nanos = busyNanos + (loading > 0 ? System.nanoTime() - busyStartNanos : 0);
+		return toMegabytesPerSecond(loadedBytes, nanos);
+	}
+
+	static double toMegabytesPerSecond(long bytes, long nanos) {
+		if (nanos <= 0) {
+			return 0;
+		}
+		return bytes / BYTES_PER_MEGABYTE / (nanos / 1e9);
+	}
+
+	/**
+	 *
+	 * @return 完了したモデルのバイト数の合計
+	 */
+	public synchronized long getLoadedBytes() {
+		return loadedBytes;
+	}
+
+	/**
+	 *
+	 * @return 完了したモデルの数
+	 */
+	public synchronized int getLoadedCount() {
+		return loadedCount;
+	}
+
+	/**
+	 *
+	 * @return 読み込み中のモデルの数
+	 */
+	public synchronized int getLoadingCount() {
+		return loading;
+	}
+
+	public AssetStreamerSettings getSettings() {
+		return settings;
+	}
+
+	/**
+	 * 新しい読み込みを受け付けず、実行中のものが終わるのを待つ
+	 */
+	@Override
+	public void close() throws Exception {
+		// 前の段から順に止める（後ろの段は前の段からキューに入れられるため）
+		readExecutor.shutdown();
+		try {
+			readExecutor.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+			decodeExecutor.shutdown();
+			decodeExecutor.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+			uploadExecutor.shutdown();
+			uploadExecutor.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+		} finally {
+			ExceptionUtils.close(commandPool);
+		}
+	}
+}
@@ -0,0 +1,78 @@
+package lwjgl.ex.vulkan;
+
+public class AssetStreamerSettings {
+	/**
+	 * 同時に読み込むファイル数（仮想スレッドはいくらでも作れるので、ストレージへの同時アクセス数で制限する）
+	 */
+	public static final int DEFAULT_MAX_CONCURRENT_READS = 4;
+
+	/**
+	 * 展開用のキューに入れられる数（画像1枚、または1モデルの頂点が1つ）
+	 * いっぱいの場合は、読み込み段がここで待つ
+	 */
+	public static final int DEFAULT_DECODE_QUEUE_CAPACITY = 64;
+
+	/**
+	 * 展開が終わり、GPUへの送信を待っているモデルの数
+	 * いっぱいの場合は、展開段がここで待つ（展開済みの画像がメモリを使い続けないように少なくする）
+	 */
+	public static final int DEFAULT_UPLOAD_QUEUE_CAPACITY = 2;
+
+	private LogicalDevice logicalDevice;
+	private int maxConcurrentReads = DEFAULT_MAX_CONCURRENT_READS;
+	private int decodeThreads = Runtime.getRuntime().availableProcessors();
+	private int decodeQueueCapacity = DEFAULT_DECODE_QUEUE_CAPACITY;
+	private int uploadQueueCapacity = DEFAULT_UPLOAD_QUEUE_CAPACITY;
+
+	public AssetStreamerSettings(LogicalDevice logicalDevice) {
+		this.logicalDevice = logicalDevice;
+	}
+
+	public LogicalDevice getLogicalDevice() {
+		return logicalDevice;
+	}
+
+	/**
+	 * 転送用のCommandPoolを作成する論理デバイス
+	 * @param logicalDevice
+	 */
+	public void setLogicalDevice(LogicalDevice logicalDevice) {
+		this.logicalDevice = logicalDevice;
+	}
+
+	public int getMaxConcurrentReads() {
+		return maxConcurrentReads;
+	}
+
+	public void setMaxConcurrentReads(int maxConcurrentReads) {
+		this.maxConcurrentReads = maxConcurrentReads;
+	}
+
+	public int getDecodeThreads() {
+		return decodeThreads;
+	}
+
+	/**
+	 *
+	 * @param decodeThreads 描画スレッドの分を空けたい場合は、コア数より少なくする
+	 */
+	public void setDecodeThreads(int decodeThreads) {
+		this.decodeThreads = decodeThreads;
+	}
+
+	public int getDecodeQueueCapacity() {
+		return decodeQueueCapacity;
+	}
+
+	public void setDecodeQueueCapacity(int decodeQueueCapacity) {
+		this.decodeQueueCapacity = decodeQueueCapacity;
+	}
+
+	public int getUploadQueueCapacity() {
+		return uploadQueueCapacity;
+	}
+
+	public void setUploadQueueCapacity(int uploadQueueCapacity) {
+		this.uploadQueueCapacity = uploadQueueCapacity;
+	}
+}
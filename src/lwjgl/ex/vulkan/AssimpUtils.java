@@ -5,15 +5,29 @@ import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
 
 import javax.imageio.ImageIO;
 
-import org.lwjgl.PointerBuffer;
+import org.lwjgl.assimp.AIMaterial;
 import org.lwjgl.assimp.AIScene;
+import org.lwjgl.assimp.AIString;
 import org.lwjgl.assimp.AITexture;
+import org.lwjgl.assimp.Assimp;
+import org.lwjgl.system.MemoryStack;
 
 import motopgi.utils.AutoCloseableList;
 import motopgi.utils.ByteBufferInputStream;
@@ -23,37 +37,486 @@ import static lwjgl.ex.vulkan.VulkanConstants.*;
 public final class AssimpUtils {
 //	public static final String IMAGE_FORMAT_BMP = "BMP";
 
+	/**
+	 * マテリアルの画像として探す種類（glTFのbaseColorTextureはBASE_COLOR、それ以外はDIFFUSEになることが多い）
+	 */
+	private static final int[] MATERIAL_TEXTURE_TYPES = {Assimp.aiTextureType_BASE_COLOR, Assimp.aiTextureType_DIFFUSE};
+	
+	/**
+	 * 埋め込まれた画像を参照する場合のパスは"*" + mTexturesのindex
+	 */
+	private static final String EMBEDDED_TEXTURE_PREFIX = "*";
+
 	private AssimpUtils() {
 	}
 	// https://the-asset-importer-lib-documentation.readthedocs.io/en/latest/usage/use_the_lib.html#textures
 	// This applies if aiTexture::mHeight == 0 is fulfilled. Then, the texture is stored in a compressed format such as DDS or PNG. The term “compressed” does not mean that the texture data must actually be compressed, however, the texture was found in the model file as if it was stored in a separate file on the hard disk. Appropriate decoders (such as libjpeg, libpng, D3DX, DevIL) are required to load these textures. aiTexture::mWidth specifies the size of the texture data in bytes, aiTexture::pcData is a pointer to the raw image data and aiTexture::achFormatHint is either zeroed or contains the most common file extension of the embedded texture’s format. This value is only set if Assimp is able to determine the file format.
 	
+	/**
+	 * 埋め込まれた画像からTextureを作成
+	 * 非圧縮（aiTexel）のものは展開せずにそのまま送る
+	 * @param scene Textureの作成が終わるまで参照する
+	 * @param logicalDevice
+	 * @param commandPool
+	 * @param queue
+	 * @param uniformObject
+	 * @return
+	 */
 	public static AutoCloseableList<Texture> readTextures(AIScene scene, LogicalDevice logicalDevice, CommandPool commandPool, Queue queue, UniformBufferObject uniformObject) {
+		return uploadTextures(loadTextures(scene, null, logicalDevice, true), logicalDevice, commandPool, queue, uniformObject);
+	}
+	
+	/**
+	 * 埋め込まれた画像と、マテリアルが参照する外部の画像ファイルからTextureを作成
+	 * 同じ内容の画像は、TextureCacheで他のモデルとも共有する
+	 * @param scene Textureの作成が終わるまで参照する
+	 * @param modelPath 外部の画像ファイルは、このファイルのディレクトリからの相対パス
+	 * @param logicalDevice
+	 * @param commandPool
+	 * @param queue
+	 * @param uniformObject
+	 * @return 埋め込まれた画像（scene.mTexturesの順）の後に、getExternalTexturePathsの順
+	 */
+	public static AutoCloseableList<Texture> readTextures(AIScene scene, Path modelPath, LogicalDevice logicalDevice, CommandPool commandPool, Queue queue, UniformBufferObject uniformObject) {
+		return uploadTextures(loadTextures(scene, modelPath, logicalDevice, true), logicalDevice, commandPool, queue, uniformObject);
+	}
+	
+	/**
+	 * 圧縮された画像（PNGなど）からTextureを作成
+	 * 展開とミップマップの生成は並列で行い、GPUへの送信は呼び出し元のスレッドで順に行う
+	 * 同じ内容の画像は、TextureCacheで他のモデルとも共有する
+	 * @param compressedTextures
+	 * @param logicalDevice
+	 * @param commandPool
+	 * @param queue
+	 * @param uniformObject
+	 * @return
+	 */
+	public static AutoCloseableList<Texture> readTextures(List<ByteBuffer> compressedTextures, LogicalDevice logicalDevice, CommandPool commandPool, Queue queue, UniformBufferObject uniformObject) {
+		return uploadTextures(loadTextures(compressedTextures, logicalDevice, ForkJoinPool.commonPool()), logicalDevice, commandPool, queue, uniformObject);
+	}
+	
+	/**
+	 * 圧縮された画像（PNG、KTX2など）の展開を開始する
+	 * TextureCacheにあるものは展開しない
+	 * @param compressedTextures
+	 * @param logicalDevice
+	 * @param executor 展開を行うExecutor
+	 * @return compressedTexturesと同じ順序
+	 */
+	public static List<CompletableFuture<PendingTexture>> loadTextures(List<ByteBuffer> compressedTextures, LogicalDevice logicalDevice, Executor executor) {
+		var futures = new ArrayList<CompletableFuture<PendingTexture>>(compressedTextures.size());
+		for(var compressed: compressedTextures) {
+			futures.add(CompletableFuture.supplyAsync(() -> PendingTexture.decode(compressed, logicalDevice, true), executor));
+		}
+		return futures;
+	}
+	
+	/**
+	 * 埋め込まれた画像と外部の画像ファイルの、読み込みと展開を開始する
+	 * TextureCacheにあるものは展開しない
+	 * @param scene 戻り値が参照するので、closeまで解放しないこと
+	 * @param modelPath nullの場合は、外部の画像ファイルを読み込まない
+	 * @param logicalDevice
+	 * @param parallel ForkJoinPool.commonPoolで並列に行うか。falseの場合は、このメソッド内で順に行う
+	 * @return 埋め込まれた画像（scene.mTexturesの順）の後に、getExternalTexturePathsの順
+	 */
+	public static List<CompletableFuture<PendingTexture>> loadTextures(AIScene scene, Path modelPath, LogicalDevice logicalDevice, boolean parallel) {
+		// ファイルの読み込みも展開もCPUのみで完結するので、コア数分並列にできる
+		return loadTextures(scene, modelPath, logicalDevice, parallel ? ForkJoinPool.commonPool() : Runnable::run);
+	}
+	
+	/**
+	 * 埋め込まれた画像と外部の画像ファイルの、読み込みと展開を開始する
+	 * TextureCacheにあるものは展開しない
+	 * @param scene 戻り値が参照するので、closeまで解放しないこと
+	 * @param modelPath nullの場合は、外部の画像ファイルを読み込まない
+	 * @param logicalDevice
+	 * @param executor 読み込みと展開を行うExecutor（AssetStreamerでは展開用のスレッドプール）
+	 * @return 埋め込まれた画像（scene.mTexturesの順）の後に、getExternalTexturePathsの順
+	 */
+	public static List<CompletableFuture<PendingTexture>> loadTextures(AIScene scene, Path modelPath, LogicalDevice logicalDevice, Executor executor) {
+		var futures = new ArrayList<CompletableFuture<PendingTexture>>();
+		int numTextures = scene.mNumTextures();
+		for(int i = 0; i < numTextures; ++i) {
+			var texture = AITexture.create(scene.mTextures().get(i));
+			if (texture.mHeight() == 0) {
+				var compressed = texture.pcDataCompressed();
+				futures.add(CompletableFuture.supplyAsync(() -> PendingTexture.decode(compressed, logicalDevice, true), executor));
+			}
+			else {
+				// 非圧縮のものは内容のハッシュを求める方が遅いので、キャッシュしない
+				futures.add(CompletableFuture.supplyAsync(() -> new PendingTexture(MipmapGenerator.withMipmaps(new TexelTextureSource(texture))), executor));
+			}
+		}
+		if (modelPath != null) {
+			for(var path: getExternalTexturePaths(scene, modelPath)) {
+				futures.add(CompletableFuture.supplyAsync(() -> PendingTexture.load(path, logicalDevice, true), executor));
+			}
+		}
+		return futures;
+	}
+	
+	/**
+	 * 圧縮された画像（PNGなど）の展開を開始する
+	 * @param compressedTextures
+	 * @param parallel ForkJoinPool.commonPoolで並列に展開するか。falseの場合は、このメソッド内で順に展開する
+	 * @return compressedTexturesと同じ順序
+	 */
+	public static List<CompletableFuture<TextureSource>> decodeTextures(List<ByteBuffer> compressedTextures, boolean parallel) {
+		return decodeTextures(compressedTextures, parallel, false);
+	}
+	
+	/**
+	 * 圧縮された画像（PNGなど）の展開を開始する
+	 * @param compressedTextures
+	 * @param parallel ForkJoinPool.commonPoolで並列に展開するか。falseの場合は、このメソッド内で順に展開する
+	 * @param generateMipmaps 展開と同じスレッドで、ミップマップの全段を生成するか（KTX2など、ミップマップを含むものはそのまま）
+	 * @return compressedTexturesと同じ順序
+	 */
+	public static List<CompletableFuture<TextureSource>> decodeTextures(List<ByteBuffer> compressedTextures, boolean parallel, boolean generateMipmaps) {
+		// 展開（PNGの場合はinflate）はCPUのみで完結するので、コア数分並列にできる
+		Executor executor = parallel ? ForkJoinPool.commonPool() : Runnable::run;
+		var futures = new ArrayList<CompletableFuture<TextureSource>>(compressedTextures.size());
+		for(var compressed: compressedTextures) {
+			futures.add(decodeTexture(() -> decodeTexture(compressed), executor, generateMipmaps));
+		}
+		return futures;
+	}
+	
+	/**
+	 * 埋め込まれた画像の展開を開始する
+	 * 非圧縮（aiTexture::mHeight != 0）のものは展開しない
+	 * @param scene 戻り値のTextureSourceが参照するので、closeまで解放しないこと
+	 * @param parallel ForkJoinPool.commonPoolで並列に展開するか。falseの場合は、このメソッド内で順に展開する
+	 * @param generateMipmaps 展開と同じスレッドで、ミップマップの全段を生成するか
+	 * @return scene.mTexturesと同じ順序
+	 */
+	public static List<CompletableFuture<TextureSource>> decodeTextures(AIScene scene, boolean parallel, boolean generateMipmaps) {
+		Executor executor = parallel ? ForkJoinPool.commonPool() : Runnable::run;
+		int numTextures = scene.mNumTextures();
+		var futures = new ArrayList<CompletableFuture<TextureSource>>(numTextures);
+		for(int i = 0; i < numTextures; ++i) {
+			var texture = AITexture.create(scene.mTextures().get(i));
+			if (texture.mHeight() == 0) {
+				var compressed = texture.pcDataCompressed();
+				futures.add(decodeTexture(() -> decodeTexture(compressed), executor, generateMipmaps));
+			}
+			else {
+				futures.add(decodeTexture(() -> new TexelTextureSource(texture), executor, generateMipmaps));
+			}
+		}
+		return futures;
+	}
+	
+	private static CompletableFuture<TextureSource> decodeTexture(Supplier<TextureSource> decoder, Executor executor, boolean generateMipmaps) {
+		return CompletableFuture.supplyAsync(() -> {
+			var source = decoder.get();
+			return generateMipmaps ? MipmapGenerator.withMipmaps(source) : source;
+		}, executor);
+	}
+	
+	/**
+	 * 展開が終わったものから順にTextureを作成する
+	 * （コピーはStagingRingに記録し、最後にまとめてsubmitする。完了は待たない）
+	 * @param pendings loadTexturesなどの戻り値。例外の場合も含めて、全てcloseされる
+	 * @param logicalDevice
+	 * @param commandPool
+	 * @param queue
+	 * @param uniformObject
+	 * @return
+	 */
+	public static AutoCloseableList<Texture> uploadTextures(List<CompletableFuture<PendingTexture>> pendings, LogicalDevice logicalDevice, CommandPool commandPool, Queue queue, UniformBufferObject uniformObject) {
 		var list = new AutoCloseableList<Texture>();
+		var i = 0;
+		try {
+			for(; i < pendings.size(); ++i) {
+				try (var pending = join(pendings.get(i))) {
+					list.add(pending.create(logicalDevice, commandPool, queue, uniformObject));
+				}
+			}
+			// 全てのTextureのコピーを、まとめて1回で送る
+			logicalDevice.getStagingRing().submit();
+			return list;
+		} catch (RuntimeException e) {
+			// 残りは展開が終わった時点で解放する
+			for(int j = i + 1; j < pendings.size(); ++j) {
+				pendings.get(j).thenAccept(PendingTexture::close);
+			}
+			try {
+				// 記録済みのコピーが終わってから解放する
+				logicalDevice.getStagingRing().finish();
+				list.close();
+			} catch (Exception ex) {
+				e.addSuppressed(ex);
+			}
+			throw e;
+		}
+	}
+	
+	/**
+	 * 圧縮された画像（PNGなど）を展開し、ミップマップを生成してBCnのKTX2にする（ビルド時用）
+	 * @param compressedTextures
+	 * @param compression
+	 * @return KTX2のファイルの内容（ヒープ）
+	 */
+	public static List<ByteBuffer> encodeTextures(List<ByteBuffer> compressedTextures, TextureCompression compression) {
+		return encodeSources(decodeTextures(compressedTextures, true), compression);
+	}
+	
+	/**
+	 * 埋め込まれた画像（非圧縮のものを含む）から、ミップマップを生成してBCnのKTX2にする（ビルド時用）
+	 * @param scene
+	 * @param compression
+	 * @return KTX2のファイルの内容（ヒープ）
+	 */
+	public static List<ByteBuffer> encodeTextures(AIScene scene, TextureCompression compression) {
+		return encodeSources(decodeTextures(scene, true, false), compression);
+	}
+	
+	/**
+	 * 埋め込まれた画像と外部の画像ファイルから、ミップマップを生成してBCnのKTX2にする（ビルド時用）
+	 * @param scene
+	 * @param modelPath
+	 * @param compression
+	 * @return 埋め込まれた画像の後に、getExternalTexturePathsの順
+	 * @throws IOException
+	 */
+	public static List<ByteBuffer> encodeTextures(AIScene scene, Path modelPath, TextureCompression compression) throws IOException {
+		var files = readTextureFiles(getExternalTexturePaths(scene, modelPath));
+		var sources = decodeTextures(scene, true, false);
+		sources.addAll(decodeTextures(files, true));
+		return encodeSources(sources, compression);
+	}
+	
+	private static List<ByteBuffer> encodeSources(List<CompletableFuture<TextureSource>> sources, TextureCompression compression) {
+		var list = new ArrayList<ByteBuffer>(sources.size());
+		for(int i = 0; i < sources.size(); ++i) {
+			try (var source = join(sources.get(i))) {
+				list.add(Ktx2.encode(source, compression));
+			} catch (RuntimeException e) {
+				for(int j = i + 1; j < sources.size(); ++j) {
+					sources.get(j).thenAccept(TextureSource::close);
+				}
+				throw e;
+			}
+		}
+		return list;
+	}
+	
+	/**
+	 * CompletionExceptionを、元の例外に戻す
+	 * @param <T>
+	 * @param future
+	 * @return
+	 */
+	public static <T> T join(CompletableFuture<T> future) {
+		try {
+			return future.join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof RuntimeException cause) {
+				throw cause;
+			}
+			throw e;
+		}
+	}
+	
+	/**
+	 * 圧縮された画像（PNGなど）を展開する
+	 * stb_imageでネイティブメモリに直接展開し、展開できない形式の場合のみImageIOを使う
+	 * @param compressed 読み込み位置は変更しない
+	 * @return closeは呼び出し側で行う
+	 */
+	public static TextureSource decodeTexture(ByteBuffer compressed) {
+		// BakedModelに保存したBCnは展開せずに送る
+		if (Ktx2.isKtx2(compressed)) {
+			return new Ktx2TextureSource(compressed);
+		}
+		var source = StbTextureSource.decode(compressed);
+		if (source != null) {
+			return source;
+		}
+		try {
+			var image = ImageIO.read(new ByteBufferInputStream(compressed.duplicate()));
+			if (image == null) {
+				throw new RuntimeException("Textureの形式に対応していません " + StbTextureSource.getFailureReason());
+			}
+			return new AwtTextureSource(image);
+		}
+		// ByteBufferからの読み込みなので、基本的には例外でないはず
+		catch (IOException e) {
+			throw new RuntimeException("Texture読み込みエラー", e);
+		}
+	}
+	
+	/**
+	 * 埋め込まれた圧縮画像（PNGなど）を展開せずに取得
+	 * @param scene
+	 * @return AISceneのメモリを参照しているので、AISceneの解放後は使用不可
+	 */
+	public static List<ByteBuffer> getCompressedTextures(AIScene scene) {
 		int numTextures = scene.mNumTextures();
+		var list = new ArrayList<ByteBuffer>(numTextures);
         for(int i = 0; i < numTextures; ++i) {
         	// Assimpの設計ミスにより、画像が圧縮されている場合は
         	// 幅にサイズ、高さが0になる
         	var texture = AITexture.create(scene.mTextures().get(i));
         	if (texture.mHeight() != 0) {
-        		// 圧縮されていない場合は未実装
-        		throw new RuntimeException("Textureが圧縮されたいない場合は未実装");
-        	}
-        	
-        	// 圧縮された画像を展開
-        	try {
-        		var image = ImageIO.read(new ByteBufferInputStream(texture.pcDataCompressed()));        		
-        		list.add(new Texture(image, logicalDevice, commandPool, queue, uniformObject));
+        		// 非圧縮の場合はByteBufferだけでは幅と高さがわからない（decodeTextures(AIScene)を使う）
+        		throw new RuntimeException("非圧縮のTextureは圧縮画像として取得できません");
         	}
-        	// ByteBufferからの読み込みなので、基本的には例外でないはず
-        	catch (IOException e) {
-        		throw new RuntimeException("Texture読み込みエラー", e);
-        	}
-        	
+        	list.add(texture.pcDataCompressed());
         }
 		return list;
 	}
 	
+	/**
+	 * 埋め込まれた圧縮画像と、外部の画像ファイルの内容を展開せずに取得（ビルド時用）
+	 * @param scene
+	 * @param modelPath
+	 * @return 埋め込まれた画像の後に、getExternalTexturePathsの順
+	 * @throws IOException
+	 */
+	public static List<ByteBuffer> getCompressedTextures(AIScene scene, Path modelPath) throws IOException {
+		var list = getCompressedTextures(scene);
+		list.addAll(readTextureFiles(getExternalTexturePaths(scene, modelPath)));
+		return list;
+	}
+	
+	/**
+	 * 
+	 * @param paths
+	 * @return ファイルの内容（ヒープ）
+	 * @throws IOException
+	 */
+	public static List<ByteBuffer> readTextureFiles(List<Path> paths) throws IOException {
+		var list = new ArrayList<ByteBuffer>(paths.size());
+		for(var path: paths) {
+			list.add(ByteBuffer.wrap(Files.readAllBytes(path)));
+		}
+		return list;
+	}
+	
+	/**
+	 * マテリアルが参照する外部の画像ファイル（ベースカラー、なければディフューズ）
+	 * @param scene
+	 * @param modelPath 画像ファイルは、このファイルのディレクトリからの相対パス
+	 * @return 重複を除いて、マテリアルの順
+	 */
+	public static List<Path> getExternalTexturePaths(AIScene scene, Path modelPath) {
+		var paths = new ArrayList<Path>();
+		for(int i = 0; i < scene.mNumMaterials(); ++i) {
+			var path = getExternalTexturePath(scene, i, modelPath);
+			if (path != null && !paths.contains(path)) {
+				paths.add(path);
+			}
+		}
+		return paths;
+	}
+	
+	/**
+	 * マテリアルごとに、readTextures(AIScene, Path, ...)の戻り値のどれを使うか
+	 * @param scene
+	 * @param modelPath
+	 * @return マテリアルの順。画像がないマテリアルは-1
+	 */
+	public static int[] getMaterialTextureIndices(AIScene scene, Path modelPath) {
+		var externalPaths = getExternalTexturePaths(scene, modelPath);
+		var indices = new int[scene.mNumMaterials()];
+		for(int i = 0; i < indices.length; ++i) {
+			var name = getMaterialTextureName(scene, i);
+			if (name == null) {
+				indices[i] = -1;
+				continue;
+			}
+			var embedded = getEmbeddedTextureIndex(scene, name);
+			if (embedded >= 0) {
+				indices[i] = embedded;
+				continue;
+			}
+			indices[i] = scene.mNumTextures() + externalPaths.indexOf(resolveTexturePath(modelPath, name));
+		}
+		return indices;
+	}
+	
+	private static Path getExternalTexturePath(AIScene scene, int materialIndex, Path modelPath) {
+		var name = getMaterialTextureName(scene, materialIndex);
+		if (name == null || getEmbeddedTextureIndex(scene, name) >= 0) {
+			return null;
+		}
+		return resolveTexturePath(modelPath, name);
+	}
+	
+	/**
+	 * 
+	 * @param scene
+	 * @param materialIndex
+	 * @return マテリアルの画像のパス（埋め込みの場合は"*0"など）。ない場合はnull
+	 */
+	private static String getMaterialTextureName(AIScene scene, int materialIndex) {
+		var material = AIMaterial.create(scene.mMaterials().get(materialIndex));
+		try (var stack = MemoryStack.stackPush()) {
+			var path = AIString.malloc(stack);
+			for(var type: MATERIAL_TEXTURE_TYPES) {
+				if (Assimp.aiGetMaterialTexture(material, type, 0, path, (IntBuffer) null, null, null, null, null, null) == Assimp.aiReturn_SUCCESS
+						&& path.length() > 0) {
+					return path.dataString();
+				}
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * 
+	 * @param scene
+	 * @param name マテリアルの画像のパス
+	 * @return 埋め込まれていない場合は-1
+	 */
+	private static int getEmbeddedTextureIndex(AIScene scene, String name) {
+		// "*0"の形式（glTFのbufferViewなど）
+		if (name.startsWith(EMBEDDED_TEXTURE_PREFIX)) {
+			int index;
+			try {
+				index = Integer.parseInt(name.substring(EMBEDDED_TEXTURE_PREFIX.length()));
+			} catch (NumberFormatException e) {
+				return -1;
+			}
+			// mTexturesの範囲外を読まないように
+			if (index < 0 || index >= scene.mNumTextures()) {
+				return -1;
+			}
+			return index;
+		}
+		// ファイル名で埋め込まれている場合（FBXなど）
+		var texture = Assimp.aiGetEmbeddedTexture(scene, name);
+		if (texture == null) {
+			return -1;
+		}
+		for(int i = 0; i < scene.mNumTextures(); ++i) {
+			if (scene.mTextures().get(i) == texture.address()) {
+				return i;
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * glTFのURIは%エンコードされているので、そのままで存在しない場合は戻す
+	 */
+	private static Path resolveTexturePath(Path modelPath, String name) {
+		var directory = modelPath.toAbsolutePath().getParent();
+		var path = directory.resolve(name).normalize();
+		if (!Files.exists(path) && name.indexOf('%') >= 0) {
+			// URLDecoderは+を空白にするが、URIでは+のまま
+			var decoded = directory.resolve(URLDecoder.decode(name.replace("+", "%2B"), StandardCharsets.UTF_8)).normalize();
+			if (Files.exists(decoded)) {
+				return decoded;
+			}
+		}
+		return path;
+	}
+	
 //	public static byte[] toBMPArray(BufferedImage image) {
 //		System.out.println("toBMPArray width " + image.getWidth() + " height " + image.getHeight());
 ////		var size = image.getWidth() * image.getHeight() * RGBA_BYTES;
@@ -77,25 +540,4 @@ public final class AssimpUtils {
 //		return array;
 //	}
 	
-	public static int calcSize(BufferedImage image) {
-		return ARGB_BYTES * image.getWidth() * image.getHeight();
-	}
-	
-	public static void writeImageToPointer(BufferedImage image, PointerBuffer destination) {
-		// 本来は、フォーマットごとへの対応が必要だが、諦める
-		// 現状、VK_FORMAT_B8G8R8A8_SRGB でしか動作しない
-		
-		var size = image.getWidth() * image.getHeight();
-		var destinationBytes = destination.getIntBuffer(size);
-		
-		for (int y = 0; y < image.getHeight(); ++y) {
-			for(int x = 0; x < image.getWidth(); ++x) {				
-				// getRGBはTYPE_INT_ARGBフォーマット
-				// https://docs.oracle.com/javase/jp/24/docs/api/java.desktop/java/awt/image/BufferedImage.html#getRGB(int,int)
-				// リトルエンディアンなのでBGRAの順序で送られる
-				destinationBytes.put(image.getRGB(x, y));
-			}
-		}
-	}
-
 }
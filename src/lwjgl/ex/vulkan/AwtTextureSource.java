@@ -0,0 +1,87 @@
+package lwjgl.ex.vulkan;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+
+import static org.lwjgl.system.MemoryUtil.*;
+
+/**
+ * BufferedImageのTextureSource
+ * stb_imageで展開できない形式の場合に使う
+ *
+ * getRGBは1ピクセルごとに色変換を行うので遅い
+ * TYPE_INT_ARGBのDataBufferを、行単位でそのままコピーする
+ */
+public class AwtTextureSource implements TextureSource {
+	/**
+	 * TYPE_INT_ARGBのintは、リトルエンディアンではBGRAの順で並ぶ
+	 */
+	public static final int FORMAT = ImageViewSettings.DEFAULT_FORMAT;
+
+	private BufferedImage image;
+
+	/**
+	 *
+	 * @param image TYPE_INT_ARGB以外の場合は、最初に1回だけ変換する
+	 */
+	public AwtTextureSource(BufferedImage image) {
+		this.image = toIntArgb(image);
+	}
+
+	private static BufferedImage toIntArgb(BufferedImage image) {
+		if (image.getType() == BufferedImage.TYPE_INT_ARGB) {
+			return image;
+		}
+		// drawImageはまとめて変換されるので、getRGBよりずっと速い
+		var converted = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_ARGB);
+		var graphics = converted.createGraphics();
+		try {
+			graphics.drawImage(image, 0, 0, null);
+		} finally {
+			graphics.dispose();
+		}
+		return converted;
+	}
+
+	@Override
+	public int getWidth() {
+		return image.getWidth();
+	}
+
+	@Override
+	public int getHeight() {
+		return image.getHeight();
+	}
+
+	@Override
+	public int getFormat() {
+		return FORMAT;
+	}
+
+	@Override
+	public void write(long address) {
+		var raster = image.getRaster();
+		var data = ((DataBufferInt) raster.getDataBuffer()).getData();
+		// getSubimageの場合は、元の画像のDataBufferを共有しているので、行の長さと開始位置が異なる
+		var scanlineStride = ((SinglePixelPackedSampleModel) raster.getSampleModel()).getScanlineStride();
+		var offset = raster.getDataBuffer().getOffset()
+				- raster.getSampleModelTranslateY() * scanlineStride
+				- raster.getSampleModelTranslateX();
+		var width = getWidth();
+		var height = getHeight();
+		if (scanlineStride == width) {
+			memIntBuffer(address, width * height).put(data, offset, width * height);
+			return;
+		}
+		var rowBytes = (long) Texture.PIXEL_BYTES * width;
+		for (int y = 0; y < height; ++y) {
+			memIntBuffer(address + rowBytes * y, width).put(data, offset + scanlineStride * y, width);
+		}
+	}
+
+	@Override
+	public void close() {
+		// ヒープ上のデータなので、何もしない
+	}
+}
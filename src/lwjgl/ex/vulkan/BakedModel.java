@@ -0,0 +1,545 @@
+package lwjgl.ex.vulkan;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.lwjgl.assimp.Assimp;
+import org.lwjgl.system.MemoryUtil;
+
+import motopgi.utils.FloatVector3;
+import motopgi.utils.MappedFile;
+
+import static org.lwjgl.vulkan.VK14.*;
+
+/**
+ * GPUに書く形式のまま保存した中間ファイル
+ * 1つのファイルをメモリマップして、StagingBufferへそのままコピーできるようにする
+ *
+ * 形式（リトルエンディアン）
+ * int  magic "BMSH"
+ * int  version
+ * int  1頂点のバイト数
+ * int  頂点数
+ * int  1indexのバイト数（2または4）
+ * int  index数
+ * int  テクスチャ数
+ * int  頂点の型（座標のVertexAttributeType | テクスチャ座標のVertexAttributeType << 8）
+ * long 頂点の位置
+ * long indexの位置
+ * long テクスチャ表の位置（テクスチャごとに long 位置, long バイト数。内容はPNGなどの画像、またはKTX2）
+ * float×3 量子化した座標を戻すためのoffset
+ * float 量子化した座標を戻すためのscale
+ * int  描画範囲の数
+ * int  マテリアル数
+ * long 描画範囲表の位置（範囲ごとに int firstIndex, int indexCount, int vertexOffset）
+ * long マテリアル表の位置（マテリアルごとに int テクスチャのindex。画像がない場合は-1）
+ * int  SubMeshの数
+ * int  （未使用）
+ * long SubMesh表の位置（SubMeshごとに int firstIndex, int indexCount, int マテリアルのindex）
+ * 以降、各データ（ALIGNMENTバイト境界）
+ */
+public class BakedModel implements AutoCloseable {
+	public static final int MAGIC = 'B' | 'M' << 8 | 'S' << 16 | 'H' << 24;
+	public static final int VERSION = 5;
+	public static final int HEADER_BYTES = 112;
+	
+	private static final int TYPE_BITS = 8;
+	private static final int TYPE_MASK = (1 << TYPE_BITS) - 1;
+
+	/**
+	 * 各データの境界
+	 */
+	public static final int ALIGNMENT = 16;
+
+	/**
+	 * テクスチャ表の1要素（位置とバイト数）
+	 */
+	public static final int TEXTURE_ENTRY_BYTES = Long.BYTES * 2;
+
+	/**
+	 * 描画範囲表の1要素
+	 */
+	public static final int RANGE_ENTRY_BYTES = Integer.BYTES * 3;
+
+	/**
+	 * SubMesh表の1要素
+	 */
+	public static final int SUBMESH_ENTRY_BYTES = Integer.BYTES * 3;
+
+	/**
+	 * 拡張子の例
+	 */
+	public static final String EXTENSION = ".bmesh";
+
+	private final MappedFile file;
+	private final int vertexStride;
+	private final int vertexCount;
+	private final int indexStride;
+	private final int indexCount;
+	private final long vertexOffset;
+	private final long indexOffset;
+	private final VertexAttributeType positionType;
+	private final VertexAttributeType textureCoordType;
+	private final FloatVector3 dequantizeOffset;
+	private final float dequantizeScale;
+	private final List<DrawRange> drawRanges;
+	private final List<SubMesh> subMeshes;
+	private final List<ByteBuffer> textures;
+	private final int[] materialTextureIndices;
+
+	/**
+	 * 先頭のmagicのみを読み、BakedModelの形式か判定する
+	 * @param path
+	 * @return
+	 * @throws IOException
+	 */
+	public static boolean isBakedModel(Path path) throws IOException {
+		try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			var magic = ByteBuffer.allocate(Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+			while (magic.hasRemaining()) {
+				if (channel.read(magic) < 0) {
+					return false;
+				}
+			}
+			return magic.getInt(0) == MAGIC;
+		}
+	}
+
+	/**
+	 * メモリマップして開く
+	 * @param path
+	 * @throws IOException
+	 * @throws IllegalArgumentException 形式が異なる場合
+	 */
+	public BakedModel(Path path) throws IOException {
+		// GPUへそのままコピーするので、ファイルとメモリのバイト順が一致している必要がある
+		if (ByteOrder.nativeOrder() != ByteOrder.LITTLE_ENDIAN) {
+			throw new UnsupportedOperationException("ビッグエンディアン環境には未対応です");
+		}
+		file = new MappedFile(path);
+		try {
+			if (file.size() < HEADER_BYTES) {
+				throw new IllegalArgumentException("BakedModelの形式ではありません " + path);
+			}
+			var header = file.asByteBuffer(0, HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+			if (header.getInt() != MAGIC) {
+				throw new IllegalArgumentException("BakedModelの形式ではありません " + path);
+			}
+			var version = header.getInt();
+			if (version != VERSION) {
+				throw new IllegalArgumentException("BakedModelのバージョンが異なります " + version + " " + path);
+			}
+			vertexStride = header.getInt();
+			vertexCount = header.getInt();
+			indexStride = header.getInt();
+			indexCount = header.getInt();
+			var textureCount = header.getInt();
+			var types = header.getInt();
+			vertexOffset = header.getLong();
+			indexOffset = header.getLong();
+			var textureTableOffset = header.getLong();
+			dequantizeOffset = new FloatVector3(header.getFloat(), header.getFloat(), header.getFloat());
+			dequantizeScale = header.getFloat();
+			var rangeCount = header.getInt();
+			var materialCount = header.getInt();
+			var rangeTableOffset = header.getLong();
+			var materialTableOffset = header.getLong();
+			var subMeshCount = header.getInt();
+			header.getInt();
+			var subMeshTableOffset = header.getLong();
+			
+			var typeValues = VertexAttributeType.values();
+			var positionOrdinal = types & TYPE_MASK;
+			var textureCoordOrdinal = (types >>> TYPE_BITS) & TYPE_MASK;
+			if (positionOrdinal >= typeValues.length || textureCoordOrdinal >= typeValues.length) {
+				throw new IllegalArgumentException("BakedModelが壊れています " + path);
+			}
+			positionType = typeValues[positionOrdinal];
+			textureCoordType = typeValues[textureCoordOrdinal];
+			if (vertexStride != VertexEncoder.getStride(positionType, textureCoordType)) {
+				throw new IllegalArgumentException("BakedModelが壊れています " + path);
+			}
+
+			// マップした領域を直接読むので、負の値や範囲外を全て弾く
+			var size = file.size();
+			if ((indexStride != Short.BYTES && indexStride != Integer.BYTES)
+					|| rangeCount < 1
+					|| !isInside(indexOffset, indexCount, indexStride, size)
+					|| !isInside(vertexOffset, vertexCount, vertexStride, size)
+					|| !isInside(textureTableOffset, textureCount, TEXTURE_ENTRY_BYTES, size)
+					|| !isInside(rangeTableOffset, rangeCount, RANGE_ENTRY_BYTES, size)
+					|| !isInside(materialTableOffset, materialCount, Integer.BYTES, size)
+					|| !isInside(subMeshTableOffset, subMeshCount, SUBMESH_ENTRY_BYTES, size)) {
+				throw new IllegalArgumentException("BakedModelが壊れています " + path);
+			}
+
+			drawRanges = new ArrayList<>(rangeCount);
+			var rangeTable = file.asByteBuffer(rangeTableOffset, (long) RANGE_ENTRY_BYTES * rangeCount).order(ByteOrder.LITTLE_ENDIAN);
+			for (int i = 0; i < rangeCount; ++i) {
+				var range = new DrawRange(rangeTable.getInt(), rangeTable.getInt(), rangeTable.getInt());
+				if (range.getFirstIndex() < 0 || range.getIndexCount() < 0
+						|| (long) range.getFirstIndex() + range.getIndexCount() > indexCount
+						|| range.getVertexOffset() < 0 || range.getVertexOffset() > vertexCount) {
+					throw new IllegalArgumentException("BakedModelが壊れています " + path);
+				}
+				drawRanges.add(range);
+			}
+
+			subMeshes = new ArrayList<>(subMeshCount);
+			var subMeshTable = file.asByteBuffer(subMeshTableOffset, (long) SUBMESH_ENTRY_BYTES * subMeshCount).order(ByteOrder.LITTLE_ENDIAN);
+			for (int i = 0; i < subMeshCount; ++i) {
+				var subMesh = new SubMesh(subMeshTable.getInt(), subMeshTable.getInt(), subMeshTable.getInt());
+				if (subMesh.getFirstIndex() < 0 || subMesh.getIndexCount() < 0
+						|| (long) subMesh.getFirstIndex() + subMesh.getIndexCount() > indexCount) {
+					throw new IllegalArgumentException("BakedModelが壊れています " + path);
+				}
+				subMeshes.add(subMesh);
+			}
+
+			materialTextureIndices = new int[materialCount];
+			file.asByteBuffer(materialTableOffset, (long) Integer.BYTES * materialCount).order(ByteOrder.LITTLE_ENDIAN)
+					.asIntBuffer().get(materialTextureIndices);
+
+			textures = new ArrayList<>(textureCount);
+			var table = file.asByteBuffer(textureTableOffset, (long) TEXTURE_ENTRY_BYTES * textureCount).order(ByteOrder.LITTLE_ENDIAN);
+			for (int i = 0; i < textureCount; ++i) {
+				var offset = table.getLong();
+				var length = table.getLong();
+				if (!isInside(offset, length, 1, size)) {
+					throw new IllegalArgumentException("BakedModelが壊れています " + path);
+				}
+				textures.add(file.asByteBuffer(offset, length));
+			}
+		} catch (RuntimeException e) {
+			file.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * 
+	 * @param offset ヘッダーより後であること
+	 * @param count
+	 * @param stride
+	 * @param size ファイルのバイト数
+	 * @return offsetからstride × countバイトがファイル内に収まるか（offset + バイト数はあふれる可能性があるので引き算で比較する）
+	 */
+	private static boolean isInside(long offset, long count, long stride, long size) {
+		return count >= 0 && offset >= HEADER_BYTES && offset <= size - stride * count;
+	}
+
+	/**
+	 * モデルファイルを読み込んでBakedModelとして保存する
+	 * （Vulkanのデバイスは不要）
+	 * @param bakedPath
+	 * @param settings ジオメトリに関する設定のみ使用（デバイスなどはnullで良い）
+	 * @return 頂点の結合、並べ替えの結果
+	 * @throws IOException
+	 */
+	public static GeometryImport bake(Path bakedPath, ModelSettings settings) throws IOException {
+		var modelPath = settings.getModelPath();
+		var scene = Assimp.aiImportFile(modelPath.toString(), settings.getImportFileFlag());
+		if (scene == null) {
+			throw new IOException("モデルの読み込みに失敗しました " + modelPath + " " + Assimp.aiGetErrorString());
+		}
+		try {
+			var geometryImport = new GeometryImport(scene, settings);
+			var encoder = new VertexEncoder(geometryImport.getGeometry(), settings.getPositionType(), settings.getTextureCoordType());
+			var geometry = geometryImport.getGeometry();
+			// 非圧縮（aiTexel）のTextureは、BCnに圧縮する場合のみ保存できる
+			// マテリアルが参照する外部の画像ファイルも、埋め込まれた画像の後に保存する
+			var textures = settings.getTextureCompression() != null
+					? AssimpUtils.encodeTextures(scene, modelPath, settings.getTextureCompression())
+					: AssimpUtils.getCompressedTextures(scene, modelPath);
+			write(bakedPath, encoder, new IndexLayout(geometry.getIndices(), geometry.getVertexCount()), geometry.getSubMeshes(), textures,
+					AssimpUtils.getMaterialTextureIndices(scene, modelPath));
+			return geometryImport;
+		} finally {
+			Assimp.aiReleaseImport(scene);
+		}
+	}
+
+	/**
+	 * 保存する（途中で失敗しても壊れたファイルが残らないように、一時ファイルから移動する）
+	 * @param path
+	 * @param encoder 頂点の型
+	 * @param indexLayout indexの型と描画範囲
+	 * @param subMeshes マテリアルごとのindexの範囲（ModelGeometry.getSubMeshes）
+	 * @param compressedTextures PNGなど、圧縮されたままの画像、またはKTX2
+	 * @param materialTextureIndices マテリアルごとのcompressedTexturesのindex（AssimpUtils.getMaterialTextureIndices）
+	 * @throws IOException
+	 */
+	public static void write(Path path, VertexEncoder encoder, IndexLayout indexLayout, List<SubMesh> subMeshes,
+			List<ByteBuffer> compressedTextures, int[] materialTextureIndices) throws IOException {
+		var vertexStride = encoder.getStride();
+		var vertexBytesLength = encoder.getBytes();
+		var indexBytesLength = indexLayout.getBytes();
+		var ranges = indexLayout.getRanges();
+		var vertexOffset = align(HEADER_BYTES);
+		var indexOffset = align(vertexOffset + vertexBytesLength);
+		var rangeTableOffset = align(indexOffset + indexBytesLength);
+		var textureTableOffset = align(rangeTableOffset + (long) RANGE_ENTRY_BYTES * ranges.size());
+		var materialTableOffset = align(textureTableOffset + (long) TEXTURE_ENTRY_BYTES * compressedTextures.size());
+		var subMeshTableOffset = align(materialTableOffset + (long) Integer.BYTES * materialTextureIndices.length);
+		var textureOffset = align(subMeshTableOffset + (long) SUBMESH_ENTRY_BYTES * subMeshes.size());
+
+		var dequantizeOffset = encoder.getOffset();
+		var header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN)
+				.putInt(MAGIC)
+				.putInt(VERSION)
+				.putInt(vertexStride)
+				.putInt((int) (vertexBytesLength / vertexStride))
+				.putInt(indexLayout.getIndexStride())
+				.putInt((int) (indexBytesLength / indexLayout.getIndexStride()))
+				.putInt(compressedTextures.size())
+				.putInt(encoder.getPositionType().ordinal() | encoder.getTextureCoordType().ordinal() << TYPE_BITS)
+				.putLong(vertexOffset)
+				.putLong(indexOffset)
+				.putLong(textureTableOffset)
+				.putFloat(dequantizeOffset.getX())
+				.putFloat(dequantizeOffset.getY())
+				.putFloat(dequantizeOffset.getZ())
+				.putFloat(encoder.getScale())
+				.putInt(ranges.size())
+				.putInt(materialTextureIndices.length)
+				.putLong(rangeTableOffset)
+				.putLong(materialTableOffset)
+				.putInt(subMeshes.size())
+				.putInt(0)
+				.putLong(subMeshTableOffset)
+				.position(HEADER_BYTES)
+				.flip();
+
+		// GPUに送る形式そのまま
+		var vertexBytes = ByteBuffer.allocateDirect((int) vertexBytesLength).order(ByteOrder.nativeOrder());
+		encoder.write(MemoryUtil.memAddress(vertexBytes));
+		var indexBytes = ByteBuffer.allocateDirect((int) indexBytesLength).order(ByteOrder.nativeOrder());
+		indexLayout.write(MemoryUtil.memAddress(indexBytes));
+
+		var rangeTable = ByteBuffer.allocate(RANGE_ENTRY_BYTES * ranges.size()).order(ByteOrder.LITTLE_ENDIAN);
+		for (var range : ranges) {
+			rangeTable.putInt(range.getFirstIndex()).putInt(range.getIndexCount()).putInt(range.getVertexOffset());
+		}
+		rangeTable.flip();
+
+		var subMeshTable = ByteBuffer.allocate(SUBMESH_ENTRY_BYTES * subMeshes.size()).order(ByteOrder.LITTLE_ENDIAN);
+		for (var subMesh : subMeshes) {
+			subMeshTable.putInt(subMesh.getFirstIndex()).putInt(subMesh.getIndexCount()).putInt(subMesh.getMaterialIndex());
+		}
+		subMeshTable.flip();
+
+		var table = ByteBuffer.allocate(TEXTURE_ENTRY_BYTES * compressedTextures.size()).order(ByteOrder.LITTLE_ENDIAN);
+		var offset = textureOffset;
+		for (var texture : compressedTextures) {
+			table.putLong(offset).putLong(texture.remaining());
+			offset = align(offset + texture.remaining());
+		}
+		table.flip();
+
+		var materialTable = ByteBuffer.allocate(Integer.BYTES * materialTextureIndices.length).order(ByteOrder.LITTLE_ENDIAN);
+		materialTable.asIntBuffer().put(materialTextureIndices);
+
+		var temporary = path.resolveSibling(path.getFileName() + ".tmp");
+		try {
+			try (var channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+				writeFully(channel, header, 0);
+				writeFully(channel, vertexBytes, vertexOffset);
+				writeFully(channel, indexBytes, indexOffset);
+				writeFully(channel, rangeTable, rangeTableOffset);
+				writeFully(channel, table, textureTableOffset);
+				writeFully(channel, materialTable, materialTableOffset);
+				writeFully(channel, subMeshTable, subMeshTableOffset);
+				offset = textureOffset;
+				for (var texture : compressedTextures) {
+					// 元のバッファの位置は変えない
+					var data = texture.duplicate();
+					var length = data.remaining();
+					writeFully(channel, data, offset);
+					offset = align(offset + length);
+				}
+			}
+			Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException | RuntimeException e) {
+			// 壊れた一時ファイルを残さない
+			ModelCache.deleteOnFailure(temporary, e);
+			throw e;
+		}
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			position += channel.write(buffer, position);
+		}
+	}
+
+	private static long align(long offset) {
+		return (offset + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+	}
+
+	/**
+	 *
+	 * @return マップされた頂点データの先頭アドレス
+	 */
+	public long getVertexAddress() {
+		return file.address() + vertexOffset;
+	}
+
+	/**
+	 *
+	 * @return （バイト）
+	 */
+	public long getVertexBytes() {
+		return (long) vertexStride * vertexCount;
+	}
+
+	public int getVertexStride() {
+		return vertexStride;
+	}
+
+	public int getVertexCount() {
+		return vertexCount;
+	}
+
+	/**
+	 * 頂点の座標を、元の座標に戻して読み込む
+	 * @param vertex
+	 * @param xyz 長さ3以上
+	 */
+	public void readPosition(int vertex, float[] xyz) {
+		var address = getVertexAddress() + (long) vertexStride * vertex;
+		var componentBytes = positionType.getComponentBytes();
+		xyz[0] = dequantizeOffset.getX() + dequantizeScale * positionType.get(address);
+		xyz[1] = dequantizeOffset.getY() + dequantizeScale * positionType.get(address + componentBytes);
+		xyz[2] = dequantizeOffset.getZ() + dequantizeScale * positionType.get(address + componentBytes * 2);
+	}
+
+	/**
+	 *
+	 * @param index 0 〜 getIndexCount() - 1
+	 * @return index bufferの値（DrawRangeのvertexOffsetは含まない）
+	 */
+	public int readIndex(int index) {
+		var address = getIndexAddress() + (long) indexStride * index;
+		return indexStride == Short.BYTES ? MemoryUtil.memGetShort(address) & 0xFFFF : MemoryUtil.memGetInt(address);
+	}
+
+	/**
+	 *
+	 * @return マップされたindexデータの先頭アドレス
+	 */
+	public long getIndexAddress() {
+		return file.address() + indexOffset;
+	}
+
+	/**
+	 *
+	 * @return （バイト）
+	 */
+	public long getIndexBytes() {
+		return (long) indexStride * indexCount;
+	}
+
+	public int getIndexCount() {
+		return indexCount;
+	}
+
+	/**
+	 *
+	 * @return VK_INDEX_TYPE_UINT16 または VK_INDEX_TYPE_UINT32
+	 */
+	public int getIndexType() {
+		return indexStride == Short.BYTES ? VK_INDEX_TYPE_UINT16 : VK_INDEX_TYPE_UINT32;
+	}
+
+	/**
+	 *
+	 * @return drawIndexedの範囲（1つ以上）
+	 */
+	public List<DrawRange> getDrawRanges() {
+		return drawRanges;
+	}
+
+	/**
+	 *
+	 * @return マテリアルごとのindexの範囲
+	 */
+	public List<SubMesh> getSubMeshes() {
+		return subMeshes;
+	}
+
+	public VertexAttributeType getPositionType() {
+		return positionType;
+	}
+
+	public VertexAttributeType getTextureCoordType() {
+		return textureCoordType;
+	}
+
+	/**
+	 *
+	 * @return 元の座標 = offset + scale * 頂点
+	 */
+	public FloatVector3 getDequantizeOffset() {
+		return dequantizeOffset;
+	}
+
+	/**
+	 *
+	 * @return 元の座標 = offset + scale * 頂点
+	 */
+	public float getDequantizeScale() {
+		return dequantizeScale;
+	}
+
+	/**
+	 * slangとの対応用インスタンス
+	 * @return
+	 */
+	public VertexBindingBuilder createBinding() {
+		return VertexEncoder.createBinding(positionType, textureCoordType);
+	}
+
+	/**
+	 *
+	 * @return マテリアルごとのgetTexturesのindex（画像がない場合は-1）
+	 */
+	public int[] getMaterialTextureIndices() {
+		return materialTextureIndices;
+	}
+
+	/**
+	 *
+	 * @return 圧縮されたままの画像（マップされた領域。closeした後は使用不可）
+	 */
+	public List<ByteBuffer> getTextures() {
+		return textures;
+	}
+
+	/**
+	 * マップした全てのページを読み込む（AssetStreamerの読み込み段で使う）
+	 */
+	public void load() {
+		file.load();
+	}
+
+	/**
+	 *
+	 * @return ファイルのバイト数
+	 */
+	public long getBytes() {
+		return file.size();
+	}
+
+	@Override
+	public void close() {
+		file.close();
+	}
+}
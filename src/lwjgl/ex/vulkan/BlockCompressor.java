@@ -0,0 +1,643 @@
+package lwjgl.ex.vulkan;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import static lwjgl.ex.vulkan.TextureCompression.*;
+import static org.lwjgl.system.MemoryUtil.*;
+
+/**
+ * RGBA8（リトルエンディアンのintでR | G << 8 | B << 16 | A << 24）とBCnブロックの相互変換
+ * エンコードはビルド時（BakeModel）に行う想定なので、速度より品質を優先する
+ * デコードは、デバイスがBCnに対応していない場合のフォールバック
+ *
+ * 仕様
+ * https://registry.khronos.org/DataFormat/specs/1.3/dataformat.1.3.html#S3TC
+ * https://registry.khronos.org/DataFormat/specs/1.3/dataformat.1.3.html#BPTC
+ */
+public final class BlockCompressor {
+	private static final int CHANNELS = 4;
+	private static final int RGB_CHANNELS = 3;
+
+	/**
+	 * BC1、BC3のカラーブロックのバイト数
+	 */
+	private static final int COLOR_BLOCK_BYTES = 8;
+
+	private static final int BC7_MODE6 = 6;
+	private static final int BC7_ENDPOINT_BITS = 7;
+	private static final int BC7_INDEX_BITS = 4;
+	/**
+	 * 4bitのindexの補間の重み（/64）
+	 */
+	private static final int[] BC7_WEIGHTS = {0, 4, 9, 13, 17, 21, 26, 30, 34, 38, 43, 47, 51, 55, 60, 64};
+
+	/**
+	 * 主軸を求める冪乗法の繰り返し回数
+	 */
+	private static final int POWER_ITERATIONS = 8;
+
+	private BlockCompressor() {
+	}
+
+	/**
+	 * RGBA8の画像を圧縮する（ブロックの行ごとに並列）
+	 * @param compression
+	 * @param source RGBA8
+	 * @param width
+	 * @param height
+	 * @param destination compression.calcBytes(width, height)分の領域
+	 */
+	public static void encode(TextureCompression compression, long source, int width, int height, long destination) {
+		var blocksX = toBlockCount(width);
+		var rowBytes = (long) compression.getBlockBytes() * blocksX;
+		IntStream.range(0, toBlockCount(height)).parallel().forEach(blockY -> {
+			var block = new int[BLOCK_PIXELS * CHANNELS];
+			var address = destination + rowBytes * blockY;
+			for (int blockX = 0; blockX < blocksX; ++blockX, address += compression.getBlockBytes()) {
+				loadBlock(source, width, height, blockX * BLOCK_SIZE, blockY * BLOCK_SIZE, block);
+				switch (compression) {
+				case BC1 -> encodeColor(block, address);
+				case BC3 -> {
+					encodeAlpha(block, address);
+					encodeColor(block, address + COLOR_BLOCK_BYTES);
+				}
+				case BC7 -> encodeBc7(block, address);
+				}
+			}
+		});
+	}
+
+	/**
+	 * BCnのブロックをRGBA8に展開する
+	 * @param compression
+	 * @param source
+	 * @param width
+	 * @param height
+	 * @param destination Texture.PIXEL_BYTES * width * height分の領域
+	 */
+	public static void decode(TextureCompression compression, long source, int width, int height, long destination) {
+		var blocksX = toBlockCount(width);
+		var rowBytes = (long) compression.getBlockBytes() * blocksX;
+		IntStream.range(0, toBlockCount(height)).parallel().forEach(blockY -> {
+			var block = new int[BLOCK_PIXELS * CHANNELS];
+			var address = source + rowBytes * blockY;
+			for (int blockX = 0; blockX < blocksX; ++blockX, address += compression.getBlockBytes()) {
+				switch (compression) {
+				case BC1 -> decodeColor(address, block, false);
+				case BC3 -> {
+					decodeColor(address + COLOR_BLOCK_BYTES, block, true);
+					decodeAlpha(address, block);
+				}
+				case BC7 -> decodeBc7(address, block);
+				}
+				storeBlock(block, blockX * BLOCK_SIZE, blockY * BLOCK_SIZE, width, height, destination);
+			}
+		});
+	}
+
+	/**
+	 * 4x4ピクセルを取り出す（画像の端では、端のピクセルを繰り返す）
+	 */
+	private static void loadBlock(long source, int width, int height, int x0, int y0, int[] block) {
+		for (int y = 0; y < BLOCK_SIZE; ++y) {
+			var sourceY = Math.min(y0 + y, height - 1);
+			for (int x = 0; x < BLOCK_SIZE; ++x) {
+				var sourceX = Math.min(x0 + x, width - 1);
+				var pixel = memGetInt(source + ((long) sourceY * width + sourceX) * Texture.PIXEL_BYTES);
+				var p = (y * BLOCK_SIZE + x) * CHANNELS;
+				block[p] = pixel & 0xFF;
+				block[p + 1] = (pixel >>> 8) & 0xFF;
+				block[p + 2] = (pixel >>> 16) & 0xFF;
+				block[p + 3] = pixel >>> 24;
+			}
+		}
+	}
+
+	private static void storeBlock(int[] block, int x0, int y0, int width, int height, long destination) {
+		for (int y = 0; y < BLOCK_SIZE && y0 + y < height; ++y) {
+			for (int x = 0; x < BLOCK_SIZE && x0 + x < width; ++x) {
+				var p = (y * BLOCK_SIZE + x) * CHANNELS;
+				memPutInt(destination + ((long) (y0 + y) * width + x0 + x) * Texture.PIXEL_BYTES,
+						block[p] | block[p + 1] << 8 | block[p + 2] << 16 | block[p + 3] << 24);
+			}
+		}
+	}
+
+	// BC1、BC3のカラー
+
+	private static void encodeColor(int[] block, long destination) {
+		// 主軸上の両端のピクセルを端点にする
+		var axis = principalAxis(block, RGB_CHANNELS);
+		var minIndex = 0;
+		var maxIndex = 0;
+		var minDot = Float.POSITIVE_INFINITY;
+		var maxDot = Float.NEGATIVE_INFINITY;
+		for (int i = 0; i < BLOCK_PIXELS; ++i) {
+			var dot = dot(block, i, axis, RGB_CHANNELS);
+			if (dot < minDot) {
+				minDot = dot;
+				minIndex = i;
+			}
+			if (dot > maxDot) {
+				maxDot = dot;
+				maxIndex = i;
+			}
+		}
+		var color0 = to565(block[maxIndex * CHANNELS], block[maxIndex * CHANNELS + 1], block[maxIndex * CHANNELS + 2]);
+		var color1 = to565(block[minIndex * CHANNELS], block[minIndex * CHANNELS + 1], block[minIndex * CHANNELS + 2]);
+		var best = fitColor(block, color0, color1);
+
+		// indexを固定して、端点を最小二乗法で求め直す
+		var refined = refineColor(block, best);
+		if (refined != 0 && colorError(block, refined) < colorError(block, best)) {
+			best = refined;
+		}
+		memPutLong(destination, best);
+	}
+
+	/**
+	 *
+	 * @return color0 | color1 << 16 | indices << 32（4色モードになるように、color0 >= color1にする）
+	 */
+	private static long fitColor(int[] block, int color0, int color1) {
+		if (color0 < color1) {
+			var swap = color0;
+			color0 = color1;
+			color1 = swap;
+		}
+		long indices = 0;
+		if (color0 != color1) {
+			var palette = colorPalette(color0, color1, true);
+			for (int i = 0; i < BLOCK_PIXELS; ++i) {
+				indices |= (long) nearest(block, i, palette, 4, RGB_CHANNELS) << (i * 2);
+			}
+		}
+		return color0 | (long) color1 << 16 | indices << 32;
+	}
+
+	private static long refineColor(int[] block, long packed) {
+		// index 0, 1, 2, 3 は、color0からcolor1への 0, 1, 1/3, 2/3 の位置
+		float[] weights = {0f, 1f, 1f / 3, 2f / 3};
+		float aa = 0, ab = 0, bb = 0;
+		var ax = new float[RGB_CHANNELS];
+		var bx = new float[RGB_CHANNELS];
+		for (int i = 0; i < BLOCK_PIXELS; ++i) {
+			var t = weights[(int) (packed >>> (32 + i * 2)) & 3];
+			var s = 1 - t;
+			aa += s * s;
+			ab += s * t;
+			bb += t * t;
+			for (int c = 0; c < RGB_CHANNELS; ++c) {
+				ax[c] += s * block[i * CHANNELS + c];
+				bx[c] += t * block[i * CHANNELS + c];
+			}
+		}
+		var determinant = aa * bb - ab * ab;
+		if (Math.abs(determinant) < 1e-6f) {
+			return 0;
+		}
+		var color0 = new int[RGB_CHANNELS];
+		var color1 = new int[RGB_CHANNELS];
+		for (int c = 0; c < RGB_CHANNELS; ++c) {
+			color0[c] = clamp8(Math.round((bb * ax[c] - ab * bx[c]) / determinant));
+			color1[c] = clamp8(Math.round((aa * bx[c] - ab * ax[c]) / determinant));
+		}
+		return fitColor(block, to565(color0[0], color0[1], color0[2]), to565(color1[0], color1[1], color1[2]));
+	}
+
+	private static long colorError(int[] block, long packed) {
+		var palette = colorPalette((int) packed & 0xFFFF, (int) (packed >>> 16) & 0xFFFF, true);
+		long error = 0;
+		for (int i = 0; i < BLOCK_PIXELS; ++i) {
+			error += distance(block, i, palette, (int) (packed >>> (32 + i * 2)) & 3, RGB_CHANNELS);
+		}
+		return error;
+	}
+
+	/**
+	 *
+	 * @param color0
+	 * @param color1
+	 * @param alwaysFourColor BC3のカラーブロックは、color0 <= color1でも4色
+	 * @return RGBA×4
+	 */
+	private static int[] colorPalette(int color0, int color1, boolean alwaysFourColor) {
+		var palette = new int[4 * CHANNELS];
+		from565(color0, palette, 0);
+		from565(color1, palette, CHANNELS);
+		for (int c = 0; c < RGB_CHANNELS; ++c) {
+			var a = palette[c];
+			var b = palette[CHANNELS + c];
+			if (alwaysFourColor || color0 > color1) {
+				palette[2 * CHANNELS + c] = (2 * a + b) / 3;
+				palette[3 * CHANNELS + c] = (a + 2 * b) / 3;
+			}
+			else {
+				palette[2 * CHANNELS + c] = (a + b) / 2;
+				// index 3 は透明な黒
+				palette[3 * CHANNELS + c] = 0;
+			}
+		}
+		palette[3] = 0xFF;
+		palette[CHANNELS + 3] = 0xFF;
+		palette[2 * CHANNELS + 3] = 0xFF;
+		palette[3 * CHANNELS + 3] = alwaysFourColor || color0 > color1 ? 0xFF : 0;
+		return palette;
+	}
+
+	private static void decodeColor(long source, int[] block, boolean alwaysFourColor) {
+		var color0 = memGetShort(source) & 0xFFFF;
+		var color1 = memGetShort(source + 2) & 0xFFFF;
+		var indices = memGetInt(source + 4);
+		var palette = colorPalette(color0, color1, alwaysFourColor);
+		for (int i = 0; i < BLOCK_PIXELS; ++i) {
+			System.arraycopy(palette, ((indices >>> (i * 2)) & 3) * CHANNELS, block, i * CHANNELS, CHANNELS);
+		}
+	}
+
+	private static int to565(int r, int g, int b) {
+		return (r * 31 + 127) / 255 << 11 | (g * 63 + 127) / 255 << 5 | (b * 31 + 127) / 255;
+	}
+
+	private static void from565(int color, int[] destination, int offset) {
+		var r = color >>> 11;
+		var g = (color >>> 5) & 0x3F;
+		var b = color & 0x1F;
+		destination[offset] = r << 3 | r >>> 2;
+		destination[offset + 1] = g << 2 | g >>> 4;
+		destination[offset + 2] = b << 3 | b >>> 2;
+	}
+
+	// BC3のアルファ（BC4と同じ形式）
+
+	private static void encodeAlpha(int[] block, long destination) {
+		var min = 0xFF;
+		var max = 0;
+		for (int i = 0; i < BLOCK_PIXELS; ++i) {
+			min = Math.min(min, block[i * CHANNELS + 3]);
+			max = Math.max(max, block[i * CHANNELS + 3]);
+		}
+		// alpha0 > alpha1 の8段階モードのみ使う
+		long indices = 0;
+		if (min != max) {
+			var palette = alphaPalette(max, min);
+			for (int i = 0; i < BLOCK_PIXELS; ++i) {
+				var alpha = block[i * CHANNELS + 3];
+				var bestIndex = 0;
+				var bestError = Integer.MAX_VALUE;
+				for (int p = 0; p < palette.length; ++p) {
+					var error = Math.abs(palette[p] - alpha);
+					if (error < bestError) {
+						bestError = error;
+						bestIndex = p;
+					}
+				}
+				indices |= (long) bestIndex << (i * 3);
+			}
+		}
+		memPutLong(destination, max | min << 8 | indices << 16);
+	}
+
+	private static int[] alphaPalette(int alpha0, int alpha1) {
+		var palette = new int[8];
+		palette[0] = alpha0;
+		palette[1] = alpha1;
+		if (alpha0 > alpha1) {
+			for (int i = 1; i < 7; ++i) {
+				palette[i + 1] = ((7 - i) * alpha0 + i * alpha1 + 3) / 7;
+			}
+		}
+		else {
+			for (int i = 1; i < 5; ++i) {
+				palette[i + 1] = ((5 - i) * alpha0 + i * alpha1 + 2) / 5;
+			}
+			palette[6] = 0;
+			palette[7] = 0xFF;
+		}
+		return palette;
+	}
+
+	private static void decodeAlpha(long source, int[] block) {
+		var bits = memGetLong(source);
+		var palette = alphaPalette((int) bits & 0xFF, (int) (bits >>> 8) & 0xFF);
+		for (int i = 0; i < BLOCK_PIXELS; ++i) {
+			block[i * CHANNELS + 3] = palette[(int) (bits >>> (16 + i * 3)) & 7];
+		}
+	}
+
+	// BC7（モード6: 1サブセット、RGBA各7bit + pbit、4bit index）
+
+	private static void encodeBc7(int[] block, long destination) {
+		var axis = principalAxis(block, CHANNELS);
+		var minIndex = 0;
+		var maxIndex = 0;
+		var minDot = Float.POSITIVE_INFINITY;
+		var maxDot = Float.NEGATIVE_INFINITY;
+		for (int i = 0; i < BLOCK_PIXELS; ++i) {
+			var dot = dot(block, i, axis, CHANNELS);
+			if (dot < minDot) {
+				minDot = dot;
+				minIndex = i;
+			}
+			if (dot > maxDot) {
+				maxDot = dot;
+				maxIndex = i;
+			}
+		}
+		var endpoint0 = new float[CHANNELS];
+		var endpoint1 = new float[CHANNELS];
+		for (int c = 0; c < CHANNELS; ++c) {
+			endpoint0[c] = block[minIndex * CHANNELS + c];
+			endpoint1[c] = block[maxIndex * CHANNELS + c];
+		}
+		var best = new Bc7Block();
+		var bestError = best.fit(block, endpoint0, endpoint1);
+
+		// indexを固定して、端点を最小二乗法で求め直す
+		var refined = new Bc7Block();
+		if (best.refine(block, endpoint0, endpoint1)) {
+			var refinedError = refined.fit(block, endpoint0, endpoint1);
+			if (refinedError < bestError) {
+				best = refined;
+			}
+		}
+		best.write(destination);
+	}
+
+	private static void decodeBc7(long source, int[] block) {
+		var bits = new BitReader(memGetLong(source), memGetLong(source + Long.BYTES));
+		var mode = Integer.numberOfTrailingZeros(memGetByte(source) & 0xFF);
+		if (mode >= Byte.SIZE) {
+			// 予約されたモードは、全て0として扱う（仕様通り）
+			Arrays.fill(block, 0);
+			return;
+		}
+		if (mode != BC7_MODE6) {
+			throw new IllegalArgumentException("BC7のモード" + mode + "の展開は未実装です（モード6のみ対応）");
+		}
+		bits.read(BC7_MODE6 + 1);
+		var endpoints = new int[2 * CHANNELS];
+		for (int c = 0; c < CHANNELS; ++c) {
+			endpoints[c] = bits.read(BC7_ENDPOINT_BITS) << 1;
+			endpoints[CHANNELS + c] = bits.read(BC7_ENDPOINT_BITS) << 1;
+		}
+		var pbit0 = bits.read(1);
+		var pbit1 = bits.read(1);
+		for (int c = 0; c < CHANNELS; ++c) {
+			endpoints[c] |= pbit0;
+			endpoints[CHANNELS + c] |= pbit1;
+		}
+		for (int i = 0; i < BLOCK_PIXELS; ++i) {
+			// 先頭のindexは最上位bitが0なので省略されている
+			var index = bits.read(i == 0 ? BC7_INDEX_BITS - 1 : BC7_INDEX_BITS);
+			var weight = BC7_WEIGHTS[index];
+			for (int c = 0; c < CHANNELS; ++c) {
+				block[i * CHANNELS + c] = ((64 - weight) * endpoints[c] + weight * endpoints[CHANNELS + c] + 32) >> 6;
+			}
+		}
+	}
+
+	/**
+	 * モード6のブロック（量子化済みの端点とindex）
+	 */
+	private static class Bc7Block {
+		/**
+		 * 7bit + pbit の8bit値
+		 */
+		private final int[] endpoints = new int[2 * CHANNELS];
+		private final int[] indices = new int[BLOCK_PIXELS];
+
+		/**
+		 * 端点を量子化して、各ピクセルのindexを選ぶ
+		 * @return 二乗誤差
+		 */
+		long fit(int[] block, float[] endpoint0, float[] endpoint1) {
+			quantize(endpoint0, 0);
+			quantize(endpoint1, CHANNELS);
+			long error = 0;
+			for (int i = 0; i < BLOCK_PIXELS; ++i) {
+				var bestError = Long.MAX_VALUE;
+				for (int index = 0; index < BC7_WEIGHTS.length; ++index) {
+					var weight = BC7_WEIGHTS[index];
+					long indexError = 0;
+					for (int c = 0; c < CHANNELS; ++c) {
+						var value = ((64 - weight) * endpoints[c] + weight * endpoints[CHANNELS + c] + 32) >> 6;
+						var d = value - block[i * CHANNELS + c];
+						indexError += d * d;
+					}
+					if (indexError < bestError) {
+						bestError = indexError;
+						indices[i] = index;
+					}
+				}
+				error += bestError;
+			}
+			return error;
+		}
+
+		/**
+		 * 4チャンネルで共通のpbitを、誤差が小さくなる方に決める
+		 */
+		private void quantize(float[] endpoint, int offset) {
+			var bestError = Float.POSITIVE_INFINITY;
+			for (int pbit = 0; pbit <= 1; ++pbit) {
+				var error = 0f;
+				var quantized = new int[CHANNELS];
+				for (int c = 0; c < CHANNELS; ++c) {
+					var value = Math.clamp(Math.round((endpoint[c] - pbit) / 2), 0, (1 << BC7_ENDPOINT_BITS) - 1);
+					quantized[c] = value << 1 | pbit;
+					var d = quantized[c] - endpoint[c];
+					error += d * d;
+				}
+				if (error < bestError) {
+					bestError = error;
+					System.arraycopy(quantized, 0, endpoints, offset, CHANNELS);
+				}
+			}
+		}
+
+		/**
+		 * 現在のindexから、最小二乗法で端点を求める
+		 * @return 求められなかった（全て同じindex）場合はfalse
+		 */
+		boolean refine(int[] block, float[] endpoint0, float[] endpoint1) {
+			float aa = 0, ab = 0, bb = 0;
+			var ax = new float[CHANNELS];
+			var bx = new float[CHANNELS];
+			for (int i = 0; i < BLOCK_PIXELS; ++i) {
+				var t = BC7_WEIGHTS[indices[i]] / 64f;
+				var s = 1 - t;
+				aa += s * s;
+				ab += s * t;
+				bb += t * t;
+				for (int c = 0; c < CHANNELS; ++c) {
+					ax[c] += s * block[i * CHANNELS + c];
+					bx[c] += t * block[i * CHANNELS + c];
+				}
+			}
+			var determinant = aa * bb - ab * ab;
+			if (Math.abs(determinant) < 1e-6f) {
+				return false;
+			}
+			for (int c = 0; c < CHANNELS; ++c) {
+				endpoint0[c] = Math.clamp((bb * ax[c] - ab * bx[c]) / determinant, 0f, 255f);
+				endpoint1[c] = Math.clamp((aa * bx[c] - ab * ax[c]) / determinant, 0f, 255f);
+			}
+			return true;
+		}
+
+		void write(long destination) {
+			// 先頭のindexの最上位bitは0でなければならないので、必要なら端点を入れ替える
+			if (indices[0] >= BC7_WEIGHTS.length / 2) {
+				for (int c = 0; c < CHANNELS; ++c) {
+					var swap = endpoints[c];
+					endpoints[c] = endpoints[CHANNELS + c];
+					endpoints[CHANNELS + c] = swap;
+				}
+				for (int i = 0; i < BLOCK_PIXELS; ++i) {
+					indices[i] = BC7_WEIGHTS.length - 1 - indices[i];
+				}
+			}
+			var bits = new BitWriter();
+			bits.write(1 << BC7_MODE6, BC7_MODE6 + 1);
+			for (int c = 0; c < CHANNELS; ++c) {
+				bits.write(endpoints[c] >> 1, BC7_ENDPOINT_BITS);
+				bits.write(endpoints[CHANNELS + c] >> 1, BC7_ENDPOINT_BITS);
+			}
+			bits.write(endpoints[0] & 1, 1);
+			bits.write(endpoints[CHANNELS] & 1, 1);
+			for (int i = 0; i < BLOCK_PIXELS; ++i) {
+				bits.write(indices[i], i == 0 ? BC7_INDEX_BITS - 1 : BC7_INDEX_BITS);
+			}
+			memPutLong(destination, bits.low);
+			memPutLong(destination + Long.BYTES, bits.high);
+		}
+	}
+
+	/**
+	 * 128bitを下位から順に書き込む
+	 */
+	private static class BitWriter {
+		private long low;
+		private long high;
+		private int position;
+
+		void write(int value, int bits) {
+			for (int i = 0; i < bits; ++i, ++position) {
+				long bit = (value >>> i) & 1;
+				if (position < Long.SIZE) {
+					low |= bit << position;
+				}
+				else {
+					high |= bit << (position - Long.SIZE);
+				}
+			}
+		}
+	}
+
+	/**
+	 * 128bitを下位から順に読み込む
+	 */
+	private static class BitReader {
+		private final long low;
+		private final long high;
+		private int position;
+
+		BitReader(long low, long high) {
+			this.low = low;
+			this.high = high;
+		}
+
+		int read(int bits) {
+			var value = 0;
+			for (int i = 0; i < bits; ++i, ++position) {
+				var word = position < Long.SIZE ? low >>> position : high >>> (position - Long.SIZE);
+				value |= (int) (word & 1) << i;
+			}
+			return value;
+		}
+	}
+
+	// 共通
+
+	/**
+	 * ピクセルの分布の主軸（共分散行列の最大固有ベクトル）を冪乗法で求める
+	 * @param block
+	 * @param channels 3（RGB）または4（RGBA）
+	 * @return 全て同じ色の場合は、(1, 1, 1, 1)
+	 */
+	private static float[] principalAxis(int[] block, int channels) {
+		var mean = new float[channels];
+		for (int i = 0; i < BLOCK_PIXELS; ++i) {
+			for (int c = 0; c < channels; ++c) {
+				mean[c] += block[i * CHANNELS + c];
+			}
+		}
+		for (int c = 0; c < channels; ++c) {
+			mean[c] /= BLOCK_PIXELS;
+		}
+		var covariance = new float[channels * channels];
+		for (int i = 0; i < BLOCK_PIXELS; ++i) {
+			for (int a = 0; a < channels; ++a) {
+				var da = block[i * CHANNELS + a] - mean[a];
+				for (int b = 0; b < channels; ++b) {
+					covariance[a * channels + b] += da * (block[i * CHANNELS + b] - mean[b]);
+				}
+			}
+		}
+		var axis = new float[channels];
+		Arrays.fill(axis, 1f);
+		for (int iteration = 0; iteration < POWER_ITERATIONS; ++iteration) {
+			var next = new float[channels];
+			var length = 0f;
+			for (int a = 0; a < channels; ++a) {
+				for (int b = 0; b < channels; ++b) {
+					next[a] += covariance[a * channels + b] * axis[b];
+				}
+				length = Math.max(length, Math.abs(next[a]));
+			}
+			if (length == 0) {
+				break;
+			}
+			for (int a = 0; a < channels; ++a) {
+				axis[a] = next[a] / length;
+			}
+		}
+		return axis;
+	}
+
+	private static float dot(int[] block, int pixel, float[] axis, int channels) {
+		var dot = 0f;
+		for (int c = 0; c < channels; ++c) {
+			dot += block[pixel * CHANNELS + c] * axis[c];
+		}
+		return dot;
+	}
+
+	private static int nearest(int[] block, int pixel, int[] palette, int paletteCount, int channels) {
+		var bestIndex = 0;
+		var bestError = Integer.MAX_VALUE;
+		for (int p = 0; p < paletteCount; ++p) {
+			var error = distance(block, pixel, palette, p, channels);
+			if (error < bestError) {
+				bestError = error;
+				bestIndex = p;
+			}
+		}
+		return bestIndex;
+	}
+
+	private static int distance(int[] block, int pixel, int[] palette, int index, int channels) {
+		var error = 0;
+		for (int c = 0; c < channels; ++c) {
+			var d = block[pixel * CHANNELS + c] - palette[index * CHANNELS + c];
+			error += d * d;
+		}
+		return error;
+	}
+
+	private static int clamp8(int value) {
+		return Math.clamp(value, 0, 0xFF);
+	}
+}
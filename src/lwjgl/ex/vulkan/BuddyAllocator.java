@@ -0,0 +1,179 @@
+package lwjgl.ex.vulkan;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * 1つの領域（VkDeviceMemory）を、2のべき乗の大きさに分けて割り当てる（バディ方式）
+ * 割り当てた位置は、その大きさの倍数になるので、alignmentは大きさを切り上げるだけで満たせる
+ * Vulkanを使わないので、GPUがなくても確認できる
+ */
+public class BuddyAllocator {
+	/**
+	 * allocateで空きがない場合
+	 */
+	public static final long FAILED = -1L;
+
+	private final long size;
+	private final long minBytes;
+	private final int maxOrder;
+	/**
+	 * 大きさ（minBytes << order）ごとの空いている位置
+	 * （低い位置から使うため、TreeSet）
+	 */
+	private final List<TreeSet<Long>> freeLists;
+	/**
+	 * 割り当てた位置 → order
+	 */
+	private final Map<Long, Integer> orders = new HashMap<>();
+	/**
+	 * 割り当てた位置 → 要求されたバイト数（内部の無駄を求めるため）
+	 */
+	private final Map<Long, Long> requests = new HashMap<>();
+	private long usedBytes;
+	private long requestedBytes;
+
+	/**
+	 *
+	 * @param size 全体のバイト数（2のべき乗）
+	 * @param minBytes 最小の割り当て単位（2のべき乗）
+	 */
+	public BuddyAllocator(long size, long minBytes) {
+		if (Long.bitCount(size) != 1 || Long.bitCount(minBytes) != 1 || size < minBytes) {
+			throw new IllegalArgumentException("sizeとminBytesは2のべき乗にしてください " + size + ", " + minBytes);
+		}
+		this.size = size;
+		this.minBytes = minBytes;
+		maxOrder = Long.numberOfTrailingZeros(size / minBytes);
+		freeLists = new ArrayList<>(maxOrder + 1);
+		for (int i = 0; i <= maxOrder; ++i) {
+			freeLists.add(new TreeSet<>());
+		}
+		freeLists.get(maxOrder).add(0L);
+	}
+
+	/**
+	 *
+	 * @param bytes
+	 * @param alignment 2のべき乗（VkMemoryRequirements.alignment）
+	 * @return 先頭からの位置、空きがない場合は{@value #FAILED}
+	 */
+	public long allocate(long bytes, long alignment) {
+		if (bytes <= 0 || Long.bitCount(alignment) != 1) {
+			throw new IllegalArgumentException("不正な割り当てです " + bytes + ", alignment " + alignment);
+		}
+		var need = Math.max(Math.max(bytes, alignment), minBytes);
+		if (need > size) {
+			return FAILED;
+		}
+		var order = orderOf(need);
+		var found = order;
+		while (found <= maxOrder && freeLists.get(found).isEmpty()) {
+			++found;
+		}
+		if (found > maxOrder) {
+			return FAILED;
+		}
+		long offset = freeLists.get(found).pollFirst();
+		// 余った後ろ半分を空きに戻しながら、必要な大きさまで分ける
+		while (found > order) {
+			--found;
+			freeLists.get(found).add(offset + (minBytes << found));
+		}
+		orders.put(offset, order);
+		requests.put(offset, bytes);
+		usedBytes += minBytes << order;
+		requestedBytes += bytes;
+		return offset;
+	}
+
+	/**
+	 *
+	 * @param offset allocateで返した位置
+	 * @throws IllegalArgumentException 割り当てていない位置の場合
+	 */
+	public void free(long offset) {
+		var order = orders.remove(offset);
+		if (order == null) {
+			throw new IllegalArgumentException("割り当てられていない位置です " + offset);
+		}
+		usedBytes -= minBytes << order;
+		requestedBytes -= requests.remove(offset);
+		// 隣（バディ）も空いていれば、1つ大きいものにまとめる
+		while (order < maxOrder) {
+			var buddy = offset ^ (minBytes << order);
+			if (!freeLists.get(order).remove(buddy)) {
+				break;
+			}
+			offset = Math.min(offset, buddy);
+			++order;
+		}
+		freeLists.get(order).add(offset);
+	}
+
+	private int orderOf(long bytes) {
+		var units = (bytes + minBytes - 1) / minBytes;
+		return 64 - Long.numberOfLeadingZeros(units - 1);
+	}
+
+	public long getSize() {
+		return size;
+	}
+
+	public long getMinBytes() {
+		return minBytes;
+	}
+
+	/**
+	 *
+	 * @return 割り当てたバイト数（2のべき乗に切り上げたもの）
+	 */
+	public long getUsedBytes() {
+		return usedBytes;
+	}
+
+	/**
+	 *
+	 * @return 要求されたバイト数の合計（getUsedBytesとの差が、切り上げによる無駄）
+	 */
+	public long getRequestedBytes() {
+		return requestedBytes;
+	}
+
+	public long getFreeBytes() {
+		return size - usedBytes;
+	}
+
+	/**
+	 *
+	 * @return 1回で割り当てられる最大のバイト数
+	 */
+	public long getLargestFreeBytes() {
+		for (int order = maxOrder; order >= 0; --order) {
+			if (!freeLists.get(order).isEmpty()) {
+				return minBytes << order;
+			}
+		}
+		return 0;
+	}
+
+	public int getAllocationCount() {
+		return orders.size();
+	}
+
+	public boolean isEmpty() {
+		return orders.isEmpty();
+	}
+
+	/**
+	 *
+	 * @return 0（空きが1つにまとまっている）～1（細切れ）
+	 */
+	public double getFragmentation() {
+		var free = getFreeBytes();
+		return free == 0 ? 0 : 1 - (double) getLargestFreeBytes() / free;
+	}
+}
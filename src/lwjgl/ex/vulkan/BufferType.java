@@ -20,6 +20,10 @@ public enum BufferType {
 	INDEX(BufferType.USAGE_INDEX_DESTINATION, OptionalInt.empty()),
 	STORAGE(BufferType.USAGE_SHADER_STORAGE, OptionalInt.of(VK_DESCRIPTOR_TYPE_STORAGE_BUFFER)),
 	UNIFORM(VK_BUFFER_USAGE_UNIFORM_BUFFER_BIT, OptionalInt.of(VK_DESCRIPTOR_TYPE_UNIFORM_BUFFER)),
+	/**
+	 * UniformArena（位置はvkCmdBindDescriptorSetsで渡す）
+	 */
+	UNIFORM_DYNAMIC(VK_BUFFER_USAGE_UNIFORM_BUFFER_BIT, OptionalInt.of(VK_DESCRIPTOR_TYPE_UNIFORM_BUFFER_DYNAMIC)),
 	/**
 	 * Texture（Descriptorでは送らない）
 	 */
@@ -2,13 +2,12 @@ package lwjgl.ex.vulkan;
 
 
 
-import static org.lwjgl.vulkan.VK13.vkQueueSubmit2;
-
 //参考
 //https://github.com/lwjglgamedev/vulkanbook/blob/master/booksamples/chapter-05/src/main/java/org/vulkanb/eng/graph/vk/CmdBuffer.java
 
 import static org.lwjgl.vulkan.VK14.*;
 
+import java.nio.IntBuffer;
 import java.nio.LongBuffer;
 
 import org.lwjgl.PointerBuffer;
@@ -27,6 +26,8 @@ import org.lwjgl.vulkan.VkRect2D;
 import org.lwjgl.vulkan.VkRenderingInfo;
 import org.lwjgl.vulkan.VkSubmitInfo2;
 import org.lwjgl.vulkan.VkViewport;
+
+import motopgi.utils.ExceptionUtils;
 import static lwjgl.ex.vulkan.VulkanConstants.*;
 
 public class CommandBuffer implements AutoCloseable {
@@ -41,6 +42,11 @@ public class CommandBuffer implements AutoCloseable {
 	
 	private boolean recorded = false;
 	
+	/**
+	 * submitの完了待ち用（最初のsubmitで作成）
+	 */
+	private Fence fence;
+	
 	public CommandBuffer(CommandBufferSettings settings) {
 		this.settings = settings;
 		try (var stack = MemoryStack.stackPush()) {
@@ -124,18 +130,45 @@ public class CommandBuffer implements AutoCloseable {
      */
     public void bindCompute(Pipeline pipeline) {
     	vkCmdBindPipeline(buffer, VK_PIPELINE_BIND_POINT_COMPUTE, pipeline.getHandler());
-    	vkCmdBindDescriptorSets(buffer, VK_PIPELINE_BIND_POINT_COMPUTE, pipeline.getLayoutHandler(), DEFAULT_FIRST_SET, pipeline.getForDescriptorSet(), null);
+    	try (var stack = MemoryStack.stackPush()) {
+    		vkCmdBindDescriptorSets(buffer, VK_PIPELINE_BIND_POINT_COMPUTE, pipeline.getLayoutHandler(), DEFAULT_FIRST_SET, pipeline.getForDescriptorSet(), pipeline.createDynamicOffsets(stack));
+    	}
     }
     
 
+    /**
+     * UniformArenaのDescriptorは、Pipelineに追加したものの現在のフレームの位置を使う
+     * @param pipeline
+     */
     public void bindGraphics(Pipeline pipeline) {
     	vkCmdBindPipeline(buffer, VK_PIPELINE_BIND_POINT_GRAPHICS, pipeline.getHandler());
-    	vkCmdBindDescriptorSets(buffer, VK_PIPELINE_BIND_POINT_GRAPHICS, pipeline.getLayoutHandler(), DEFAULT_FIRST_SET, pipeline.getForDescriptorSet(), null);
+    	try (var stack = MemoryStack.stackPush()) {
+    		bindGraphicsDescriptorSets(pipeline, pipeline.createDynamicOffsets(stack));
+    	}
     	
     	// チュートリアルではComputeが追加されるとBindDescriptorSetsをやらなくなった。意味不明
 //    	vkCmdBindDescriptorSets(buffer, VK_PIPELINE_BIND_POINT_GRAPHICS, pipeline.getLayoutHandler(), DEFAULT_FIRST_SET, pipeline.getForDescriptorSet(), null);
     }
     
+    /**
+     * 同じPipelineで、別のオブジェクト（UniformArenaの位置）に切り替える
+     * @param pipeline
+     * @param dynamicOffsets Descriptor.isDynamicのものの位置（bindingの順、Model.getUniformOffsetなど）
+     */
+    public void bindGraphicsDescriptorSets(Pipeline pipeline, IntBuffer dynamicOffsets) {
+    	bindGraphicsDescriptorSets(pipeline, pipeline.getForDescriptorSet(), dynamicOffsets);
+    }
+    
+    /**
+     * Pipeline.createDescriptorSetsで追加したもの（マテリアルごとの画像など）に切り替える
+     * @param pipeline
+     * @param descriptorSet 同じレイアウトのもの
+     * @param dynamicOffsets Descriptor.isDynamicのものの位置（bindingの順）
+     */
+    public void bindGraphicsDescriptorSets(Pipeline pipeline, LongBuffer descriptorSet, IntBuffer dynamicOffsets) {
+    	vkCmdBindDescriptorSets(buffer, VK_PIPELINE_BIND_POINT_GRAPHICS, pipeline.getLayoutHandler(), DEFAULT_FIRST_SET, descriptorSet, dynamicOffsets);
+    }
+    
     public void bindVertices(LongBuffer vertices) {
     	vkCmdBindVertexBuffers(buffer, DEFAULT_FIRST_BINDING, vertices, DEFAULT_ARRAY_OF_BUFFER_OFFSETS);
     }
@@ -144,7 +177,7 @@ public class CommandBuffer implements AutoCloseable {
 //    }
     public void bind(Model model) {
     	vkCmdBindVertexBuffers(buffer, DEFAULT_FIRST_BINDING, model.getVertexBufferInGPU(), DEFAULT_ARRAY_OF_BUFFER_OFFSETS);
-    	vkCmdBindIndexBuffer(buffer, model.getIndexBufferHandlerInGPU(), DEFAULT_LONG_OFFSETS, VK_INDEX_TYPE_UINT32);
+    	vkCmdBindIndexBuffer(buffer, model.getIndexBufferHandlerInGPU(), DEFAULT_LONG_OFFSETS, model.getIndexType());
     }
     
     public void setViewport(VkViewport.Buffer viewport) {
@@ -220,7 +253,8 @@ public class CommandBuffer implements AutoCloseable {
 		}
 		MemoryUtil.memFree(pointer);
 		pointer = null;
-		try(beginInfo;dependencyInfo){};
+		ExceptionUtils.close(beginInfo, dependencyInfo, fence);
+		fence = null;
 		// commandPoolでcloseされるらしい
 //		vkFreeCommandBuffers(settings.getCommandPool().getSettings().getLogicalDevice().getDevice(), settings.getCommandPool().getHandler(), buffer);
 		buffer = null;
@@ -280,9 +314,13 @@ public class CommandBuffer implements AutoCloseable {
 		var submitInfo = VkSubmitInfo2.calloc(1, stack).sType$Default()
 				.pCommandBufferInfos(createSubmitInfoBuffer(stack))
 				;
+		if (fence == null) {
+			fence = new Fence(settings.getCommandPool().getSettings().getLogicalDevice());
+		}
 		// キューへ送信
-		Vulkan.throwExceptionIfFailed(vkQueueSubmit2(queue.getVkQueue(), submitInfo, MemoryUtil.NULL), "Queueへのコマンドの送信に失敗しました");
-		queue.waitIdle();
+		// Queue.waitIdleだと待機中に他のスレッド（描画など）がsubmitできないので、このsubmitだけをFenceで待つ
+		queue.submit(submitInfo, fence.getHandler());
+		fence.waitAndReset();
 	}
 
 
@@ -10,6 +10,22 @@ public interface Descriptor {
 	public int getDescriptorType();
 	public int getShaderStage();
 	
+	/**
+	 * 
+	 * @return VK_DESCRIPTOR_TYPE_UNIFORM_BUFFER_DYNAMICなど、vkCmdBindDescriptorSetsで位置を渡す場合
+	 */
+	default boolean isDynamic() {
+		return false;
+	}
+	
+	/**
+	 * 
+	 * @return vkCmdBindDescriptorSetsに渡す位置（isDynamicの場合のみ使われる）
+	 */
+	default int getDynamicOffset() {
+		return 0;
+	}
+	
 	// VkDescriptorSetLayoutBindingとVkWriteDescriptorSetを
 	// 両方設定しなければいけないのが意味不明
 	
@@ -0,0 +1,63 @@
+package lwjgl.ex.vulkan;
+
+import static org.lwjgl.vulkan.VK14.*;
+
+import java.nio.LongBuffer;
+
+import org.lwjgl.system.MemoryUtil;
+
+/**
+ * Pipelineと同じレイアウトで追加したDescriptorSet（Pipeline.createDescriptorSetsで作成する）
+ * 1つのDescriptorPoolにまとめて割り当てる
+ */
+public class DescriptorSets implements AutoCloseable {
+	private final LogicalDevice logicalDevice;
+	private final int count;
+	private LongBuffer forDescriptorPool;
+	private LongBuffer forDescriptorSets;
+
+	DescriptorSets(LogicalDevice logicalDevice, int count) {
+		this.logicalDevice = logicalDevice;
+		this.count = count;
+		// 途中で失敗した場合にcloseで破棄するため、VK_NULL_HANDLEで初期化する
+		forDescriptorPool = MemoryUtil.memCallocLong(1);
+		// 0個の場合も確保できるように、最低1つ分
+		forDescriptorSets = MemoryUtil.memCallocLong(Math.max(count, 1));
+	}
+
+	LongBuffer getForDescriptorPool() {
+		return forDescriptorPool;
+	}
+
+	LongBuffer getForDescriptorSets() {
+		return forDescriptorSets;
+	}
+
+	public int size() {
+		return count;
+	}
+
+	/**
+	 *
+	 * @param index Pipeline.createDescriptorSetsに渡した順
+	 * @return VkDescriptorSet
+	 */
+	public long getHandler(int index) {
+		return forDescriptorSets.get(index);
+	}
+
+	@Override
+	public void close() {
+		if (forDescriptorPool == null) {
+			return;
+		}
+		if (forDescriptorPool.get(0) != MemoryUtil.NULL) {
+			// Poolを削除すればDescriptorSetも消える
+			vkDestroyDescriptorPool(logicalDevice.getDevice(), forDescriptorPool.get(0), null);
+		}
+		MemoryUtil.memFree(forDescriptorPool);
+		MemoryUtil.memFree(forDescriptorSets);
+		forDescriptorPool = null;
+		forDescriptorSets = null;
+	}
+}
@@ -0,0 +1,77 @@
+package lwjgl.ex.vulkan;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 書き込んだ範囲を、重なりと隣接をまとめて保持する（vkFlushMappedMemoryRangesの数を減らすため）
+ * Vulkanを使わないので、GPUがなくても確認できる
+ */
+public class DirtyRanges {
+	/**
+	 * 先頭 → 末尾（含まない）
+	 */
+	private final TreeMap<Long, Long> ranges = new TreeMap<>();
+	private long bytes;
+
+	/**
+	 *
+	 * @param start
+	 * @param end 含まない
+	 */
+	public void add(long start, long end) {
+		if (start >= end) {
+			return;
+		}
+		// 前のものと重なるか隣接する場合は、そこから始める
+		var floor = ranges.floorEntry(start);
+		if (floor != null && floor.getValue() >= start) {
+			start = floor.getKey();
+			end = Math.max(end, floor.getValue());
+		}
+		// 後ろの重なるものを取り込む
+		var next = ranges.ceilingEntry(start);
+		while (next != null && next.getKey() <= end) {
+			end = Math.max(end, next.getValue());
+			bytes -= next.getValue() - next.getKey();
+			ranges.remove(next.getKey());
+			next = ranges.higherEntry(next.getKey());
+		}
+		ranges.put(start, end);
+		bytes += end - start;
+	}
+
+	/**
+	 *
+	 * @return 先頭 → 末尾（含まない）、先頭の順
+	 */
+	public Map<Long, Long> getRanges() {
+		return Collections.unmodifiableMap(ranges);
+	}
+
+	/**
+	 *
+	 * @return まとめた後の範囲の数
+	 */
+	public int size() {
+		return ranges.size();
+	}
+
+	/**
+	 *
+	 * @return 範囲のバイト数の合計（重なりは1回だけ数える）
+	 */
+	public long getBytes() {
+		return bytes;
+	}
+
+	public boolean isEmpty() {
+		return ranges.isEmpty();
+	}
+
+	public void clear() {
+		ranges.clear();
+		bytes = 0;
+	}
+}
@@ -2,6 +2,9 @@ package lwjgl.ex.vulkan;
 
 import java.awt.Color;
 import java.nio.LongBuffer;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
 
 import org.lwjgl.PointerBuffer;
 import org.lwjgl.assimp.AIMesh;
@@ -13,6 +16,8 @@ import org.lwjgl.vulkan.VkClearValue;
 import org.lwjgl.vulkan.VkImageMemoryBarrier2;
 import org.lwjgl.vulkan.VkRenderingAttachmentInfo;
 
+import motopgi.utils.ExceptionUtils;
+
 import static org.lwjgl.vulkan.VK10.VK_ATTACHMENT_LOAD_OP_CLEAR;
 import static org.lwjgl.vulkan.VK10.VK_ATTACHMENT_STORE_OP_STORE;
 import static org.lwjgl.vulkan.VK10.VK_IMAGE_LAYOUT_COLOR_ATTACHMENT_OPTIMAL;
@@ -47,7 +52,18 @@ public class DrawModelCommand implements Command, AutoCloseable {
 	private final ClearColorCommand clearColor;
 	private Pipeline pipeline;
 	private final VkRenderingAttachmentInfo depthAttachment;
+	/**
+	 * マテリアルの画像ごとのDescriptorSet（Samplerを渡した場合のみ）
+	 */
+	private DescriptorSets materialSets;
+	/**
+	 * SubMeshごとの、materialSetsの番号（画像がない場合は-1で、Pipelineのものを使う）
+	 */
+	private int[] subMeshSets;
 
+	/**
+	 * 全てPipelineのDescriptorSet（Samplerに設定した画像）で描画する
+	 */
 	public DrawModelCommand(Model model, Color background, SwapChain swapChain, Pipeline pipeline) {
 		this.model = model;
 		this.swapChain = swapChain;
@@ -72,6 +88,39 @@ public class DrawModelCommand implements Command, AutoCloseable {
 		
 	}
 	
+	/**
+	 * SubMeshごとに、マテリアルの画像をsamplerのbindingに書き込んだDescriptorSetで描画する
+	 * @param sampler pipelineのPipelineSettingsに追加したもの
+	 */
+	public DrawModelCommand(Model model, Color background, SwapChain swapChain, Pipeline pipeline, Sampler sampler) {
+		this(model, background, swapChain, pipeline);
+		var descriptorList = pipeline.getSettings().getDescriptorList();
+		var samplerBinding = descriptorList.indexOf(sampler);
+		if (samplerBinding < 0) {
+			throw new IllegalArgumentException("SamplerがPipelineに追加されていません");
+		}
+		
+		// 同じ画像を使うマテリアルは、同じDescriptorSetを使う
+		var setIndices = new IdentityHashMap<Texture, Integer>();
+		var descriptorLists = new ArrayList<List<Descriptor>>();
+		var subMeshes = model.getSubMeshes();
+		subMeshSets = new int[subMeshes.size()];
+		for (int s = 0; s < subMeshes.size(); ++s) {
+			var texture = model.getMaterialTexture(subMeshes.get(s).getMaterialIndex());
+			if (texture == null) {
+				subMeshSets[s] = -1;
+				continue;
+			}
+			subMeshSets[s] = setIndices.computeIfAbsent(texture, t -> {
+				var list = new ArrayList<>(descriptorList);
+				list.set(samplerBinding, sampler.withImageView(t.getTextureImageView()));
+				descriptorLists.add(list);
+				return descriptorLists.size() - 1;
+			});
+		}
+		materialSets = pipeline.createDescriptorSets(descriptorLists);
+	}
+	
 	@Override
 	public void run(RecordInfo info) {
 		
@@ -84,15 +133,52 @@ public class DrawModelCommand implements Command, AutoCloseable {
 				info.getGraphic().setViewportFrom(swapChain, info.getStack());
 				info.getGraphic().setScissorFrom(swapChain, info.getStack());
 				info.getGraphic().bind(model);
-				info.getGraphic().drawIndexed(model.getIndices().length, instanceCount, firstIndex, vertexOffset, firstInstance);
+				if (materialSets == null) {
+					// 16bitのindexに収めるために分割している場合は、範囲ごとに描画
+					for (var range : model.getDrawRanges()) {
+						info.getGraphic().drawIndexed(range.getIndexCount(), instanceCount,
+								firstIndex + range.getFirstIndex(), vertexOffset + range.getVertexOffset(), firstInstance);
+					}
+					return;
+				}
+				
+				var subMeshes = model.getSubMeshes();
+				// bindGraphicsでPipelineのものがbindされている
+				var bound = -1;
+				for (int s = 0; s < subMeshes.size(); ++s) {
+					if (subMeshSets[s] != bound) {
+						bound = subMeshSets[s];
+						var stack = info.getStack();
+						var set = bound < 0 ? pipeline.getForDescriptorSet() : stack.longs(materialSets.getHandler(bound));
+						info.getGraphic().bindGraphicsDescriptorSets(pipeline, set, pipeline.createDynamicOffsets(stack));
+					}
+					drawSubMesh(info, subMeshes.get(s));
+				}
 
 			});
 		});
 	}
 
+	/**
+	 * SubMeshと、16bitのindexに収めるために分割した範囲の重なる部分ごとに描画
+	 * @param info
+	 * @param subMesh
+	 */
+	private void drawSubMesh(RecordInfo info, SubMesh subMesh) {
+		var subMeshEnd = subMesh.getFirstIndex() + subMesh.getIndexCount();
+		for (var range : model.getDrawRanges()) {
+			var start = Math.max(range.getFirstIndex(), subMesh.getFirstIndex());
+			var end = Math.min(range.getFirstIndex() + range.getIndexCount(), subMeshEnd);
+			if (start < end) {
+				info.getGraphic().drawIndexed(end - start, instanceCount,
+						firstIndex + start, vertexOffset + range.getVertexOffset(), firstInstance);
+			}
+		}
+	}
+
 	@Override
 	public void close() throws Exception {
-		try (depthBarrier;clearColor;depthAttachment) {}
+		ExceptionUtils.close(depthBarrier, clearColor, depthAttachment, materialSets);
 	}
 
 }
@@ -0,0 +1,40 @@
+package lwjgl.ex.vulkan;
+
+/**
+ * drawIndexedの1回分の範囲
+ * 16bitのindexに収めるために、index（三角形）を分割した場合に使う
+ */
+public class DrawRange {
+	private int firstIndex;
+	private int indexCount;
+	private int vertexOffset;
+	
+	/**
+	 * 
+	 * @param firstIndex index buffer内の開始位置
+	 * @param indexCount
+	 * @param vertexOffset indexに足される値
+	 */
+	public DrawRange(int firstIndex, int indexCount, int vertexOffset) {
+		this.firstIndex = firstIndex;
+		this.indexCount = indexCount;
+		this.vertexOffset = vertexOffset;
+	}
+
+	public int getFirstIndex() {
+		return firstIndex;
+	}
+
+	public int getIndexCount() {
+		return indexCount;
+	}
+
+	public int getVertexOffset() {
+		return vertexOffset;
+	}
+
+	@Override
+	public String toString() {
+		return "DrawRange [firstIndex=" + firstIndex + ", indexCount=" + indexCount + ", vertexOffset=" + vertexOffset + "]";
+	}
+}
@@ -6,7 +6,6 @@ import java.nio.IntBuffer;
 import java.util.Arrays;
 import org.lwjgl.system.MemoryStack;
 import org.lwjgl.system.MemoryUtil;
-import org.lwjgl.vulkan.KHRSwapchain;
 import org.lwjgl.vulkan.VkPresentInfoKHR;
 import org.lwjgl.vulkan.VkSubmitInfo2;
 
@@ -15,9 +14,14 @@ import motopgi.utils.ExceptionUtils;
 
 /**
  * 1フレームを描画するのに必要なクラス群
+ * 前回のこのフレームの完了だけを待つので、他のフレームの描画中にCPUが次のフレームを記録できる
  */
 public class FrameRender implements AutoCloseable {
 	private final RenderSettings settings;
+	/**
+	 * UniformArenaの、このフレームの領域
+	 */
+	private final int frameIndex;
 	private final Fence cpuSync;
 	private final TimelineSemaphore semaphore;
 	private final RecordInfo recordInfo;
@@ -25,8 +29,14 @@ public class FrameRender implements AutoCloseable {
 	private IntBuffer computeWaitMask = MemoryUtil.memAllocInt(1);
 	private IntBuffer graphicWaitMask = MemoryUtil.memAllocInt(1);
 
-	public FrameRender(RenderSettings settings) {
+	/**
+	 * 
+	 * @param settings
+	 * @param frameIndex 0 〜 maxInFlight - 1
+	 */
+	public FrameRender(RenderSettings settings, int frameIndex) {
 		this.settings = settings;
+		this.frameIndex = frameIndex;
 		// AutoCloseableを変数として持つのでtry-with-resourcesができない
 		cpuSync = new Fence(settings.getLogicalDevice());
 		semaphore = new TimelineSemaphore(settings.getLogicalDevice());
@@ -42,11 +52,18 @@ public class FrameRender implements AutoCloseable {
 			return;
 		}
 		
+		// 前回このフレームでsubmitしたものの完了を待つ
+		// （コマンドバッファとUniformArenaの領域を再利用するため）
+		semaphore.waitSemaphore(stack);
+		
 		// 今までswapChainの取得をsemaphoreで同期していたが、fenceに変わっている
 		// https://docs.vulkan.org/tutorial/latest/_attachments/31_compute_shader.cpp
 		var nextSwapChainImageView = settings.getSwapChain().acquireNextImageView(stack, cpuSync);
 		cpuSync.waitAndReset();
 		
+		// updateされたUniformBufferObjectを、このフレームの領域に書き込む
+		settings.getLogicalDevice().getUniformArena().beginFrame(frameIndex);
+		
 		// 1フレームの描画に必要な情報を設定
 		recordInfo.setFrame(stack, nextSwapChainImageView);
 		
@@ -62,27 +79,29 @@ public class FrameRender implements AutoCloseable {
 		}
 		
 		// computeを待つようにgraphicをsubmit
+		// vkQueuePresentKHRはTimelineSemaphoreを待てないので、描画の完了はSwapChainのImageごとのbinaryのSemaphoreで渡す
+		var renderFinished = settings.getSwapChain().getPresentSemaphore(nextSwapChainImageView.getIndex());
 		var graphic = recordInfo.getGraphic();
-		semaphore.submit(graphic, settings.getQueue(), graphicWaitMask, stack);		
-
-		semaphore.waitSemaphore(stack);
+		semaphore.submit(graphic, settings.getQueue(), graphicWaitMask, renderFinished, stack);		
 		
-		// 結果を取得
+		// 描画の完了はGPU側で待つ
 		VkPresentInfoKHR present = VkPresentInfoKHR.calloc(stack)
                 .sType$Default()
+                .pWaitSemaphores(stack.longs(renderFinished))
                 // 1以外あり得るのか不明
                 .swapchainCount(1)
                 .pSwapchains(settings.getSwapChain().createLongBuffer(stack))
                 .pImageIndices(stack.ints(nextSwapChainImageView.getIndex()));
-			Vulkan.throwExceptionIfFailed(KHRSwapchain.vkQueuePresentKHR(settings.getQueue().getVkQueue(), present),
-					"KHRSwapchain.vkQueuePresentKHRに失敗しました");
+		settings.getQueue().present(present);
 		
-		// deviceが待機状態になるのを待つ
-		// これがないとVkQueueが使用中から復帰しない
-		// vkDestroySemaphore(): can't be called on VkSemaphore 0xd000000000d that is currently in use by VkQueue 0x7f7518a340c0.
-		settings.getLogicalDevice().waitIdle();
+		// 以前はここでvkDeviceWaitIdleしていたが、次にこのフレームを使うときに待つ
+		// （closeの前の待機はRenderで行う）
     }
 
+	public int getFrameIndex() {
+		return frameIndex;
+	}
+
 	@Override
 	public void close() throws Exception {
 		ExceptionUtils.close(recordInfo, semaphore, cpuSync);
@@ -92,7 +111,7 @@ public class FrameRender implements AutoCloseable {
 		var array = new FrameRender[length];
 		// 参考
 		// https://qiita.com/payaneco/items/ea5db7b62d092927aed8
-		Arrays.setAll(array, i -> new FrameRender(settings));
+		Arrays.setAll(array, i -> new FrameRender(settings, i));
 		return array;
 	}
 }
@@ -0,0 +1,59 @@
+package lwjgl.ex.vulkan;
+
+import org.lwjgl.assimp.AIScene;
+
+/**
+ * AISceneからGPUに送るジオメトリを作るまでの処理（Vulkanのデバイスは不要）
+ * ModelとBakedModelで同じ処理にするため
+ */
+public class GeometryImport {
+	private ModelGeometry geometry;
+	private WeldResult weldResult;
+	private VertexCacheResult vertexCacheResult;
+	
+	/**
+	 * 
+	 * @param scene
+	 * @param settings ジオメトリに関する設定のみ使用
+	 */
+	public GeometryImport(AIScene scene, ModelSettings settings) {
+		geometry = ModelGeometry.read(scene, settings.isParallel());
+		
+		// 頂点をまとめてから並べ替えないと、キャッシュの効率が正しく計算できない
+		if (settings.isWeld()) {
+			weldResult = VertexWelder.weld(geometry, settings.getWeldEpsilon());
+			geometry = weldResult.getGeometry();
+		}
+		if (settings.isOptimizeVertexCache()) {
+			vertexCacheResult = VertexCacheOptimizer.optimize(geometry);
+			geometry = vertexCacheResult.getGeometry();
+		}
+	}
+
+	public ModelGeometry getGeometry() {
+		return geometry;
+	}
+
+	/**
+	 * 
+	 * @return 頂点をまとめていない場合はnull
+	 */
+	public WeldResult getWeldResult() {
+		return weldResult;
+	}
+
+	/**
+	 * 
+	 * @return 並べ替えていない場合はnull
+	 */
+	public VertexCacheResult getVertexCacheResult() {
+		return vertexCacheResult;
+	}
+
+	@Override
+	public String toString() {
+		return "頂点数 " + geometry.getVertexCount() + " index数 " + geometry.getIndexCount()
+				+ (weldResult != null ? " 結合 " + weldResult : "")
+				+ (vertexCacheResult != null ? " キャッシュ " + vertexCacheResult : "");
+	}
+}
@@ -1,7 +1,6 @@
 package lwjgl.ex.vulkan;
 
 import static org.lwjgl.vulkan.VK10.vkDestroyImage;
-import static org.lwjgl.vulkan.VK10.vkFreeMemory;
 
 import java.nio.LongBuffer;
 
@@ -14,7 +13,10 @@ import org.lwjgl.system.MemoryUtil;
 public abstract class Handler implements AutoCloseable {
 	protected LogicalDevice logicalDevice;
 	protected LongBuffer forHandler = BufferUtils.createLongBuffer(1);
-	protected LongBuffer forMemory = BufferUtils.createLongBuffer(1);
+	/**
+	 * MemoryAllocatorで割り当てたメモリ（handlerの破棄後に解放する）
+	 */
+	protected MemoryAllocation allocation;
 
 	public Handler(LogicalDevice logicalDevice) {
 		this.logicalDevice = logicalDevice;
@@ -30,16 +32,15 @@ public abstract class Handler implements AutoCloseable {
 
 	@Override
 	public void close() throws Exception {
-		var device = logicalDevice.getDevice();
-		if (forMemory != null) {
-			vkFreeMemory(device, forMemory.get(0), null);
-			forMemory = null;
-		}
-		
 		if (forHandler != null) {
 			closeHandler(forHandler.get(0), logicalDevice);
 			forHandler = null;
 		}
+		
+		if (allocation != null) {
+			allocation.close();
+			allocation = null;
+		}
 	}
 
 	public LongBuffer getForHandler() {
@@ -50,12 +51,16 @@ public abstract class Handler implements AutoCloseable {
 		return forHandler.get(0);
 	}
 
-	public LongBuffer getForMemory() {
-		return forMemory;
+	public MemoryAllocation getAllocation() {
+		return allocation;
+	}
+	
+	public void setAllocation(MemoryAllocation allocation) {
+		this.allocation = allocation;
 	}
 	
 	public long getMemory() {
-		return forMemory.get(0);
+		return allocation == null ? MemoryUtil.NULL : allocation.getMemory();
 	}
 
 	public static Handler createImageHandler(LogicalDevice logicalDevice) {
@@ -26,7 +26,7 @@ public class ImageViewSettings {
 	public static final int DEFAULT_VIEW_TYPE = VK_IMAGE_VIEW_TYPE_2D;
 	
 	/**
-	 * これ以外の画像フォーマットにすると、AssimpUtils.writeImageToPointerの対応が難しい
+	 * AwtTextureSourceのフォーマット（stb_imageで展開した場合はStbTextureSource.FORMAT）
 	 */
 	public static final int DEFAULT_FORMAT = VK_FORMAT_B8G8R8A8_SRGB;
 	
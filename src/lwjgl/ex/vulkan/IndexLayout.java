@@ -0,0 +1,156 @@
+package lwjgl.ex.vulkan;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.lwjgl.system.MemoryUtil.*;
+import static org.lwjgl.vulkan.VK14.*;
+
+/**
+ * index bufferの型（16bit、32bit）と、drawIndexedの範囲を決める
+ * 
+ * 頂点数が65536未満の範囲ごとに分割できれば16bit（index bufferが半分になる）
+ * 分割数が多くなりすぎる場合はdrawIndexedが増えるだけなので、32bitのまま1回で描画する
+ */
+public class IndexLayout {
+	/**
+	 * 16bitで表せる頂点数
+	 */
+	public static final int UINT16_VERTEX_COUNT = 1 << Short.SIZE;
+	
+	/**
+	 * 最小の分割数に対して、何倍までの分割を許すか
+	 */
+	public static final int MAX_RANGE_RATIO = 4;
+	
+	private int indexType;
+	private int[] indices;
+	private List<DrawRange> ranges;
+	
+	/**
+	 * 
+	 * @param indices
+	 * @param vertexCount
+	 */
+	public IndexLayout(int[] indices, int vertexCount) {
+		this.indices = indices;
+		
+		// 分割不要
+		if (vertexCount <= UINT16_VERTEX_COUNT) {
+			indexType = VK_INDEX_TYPE_UINT16;
+			ranges = List.of(new DrawRange(0, indices.length, 0));
+			return;
+		}
+		
+		// 三角形を分割しないように、3つずつ（三角形リストでない場合は1つずつ）
+		var primitive = indices.length % VertexCacheOptimizer.TRIANGLE_VERTEX_COUNT == 0 ? VertexCacheOptimizer.TRIANGLE_VERTEX_COUNT : 1;
+		var split = new ArrayList<DrawRange>();
+		var maxRanges = MAX_RANGE_RATIO * ((vertexCount + UINT16_VERTEX_COUNT - 1) / UINT16_VERTEX_COUNT);
+		
+		var first = 0;
+		var min = Integer.MAX_VALUE;
+		var max = Integer.MIN_VALUE;
+		// 1つのプリミティブだけで16bitに収まらない場合は、分割しても描画できないので32bit
+		var fits = true;
+		for (int i = 0; i < indices.length && fits; i += primitive) {
+			var primitiveMin = min;
+			var primitiveMax = max;
+			for (int p = 0; p < primitive; ++p) {
+				primitiveMin = Math.min(primitiveMin, indices[i + p]);
+				primitiveMax = Math.max(primitiveMax, indices[i + p]);
+			}
+			if (primitiveMax - primitiveMin >= UINT16_VERTEX_COUNT) {
+				if (i == first) {
+					fits = false;
+					break;
+				}
+				// この範囲には入らないので、ここで区切る
+				split.add(new DrawRange(first, i - first, min));
+				if (split.size() >= maxRanges) {
+					break;
+				}
+				first = i;
+				primitiveMin = Integer.MAX_VALUE;
+				primitiveMax = Integer.MIN_VALUE;
+				for (int p = 0; p < primitive; ++p) {
+					primitiveMin = Math.min(primitiveMin, indices[i + p]);
+					primitiveMax = Math.max(primitiveMax, indices[i + p]);
+				}
+				fits = primitiveMax - primitiveMin < UINT16_VERTEX_COUNT;
+			}
+			min = primitiveMin;
+			max = primitiveMax;
+		}
+		if (fits && split.size() < maxRanges) {
+			// indexが空の場合はminが未設定
+			split.add(new DrawRange(first, indices.length - first, first < indices.length ? min : 0));
+			indexType = VK_INDEX_TYPE_UINT16;
+			ranges = split;
+			return;
+		}
+		
+		// 分割しすぎる場合、1つのプリミティブが収まらない場合は32bit
+		indexType = VK_INDEX_TYPE_UINT32;
+		ranges = List.of(new DrawRange(0, indices.length, 0));
+	}
+	
+	/**
+	 * 
+	 * @return VK_INDEX_TYPE_UINT16 または VK_INDEX_TYPE_UINT32
+	 */
+	public int getIndexType() {
+		return indexType;
+	}
+	
+	/**
+	 * 
+	 * @return 1indexのバイト数
+	 */
+	public int getIndexStride() {
+		return toStride(indexType);
+	}
+	
+	/**
+	 * 
+	 * @param indexType
+	 * @return 1indexのバイト数
+	 */
+	public static int toStride(int indexType) {
+		return indexType == VK_INDEX_TYPE_UINT16 ? Short.BYTES : Integer.BYTES;
+	}
+	
+	/**
+	 * 
+	 * @return index bufferのバイト数
+	 */
+	public long getBytes() {
+		return (long) getIndexStride() * indices.length;
+	}
+	
+	/**
+	 * 
+	 * @return 分割した範囲（1つ以上）
+	 */
+	public List<DrawRange> getRanges() {
+		return ranges;
+	}
+	
+	/**
+	 * index bufferに書き込む（範囲ごとにvertexOffsetを引いた値）
+	 * @param address getBytes()以上の領域
+	 */
+	public void write(long address) {
+		if (indexType == VK_INDEX_TYPE_UINT32) {
+			memIntBuffer(address, indices.length).put(indices);
+			return;
+		}
+		for (var range : ranges) {
+			var offset = range.getVertexOffset();
+			var end = range.getFirstIndex() + range.getIndexCount();
+			for (int i = range.getFirstIndex(); i < end; ++i) {
+				memPutShort(address, (short) (indices[i] - offset));
+				address += Short.BYTES;
+			}
+		}
+	}
+}
@@ -0,0 +1,187 @@
+package lwjgl.ex.vulkan;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.lwjgl.system.MemoryUtil;
+
+/**
+ * KTX2ファイルの作成
+ * BCnに圧縮したミップマップを、そのままVkBufferImageCopyで送れる形で保存する
+ * https://registry.khronos.org/KTX/specs/2.0/ktxspec.v2.html
+ *
+ * 対応するのは、2D、1レイヤー、1面、supercompressionなしのみ
+ */
+public final class Ktx2 {
+	/**
+	 * «KTX 20»\r\n\x1A\n
+	 */
+	private static final byte[] IDENTIFIER = {(byte) 0xAB, 'K', 'T', 'X', ' ', '2', '0', (byte) 0xBB, '\r', '\n', 0x1A, '\n'};
+
+	/**
+	 * identifierからsgdByteLengthまで
+	 */
+	public static final int HEADER_BYTES = 80;
+
+	/**
+	 * levelごとに long byteOffset, long byteLength, long uncompressedByteLength
+	 */
+	public static final int LEVEL_ENTRY_BYTES = Long.BYTES * 3;
+
+	public static final int SUPERCOMPRESSION_NONE = 0;
+
+	// Data Format Descriptor
+	private static final int DFD_BLOCK_HEADER_BYTES = 24;
+	private static final int DFD_SAMPLE_BYTES = 16;
+	private static final int DFD_VERSION = 2;
+	private static final int DFD_PRIMARIES_BT709 = 1;
+	private static final int DFD_TRANSFER_SRGB = 2;
+	private static final int DFD_CHANNEL_COLOR = 0;
+	private static final int DFD_CHANNEL_ALPHA = 15;
+
+	private Ktx2() {
+	}
+
+	/**
+	 * identifierが一致するか
+	 * @param buffer 読み込み位置は変更しない
+	 * @return
+	 */
+	public static boolean isKtx2(ByteBuffer buffer) {
+		if (buffer.remaining() < IDENTIFIER.length) {
+			return false;
+		}
+		for (int i = 0; i < IDENTIFIER.length; ++i) {
+			if (buffer.get(buffer.position() + i) != IDENTIFIER[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * 全段のミップマップを生成し、BCnに圧縮してKTX2にする
+	 * @param source
+	 * @param compression
+	 * @return KTX2のファイルの内容（ヒープ）
+	 */
+	public static ByteBuffer encode(TextureSource source, TextureCompression compression) {
+		try (var mipmaps = MipmapGenerator.generateRgba(source)) {
+			var width = mipmaps.getWidth();
+			var height = mipmaps.getHeight();
+			var levels = new ArrayList<ByteBuffer>(mipmaps.getMipLevels());
+			try {
+				for (int level = 0; level < mipmaps.getMipLevels(); ++level) {
+					var levelWidth = TextureSource.toLevelSize(width, level);
+					var levelHeight = TextureSource.toLevelSize(height, level);
+					var blocks = MemoryUtil.memAlloc(Math.toIntExact(compression.calcBytes(levelWidth, levelHeight)));
+					levels.add(blocks);
+					BlockCompressor.encode(compression, mipmaps.getLevelAddress(level), levelWidth, levelHeight, MemoryUtil.memAddress(blocks));
+				}
+				return write(compression, width, height, levels);
+			} finally {
+				levels.forEach(MemoryUtil::memFree);
+			}
+		}
+	}
+
+	/**
+	 *
+	 * @param compression
+	 * @param width
+	 * @param height
+	 * @param levels level 0（最大）から順の、圧縮済みのブロック
+	 * @return KTX2のファイルの内容（ヒープ）
+	 */
+	public static ByteBuffer write(TextureCompression compression, int width, int height, List<ByteBuffer> levels) {
+		var sampleCount = compression == TextureCompression.BC3 ? 2 : 1;
+		var dfdOffset = HEADER_BYTES + LEVEL_ENTRY_BYTES * levels.size();
+		var dfdBytes = Integer.BYTES + DFD_BLOCK_HEADER_BYTES + DFD_SAMPLE_BYTES * sampleCount;
+
+		// 小さいlevelから順に、ブロックのバイト数（と4）の倍数の位置に置く
+		var alignment = Math.max(compression.getBlockBytes(), Integer.BYTES);
+		var levelOffsets = new long[levels.size()];
+		var position = align((long) dfdOffset + dfdBytes, alignment);
+		for (int level = levels.size() - 1; level >= 0; --level) {
+			levelOffsets[level] = position;
+			position = align(position + levels.get(level).remaining(), alignment);
+		}
+
+		var buffer = ByteBuffer.allocate(Math.toIntExact(position)).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.put(IDENTIFIER)
+			.putInt(compression.getFormat())
+			// typeSize（ブロック圧縮の場合は1）
+			.putInt(1)
+			.putInt(width)
+			.putInt(height)
+			// pixelDepth、layerCount（2Dの場合は0）
+			.putInt(0)
+			.putInt(0)
+			// faceCount
+			.putInt(1)
+			.putInt(levels.size())
+			.putInt(SUPERCOMPRESSION_NONE)
+			.putInt(dfdOffset)
+			.putInt(dfdBytes)
+			// Key/Value Data、Supercompression Global Dataはなし
+			.putInt(0)
+			.putInt(0)
+			.putLong(0)
+			.putLong(0);
+		for (int level = 0; level < levels.size(); ++level) {
+			var length = levels.get(level).remaining();
+			buffer.putLong(levelOffsets[level]).putLong(length).putLong(length);
+		}
+
+		// Data Format Descriptor（Basic Data Format Descriptor Blockが1つ）
+		buffer.putInt(dfdBytes)
+			// vendorId（Khronos）、descriptorType（basic）
+			.putInt(0)
+			.putShort((short) DFD_VERSION)
+			.putShort((short) (dfdBytes - Integer.BYTES))
+			.put((byte) compression.getColorModel())
+			.put((byte) DFD_PRIMARIES_BT709)
+			.put((byte) DFD_TRANSFER_SRGB)
+			// flags（アルファは乗算済みでない）
+			.put((byte) 0)
+			// texelBlockDimension（4x4x1x1 の各値 - 1）
+			.put((byte) (TextureCompression.BLOCK_SIZE - 1))
+			.put((byte) (TextureCompression.BLOCK_SIZE - 1))
+			.put((byte) 0)
+			.put((byte) 0)
+			// bytesPlane0〜7
+			.put((byte) compression.getBlockBytes())
+			.put(new byte[7]);
+		var blockBits = compression.getBlockBytes() * Byte.SIZE;
+		if (compression == TextureCompression.BC3) {
+			// 前半64bitがアルファ、後半64bitがカラー
+			putSample(buffer, 0, blockBits / 2, DFD_CHANNEL_ALPHA);
+			putSample(buffer, blockBits / 2, blockBits / 2, DFD_CHANNEL_COLOR);
+		}
+		else {
+			putSample(buffer, 0, blockBits, DFD_CHANNEL_COLOR);
+		}
+
+		for (int level = 0; level < levels.size(); ++level) {
+			buffer.put(Math.toIntExact(levelOffsets[level]), levels.get(level), levels.get(level).position(), levels.get(level).remaining());
+		}
+		return buffer.clear();
+	}
+
+	private static void putSample(ByteBuffer buffer, int bitOffset, int bitLength, int channel) {
+		buffer.putShort((short) bitOffset)
+			.put((byte) (bitLength - 1))
+			.put((byte) channel)
+			// samplePosition
+			.putInt(0)
+			// sampleLower、sampleUpper
+			.putInt(0)
+			.putInt(-1);
+	}
+
+	static long align(long offset, int alignment) {
+		return (offset + alignment - 1) / alignment * alignment;
+	}
+}
@@ -0,0 +1,207 @@
+package lwjgl.ex.vulkan;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Path;
+
+import motopgi.utils.MappedFile;
+
+import static org.lwjgl.system.MemoryUtil.*;
+
+/**
+ * KTX2（BCn、supercompressionなし）のTextureSource
+ * 全levelのブロックを1回のmemCopyでステージングバッファに送る（展開しない）
+ */
+public class Ktx2TextureSource implements TextureSource {
+	/**
+	 * headerの各値の位置
+	 */
+	private static final int FORMAT_OFFSET = 12;
+	private static final int WIDTH_OFFSET = 20;
+	private static final int HEIGHT_OFFSET = 24;
+	private static final int DEPTH_OFFSET = 28;
+	private static final int LAYER_COUNT_OFFSET = 32;
+	private static final int FACE_COUNT_OFFSET = 36;
+	private static final int LEVEL_COUNT_OFFSET = 40;
+	private static final int SUPERCOMPRESSION_OFFSET = 44;
+
+	private final ByteBuffer buffer;
+	/**
+	 * ファイルから開いた場合のみ
+	 */
+	private MappedFile file;
+	/**
+	 * ヒープのByteBufferから作成した場合に、コピーしたもの
+	 */
+	private ByteBuffer copy;
+
+	private final TextureCompression compression;
+	private final int width;
+	private final int height;
+	/**
+	 * 全levelの先頭（ファイル内では最も小さいlevelが先頭）
+	 */
+	private final long dataOffset;
+	private final long dataBytes;
+	private final long[] levelOffsets;
+
+	/**
+	 *
+	 * @param buffer KTX2のファイルの内容。読み込み位置は変更しない。ダイレクトバッファの場合はcloseまで参照する
+	 */
+	public Ktx2TextureSource(ByteBuffer buffer) {
+		if (!Ktx2.isKtx2(buffer) || buffer.remaining() < Ktx2.HEADER_BYTES) {
+			throw new IllegalArgumentException("KTX2ではありません");
+		}
+		if (!buffer.isDirect()) {
+			// memCopyで送るため、ネイティブメモリにコピーする
+			copy = memAlloc(buffer.remaining()).put(buffer.duplicate()).flip();
+			buffer = copy;
+		}
+		try {
+			this.buffer = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+			var format = this.buffer.getInt(FORMAT_OFFSET);
+			compression = TextureCompression.fromFormat(format);
+			if (compression == null) {
+				throw new IllegalArgumentException("KTX2のフォーマットに対応していません " + format);
+			}
+			width = this.buffer.getInt(WIDTH_OFFSET);
+			height = this.buffer.getInt(HEIGHT_OFFSET);
+			if (this.buffer.getInt(DEPTH_OFFSET) != 0 || this.buffer.getInt(LAYER_COUNT_OFFSET) > 1 || this.buffer.getInt(FACE_COUNT_OFFSET) != 1) {
+				throw new IllegalArgumentException("2Dテクスチャ以外のKTX2には対応していません");
+			}
+			if (this.buffer.getInt(SUPERCOMPRESSION_OFFSET) != Ktx2.SUPERCOMPRESSION_NONE) {
+				throw new IllegalArgumentException("supercompressionされたKTX2には対応していません");
+			}
+			// 0はミップマップの生成を要求するという意味だが、1段として扱う
+			var levelCount = Math.max(1, this.buffer.getInt(LEVEL_COUNT_OFFSET));
+			var limit = this.buffer.limit();
+			var levelIndexEnd = Ktx2.HEADER_BYTES + (long) Ktx2.LEVEL_ENTRY_BYTES * levelCount;
+			if (levelIndexEnd > limit) {
+				throw new IllegalArgumentException("KTX2のlevelの一覧が壊れています " + levelCount);
+			}
+
+			var fileOffsets = new long[levelCount];
+			var start = Long.MAX_VALUE;
+			var end = 0L;
+			for (int level = 0; level < levelCount; ++level) {
+				var entry = Ktx2.HEADER_BYTES + Ktx2.LEVEL_ENTRY_BYTES * level;
+				fileOffsets[level] = this.buffer.getLong(entry);
+				var length = this.buffer.getLong(entry + Long.BYTES);
+				// offset + lengthはあふれる可能性があるので、引き算で比較する
+				if (length < 0 || fileOffsets[level] < 0 || fileOffsets[level] > limit - length
+						|| length != compression.calcBytes(TextureSource.toLevelSize(width, level), TextureSource.toLevelSize(height, level))) {
+					throw new IllegalArgumentException("KTX2のlevel " + level + " が壊れています");
+				}
+				start = Math.min(start, fileOffsets[level]);
+				end = Math.max(end, fileOffsets[level] + length);
+			}
+			dataOffset = start;
+			dataBytes = end - start;
+			levelOffsets = new long[levelCount];
+			for (int level = 0; level < levelCount; ++level) {
+				levelOffsets[level] = fileOffsets[level] - start;
+				// VkBufferImageCopyのbufferOffsetは、ブロックのバイト数の倍数でなければならない
+				if (levelOffsets[level] % compression.getBlockBytes() != 0) {
+					throw new IllegalArgumentException("KTX2のlevel " + level + " の位置が揃っていません");
+				}
+			}
+		} catch (RuntimeException e) {
+			// 形式が異なる場合に、コピーしたものを残さない
+			if (copy != null) {
+				memFree(copy);
+				copy = null;
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * ファイルをメモリマップして開く
+	 * @param path
+	 * @return closeでunmapされる
+	 * @throws IOException
+	 */
+	public static Ktx2TextureSource open(Path path) throws IOException {
+		var file = new MappedFile(path);
+		try {
+			var source = new Ktx2TextureSource(file.asByteBuffer(0, file.size()));
+			source.file = file;
+			return source;
+		} catch (RuntimeException e) {
+			file.close();
+			throw e;
+		}
+	}
+
+	public TextureCompression getCompression() {
+		return compression;
+	}
+
+	@Override
+	public int getWidth() {
+		return width;
+	}
+
+	@Override
+	public int getHeight() {
+		return height;
+	}
+
+	@Override
+	public int getFormat() {
+		return compression.getFormat();
+	}
+
+	@Override
+	public int getMipLevels() {
+		return levelOffsets.length;
+	}
+
+	@Override
+	public long getLevelOffset(int level) {
+		return level < levelOffsets.length ? levelOffsets[level] : dataBytes;
+	}
+
+	@Override
+	public long getBytes() {
+		return dataBytes;
+	}
+
+	@Override
+	public void write(long address) {
+		memCopy(memAddress(buffer) + dataOffset, address, dataBytes);
+	}
+
+	/**
+	 * 全levelをRGBA8に展開する
+	 */
+	@Override
+	public TextureSource decompress() {
+		var result = new PixelTextureSource(width, height, getMipLevels(), MipmapGenerator.FORMAT);
+		try {
+			for (int level = 0; level < getMipLevels(); ++level) {
+				BlockCompressor.decode(compression, memAddress(buffer) + dataOffset + levelOffsets[level],
+						TextureSource.toLevelSize(width, level), TextureSource.toLevelSize(height, level),
+						result.getLevelAddress(level));
+			}
+			return result;
+		} catch (RuntimeException e) {
+			result.close();
+			throw e;
+		}
+	}
+
+	@Override
+	public void close() {
+		if (file != null) {
+			file.close();
+			file = null;
+		}
+		if (copy != null) {
+			memFree(copy);
+			copy = null;
+		}
+	}
+}
@@ -0,0 +1,101 @@
+package lwjgl.ex.vulkan;
+
+/**
+ * バッファ内のオフセットの決め方
+ * https://docs.vulkan.org/guide/latest/shader_memory_layout.html
+ *
+ * shader.slangで「なぜかずれる」「不明な空間」と書いていたものは、STD140の規則によるもの
+ * （float3は16バイト境界に置かれ、structは16バイトの倍数に切り上げられる）
+ */
+public enum LayoutRule {
+	/**
+	 * ConstantBuffer（Uniform）
+	 */
+	STD140,
+	/**
+	 * StructuredBuffer（StorageBuffer）、PushConstant
+	 */
+	STD430;
+
+	/**
+	 * STD140で、配列とstructを揃える境界
+	 */
+	public static final int STD140_BASE_ALIGNMENT = 16;
+
+	public int alignment(ShaderType type) {
+		return switch (type.getKind()) {
+		case SCALAR -> type.getBytes();
+		// float3はfloat4と同じ
+		case VECTOR -> (type.getCount() == 3 ? 4 : type.getCount()) * alignment(type.getElement());
+		case MATRIX, ARRAY -> roundUpForStd140(alignment(type.getElement()));
+		case STRUCT -> {
+			var max = 1;
+			for (var member : type.getMembers()) {
+				max = Math.max(max, alignment(member.getType()));
+			}
+			yield roundUpForStd140(max);
+		}
+		};
+	}
+
+	public int size(ShaderType type) {
+		return switch (type.getKind()) {
+		case SCALAR -> type.getBytes();
+		case VECTOR -> type.getCount() * size(type.getElement());
+		case MATRIX, ARRAY -> type.getCount() * stride(type);
+		case STRUCT -> roundUp(end(type), alignment(type));
+		};
+	}
+
+	/**
+	 *
+	 * @param type MATRIX（列の間隔）またはARRAY（要素の間隔）
+	 * @return SPIR-Vで指定されている場合はそのまま
+	 */
+	public int stride(ShaderType type) {
+		if (type.getStride() != ShaderType.BY_RULE) {
+			return type.getStride();
+		}
+		return roundUp(size(type.getElement()), alignment(type));
+	}
+
+	/**
+	 *
+	 * @param struct
+	 * @return メンバーごとの、structの先頭からのオフセット
+	 */
+	public int[] offsets(ShaderType struct) {
+		var members = struct.getMembers();
+		var offsets = new int[members.size()];
+		var end = 0;
+		for (int i = 0; i < offsets.length; ++i) {
+			var member = members.get(i);
+			offsets[i] = member.getOffset() != ShaderType.BY_RULE ? member.getOffset() : roundUp(end, alignment(member.getType()));
+			end = offsets[i] + size(member.getType());
+		}
+		return offsets;
+	}
+
+	/**
+	 *
+	 * @param struct
+	 * @return 最後のメンバーの終わり（切り上げ前のサイズ）
+	 */
+	private int end(ShaderType struct) {
+		var offsets = offsets(struct);
+		var members = struct.getMembers();
+		var end = 0;
+		for (int i = 0; i < offsets.length; ++i) {
+			end = Math.max(end, offsets[i] + size(members.get(i).getType()));
+		}
+		return end;
+	}
+
+	private int roundUpForStd140(int alignment) {
+		return this == STD140 ? roundUp(alignment, STD140_BASE_ALIGNMENT) : alignment;
+	}
+
+	static int roundUp(int value, int alignment) {
+		return (value + alignment - 1) / alignment * alignment;
+	}
+}
@@ -3,6 +3,7 @@ package lwjgl.ex.vulkan;
 import java.nio.Buffer;
 import org.lwjgl.PointerBuffer;
 import org.lwjgl.system.MemoryStack;
+import org.lwjgl.vulkan.EXTMemoryBudget;
 import org.lwjgl.vulkan.VkDevice;
 import org.lwjgl.vulkan.VkDeviceCreateInfo;
 import org.lwjgl.vulkan.VkDeviceQueueCreateInfo;
@@ -17,9 +18,11 @@ import static org.lwjgl.vulkan.VK10.vkDestroyDevice;
 import static org.lwjgl.vulkan.VK13.*;
 import static org.lwjgl.system.MemoryUtil.*;
 
+import java.util.HashSet;
 import java.util.List;
 import java.util.OptionalInt;
 import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
 
 import static lwjgl.ex.vulkan.Vulkan.*;
 
@@ -37,14 +40,46 @@ public class LogicalDevice implements AutoCloseable {
 	
 	// Vulkanのクソ設計によりここにあった方が楽
 	private PipelineCache pipelineCache;
+	
+	/**
+	 * StagingBuffer、ImageViewのメモリはここから割り当てる
+	 */
+	private MemoryAllocator memoryAllocator;
+	
+	/**
+	 * DEVICE_LOCALの頂点、index、Textureへの送信に使う
+	 */
+	private StagingRing stagingRing;
+	
+	/**
+	 * UniformBufferObjectの、フレームごとの領域
+	 */
+	private UniformArena uniformArena;
+	
+	/**
+	 * MemoryAllocatorの割り当てと、ヒープごとの予算
+	 */
+	private MemoryTelemetry memoryTelemetry;
+	
+	/**
+	 * VkQueueへのsubmit、present、waitIdleは外部で同期する必要があるので、Queueとこのクラスで共有する
+	 * （転送用のスレッドと描画スレッドが同じVkQueueを使うため）
+	 */
+	private final ReentrantLock queueLock = new ReentrantLock();
 
     public LogicalDevice(LogicalDeviceSettings settings) {
     	this.settings = settings;
 
         try (var stack = MemoryStack.stackPush()) {
+        	// 予算の取得は任意なので、対応している場合だけ追加
+        	var extensions = new HashSet<>(settings.getRequiredExtensions());
+        	var memoryBudget = settings.isMemoryBudget() && settings.getPhysicalDevice().isMemoryBudget();
+        	if (memoryBudget) {
+        		extensions.add(EXTMemoryBudget.VK_EXT_MEMORY_BUDGET_EXTENSION_NAME);
+        	}
         	// Set<String> -> Buffer[]
         	PointerBuffer requiredExtensionsBuffer = stack.pointers(
-        			settings.getRequiredExtensions().stream().map(stack::UTF8).toArray(Buffer[]::new)
+        			extensions.stream().map(stack::UTF8).toArray(Buffer[]::new)
         			);
         	
         	
@@ -91,7 +126,9 @@ public class LogicalDevice implements AutoCloseable {
             	
             	// なぜかこれだけ扱いが別。設計ミス？
             	deviceFeatures2.features()
-            		.samplerAnisotropy(true);
+            		.samplerAnisotropy(true)
+            		// 対応している場合のみ、BCnの圧縮テクスチャを使えるようにする（未対応の場合はCPUで展開する）
+            		.textureCompressionBC(settings.getPhysicalDevice().isTextureCompressionBC());
 
             	deviceCreateInfo.pNext(deviceFeatures2.address());
         	}
@@ -104,7 +141,11 @@ public class LogicalDevice implements AutoCloseable {
             
             // Vulkanのクソ設計のため、内部にPipelineCacheを持っていた方が楽なので作る
             // （PipelineCacheのstaticに置くとcloseで難しくなる）
-            pipelineCache = new PipelineCache(this);
+            pipelineCache = new PipelineCache(this, settings.getPipelineCachePath());
+            memoryTelemetry = new MemoryTelemetry(this, memoryBudget);
+            memoryAllocator = new MemoryAllocator(this, settings.getMemoryBlockBytes());
+            stagingRing = new StagingRing(this, settings.getStagingRingBytes());
+            uniformArena = new UniformArena(this, settings.getUniformFrameCount(), settings.getUniformFrameBytes());
         }
         
         if (settings.isAntiAlias()) {
@@ -117,8 +158,22 @@ public class LogicalDevice implements AutoCloseable {
 	}
 	
 	public void waitIdle() {
-		Vulkan.throwExceptionIfFailed(vkDeviceWaitIdle(device),
-				"vkDeviceWaitIdleに失敗しました");
+		// vkDeviceWaitIdleは全てのVkQueueを外部で同期する必要がある
+		queueLock.lock();
+		try {
+			Vulkan.throwExceptionIfFailed(vkDeviceWaitIdle(device),
+					"vkDeviceWaitIdleに失敗しました");
+		} finally {
+			queueLock.unlock();
+		}
+	}
+	
+	/**
+	 * 
+	 * @return このデバイスの全てのVkQueueへのアクセスを同期するロック
+	 */
+	public ReentrantLock getQueueLock() {
+		return queueLock;
 	}
 	
 	@Override
@@ -128,9 +183,16 @@ public class LogicalDevice implements AutoCloseable {
         }
 		
 		try {
+			// 送信中のものの完了を待つ
+			stagingRing.close();
+			uniformArena.close();
+			// 使われていないモデルは、ModelCacheがGPUに残している
+			ModelCache.evictUnused(this);
 			pipelineCache.close();
 		}
 		finally {
+			// 全てのBufferとImageを破棄した後
+			memoryAllocator.close();
 			// 論理デバイスは明示的にDestroyする必要がある
 			// The Vulkan spec states: All child objects that were created with instance or with a VkPhysicalDevice retrieved from it, and that can be destroyed or freed, must have been destroyed or freed prior to destroying instance (https://vulkan.lunarg.com/doc/view/1.4.321.1/linux/antora/spec/latest/chapters/initialization.html#VUID-vkDestroyInstance-instance-00629)
 	        vkDestroyDevice(device, null);
@@ -158,4 +220,20 @@ public class LogicalDevice implements AutoCloseable {
 	public PipelineCache getPipelineCache() {
 		return pipelineCache;
 	}
+
+	public MemoryAllocator getMemoryAllocator() {
+		return memoryAllocator;
+	}
+
+	public StagingRing getStagingRing() {
+		return stagingRing;
+	}
+
+	public UniformArena getUniformArena() {
+		return uniformArena;
+	}
+
+	public MemoryTelemetry getMemoryTelemetry() {
+		return memoryTelemetry;
+	}
 }
@@ -1,5 +1,6 @@
 package lwjgl.ex.vulkan;
 
+import java.nio.file.Path;
 import java.util.Set;
 
 import org.lwjgl.vulkan.KHRSwapchain;
@@ -22,6 +23,36 @@ vkResetFences(): pFences[0] (VkFence 0xb000000000b) is in use.
 
 	private boolean antiAlias = true;
 	
+	/**
+	 * PipelineCacheを保存するファイル（nullの場合は保存しない）
+	 */
+	private Path pipelineCachePath;
+	
+	/**
+	 * MemoryAllocatorが1回のvkAllocateMemoryで確保するバイト数（2のべき乗）
+	 */
+	private long memoryBlockBytes = MemoryAllocator.DEFAULT_BLOCK_BYTES;
+	
+	/**
+	 * StagingRingのバイト数
+	 */
+	private long stagingRingBytes = StagingRing.DEFAULT_BYTES;
+	
+	/**
+	 * UniformArenaのフレーム数（RenderSettings.getMaxInFlight以上）
+	 */
+	private int uniformFrameCount = RenderSettings.DEFAULT_MAX_IN_FLIGHT;
+	
+	/**
+	 * UniformArenaの1フレーム分のバイト数（2のべき乗）
+	 */
+	private long uniformFrameBytes = UniformArena.DEFAULT_FRAME_BYTES;
+	
+	/**
+	 * 対応していれば、VK_EXT_memory_budgetを有効にする（MemoryTelemetry）
+	 */
+	private boolean memoryBudget = true;
+	
 	public LogicalDeviceSettings(PhysicalDevice physicalDevice) {
 		this.physicalDevice = physicalDevice;
 	}
@@ -70,4 +101,64 @@ vkResetFences(): pFences[0] (VkFence 0xb000000000b) is in use.
 	public void setAntiAlias(boolean antiAlias) {
 		this.antiAlias = antiAlias;
 	}
+	public Path getPipelineCachePath() {
+		return pipelineCachePath;
+	}
+	/**
+	 * 
+	 * @param pipelineCachePath 起動時に読み込み、closeで保存する（nullの場合は毎回空から作成する）
+	 */
+	public void setPipelineCachePath(Path pipelineCachePath) {
+		this.pipelineCachePath = pipelineCachePath;
+	}
+	/**
+	 * 初期値 {@value MemoryAllocator#DEFAULT_BLOCK_BYTES}
+	 * @return
+	 */
+	public long getMemoryBlockBytes() {
+		return memoryBlockBytes;
+	}
+	public void setMemoryBlockBytes(long memoryBlockBytes) {
+		this.memoryBlockBytes = memoryBlockBytes;
+	}
+	/**
+	 * 初期値 {@value StagingRing#DEFAULT_BYTES}
+	 * @return
+	 */
+	public long getStagingRingBytes() {
+		return stagingRingBytes;
+	}
+	public void setStagingRingBytes(long stagingRingBytes) {
+		this.stagingRingBytes = stagingRingBytes;
+	}
+	/**
+	 * 初期値 {@value RenderSettings#DEFAULT_MAX_IN_FLIGHT}
+	 * @return
+	 */
+	public int getUniformFrameCount() {
+		return uniformFrameCount;
+	}
+	public void setUniformFrameCount(int uniformFrameCount) {
+		this.uniformFrameCount = uniformFrameCount;
+	}
+	/**
+	 * 初期値 {@value UniformArena#DEFAULT_FRAME_BYTES}
+	 * @return
+	 */
+	public long getUniformFrameBytes() {
+		return uniformFrameBytes;
+	}
+	public void setUniformFrameBytes(long uniformFrameBytes) {
+		this.uniformFrameBytes = uniformFrameBytes;
+	}
+	public boolean isMemoryBudget() {
+		return memoryBudget;
+	}
+	/**
+	 * 
+	 * @param memoryBudget falseの場合、MemoryTelemetryはMemoryAllocatorが確保したバイト数だけを使う
+	 */
+	public void setMemoryBudget(boolean memoryBudget) {
+		this.memoryBudget = memoryBudget;
+	}
 }
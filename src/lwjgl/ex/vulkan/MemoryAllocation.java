@@ -0,0 +1,96 @@
+package lwjgl.ex.vulkan;
+
+/**
+ * MemoryAllocatorで割り当てた、VkDeviceMemoryの一部
+ * vkBindBufferMemory、vkBindImageMemoryにはgetMemoryとgetOffsetを渡す
+ */
+public class MemoryAllocation implements AutoCloseable {
+	private final MemoryAllocator allocator;
+	final MemoryAllocator.Block block;
+	private final long offset;
+	private final long size;
+	private final MemoryCategory category;
+	private boolean closed;
+
+	MemoryAllocation(MemoryAllocator allocator, MemoryAllocator.Block block, long offset, long size, MemoryCategory category) {
+		this.allocator = allocator;
+		this.block = block;
+		this.offset = offset;
+		this.size = size;
+		this.category = category;
+	}
+
+	/**
+	 * CPUから書き込めるアドレス
+	 * VkDeviceMemoryは同時に1回しかマップできないため、ブロック全体をマップしたままにする（unmapしない）
+	 * @return
+	 * @throws IllegalStateException HOST_VISIBLEでない場合
+	 */
+	public long map() {
+		return allocator.map(block) + offset;
+	}
+
+	/**
+	 * mapで書き込んだ範囲を記録する（submitの前にMemoryAllocator.flushで反映される）
+	 * HOST_COHERENTの場合は何もしない
+	 * @param offset この割り当ての中の位置
+	 * @param bytes
+	 */
+	public void markDirty(long offset, long bytes) {
+		allocator.markDirty(block, this.offset + offset, bytes);
+	}
+
+	/**
+	 * 
+	 * @return HOST_COHERENTの場合（markDirtyが不要）
+	 */
+	public boolean isCoherent() {
+		return block.isCoherent();
+	}
+
+	public long getMemory() {
+		return block.getMemory();
+	}
+
+	public long getOffset() {
+		return offset;
+	}
+
+	public long getSize() {
+		return size;
+	}
+
+	/**
+	 * 
+	 * @return MemoryTelemetryで数える種類
+	 */
+	public MemoryCategory getCategory() {
+		return category;
+	}
+
+	public int getMemoryTypeIndex() {
+		return block.getMemoryTypeIndex();
+	}
+
+	/**
+	 *
+	 * @return VkDeviceMemoryをこの割り当てだけで使っている場合（大きいもの）
+	 */
+	public boolean isDedicated() {
+		return block.isDedicated();
+	}
+
+	@Override
+	public void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		allocator.free(this);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("MemoryAllocation(memory 0x%x, offset %d, size %d)", block.getMemory(), offset, size);
+	}
+}
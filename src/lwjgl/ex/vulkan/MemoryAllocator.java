@@ -0,0 +1,493 @@
+package lwjgl.ex.vulkan;
+
+import static org.lwjgl.vulkan.VK14.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.system.MemoryUtil;
+import org.lwjgl.vulkan.VkMappedMemoryRange;
+import org.lwjgl.vulkan.VkMemoryAllocateInfo;
+import org.lwjgl.vulkan.VkMemoryRequirements;
+
+/**
+ * VkDeviceMemoryを大きいブロック単位で確保し、BufferとImageに分けて使う
+ * （vkAllocateMemoryは遅く、maxMemoryAllocationCountの上限もあるため、リソースごとに確保しない）
+ * LogicalDeviceで自動生成される
+ *
+ * ブロックはメモリタイプごとに分け、中はBuddyAllocatorで割り当てる
+ * bufferImageGranularityが最小の割り当て単位より大きい場合は、BufferとImage（OPTIMAL）のブロックも分ける
+ * ブロックの半分より大きいものは、専用のVkDeviceMemoryを確保する
+ *
+ * HOST_COHERENTでないメモリは、MemoryAllocation.markDirtyで書き込んだ範囲を記録し、
+ * Queueのsubmitの前にflushでまとめてvkFlushMappedMemoryRangesする（nonCoherentAtomSizeの単位に広げる）
+ *
+ * 割り当てと解放はMemoryTelemetryに、MemoryCategoryとヒープごとに知らせる
+ */
+public class MemoryAllocator implements AutoCloseable {
+	public static final long DEFAULT_BLOCK_BYTES = 64L * 1024 * 1024;
+	/**
+	 * BuddyAllocatorの最小の割り当て単位
+	 */
+	public static final long MIN_ALLOCATION_BYTES = 256;
+	/**
+	 * 専用のVkDeviceMemoryのpoolKey
+	 */
+	private static final int DEDICATED = -1;
+
+	private final LogicalDevice logicalDevice;
+	private final long blockBytes;
+	/**
+	 * BufferとImage（OPTIMAL）を同じブロックに置けない場合
+	 */
+	private final boolean separateImages;
+
+	/**
+	 * poolKey → ブロック
+	 */
+	private final Map<Integer, List<Block>> pools = new HashMap<>();
+	private final List<Block> dedicated = new ArrayList<>();
+	private int vkAllocateCount;
+	/**
+	 * HOST_COHERENTでないブロックの、まだflushしていない範囲（VkDeviceMemoryの中の位置）
+	 */
+	private final Map<Block, DirtyRanges> dirty = new LinkedHashMap<>();
+	private int flushCount;
+	private long flushedBytes;
+
+	/**
+	 * インスタンス生成
+	 * （LogicalDeviceで自動生成されるため、基本的に作る必要はない）
+	 * @param logicalDevice
+	 * @param blockBytes 2のべき乗
+	 */
+	public MemoryAllocator(LogicalDevice logicalDevice, long blockBytes) {
+		if (Long.bitCount(blockBytes) != 1 || blockBytes < MIN_ALLOCATION_BYTES) {
+			throw new IllegalArgumentException("blockBytesは" + MIN_ALLOCATION_BYTES + "以上の2のべき乗にしてください " + blockBytes);
+		}
+		this.logicalDevice = logicalDevice;
+		this.blockBytes = blockBytes;
+		separateImages = logicalDevice.getPhysicalDevice().getBufferImageGranularity() > MIN_ALLOCATION_BYTES;
+	}
+
+	/**
+	 * Bufferのメモリを割り当てて紐づける
+	 * @param buffer
+	 * @param properties VK_MEMORY_PROPERTY_〜
+	 * @return Bufferを破棄した後にcloseする
+	 */
+	public MemoryAllocation bindBuffer(long buffer, int properties) {
+		return bindBuffer(buffer, properties, 0, MemoryCategory.OTHER);
+	}
+
+	/**
+	 * Bufferのメモリを割り当てて紐づける
+	 * @param buffer
+	 * @param properties VK_MEMORY_PROPERTY_〜
+	 * @param preferred あれば使うVK_MEMORY_PROPERTY_〜（VK_MEMORY_PROPERTY_HOST_CACHED_BITなど）
+	 * @param category MemoryTelemetryで数える種類
+	 * @return Bufferを破棄した後にcloseする
+	 */
+	public MemoryAllocation bindBuffer(long buffer, int properties, int preferred, MemoryCategory category) {
+		try (var stack = MemoryStack.stackPush()) {
+			var device = logicalDevice.getDevice();
+			var requirements = VkMemoryRequirements.calloc(stack);
+			vkGetBufferMemoryRequirements(device, buffer, requirements);
+			var allocation = allocate(requirements, properties, preferred, false, category);
+			try {
+				Vulkan.throwExceptionIfFailed(vkBindBufferMemory(device, buffer, allocation.getMemory(), allocation.getOffset()),
+						"メモリの紐づけに失敗しました");
+			} catch (RuntimeException e) {
+				allocation.close();
+				throw e;
+			}
+			return allocation;
+		}
+	}
+
+	/**
+	 * Imageのメモリを割り当てて紐づける
+	 * @param image
+	 * @param properties VK_MEMORY_PROPERTY_〜
+	 * @param optimal VK_IMAGE_TILING_OPTIMALの場合（bufferImageGranularityの対象）
+	 * @return Imageを破棄した後にcloseする
+	 */
+	public MemoryAllocation bindImage(long image, int properties, boolean optimal) {
+		return bindImage(image, properties, optimal, MemoryCategory.TEXTURE);
+	}
+
+	/**
+	 * Imageのメモリを割り当てて紐づける
+	 * @param image
+	 * @param properties VK_MEMORY_PROPERTY_〜
+	 * @param optimal VK_IMAGE_TILING_OPTIMALの場合（bufferImageGranularityの対象）
+	 * @param category MemoryTelemetryで数える種類（TEXTURE、ATTACHMENT）
+	 * @return Imageを破棄した後にcloseする
+	 */
+	public MemoryAllocation bindImage(long image, int properties, boolean optimal, MemoryCategory category) {
+		try (var stack = MemoryStack.stackPush()) {
+			var device = logicalDevice.getDevice();
+			var requirements = VkMemoryRequirements.calloc(stack);
+			vkGetImageMemoryRequirements(device, image, requirements);
+			var allocation = allocate(requirements, properties, 0, optimal, category);
+			try {
+				Vulkan.throwExceptionIfFailed(vkBindImageMemory(device, image, allocation.getMemory(), allocation.getOffset()),
+						"Imageインスタンスのメモリへの紐づけに失敗しました");
+			} catch (RuntimeException e) {
+				allocation.close();
+				throw e;
+			}
+			return allocation;
+		}
+	}
+
+	/**
+	 *
+	 * @param requirements
+	 * @param properties VK_MEMORY_PROPERTY_〜
+	 * @param optimal VK_IMAGE_TILING_OPTIMALのImageの場合
+	 * @return
+	 */
+	public MemoryAllocation allocate(VkMemoryRequirements requirements, int properties, boolean optimal) {
+		return allocate(requirements, properties, 0, optimal, MemoryCategory.OTHER);
+	}
+
+	/**
+	 *
+	 * @param requirements
+	 * @param properties VK_MEMORY_PROPERTY_〜
+	 * @param preferred あれば使うVK_MEMORY_PROPERTY_〜
+	 * @param optimal VK_IMAGE_TILING_OPTIMALのImageの場合
+	 * @param category MemoryTelemetryで数える種類
+	 * @return
+	 */
+	public synchronized MemoryAllocation allocate(VkMemoryRequirements requirements, int properties, int preferred, boolean optimal, MemoryCategory category) {
+		var memoryTypeIndex = logicalDevice.getPhysicalDevice().findMemoryTypeIndex(requirements.memoryTypeBits(), properties, preferred);
+		var size = requirements.size();
+
+		// alignmentがBlockより大きい場合も、専用のVkDeviceMemory（位置0）にする
+		if (size > blockBytes / 2 || requirements.alignment() > blockBytes) {
+			var block = new Block(allocateMemory(size, memoryTypeIndex), memoryTypeIndex, size, null, DEDICATED, isCoherent(memoryTypeIndex));
+			dedicated.add(block);
+			return track(new MemoryAllocation(this, block, 0, size, category));
+		}
+
+		var poolKey = poolKey(memoryTypeIndex, optimal);
+		var pool = pools.computeIfAbsent(poolKey, key -> new ArrayList<>());
+		for (var block : pool) {
+			var offset = block.buddy.allocate(size, requirements.alignment());
+			if (offset != BuddyAllocator.FAILED) {
+				return track(new MemoryAllocation(this, block, offset, size, category));
+			}
+		}
+		var block = new Block(allocateMemory(blockBytes, memoryTypeIndex), memoryTypeIndex, blockBytes, new BuddyAllocator(blockBytes, MIN_ALLOCATION_BYTES), poolKey, isCoherent(memoryTypeIndex));
+		pool.add(block);
+		var offset = block.buddy.allocate(size, requirements.alignment());
+		if (offset == BuddyAllocator.FAILED) {
+			// 空のBlockは次の割り当てで使われ、closeで解放される
+			throw new IllegalStateException("新しいBlockに割り当てられません " + size + ", alignment " + requirements.alignment());
+		}
+		return track(new MemoryAllocation(this, block, offset, size, category));
+	}
+
+	private MemoryAllocation track(MemoryAllocation allocation) {
+		logicalDevice.getMemoryTelemetry().track(allocation.getCategory(), allocation.getSize());
+		return allocation;
+	}
+
+	private boolean isCoherent(int memoryTypeIndex) {
+		return (logicalDevice.getPhysicalDevice().getMemoryPropertyFlags(memoryTypeIndex) & VK_MEMORY_PROPERTY_HOST_COHERENT_BIT) != 0;
+	}
+
+	private int poolKey(int memoryTypeIndex, boolean optimal) {
+		return memoryTypeIndex * 2 + (separateImages && optimal ? 1 : 0);
+	}
+
+	private long allocateMemory(long size, int memoryTypeIndex) {
+		try (var stack = MemoryStack.stackPush()) {
+			var memoryAllocateInfo = VkMemoryAllocateInfo.calloc(stack).sType$Default()
+					.allocationSize(size)
+					.memoryTypeIndex(memoryTypeIndex);
+			var forMemory = stack.mallocLong(1);
+			Vulkan.throwExceptionIfFailed(vkAllocateMemory(logicalDevice.getDevice(), memoryAllocateInfo, null, forMemory),
+					"メモリの割り当てに失敗しました");
+			++vkAllocateCount;
+			logicalDevice.getMemoryTelemetry().trackDeviceMemory(memoryTypeIndex, size);
+			return forMemory.get(0);
+		}
+	}
+
+	synchronized long map(Block block) {
+		if (block.mapped == MemoryUtil.NULL) {
+			if ((logicalDevice.getPhysicalDevice().getMemoryPropertyFlags(block.memoryTypeIndex) & VK_MEMORY_PROPERTY_HOST_VISIBLE_BIT) == 0) {
+				throw new IllegalStateException("HOST_VISIBLEでないメモリはマップできません");
+			}
+			try (var stack = MemoryStack.stackPush()) {
+				var forMap = stack.mallocPointer(1);
+				Vulkan.throwExceptionIfFailed(vkMapMemory(logicalDevice.getDevice(), block.memory, 0, VK_WHOLE_SIZE, VulkanConstants.DEFAULT_MEMORY_MAP_FLAG_BITS, forMap),
+						"vkMapMemoryエラー");
+				block.mapped = forMap.get(0);
+			}
+		}
+		return block.mapped;
+	}
+
+	/**
+	 * 書き込んだ範囲を記録する（HOST_COHERENTの場合は何もしない）
+	 * @param block
+	 * @param offset VkDeviceMemoryの中の位置
+	 * @param bytes
+	 */
+	synchronized void markDirty(Block block, long offset, long bytes) {
+		if (block.coherent || bytes <= 0 || block.memory == MemoryUtil.NULL) {
+			return;
+		}
+		// offsetとsizeはnonCoherentAtomSizeの倍数（末尾はVkDeviceMemoryの終わりでもよい）
+		var atom = logicalDevice.getPhysicalDevice().getNonCoherentAtomSize();
+		var start = offset / atom * atom;
+		var end = Math.min((offset + bytes + atom - 1) / atom * atom, block.size);
+		dirty.computeIfAbsent(block, key -> new DirtyRanges()).add(start, end);
+	}
+
+	/**
+	 * markDirtyした範囲をまとめてvkFlushMappedMemoryRangesする
+	 * （Queueのsubmitで呼ばれる）
+	 */
+	public synchronized void flush() {
+		if (dirty.isEmpty()) {
+			return;
+		}
+		var count = 0;
+		for (var ranges : dirty.values()) {
+			count += ranges.size();
+		}
+		// 数が多い場合もあるので、MemoryStackではなくヒープに確保
+		var mappedRanges = VkMappedMemoryRange.calloc(count);
+		try {
+			var i = 0;
+			for (var entry : dirty.entrySet()) {
+				var memory = entry.getKey().memory;
+				for (var range : entry.getValue().getRanges().entrySet()) {
+					mappedRanges.get(i++).sType$Default()
+							.memory(memory)
+							.offset(range.getKey())
+							.size(range.getValue() - range.getKey());
+				}
+				flushedBytes += entry.getValue().getBytes();
+			}
+			Vulkan.throwExceptionIfFailed(vkFlushMappedMemoryRanges(logicalDevice.getDevice(), mappedRanges),
+					"vkFlushMappedMemoryRangesに失敗しました");
+			++flushCount;
+		} finally {
+			mappedRanges.free();
+			dirty.clear();
+		}
+	}
+
+	synchronized void free(MemoryAllocation allocation) {
+		var block = allocation.block;
+		if (block.memory == MemoryUtil.NULL) {
+			// closeで全て解放済み
+			return;
+		}
+		logicalDevice.getMemoryTelemetry().track(allocation.getCategory(), -allocation.getSize());
+		if (block.isDedicated()) {
+			dedicated.remove(block);
+			destroy(block);
+			return;
+		}
+		block.buddy.free(allocation.getOffset());
+		// 確保と解放を繰り返さないように、最後の1つは空でも残す
+		var pool = pools.get(block.poolKey);
+		if (block.buddy.isEmpty() && pool.size() > 1) {
+			pool.remove(block);
+			destroy(block);
+		}
+	}
+
+	private void destroy(Block block) {
+		dirty.remove(block);
+		// マップしたままでも、vkFreeMemoryで解除される
+		vkFreeMemory(logicalDevice.getDevice(), block.memory, null);
+		logicalDevice.getMemoryTelemetry().trackDeviceMemory(block.memoryTypeIndex, -block.size);
+		block.memory = MemoryUtil.NULL;
+		block.mapped = MemoryUtil.NULL;
+	}
+
+	public long getBlockBytes() {
+		return blockBytes;
+	}
+
+	public synchronized int getBlockCount() {
+		var count = 0;
+		for (var pool : pools.values()) {
+			count += pool.size();
+		}
+		return count;
+	}
+
+	public synchronized int getDedicatedCount() {
+		return dedicated.size();
+	}
+
+	/**
+	 *
+	 * @return 起動してからのvkAllocateMemoryの回数
+	 */
+	public synchronized int getVkAllocateCount() {
+		return vkAllocateCount;
+	}
+
+	/**
+	 *
+	 * @return vkAllocateMemoryで確保しているバイト数
+	 */
+	public synchronized long getReservedBytes() {
+		var bytes = 0L;
+		for (var pool : pools.values()) {
+			bytes += pool.size() * blockBytes;
+		}
+		for (var block : dedicated) {
+			bytes += block.size;
+		}
+		return bytes;
+	}
+
+	/**
+	 *
+	 * @return BufferとImageが要求したバイト数の合計
+	 */
+	public synchronized long getRequestedBytes() {
+		var bytes = 0L;
+		for (var pool : pools.values()) {
+			for (var block : pool) {
+				bytes += block.buddy.getRequestedBytes();
+			}
+		}
+		for (var block : dedicated) {
+			bytes += block.size;
+		}
+		return bytes;
+	}
+
+	/**
+	 *
+	 * @return 確保しているうち、実際に使われている割合
+	 */
+	public synchronized double getUtilization() {
+		var reserved = getReservedBytes();
+		return reserved == 0 ? 0 : (double) getRequestedBytes() / reserved;
+	}
+
+	/**
+	 *
+	 * @return ブロックの空きが細切れになっている割合（0～1、空きのバイト数で重み付け）
+	 */
+	public synchronized double getFragmentation() {
+		var free = 0L;
+		var fragmented = 0.0;
+		for (var pool : pools.values()) {
+			for (var block : pool) {
+				free += block.buddy.getFreeBytes();
+				fragmented += block.buddy.getFragmentation() * block.buddy.getFreeBytes();
+			}
+		}
+		return free == 0 ? 0 : fragmented / free;
+	}
+
+	/**
+	 *
+	 * @return vkFlushMappedMemoryRangesの回数（HOST_COHERENTの場合は0のまま）
+	 */
+	public synchronized int getFlushCount() {
+		return flushCount;
+	}
+
+	/**
+	 *
+	 * @return vkFlushMappedMemoryRangesしたバイト数の合計
+	 */
+	public synchronized long getFlushedBytes() {
+		return flushedBytes;
+	}
+
+	/**
+	 *
+	 * @return 例：「3 blocks + 1 dedicated, 12.5/208.0MB (6.0%), fragmentation 3.1%, 4 vkAllocateMemory, 2 flushes (0.1MB)」
+	 */
+	public synchronized String getStatistics() {
+		return String.format("%d blocks + %d dedicated, %.1f/%.1fMB (%.1f%%), fragmentation %.1f%%, %d vkAllocateMemory, %d flushes (%.1fMB)",
+				getBlockCount(),
+				getDedicatedCount(),
+				getRequestedBytes() / 1048576.0,
+				getReservedBytes() / 1048576.0,
+				getUtilization() * 100,
+				getFragmentation() * 100,
+				vkAllocateCount,
+				flushCount,
+				flushedBytes / 1048576.0);
+	}
+
+	/**
+	 * 全てのブロックを解放する（LogicalDeviceのcloseで呼ばれる）
+	 */
+	@Override
+	public synchronized void close() {
+		for (var pool : pools.values()) {
+			for (var block : pool) {
+				destroy(block);
+			}
+		}
+		pools.clear();
+		dirty.clear();
+		for (var block : dedicated) {
+			destroy(block);
+		}
+		dedicated.clear();
+	}
+
+	/**
+	 * 1回のvkAllocateMemoryで確保したもの
+	 */
+	static class Block {
+		private long memory;
+		private final int memoryTypeIndex;
+		private final long size;
+		/**
+		 * 専用の場合はnull
+		 */
+		private final BuddyAllocator buddy;
+		private final int poolKey;
+		private final boolean coherent;
+		private long mapped;
+
+		private Block(long memory, int memoryTypeIndex, long size, BuddyAllocator buddy, int poolKey, boolean coherent) {
+			this.memory = memory;
+			this.memoryTypeIndex = memoryTypeIndex;
+			this.size = size;
+			this.buddy = buddy;
+			this.poolKey = poolKey;
+			this.coherent = coherent;
+		}
+
+		long getMemory() {
+			return memory;
+		}
+
+		int getMemoryTypeIndex() {
+			return memoryTypeIndex;
+		}
+
+		boolean isDedicated() {
+			return buddy == null;
+		}
+
+		boolean isCoherent() {
+			return coherent;
+		}
+	}
+}
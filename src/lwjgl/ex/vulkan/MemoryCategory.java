@@ -0,0 +1,52 @@
+package lwjgl.ex.vulkan;
+
+import static org.lwjgl.vulkan.VK14.*;
+
+/**
+ * MemoryTelemetryで使用量を分けて数える、リソースの種類
+ */
+public enum MemoryCategory {
+	VERTEX,
+	INDEX,
+	UNIFORM,
+	STORAGE,
+	TEXTURE,
+	/**
+	 * 深度、MSAAなど、描画先のImage（SwapChainのImage自体はVkSwapchainKHRが持つので含まない）
+	 */
+	ATTACHMENT,
+	/**
+	 * CPUから送るための一時的なもの（StagingRingなど）
+	 */
+	STAGING,
+	OTHER;
+
+	/**
+	 *
+	 * @param type
+	 * @return
+	 */
+	public static MemoryCategory of(BufferType type) {
+		if (type == null) {
+			return OTHER;
+		}
+		return switch (type) {
+		case VERTEX -> VERTEX;
+		case INDEX -> INDEX;
+		case UNIFORM, UNIFORM_DYNAMIC -> UNIFORM;
+		case STORAGE -> STORAGE;
+		// BufferType.TEXTUREは、Textureへ送るための転送元
+		case TEXTURE -> STAGING;
+		};
+	}
+
+	/**
+	 *
+	 * @param usage VK_IMAGE_USAGE_〜
+	 * @return 描画先の場合はATTACHMENT、それ以外はTEXTURE
+	 */
+	public static MemoryCategory ofImageUsage(int usage) {
+		var attachment = VK_IMAGE_USAGE_COLOR_ATTACHMENT_BIT | VK_IMAGE_USAGE_DEPTH_STENCIL_ATTACHMENT_BIT | VK_IMAGE_USAGE_TRANSIENT_ATTACHMENT_BIT;
+		return (usage & attachment) != 0 ? ATTACHMENT : TEXTURE;
+	}
+}
@@ -0,0 +1,293 @@
+package lwjgl.ex.vulkan;
+
+import static org.lwjgl.vulkan.VK14.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.vulkan.VkPhysicalDeviceMemoryBudgetPropertiesEXT;
+import org.lwjgl.vulkan.VkPhysicalDeviceMemoryProperties2;
+
+/**
+ * GPUメモリの使用量
+ * LogicalDeviceで自動生成される
+ *
+ * ヒープごとの予算と使用量は、VK_EXT_memory_budgetがあればドライバから取得する
+ * （ない場合は、予算 = ヒープの大きさ、使用量 = MemoryAllocatorがvkAllocateMemoryしたバイト数）
+ * MemoryAllocatorで割り当てたものは、MemoryCategoryごとにも数え、最大値を残す
+ *
+ * addListenerで登録したしきい値（使用量 / 予算）をまたいだ場合、refreshを呼んだスレッドで通知する
+ * （Renderが毎フレーム呼ぶ。MemoryAllocatorのロック中には呼ばないので、通知の中で解放してもよい）
+ */
+public final class MemoryTelemetry {
+	public static final double DEFAULT_THRESHOLD = 0.9;
+
+	/**
+	 * しきい値をまたいだときの通知
+	 */
+	@FunctionalInterface
+	public interface BudgetListener {
+		/**
+		 *
+		 * @param telemetry
+		 * @param heapIndex
+		 * @param exceeded しきい値以上になった場合true、下回った場合false
+		 */
+		void onBudgetCrossed(MemoryTelemetry telemetry, int heapIndex, boolean exceeded);
+	}
+
+	private final LogicalDevice logicalDevice;
+	private final boolean budgetSupported;
+	private final int heapCount;
+
+	private final long[] trackedBytes = new long[MemoryCategory.values().length];
+	private final long[] trackedHighWaterBytes = new long[MemoryCategory.values().length];
+	private long totalTrackedBytes;
+	private long totalHighWaterBytes;
+
+	/**
+	 * ヒープごとの、vkAllocateMemoryしたバイト数
+	 */
+	private final long[] heapAllocatedBytes;
+	private final long[] heapHighWaterBytes;
+	/**
+	 * 最後のrefreshで取得したもの
+	 */
+	private final long[] heapBudgets;
+	private final long[] heapUsages;
+
+	private final List<Watch> watches = new ArrayList<>();
+
+	/**
+	 * インスタンス生成
+	 * （LogicalDeviceで自動生成されるため、基本的に作る必要はない）
+	 * @param logicalDevice
+	 * @param budgetSupported VK_EXT_memory_budgetを有効にした場合
+	 */
+	public MemoryTelemetry(LogicalDevice logicalDevice, boolean budgetSupported) {
+		this.logicalDevice = logicalDevice;
+		this.budgetSupported = budgetSupported;
+		heapCount = logicalDevice.getPhysicalDevice().getMemoryHeapCount();
+		heapAllocatedBytes = new long[heapCount];
+		heapHighWaterBytes = new long[heapCount];
+		heapBudgets = new long[heapCount];
+		heapUsages = new long[heapCount];
+		refresh();
+	}
+
+	/**
+	 * しきい値{@value #DEFAULT_THRESHOLD}で登録する
+	 * @param listener
+	 */
+	public void addListener(BudgetListener listener) {
+		addListener(DEFAULT_THRESHOLD, listener);
+	}
+
+	/**
+	 * しきい値を登録する
+	 * @param threshold 使用量 / 予算（0～1）
+	 * @param listener
+	 */
+	public synchronized void addListener(double threshold, BudgetListener listener) {
+		if (!(threshold > 0 && threshold <= 1)) {
+			throw new IllegalArgumentException("しきい値は0より大きく1以下にしてください " + threshold);
+		}
+		watches.add(new Watch(threshold, listener, heapCount));
+	}
+
+	public synchronized void removeListener(BudgetListener listener) {
+		watches.removeIf(watch -> watch.listener == listener);
+	}
+
+	/**
+	 * MemoryAllocatorで割り当てたとき
+	 * @param category
+	 * @param bytes 解放した場合は負
+	 */
+	synchronized void track(MemoryCategory category, long bytes) {
+		var i = category.ordinal();
+		trackedBytes[i] += bytes;
+		trackedHighWaterBytes[i] = Math.max(trackedHighWaterBytes[i], trackedBytes[i]);
+		totalTrackedBytes += bytes;
+		totalHighWaterBytes = Math.max(totalHighWaterBytes, totalTrackedBytes);
+	}
+
+	/**
+	 * MemoryAllocatorがvkAllocateMemory、vkFreeMemoryしたとき
+	 * @param memoryTypeIndex
+	 * @param bytes 解放した場合は負
+	 */
+	synchronized void trackDeviceMemory(int memoryTypeIndex, long bytes) {
+		var heap = logicalDevice.getPhysicalDevice().getMemoryHeapIndex(memoryTypeIndex);
+		heapAllocatedBytes[heap] += bytes;
+		heapHighWaterBytes[heap] = Math.max(heapHighWaterBytes[heap], heapAllocatedBytes[heap]);
+	}
+
+	/**
+	 * ヒープごとの予算と使用量を取得し直し、しきい値をまたいだものを通知する
+	 */
+	public void refresh() {
+		var crossed = new ArrayList<Runnable>();
+		synchronized (this) {
+			var physicalDevice = logicalDevice.getPhysicalDevice();
+			if (budgetSupported) {
+				try (var stack = MemoryStack.stackPush()) {
+					var budget = VkPhysicalDeviceMemoryBudgetPropertiesEXT.calloc(stack).sType$Default();
+					var properties = VkPhysicalDeviceMemoryProperties2.calloc(stack).sType$Default()
+							.pNext(budget);
+					vkGetPhysicalDeviceMemoryProperties2(physicalDevice.getDevice(), properties);
+					for (int heap = 0; heap < heapCount; ++heap) {
+						heapBudgets[heap] = budget.heapBudget(heap);
+						heapUsages[heap] = budget.heapUsage(heap);
+					}
+				}
+			}
+			else {
+				for (int heap = 0; heap < heapCount; ++heap) {
+					heapBudgets[heap] = physicalDevice.getMemoryHeapSize(heap);
+					heapUsages[heap] = heapAllocatedBytes[heap];
+				}
+			}
+
+			for (var watch : watches) {
+				for (int heap = 0; heap < heapCount; ++heap) {
+					var exceeded = getHeapRatio(heap) >= watch.threshold;
+					if (exceeded != watch.exceeded[heap]) {
+						watch.exceeded[heap] = exceeded;
+						var listener = watch.listener;
+						var heapIndex = heap;
+						crossed.add(() -> listener.onBudgetCrossed(this, heapIndex, exceeded));
+					}
+				}
+			}
+		}
+		// ロックの外で通知する
+		for (var runnable : crossed) {
+			runnable.run();
+		}
+	}
+
+	/**
+	 *
+	 * @return VK_EXT_memory_budgetから取得している場合
+	 */
+	public boolean isBudgetSupported() {
+		return budgetSupported;
+	}
+
+	public int getHeapCount() {
+		return heapCount;
+	}
+
+	/**
+	 *
+	 * @param heapIndex
+	 * @return 最後のrefreshでの予算
+	 */
+	public synchronized long getHeapBudget(int heapIndex) {
+		return heapBudgets[heapIndex];
+	}
+
+	/**
+	 *
+	 * @param heapIndex
+	 * @return 最後のrefreshでの使用量（VK_EXT_memory_budgetの場合は、他のプロセスの分を含む）
+	 */
+	public synchronized long getHeapUsage(int heapIndex) {
+		return heapUsages[heapIndex];
+	}
+
+	/**
+	 *
+	 * @param heapIndex
+	 * @return 使用量 / 予算
+	 */
+	public synchronized double getHeapRatio(int heapIndex) {
+		return heapBudgets[heapIndex] == 0 ? 0 : (double) heapUsages[heapIndex] / heapBudgets[heapIndex];
+	}
+
+	/**
+	 *
+	 * @param heapIndex
+	 * @return MemoryAllocatorがvkAllocateMemoryしているバイト数
+	 */
+	public synchronized long getHeapAllocatedBytes(int heapIndex) {
+		return heapAllocatedBytes[heapIndex];
+	}
+
+	/**
+	 *
+	 * @param heapIndex
+	 * @return getHeapAllocatedBytesの最大値
+	 */
+	public synchronized long getHeapHighWaterBytes(int heapIndex) {
+		return heapHighWaterBytes[heapIndex];
+	}
+
+	/**
+	 *
+	 * @param category
+	 * @return MemoryAllocatorで割り当てているバイト数（要求されたもの）
+	 */
+	public synchronized long getTrackedBytes(MemoryCategory category) {
+		return trackedBytes[category.ordinal()];
+	}
+
+	public synchronized long getTrackedBytes() {
+		return totalTrackedBytes;
+	}
+
+	/**
+	 *
+	 * @param category
+	 * @return getTrackedBytesの最大値
+	 */
+	public synchronized long getHighWaterBytes(MemoryCategory category) {
+		return trackedHighWaterBytes[category.ordinal()];
+	}
+
+	public synchronized long getHighWaterBytes() {
+		return totalHighWaterBytes;
+	}
+
+	/**
+	 *
+	 * @return 例：「heap0 210.3/7680.0MB, heap1 40.1/15872.0MB (budget), tracked 180.2MB (peak 200.5MB) VERTEX 3.2MB, TEXTURE 170.0MB, ...」
+	 */
+	public synchronized String getStatistics() {
+		var builder = new StringBuilder();
+		for (int heap = 0; heap < heapCount; ++heap) {
+			builder.append(String.format("heap%d %.1f/%.1fMB, ", heap, heapUsages[heap] / 1048576.0, heapBudgets[heap] / 1048576.0));
+		}
+		builder.setLength(builder.length() - 2);
+		if (budgetSupported) {
+			builder.append(" (budget)");
+		}
+		builder.append(String.format(", tracked %.1fMB (peak %.1fMB)", totalTrackedBytes / 1048576.0, totalHighWaterBytes / 1048576.0));
+		var separator = " ";
+		for (var category : MemoryCategory.values()) {
+			if (trackedHighWaterBytes[category.ordinal()] == 0) {
+				continue;
+			}
+			builder.append(separator).append(category).append(String.format(" %.1fMB", trackedBytes[category.ordinal()] / 1048576.0));
+			separator = ", ";
+		}
+		return builder.toString();
+	}
+
+	private static class Watch {
+		private final double threshold;
+		private final BudgetListener listener;
+		/**
+		 * ヒープごとの、最後に通知した状態
+		 */
+		private final boolean[] exceeded;
+
+		private Watch(double threshold, BudgetListener listener, int heapCount) {
+			this.threshold = threshold;
+			this.listener = listener;
+			exceeded = new boolean[heapCount];
+		}
+	}
+}
@@ -0,0 +1,83 @@
+package lwjgl.ex.vulkan;
+
+/**
+ * MipmapGeneratorで縮小に使うフィルタ
+ * 重みは縮小前のピクセル単位ではなく、縮小後のピクセル単位の距離で求める
+ */
+public enum MipmapFilter {
+	/**
+	 * 2x2の平均（高速だが、縮小を繰り返すとぼやけ、モアレも残る）
+	 */
+	BOX(0.5) {
+		@Override
+		public double weight(double x) {
+			return Math.abs(x) <= 0.5 ? 1 : 0;
+		}
+	},
+	/**
+	 * Lanczos（a = 3）
+	 */
+	LANCZOS3(3) {
+		@Override
+		public double weight(double x) {
+			return sinc(x) * sinc(x / getRadius());
+		}
+	},
+	/**
+	 * Kaiser窓をかけたsinc（alpha = 4）
+	 * Lanczosよりリンギングが少ない
+	 */
+	KAISER(3) {
+		private static final double ALPHA = 4;
+		private static final double I0_ALPHA = besselI0(ALPHA);
+
+		@Override
+		public double weight(double x) {
+			var t = x / getRadius();
+			return sinc(x) * besselI0(ALPHA * Math.sqrt(Math.max(0, 1 - t * t))) / I0_ALPHA;
+		}
+	};
+
+	private final double radius;
+
+	private MipmapFilter(double radius) {
+		this.radius = radius;
+	}
+
+	/**
+	 *
+	 * @return weightが0でない範囲の半径
+	 */
+	public double getRadius() {
+		return radius;
+	}
+
+	/**
+	 *
+	 * @param x 中心からの距離（|x| <= getRadius()）
+	 * @return 正規化していない重み
+	 */
+	public abstract double weight(double x);
+
+	private static double sinc(double x) {
+		if (Math.abs(x) < 1e-6) {
+			return 1;
+		}
+		var px = Math.PI * x;
+		return Math.sin(px) / px;
+	}
+
+	/**
+	 * 第1種変形ベッセル関数 I0（級数展開）
+	 */
+	private static double besselI0(double x) {
+		var sum = 1.0;
+		var term = 1.0;
+		var quarter = x * x / 4;
+		for (int k = 1; term > sum * 1e-12; ++k) {
+			term *= quarter / ((double) k * k);
+			sum += term;
+		}
+		return sum;
+	}
+}
@@ -0,0 +1,278 @@
+package lwjgl.ex.vulkan;
+
+import java.util.stream.IntStream;
+
+import static org.lwjgl.system.MemoryUtil.*;
+import static org.lwjgl.vulkan.VK14.*;
+
+/**
+ * CPUでミップマップを生成する
+ * （実行時のblitは段ごとにGPUの往復が必要で、フィルタも選べないため、読み込み時やビルド時に全段作っておく）
+ *
+ * sRGBの場合は、リニアに戻してから縮小する（そのまま平均すると暗くなる）
+ */
+public final class MipmapGenerator {
+	/**
+	 * generateRgbaの結果のフォーマット（sRGBの場合）
+	 */
+	public static final int FORMAT = VK_FORMAT_R8G8B8A8_SRGB;
+
+	public static final MipmapFilter DEFAULT_FILTER = MipmapFilter.KAISER;
+
+	private static final int CHANNELS = 4;
+	private static final int ALPHA_CHANNEL = 3;
+	private static final int MAX_VALUE = 255;
+
+	/**
+	 * sRGBの各値をリニアにしたもの
+	 */
+	private static final float[] SRGB_TO_LINEAR = new float[MAX_VALUE + 1];
+	/**
+	 * sRGBの k と k + 1 の中間をリニアにしたもの（リニアからsRGBへの変換で、sRGB側で四捨五入するため）
+	 */
+	private static final float[] LINEAR_THRESHOLDS = new float[MAX_VALUE];
+
+	static {
+		for (int i = 0; i <= MAX_VALUE; ++i) {
+			SRGB_TO_LINEAR[i] = (float) srgbToLinear(i / (double) MAX_VALUE);
+		}
+		for (int i = 0; i < MAX_VALUE; ++i) {
+			LINEAR_THRESHOLDS[i] = (float) srgbToLinear((i + 0.5) / MAX_VALUE);
+		}
+	}
+
+	private MipmapGenerator() {
+	}
+
+	/**
+	 *
+	 * @param width
+	 * @param height
+	 * @return 1x1までの段数
+	 */
+	public static int calcFullMipLevels(int width, int height) {
+		return Integer.SIZE - Integer.numberOfLeadingZeros(Math.max(width, height));
+	}
+
+	/**
+	 *
+	 * @param format vk::Format
+	 * @return generateに渡せるか
+	 */
+	public static boolean isSupported(int format) {
+		return switch (format) {
+		case VK_FORMAT_R8G8B8A8_SRGB, VK_FORMAT_B8G8R8A8_SRGB, VK_FORMAT_R8G8B8A8_UNORM, VK_FORMAT_B8G8R8A8_UNORM -> true;
+		default -> false;
+		};
+	}
+
+	/**
+	 * ミップマップが1段のみで、生成できる場合は全段を生成する
+	 * @param source 生成した場合はcloseする
+	 * @return closeは呼び出し側で行う
+	 */
+	public static TextureSource withMipmaps(TextureSource source) {
+		if (source.getMipLevels() != 1 || !isSupported(source.getFormat())) {
+			return source;
+		}
+		try (source) {
+			return generate(source);
+		}
+	}
+
+	/**
+	 * 1x1までの全段を、DEFAULT_FILTERで生成する
+	 * @param source
+	 * @return
+	 */
+	public static PixelTextureSource generate(TextureSource source) {
+		return generate(source, DEFAULT_FILTER);
+	}
+
+	/**
+	 * 1x1までの全段を生成する
+	 * 各段は1つ上の段から作る
+	 * @param source 1ピクセルPIXEL_BYTESのRGBAまたはBGRA（isSupported）で、1段のみのもの
+	 * @param filter
+	 * @return sourceと同じフォーマット（BGRAのままにするので、1段目はmemCopyのみ）。closeは呼び出し側で行う
+	 */
+	public static PixelTextureSource generate(TextureSource source, MipmapFilter filter) {
+		return generate(source, filter, false);
+	}
+
+	/**
+	 * 1x1までの全段を、DEFAULT_FILTERでRGBAとして生成する（BlockCompressor用）
+	 * @param source
+	 * @return RGBA（sRGBの場合はFORMAT）。closeは呼び出し側で行う
+	 */
+	public static PixelTextureSource generateRgba(TextureSource source) {
+		return generate(source, DEFAULT_FILTER, true);
+	}
+
+	private static PixelTextureSource generate(TextureSource source, MipmapFilter filter, boolean rgba) {
+		if (source.getMipLevels() != 1) {
+			throw new IllegalArgumentException("ミップマップを含むTextureSourceからは生成できません");
+		}
+		var width = source.getWidth();
+		var height = source.getHeight();
+		var format = source.getFormat();
+		var srgb = switch (format) {
+		case VK_FORMAT_R8G8B8A8_SRGB, VK_FORMAT_B8G8R8A8_SRGB -> true;
+		case VK_FORMAT_R8G8B8A8_UNORM, VK_FORMAT_B8G8R8A8_UNORM -> false;
+		default -> throw new IllegalArgumentException("ミップマップを生成できないフォーマットです " + format);
+		};
+		var swap = rgba && (format == VK_FORMAT_B8G8R8A8_SRGB || format == VK_FORMAT_B8G8R8A8_UNORM);
+		if (rgba) {
+			format = srgb ? FORMAT : VK_FORMAT_R8G8B8A8_UNORM;
+		}
+		// フィルタはチャンネルごとに独立しているので、RGBAとBGRAのどちらでも同じ
+		var result = new PixelTextureSource(width, height, calcFullMipLevels(width, height), format);
+		try {
+			source.write(result.getLevelAddress(0));
+			if (swap) {
+				swapRedBlue(result.getLevelAddress(0), (long) width * height);
+			}
+			for (int level = 1; level < result.getMipLevels(); ++level) {
+				downsample(result.getLevelAddress(level - 1),
+						TextureSource.toLevelSize(width, level - 1), TextureSource.toLevelSize(height, level - 1),
+						result.getLevelAddress(level),
+						TextureSource.toLevelSize(width, level), TextureSource.toLevelSize(height, level),
+						filter, srgb);
+			}
+			return result;
+		} catch (RuntimeException e) {
+			result.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * 縦、横の順に分離してフィルタをかける（端のピクセルは繰り返す）
+	 * 縮小後の行ごとに並列に処理する
+	 */
+	private static void downsample(long source, int sourceWidth, int sourceHeight, long destination, int width, int height, MipmapFilter filter, boolean srgb) {
+		var kernelX = Kernel.create(sourceWidth, width, filter);
+		var kernelY = Kernel.create(sourceHeight, height, filter);
+		IntStream.range(0, height).parallel().forEach(y -> {
+			// 縦にフィルタをかけた、縮小前の幅の1行（リニア）
+			var row = new float[sourceWidth * CHANNELS];
+			var indicesY = kernelY.indices[y];
+			var weightsY = kernelY.weights[y];
+			for (int tap = 0; tap < indicesY.length; ++tap) {
+				var weight = weightsY[tap];
+				var rowAddress = source + (long) indicesY[tap] * sourceWidth * Texture.PIXEL_BYTES;
+				for (int x = 0; x < sourceWidth; ++x) {
+					var pixel = memGetInt(rowAddress + (long) x * Texture.PIXEL_BYTES);
+					for (int channel = 0; channel < CHANNELS; ++channel) {
+						row[x * CHANNELS + channel] += weight * toLinear((pixel >>> (channel * Byte.SIZE)) & MAX_VALUE, channel, srgb);
+					}
+				}
+			}
+			var destinationRow = destination + (long) y * width * Texture.PIXEL_BYTES;
+			for (int x = 0; x < width; ++x) {
+				var indicesX = kernelX.indices[x];
+				var weightsX = kernelX.weights[x];
+				var pixel = 0;
+				for (int channel = 0; channel < CHANNELS; ++channel) {
+					var sum = 0f;
+					for (int tap = 0; tap < indicesX.length; ++tap) {
+						sum += weightsX[tap] * row[indicesX[tap] * CHANNELS + channel];
+					}
+					pixel |= fromLinear(sum, channel, srgb) << (channel * Byte.SIZE);
+				}
+				memPutInt(destinationRow + (long) x * Texture.PIXEL_BYTES, pixel);
+			}
+		});
+	}
+
+	private static float toLinear(int value, int channel, boolean srgb) {
+		// アルファは常にリニア
+		if (srgb && channel != ALPHA_CHANNEL) {
+			return SRGB_TO_LINEAR[value];
+		}
+		return value / (float) MAX_VALUE;
+	}
+
+	private static int fromLinear(float value, int channel, boolean srgb) {
+		if (srgb && channel != ALPHA_CHANNEL) {
+			// LINEAR_THRESHOLDSのうち、value以下のものの数
+			var low = 0;
+			var high = LINEAR_THRESHOLDS.length;
+			while (low < high) {
+				var middle = (low + high) >>> 1;
+				if (LINEAR_THRESHOLDS[middle] <= value) {
+					low = middle + 1;
+				}
+				else {
+					high = middle;
+				}
+			}
+			return low;
+		}
+		// 負のローブで範囲外になることがある
+		return Math.clamp(Math.round(value * MAX_VALUE), 0, MAX_VALUE);
+	}
+
+	private static double srgbToLinear(double value) {
+		return value <= 0.04045 ? value / 12.92 : Math.pow((value + 0.055) / 1.055, 2.4);
+	}
+
+	/**
+	 * BGRA <-> RGBA
+	 */
+	private static void swapRedBlue(long address, long pixelCount) {
+		for (long i = 0; i < pixelCount; ++i) {
+			var pixelAddress = address + i * Texture.PIXEL_BYTES;
+			var pixel = memGetInt(pixelAddress);
+			memPutInt(pixelAddress, (pixel & 0xFF00FF00) | (pixel >>> 16 & 0xFF) | (pixel & 0xFF) << 16);
+		}
+	}
+
+	/**
+	 * 1次元の縮小で、縮小後の各ピクセルが参照する縮小前のピクセルと重み
+	 */
+	private static class Kernel {
+		private final int[][] indices;
+		private final float[][] weights;
+
+		private Kernel(int size) {
+			indices = new int[size][];
+			weights = new float[size][];
+		}
+
+		/**
+		 *
+		 * @param sourceSize
+		 * @param size 縮小後の大きさ（sourceSizeが奇数の場合は、縮小率が2より少し大きくなる）
+		 * @param filter
+		 * @return
+		 */
+		private static Kernel create(int sourceSize, int size, MipmapFilter filter) {
+			var kernel = new Kernel(size);
+			var scale = sourceSize / (double) size;
+			var support = filter.getRadius() * scale;
+			for (int i = 0; i < size; ++i) {
+				// ピクセルの中心同士で比較する
+				var center = (i + 0.5) * scale;
+				var first = (int) Math.ceil(center - support - 0.5);
+				var last = (int) Math.floor(center + support - 0.5);
+				var indices = new int[last - first + 1];
+				var weights = new float[indices.length];
+				var sum = 0.0;
+				for (int tap = 0; tap < indices.length; ++tap) {
+					var sourceIndex = first + tap;
+					indices[tap] = Math.clamp(sourceIndex, 0, sourceSize - 1);
+					var weight = filter.weight((sourceIndex + 0.5 - center) / scale);
+					weights[tap] = (float) weight;
+					sum += weight;
+				}
+				for (int tap = 0; tap < weights.length; ++tap) {
+					weights[tap] = (float) (weights[tap] / sum);
+				}
+				kernel.indices[i] = indices;
+				kernel.weights[i] = weights;
+			}
+			return kernel;
+		}
+	}
+}
@@ -8,6 +8,7 @@ import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.function.Consumer;
 
 import org.lwjgl.assimp.AIColor4D;
 import org.lwjgl.assimp.AIMesh;
@@ -35,6 +36,7 @@ import static lwjgl.ex.vulkan.StagingBufferSettings.*;
  */
 public class Model implements AutoCloseable {
 	// 頂点の重複を削除できてない。なぜ？
+	// → ModelSettings.setWeldでまとめる
 	public static final int DEFAULT_IMPORT_FILE_FLAG = Assimp.aiProcess_JoinIdenticalVertices;
 	
 	/**
@@ -58,157 +60,60 @@ public class Model implements AutoCloseable {
 	public static final int VERTEX_TEXTURE_COORD_FLOAT_NUM = 2;
 	
 	private LogicalDevice logicalDevice;
-	private AIScene model;
 	
 	// 複数モデルの場合は保留
 	
-	private float[] vertices;
-	private StagingBuffer vertexBuffer;
-	
-	private int[] indices;
-	private StagingBuffer indexBuffer;
+	/**
+	 * 同じファイルを読み込んだModelと共有する、頂点、index、Texture
+	 */
+	private ModelMesh mesh;
 	private UniformBufferObject uniformObject;
-	private AutoCloseableList<Texture> textures;
+	private SwapChain swapChain;
+	/**
+	 * closeでSwapChainから削除する
+	 */
+	private Consumer<SwapChain> recreateListener;
 	
 	public Model(Path modelPath, LogicalDevice logicalDevice, CommandPool commandPool, Queue queue, SwapChain swapChain) throws Exception {
 		this(modelPath, logicalDevice, commandPool, queue, swapChain, DEFAULT_IMPORT_FILE_FLAG);
 	}
 	
 	public Model(Path modelPath, LogicalDevice logicalDevice, CommandPool commandPool, Queue queue, SwapChain swapChain, int importFileFlag) throws Exception {
-		this.model = Assimp.aiImportFile(modelPath.toString(), importFileFlag);
-		this.logicalDevice = logicalDevice;
-		
-		// 各メッシュのtranslation（offset）を取得しなければならない
-		var translations = new ArrayList<FloatVector3>();
-		var  childNodes = model.mRootNode().mChildren();
-		if (childNodes != null) {
-			var childLimit = childNodes.limit();
-			for(int i = 0; i < childLimit; ++i) {
-				try(var child = AINode.create(childNodes.get(i))) {
-					// 平行移動を取り出す
-					// https://chaosplant.tech/do/vulkan/5-14/#ping-xing-yi-dong
-					var transformation = child.mTransformation();
-					translations.add(new FloatVector3(transformation.a4(), transformation.b4(), transformation.c4()));
-				};
-			}
-		}
-		
+		this(createSettings(modelPath, logicalDevice, commandPool, queue, swapChain, importFileFlag));
+	}
+	
+	/**
+	 * ModelCacheにない場合は、ファイルの読み込み、展開、GPUへの送信を、呼び出し元のスレッドで行う
+	 * （画像の展開のみForkJoinPool.commonPoolで並列に行う）
+	 * 描画を止めたくない場合はAssetStreamerを使う
+	 * @param settings modelPathはAssimpで読み込めるファイル、またはBakedModel
+	 * @throws Exception
+	 */
+	public Model(ModelSettings settings) throws Exception {
+		this(settings, ModelCache.load(settings));
+	}
+	
+	/**
+	 * 読み込みと展開が終わったものから作成する（GPUへの送信のみ行う）
+	 * ModelCache.readで読み込んだ場合は、ModelCacheに登録する
+	 * @param imported closeは呼び出し側で行う
+	 * @throws Exception
+	 */
+	public Model(ModelImport imported) throws Exception {
+		this(imported.getSettings(), ModelCache.register(new ModelMesh(imported)));
+	}
+	
+	/**
+	 * 
+	 * @param settings swapChain、uniformLayoutのみ使用
+	 * @param mesh このModelのcloseで参照を減らす
+	 */
+	public Model(ModelSettings settings, ModelMesh mesh) {
+		this.mesh = mesh;
+		this.logicalDevice = mesh.getLogicalDevice();
+		var swapChain = settings.getSwapChain();
 		
 		
-		//　配列のサイズを確定しなければならないので、先に頂点数を取得しなければならない
-		int numMeshes = model.mNumMeshes();
-        var mesheBuffers = model.mMeshes();
-        var verticesCount = 0;
-        var indicesCount = 0;
-        try(var meshes = new AutoCloseableList<AIMesh>()) {
-        	for (int m = 0; m < numMeshes; ++m) {
-        		// createしなければいけないらしい
-            	// Assimp自体はそうなっていないので、LWJGLの設計ミス？
-            	var mesh = AIMesh.create(mesheBuffers.get(m));
-            	meshes.add(mesh);
-            	verticesCount += mesh.mNumVertices();
-            	
-            	// index
-            	// faceに分かれてしまっているので、面倒だがまず要素数を取得しなければならない
-            	// この理由は不明
-            	var numFaces = mesh.mNumFaces();
-            	var faces = mesh.mFaces();
-            	
-            	for(int f = 0; f < numFaces; ++f) {
-            		var face = faces.get(f);
-            		indicesCount += face.mNumIndices();
-            	}
-            	
-            	// 法線
-            	var normals = mesh.mNormals();
-            	var numNormals = normals.limit();
-            	for(int n = 0; n < numNormals; ++n) {
-            		var normal = normals.get(n);
-//            		System.out.println("法線" + n + " " + normal.x() + " " + normal.y() + " " + normal.z() );
-            	}
-            	
-            }
-        	vertices = new float[(int) XYZUV_COUNT * verticesCount];
-        	indices = new int[indicesCount];
-        	
-        	
-        	var verticesIndex = 0;
-        	var indicesIndex = 0;
-        	var indexOffset = 0;
-        	for (int m = 0; m < numMeshes; ++m) {
-        		var mesh = meshes.get(m);
-            	var numVertices = mesh.mNumVertices();
-            	
-            	// translation(offset)がある場合は取得
-            	var translation = ListUtils.getOrNull(translations, m);
-            	
-            	// テクスチャ複数の場合は保留
-            	var textureCoords = mesh.mTextureCoords(0);
-            	
-            	var verticesBuffer = mesh.mVertices();
-            	for(int v = 0; v < numVertices; ++v) {
-            		var vertex = verticesBuffer.get(v);
-            		
-            		
-            		if(translation != null) {
-            			vertices[verticesIndex++] = vertex.x() + translation.getX();
-                		vertices[verticesIndex++] = vertex.y() + translation.getY();
-                		vertices[verticesIndex++] = vertex.z() + translation.getZ();
-            		}
-            		else {
-            			vertices[verticesIndex++] = vertex.x();
-                		vertices[verticesIndex++] = vertex.y();
-                		vertices[verticesIndex++] = vertex.z();
-            		}
-            		
-            		// デバッグ用
-            		/*
-            		System.out.println("(" 
-            				+ vertices[verticesIndex - 3]
-            				+ ", " + vertices[verticesIndex - 2]
-            				+ ", " + vertices[verticesIndex - 1]
-            				);
-            		// */
-            		
-            		
-//            		System.out.println("y " + vertex.y());
-            		
-            		// テクスチャ座標
-            		// 画面の中心が（0, 0）、長さ1まで
-                	// https://docs.vulkan.org/tutorial/latest/_images/images/normalized_device_coordinates.svg
-            		// https://qiita.com/dpals39/items/1681d9101e58b5aefa27
-            		var textureCoord = textureCoords.get(v);
-            		vertices[verticesIndex++] = textureCoord.x();
-            		
-            		// vulkanではy座標が逆なので調整
-            		// https://docs.vulkan.org/tutorial/latest/08_Loading_models.html
-            		vertices[verticesIndex++] = 1.0f - textureCoord.y();
-            		
-////            	// 確認用
-//            		vertices[verticesIndex++] = 0f;
-//            		vertices[verticesIndex++] = 0f;
-            	}
-            	
-            	
-            	
-            	//index取得
-            	var numFaces = mesh.mNumFaces();
-            	var faces = mesh.mFaces();
-            	for(int f = 0; f < numFaces; ++f) {
-            		var face = faces.get(f);
-            		var numIndices = face.mNumIndices();
-            		var mIndices = face.mIndices();
-            		for(int i = 0; i < numIndices; ++i) {
-            			indices[indicesIndex++] = indexOffset + mIndices.get(i);
-            		}
-            	}
-            	
-            	// indexもメッシュごとにオフセットが必要
-            	indexOffset += numVertices;
-            }
-        }
-        
-        
     	// デバッグ用
 //    	// テクスチャと頂点をマッピング
 //    	// https://chaosplant.tech/do/vulkan/6-5/
@@ -222,9 +127,54 @@ public class Model implements AutoCloseable {
 //    	indices = new int[] {0, 1, 2};
         
         
-        
-        
-        uniformObject = new UniformBufferObject(logicalDevice);
+        try {
+	        initUniformObject(swapChain, settings.getUniformLayout());
+	        
+	        // 頂点の型
+	        uniformObject.setDequantize(mesh.getDequantizeOffset(), mesh.getDequantizeScale());
+	        
+	        // 描画範囲初期化
+	        onSwapChainRecreate(swapChain);
+        } catch (Exception e) {
+        	try {
+        		ExceptionUtils.close(uniformObject, mesh);
+        	} catch (Exception ex) {
+        		e.addSuppressed(ex);
+        	}
+        	throw e;
+        }
+		this.swapChain = swapChain;
+		recreateListener = this::onSwapChainRecreate;
+     	swapChain.addRecreateListener(recreateListener);
+	}
+	
+	private static ModelSettings createSettings(Path modelPath, LogicalDevice logicalDevice, CommandPool commandPool, Queue queue, SwapChain swapChain, int importFileFlag) {
+		var settings = new ModelSettings(modelPath, logicalDevice, commandPool, queue, swapChain);
+		settings.setImportFileFlag(importFileFlag);
+		return settings;
+	}
+	
+	/**
+	 * BakedModelをメモリマップして、StagingBufferへそのままコピーする
+	 * （Assimpの読み込み、float[]への展開を行わない）
+	 * @param bakedPath
+	 * @param logicalDevice
+	 * @param commandPool
+	 * @param queue
+	 * @param swapChain
+	 * @return
+	 * @throws Exception
+	 * @throws IllegalArgumentException BakedModelの形式でない場合
+	 */
+	public static Model fromBaked(Path bakedPath, LogicalDevice logicalDevice, CommandPool commandPool, Queue queue, SwapChain swapChain) throws Exception {
+		if (!BakedModel.isBakedModel(bakedPath)) {
+			throw new IllegalArgumentException("BakedModelの形式ではありません " + bakedPath);
+		}
+		return new Model(new ModelSettings(bakedPath, logicalDevice, commandPool, queue, swapChain));
+	}
+	
+	private void initUniformObject(SwapChain swapChain, StructLayout uniformLayout) {
+        uniformObject = new UniformBufferObject(logicalDevice, uniformLayout);
         // 初期化
         swapChain.setView(uniformObject);
         
@@ -261,87 +211,134 @@ public class Model implements AutoCloseable {
       
       // nearを-1くらいにしないと、箱を回転させたときに手前がよく見えない
       uniformObject.perspective(2f, 2f, -1f, 100f);
-        
-        
-
-     // Textureの取得
-        textures = AssimpUtils.readTextures(model, logicalDevice, commandPool, queue, uniformObject);
-        
-        // 描画範囲初期化
-        onSwapChainRecreate(swapChain);
-     	swapChain.addRecreateListener(this::onSwapChainRecreate);
-        
-        
-        // GPUへ送信
-        vertexBuffer = new StagingBuffer(createVertexBufferSettings());
-        indexBuffer = new StagingBuffer(createIndexBufferSettings());
 	}
 	
-	private StagingBufferSettings createVertexBufferSettings() {
-		var settings = new StagingBufferSettings(logicalDevice, (buffer) -> {
-			var vertexBuffer = buffer.getFloatBuffer(0, vertices.length);
-			vertexBuffer.put(vertices);
-		});
-		settings.setSize(Float.BYTES * vertices.length);
-//		settings.setUsage(USAGE_VERTEX_DESTINATION);
-//		settings.setUsage(USAGE_SOURCE);
-		settings.setType(BufferType.VERTEX);
-//		settings.setSourceMemoryPropertyFlags(MEMORY_PROPERTY_FLAGS_DESTINATION);
-//		settings.setSourceMemoryPropertyFlags(MEMORY_PROPERTY_FLAGS_SOURCE);
-		
-		// これは遅いらしいが、動作確認のため一旦こうする
-		settings.setDestinationMemoryPropertyFlags(MEMORY_PROPERTY_FLAGS_VISIBLE);
-		return settings;
-	}
-	
-	private StagingBufferSettings createIndexBufferSettings() {
-		var settings = new StagingBufferSettings(logicalDevice, (buffer) -> {
-			var indexBuffer = buffer.getIntBuffer(0, indices.length);
-			indexBuffer.put(indices);
-		});
-		settings.setSize(Integer.BYTES * Float.BYTES * indices.length);
-		settings.setType(BufferType.INDEX);
-//		settings.setSourceMemoryPropertyFlags(MEMORY_PROPERTY_FLAGS_DESTINATION);
-//		settings.setSourceMemoryPropertyFlags(MEMORY_PROPERTY_FLAGS_SOURCE);
-		// これは遅いらしいが、動作確認のため一旦こうする
-		settings.setDestinationMemoryPropertyFlags(MEMORY_PROPERTY_FLAGS_VISIBLE);
-		return settings;
-	}
-	
-	
-
 	@Override
 	public void close() throws Exception {
-		if(model == null) {
+		if(uniformObject == null) {
 			return;
 		}
-		ExceptionUtils.close(uniformObject, textures, indexBuffer, vertexBuffer, model);
-		model = null;
+		// 解放した後に、SwapChainの再作成で呼ばれないように
+		if (recreateListener != null) {
+			swapChain.removeRecreateListener(recreateListener);
+			recreateListener = null;
+		}
+		try {
+			ExceptionUtils.close(uniformObject, mesh);
+		} finally {
+			uniformObject = null;
+			mesh = null;
+		}
 	}
 	
 	public LongBuffer getVertexBufferInGPU() {
-		return vertexBuffer.getForHandler();
+		return mesh.getVertexBufferInGPU();
 	}
 	
 	public long getIndexBufferHandlerInGPU() {
-		return indexBuffer.getHandler();
+		return mesh.getIndexBufferHandlerInGPU();
 	}
 
+	/**
+	 * 
+	 * @return ModelResidency.HEAP以外、BakedModel（ModelCacheのディスクの段を含む）から作成した場合はnull
+	 */
 	public float[] getVertices() {
-		return vertices;
+		return mesh.getVertices();
 	}
 
+	/**
+	 * 
+	 * @return ModelResidency.HEAP以外、BakedModel（ModelCacheのディスクの段を含む）から作成した場合はnull
+	 */
 	public int[] getIndices() {
-		return indices;
+		return mesh.getIndices();
+	}
+	
+	/**
+	 * 
+	 * @return 頂点の結合、並べ替えの結果。ModelResidency.HEAP以外、BakedModel（ModelCacheのディスクの段を含む）から作成した場合はnull
+	 */
+	public GeometryImport getGeometryImport() {
+		return mesh.getGeometryImport();
+	}
+	
+	/**
+	 * 
+	 * @return ピッキング用の座標とindex。ModelResidency.OFF_HEAP以外はnull
+	 */
+	public OffHeapGeometry getOffHeapGeometry() {
+		return mesh.getOffHeapGeometry();
+	}
+	
+	/**
+	 * 
+	 * @return バウンディングボックスの最小（モデルの座標系）
+	 */
+	public FloatVector3 getBoundsMin() {
+		return mesh.getBoundsMin();
+	}
+	
+	/**
+	 * 
+	 * @return バウンディングボックスの最大（モデルの座標系）
+	 */
+	public FloatVector3 getBoundsMax() {
+		return mesh.getBoundsMax();
+	}
+	
+	/**
+	 * drawIndexed用
+	 * @return
+	 */
+	public int getIndexCount() {
+		return mesh.getIndexCount();
+	}
+	
+	/**
+	 * 
+	 * @return VK_INDEX_TYPE_UINT16 または VK_INDEX_TYPE_UINT32
+	 */
+	public int getIndexType() {
+		return mesh.getIndexType();
+	}
+	
+	/**
+	 * 16bitのindexに収めるために分割した、drawIndexedの範囲
+	 * @return 1つ以上
+	 */
+	public List<DrawRange> getDrawRanges() {
+		return mesh.getDrawRanges();
+	}
+
+	/**
+	 * 元のメッシュごとのindexの範囲（マテリアルの画像を切り替えて描画するため）
+	 * @return 
+	 */
+	public List<SubMesh> getSubMeshes() {
+		return mesh.getSubMeshes();
+	}
+	
+	/**
+	 * 
+	 * @return 同じファイルを読み込んだModelと共有している部分
+	 */
+	public ModelMesh getMesh() {
+		return mesh;
 	}
 
 	public void onSwapChainRecreate(SwapChain swapChain) {
 //		swapChain.setProjection(uniformObject);
+		var uniformObject = this.uniformObject;
+		// close済み
+		if (uniformObject == null) {
+			return;
+		}
 		uniformObject.update();
 	}
 	
 	/**
-	 * slangとの対応用インスタンスを返す
+	 * slangとの対応用インスタンスを返す（頂点がfloatの場合）
 	 * @return
 	 */
 	public static VertexBindingBuilder createBinding() {
@@ -349,12 +346,47 @@ public class Model implements AutoCloseable {
 				.add(new VertexBinding(VERTEX_TEXTURE_COORD_FLOAT_NUM));
 	}
 
+	/**
+	 * slangとの対応用インスタンス（頂点の型はModelSettingsによって異なる）
+	 * @return
+	 */
+	public VertexBindingBuilder getBinding() {
+		return mesh.getBinding();
+	}
+
+	/**
+	 * 
+	 * @return 埋め込まれた画像の後に、外部の画像ファイル。TextureCacheで他のモデルと共有している場合がある
+	 */
 	public AutoCloseableList<Texture> getTextures() {
-		return textures;
+		return mesh.getTextures();
+	}
+	
+	/**
+	 * 
+	 * @param materialIndex AIMeshのmMaterialIndex
+	 * @return 画像がない場合はnull
+	 */
+	public Texture getMaterialTexture(int materialIndex) {
+		var materialTextureIndices = mesh.getMaterialTextureIndices();
+		if (materialTextureIndices == null || materialIndex < 0 || materialIndex >= materialTextureIndices.length) {
+			return null;
+		}
+		var index = materialTextureIndices[materialIndex];
+		var textures = getTextures();
+		return index < 0 || index >= textures.size() ? null : textures.get(index);
 	}
 	
 	public void addDescriptorTo(PipelineSettings pipeline) {
 		// Descriptorに書くのはUniformBufferだけでよい
-		pipeline.add(uniformObject.getBuffer());
+		pipeline.add(uniformObject.getAllocation());
+	}
+	
+	/**
+	 * 同じPipelineで複数のModelを描画する場合に、CommandBuffer.bindGraphicsDescriptorSetsに渡す
+	 * @return UniformArenaの、現在のフレームでの位置
+	 */
+	public int getUniformOffset() {
+		return uniformObject.getAllocation().getDynamicOffset();
 	}
 }
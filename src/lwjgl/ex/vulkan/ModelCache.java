@@ -0,0 +1,453 @@
+package lwjgl.ex.vulkan;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import motopgi.utils.HashUtils;
+import motopgi.utils.MappedFile;
+
+/**
+ * 同じモデル（ファイルの内容と設定が同じもの）から作成したModelMeshを、プロセス全体で共有する
+ *
+ * 3段になっている
+ * 1. 使われているもの：参照カウントで共有する
+ * 2. 使われていないもの：最後のcloseの後もGPUに残し、合計がmaxUnusedBytesを超えたら古いものから解放する（LRU）
+ * 3. ディスク：diskDirectoryにBakedModelとして保存し、次回の起動ではAssimpで読み込まない
+ *
+ * キーはモデルのファイルの内容、ディレクトリ、結果に影響する設定のハッシュ
+ * （プロセス内の段は、CPU側に残すもの（ModelResidency）が異なるものを分ける。ディスクの段は共通）
+ * ディスクの段は、Assimpが開いたファイル（glTFの.binなど）と外部の画像ファイルの更新も確認する
+ * （プロセス内の段では確認しないので、実行中にファイルを変更した場合は、使われていないものをevictUnusedで解放する）
+ */
+public final class ModelCache {
+
+	public static final long DEFAULT_MAX_UNUSED_BYTES = 256L * 1024 * 1024;
+
+	/**
+	 * ディスクの段で、BakedModelの依存ファイルの一覧（1行に バイト数 タブ 更新日時（ミリ秒） タブ パス）
+	 */
+	public static final String DEPENDENCIES_EXTENSION = ".deps";
+	private static final String SEPARATOR = "\t";
+
+	/**
+	 * LogicalDeviceごとに、ハッシュからModelMesh（使われていないものも含む）
+	 */
+	private static final Map<LogicalDevice, Map<String, ModelMesh>> MESHES = new IdentityHashMap<>();
+	/**
+	 * 使われていないもの（先頭が最も前に使われなくなったもの）
+	 */
+	private static final LinkedHashSet<ModelMesh> UNUSED = new LinkedHashSet<>();
+	private static long unusedBytes;
+	private static long maxUnusedBytes = DEFAULT_MAX_UNUSED_BYTES;
+	private static Path diskDirectory;
+
+	private static long hitCount;
+	private static long diskHitCount;
+	private static long missCount;
+	private static long evictionCount;
+
+	private ModelCache() {
+	}
+
+	/**
+	 * 使われているもの、使われていないもの、ディスクの順に探し、なければ読み込む
+	 * 読み込みと展開は呼び出し元のスレッドで行う（画像の展開のみForkJoinPool.commonPoolで並列に行う）
+	 * @param settings
+	 * @return closeは呼び出し側で行う
+	 * @throws Exception
+	 */
+	public static ModelMesh load(ModelSettings settings) throws Exception {
+		var hash = hash(settings);
+		var mesh = acquire(settings.getLogicalDevice(), getMeshKey(hash, settings.getResidency()));
+		if (mesh != null) {
+			return mesh;
+		}
+		try (var imported = read(settings, hash)) {
+			imported.decode(ForkJoinPool.commonPool());
+			store(imported);
+			imported.releaseScene();
+			return register(new ModelMesh(imported));
+		}
+	}
+
+	/**
+	 * モデルのファイルの内容、ディレクトリ（相対パスで参照するファイルが異なるため）、結果に影響する設定のハッシュ
+	 * @param settings
+	 * @return
+	 * @throws IOException
+	 */
+	public static String hash(ModelSettings settings) throws IOException {
+		var digest = HashUtils.createDigest();
+		var path = settings.getModelPath().toAbsolutePath().normalize();
+		try (var file = new MappedFile(path)) {
+			digest.update(file.asByteBuffer(0, file.size()));
+		}
+		var parent = path.getParent();
+		digest.update((parent == null ? "" : parent.toString()).getBytes(StandardCharsets.UTF_8));
+		var compression = settings.getTextureCompression();
+		digest.update(ByteBuffer.allocate(Integer.BYTES * 7 + Float.BYTES)
+				.putInt(BakedModel.VERSION)
+				.putInt(settings.getImportFileFlag())
+				.putInt(settings.isWeld() ? 1 : 0)
+				.putFloat(settings.getWeldEpsilon())
+				.putInt(settings.isOptimizeVertexCache() ? 1 : 0)
+				.putInt(settings.getPositionType().ordinal())
+				.putInt(settings.getTextureCoordType().ordinal())
+				.putInt(compression == null ? -1 : compression.ordinal())
+				.flip());
+		return HashUtils.toHex(digest);
+	}
+
+	/**
+	 * プロセス内の段のキー
+	 * BakedModelはModelResidencyによらず同じなので、hashには含めずここで分ける
+	 * @param hash
+	 * @param residency
+	 * @return
+	 */
+	public static String getMeshKey(String hash, ModelResidency residency) {
+		return hash + "-" + residency;
+	}
+
+	/**
+	 * 使われているもの、使われていないものから探し、参照を増やして取得する
+	 * @param logicalDevice
+	 * @param hash getMeshKeyで作成したもの
+	 * @return ない場合はnull。closeは呼び出し側で行う
+	 */
+	public static synchronized ModelMesh acquire(LogicalDevice logicalDevice, String hash) {
+		var meshes = MESHES.get(logicalDevice);
+		var mesh = meshes == null ? null : meshes.get(hash);
+		if (mesh == null) {
+			return null;
+		}
+		// 最後のcloseの直後で、まだ使われていないものに移していない場合もrevive
+		if (!mesh.retain() && mesh.revive() && UNUSED.remove(mesh)) {
+			unusedBytes -= mesh.getBytes();
+		}
+		++hitCount;
+		return mesh;
+	}
+
+	/**
+	 * ディスクの段から読み込む（ない場合や古い場合は、元のファイルを読み込む）
+	 * ModelImportにはhashを設定し、registerで登録できるようにする
+	 * @param settings
+	 * @param hash
+	 * @return closeは呼び出し側で行う
+	 * @throws IOException
+	 */
+	public static ModelImport read(ModelSettings settings, String hash) throws IOException {
+		var directory = getDiskDirectory();
+		if (directory != null) {
+			var bakedPath = directory.resolve(hash + BakedModel.EXTENSION);
+			if (isUpToDate(directory.resolve(hash + DEPENDENCIES_EXTENSION)) && Files.exists(bakedPath)) {
+				var bakedSettings = new ModelSettings(settings);
+				bakedSettings.setModelPath(bakedPath);
+				try {
+					var imported = ModelImport.read(bakedSettings);
+					imported.setHash(hash);
+					countDiskHit();
+					return imported;
+				} catch (IllegalArgumentException e) {
+					// 古い形式や壊れている場合は、元のファイルから作り直す
+				}
+			}
+		}
+		countMiss();
+		var imported = ModelImport.read(settings);
+		imported.setHash(hash);
+		return imported;
+	}
+
+	/**
+	 * ディスクの段に保存する（diskDirectoryがない場合、BakedModelから読み込んだ場合は何もしない）
+	 * decodeGeometryの後、ModelMeshの作成前に呼ぶ
+	 * BakedModelと依存ファイルの一覧は、それぞれ一時ファイルからATOMIC_MOVEで置き換える
+	 * @param imported
+	 * @return 保存したか
+	 * @throws IOException 保存に失敗した場合（途中まで書いたものは削除する）
+	 */
+	public static boolean store(ModelImport imported) throws IOException {
+		var directory = getDiskDirectory();
+		var hash = imported.getHash();
+		if (directory == null || hash == null || imported.getBaked() != null) {
+			return false;
+		}
+		Files.createDirectories(directory);
+		var bakedPath = directory.resolve(hash + BakedModel.EXTENSION);
+		if (!imported.writeBaked(bakedPath)) {
+			return false;
+		}
+		try {
+			// BakedModelの後に書くので、一覧がある場合はBakedModelもある
+			writeDependencies(directory.resolve(hash + DEPENDENCIES_EXTENSION), imported.getDependencies());
+		} catch (IOException | RuntimeException e) {
+			deleteOnFailure(bakedPath, e);
+			throw e;
+		}
+		return true;
+	}
+	
+	/**
+	 * 書き込みに失敗したものを削除する（削除の失敗はeに追加する）
+	 * @param path
+	 * @param e
+	 */
+	static void deleteOnFailure(Path path, Exception e) {
+		try {
+			Files.deleteIfExists(path);
+		} catch (IOException ex) {
+			e.addSuppressed(ex);
+		}
+	}
+
+	private static void writeDependencies(Path path, List<Path> dependencies) throws IOException {
+		var lines = new ArrayList<String>(dependencies.size());
+		for (var dependency : dependencies) {
+			lines.add(Files.size(dependency) + SEPARATOR + Files.getLastModifiedTime(dependency).toMillis() + SEPARATOR + dependency);
+		}
+		var temporary = path.resolveSibling(path.getFileName() + ".tmp");
+		try {
+			Files.write(temporary, lines, StandardCharsets.UTF_8);
+			Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException | RuntimeException e) {
+			deleteOnFailure(temporary, e);
+			throw e;
+		}
+	}
+
+	/**
+	 *
+	 * @param dependenciesPath
+	 * @return 依存ファイルが全て、保存時から変わっていないか
+	 * @throws IOException
+	 */
+	private static boolean isUpToDate(Path dependenciesPath) throws IOException {
+		List<String> lines;
+		try {
+			lines = Files.readAllLines(dependenciesPath, StandardCharsets.UTF_8);
+		} catch (NoSuchFileException e) {
+			return false;
+		}
+		for (var line : lines) {
+			var fields = line.split(SEPARATOR, 3);
+			if (fields.length != 3) {
+				return false;
+			}
+			var dependency = Path.of(fields[2]);
+			try {
+				if (Files.size(dependency) != Long.parseLong(fields[0])
+						|| Files.getLastModifiedTime(dependency).toMillis() != Long.parseLong(fields[1])) {
+					return false;
+				}
+			} catch (NoSuchFileException | NumberFormatException e) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * 作成したModelMeshを登録する
+	 * @param mesh getHashがnullの場合は登録しない
+	 * @return 登録されているModelMesh（同じものが先に登録されていた場合は、meshを解放してそちらを返す）。closeは呼び出し側で行う
+	 * @throws Exception
+	 */
+	public static ModelMesh register(ModelMesh mesh) throws Exception {
+		var hash = mesh.getHash();
+		if (hash == null) {
+			return mesh;
+		}
+		var logicalDevice = mesh.getLogicalDevice();
+		ModelMesh existing;
+		synchronized (ModelCache.class) {
+			var meshes = MESHES.computeIfAbsent(logicalDevice, device -> new HashMap<>());
+			existing = meshes.get(hash);
+			if (existing == null) {
+				meshes.put(hash, mesh);
+				mesh.setReleaseListener(() -> release(mesh));
+				return mesh;
+			}
+			if (!existing.retain() && existing.revive() && UNUSED.remove(existing)) {
+				unusedBytes -= existing.getBytes();
+			}
+		}
+		// 並列に読み込んだ場合など、同じものが先に登録されていた
+		mesh.destroy();
+		return existing;
+	}
+
+	/**
+	 * 最後のcloseで、使われていないものに移す
+	 */
+	private static void release(ModelMesh mesh) {
+		List<ModelMesh> evicted;
+		synchronized (ModelCache.class) {
+			// acquireで既に使われている場合は何もしない
+			if (mesh.getReferenceCount() != 0 || !UNUSED.add(mesh)) {
+				return;
+			}
+			unusedBytes += mesh.getBytes();
+			evicted = evict(maxUnusedBytes);
+		}
+		destroy(evicted);
+	}
+
+	/**
+	 * 使われていないものを、古いものから合計がmaxBytes以下になるまで取り除く
+	 */
+	private static List<ModelMesh> evict(long maxBytes) {
+		var evicted = new ArrayList<ModelMesh>();
+		var iterator = UNUSED.iterator();
+		while (unusedBytes > maxBytes && iterator.hasNext()) {
+			var mesh = iterator.next();
+			iterator.remove();
+			unusedBytes -= mesh.getBytes();
+			var meshes = MESHES.get(mesh.getLogicalDevice());
+			if (meshes != null && meshes.remove(mesh.getHash(), mesh) && meshes.isEmpty()) {
+				MESHES.remove(mesh.getLogicalDevice());
+			}
+			evicted.add(mesh);
+			++evictionCount;
+		}
+		return evicted;
+	}
+
+	private static void destroy(List<ModelMesh> meshes) {
+		var exception = new RuntimeException("ModelMeshの解放に失敗しました");
+		for (var mesh : meshes) {
+			try {
+				mesh.destroy();
+			} catch (Exception e) {
+				exception.addSuppressed(e);
+			}
+		}
+		if (exception.getSuppressed().length > 0) {
+			throw exception;
+		}
+	}
+
+	/**
+	 * 使われていないものを全て解放する（LogicalDeviceのclose前、ファイルを変更した場合など）
+	 * @param logicalDevice このデバイスのもののみ解放する
+	 */
+	public static void evictUnused(LogicalDevice logicalDevice) {
+		var evicted = new ArrayList<ModelMesh>();
+		synchronized (ModelCache.class) {
+			var iterator = UNUSED.iterator();
+			while (iterator.hasNext()) {
+				var mesh = iterator.next();
+				if (mesh.getLogicalDevice() != logicalDevice) {
+					continue;
+				}
+				iterator.remove();
+				unusedBytes -= mesh.getBytes();
+				var meshes = MESHES.get(logicalDevice);
+				if (meshes != null && meshes.remove(mesh.getHash(), mesh) && meshes.isEmpty()) {
+					MESHES.remove(logicalDevice);
+				}
+				evicted.add(mesh);
+				++evictionCount;
+			}
+		}
+		destroy(evicted);
+	}
+
+	public static synchronized long getMaxUnusedBytes() {
+		return maxUnusedBytes;
+	}
+
+	/**
+	 * 使われていないものをGPUに残す量（0の場合は最後のcloseで解放する）
+	 * @param maxUnusedBytes
+	 */
+	public static void setMaxUnusedBytes(long maxUnusedBytes) {
+		List<ModelMesh> evicted;
+		synchronized (ModelCache.class) {
+			ModelCache.maxUnusedBytes = maxUnusedBytes;
+			evicted = evict(maxUnusedBytes);
+		}
+		destroy(evicted);
+	}
+
+	public static synchronized Path getDiskDirectory() {
+		return diskDirectory;
+	}
+
+	/**
+	 *
+	 * @param diskDirectory BakedModelを保存するディレクトリ（nullの場合はディスクの段を使わない）
+	 */
+	public static synchronized void setDiskDirectory(Path diskDirectory) {
+		ModelCache.diskDirectory = diskDirectory;
+	}
+
+	private static synchronized void countDiskHit() {
+		++diskHitCount;
+	}
+
+	private static synchronized void countMiss() {
+		++missCount;
+	}
+
+	/**
+	 *
+	 * @return 使われているもの、使われていないものから取得できた回数
+	 */
+	public static synchronized long getHitCount() {
+		return hitCount;
+	}
+
+	/**
+	 *
+	 * @return ディスクの段から読み込んだ回数
+	 */
+	public static synchronized long getDiskHitCount() {
+		return diskHitCount;
+	}
+
+	/**
+	 *
+	 * @return 元のファイルから読み込んだ回数
+	 */
+	public static synchronized long getMissCount() {
+		return missCount;
+	}
+
+	/**
+	 *
+	 * @return 使われていないものを解放した回数
+	 */
+	public static synchronized long getEvictionCount() {
+		return evictionCount;
+	}
+
+	/**
+	 *
+	 * @return 使われていないもののバイト数の合計
+	 */
+	public static synchronized long getUnusedBytes() {
+		return unusedBytes;
+	}
+
+	/**
+	 *
+	 * @return 登録されている数（使われていないものも含む、全LogicalDevice）
+	 */
+	public static synchronized int size() {
+		return MESHES.values().stream().mapToInt(Map::size).sum();
+	}
+}
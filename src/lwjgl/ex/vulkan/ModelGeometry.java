@@ -0,0 +1,237 @@
+package lwjgl.ex.vulkan;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import org.lwjgl.assimp.AIFace;
+import org.lwjgl.assimp.AIMesh;
+import org.lwjgl.assimp.AINode;
+import org.lwjgl.assimp.AIScene;
+import org.lwjgl.assimp.AIVector3D;
+
+import motopgi.utils.FloatVector3;
+import motopgi.utils.ListUtils;
+
+import static lwjgl.ex.vulkan.VulkanConstants.*;
+import static org.lwjgl.system.MemoryUtil.*;
+import static org.lwjgl.system.Pointer.POINTER_SIZE;
+
+/**
+ * GPUに送る形式（XYZUVの頂点とindex）のジオメトリ
+ * （Vulkanのデバイスなしで扱えるように、Modelから分離）
+ */
+public class ModelGeometry {
+	private float[] vertices;
+	private int[] indices;
+	/**
+	 * 元のメッシュごとのindexの範囲（indexの順）
+	 */
+	private List<SubMesh> subMeshes;
+
+	/**
+	 * 全体を1つのメッシュ（マテリアル0）として扱う
+	 * @param vertices
+	 * @param indices
+	 */
+	public ModelGeometry(float[] vertices, int[] indices) {
+		this(vertices, indices, List.of(new SubMesh(0, indices.length, 0)));
+	}
+
+	/**
+	 *
+	 * @param vertices
+	 * @param indices
+	 * @param subMeshes 先頭から隙間なく並んでいること
+	 */
+	public ModelGeometry(float[] vertices, int[] indices, List<SubMesh> subMeshes) {
+		this.vertices = vertices;
+		this.indices = indices;
+		this.subMeshes = subMeshes;
+	}
+
+	/**
+	 * AISceneの全メッシュを1つの頂点配列、index配列にまとめる
+	 * @param scene
+	 * @return
+	 */
+	public static ModelGeometry read(AIScene scene) {
+		return read(scene, false);
+	}
+
+	/**
+	 * AISceneの全メッシュを1つの頂点配列、index配列にまとめる
+	 * @param scene
+	 * @param parallel メッシュごとに並列で取り出すか（結果は同一）
+	 * @return
+	 */
+	public static ModelGeometry read(AIScene scene, boolean parallel) {
+		// 各メッシュのtranslation（offset）を取得しなければならない
+		var translations = readTranslations(scene);
+
+		//　配列のサイズを確定しなければならないので、先に頂点数を取得しなければならない
+		// 各メッシュの書き込み開始位置も、ここで累積和として求めておく
+		// （並列で書き込む場合に、他のメッシュの処理を待たずに位置が決まるように）
+		int numMeshes = scene.mNumMeshes();
+		// AIMesh、AIFaceのラッパーは作らず、アドレスから直接読む
+		// （要素ごとにラッパーを作ると、頂点数が多い場合にGCが重くなる）
+		var meshArray = memGetAddress(scene.address() + AIScene.MMESHES);
+		var meshes = new long[numMeshes];
+		var vertexOffsets = new int[numMeshes + 1];
+		var indexOffsets = new int[numMeshes + 1];
+		for (int m = 0; m < numMeshes; ++m) {
+			var mesh = memGetAddress(meshArray + (long) m * POINTER_SIZE);
+			meshes[m] = mesh;
+			vertexOffsets[m + 1] = vertexOffsets[m] + AIMesh.nmNumVertices(mesh);
+
+			// index
+			// faceに分かれてしまっているので、面倒だがまず要素数を取得しなければならない
+			// この理由は不明
+			var numFaces = AIMesh.nmNumFaces(mesh);
+			var faces = memGetAddress(mesh + AIMesh.MFACES);
+
+			var indicesCount = 0;
+			for(int f = 0; f < numFaces; ++f) {
+				indicesCount += memGetInt(faces + (long) f * AIFace.SIZEOF + AIFace.MNUMINDICES);
+			}
+			indexOffsets[m + 1] = indexOffsets[m] + indicesCount;
+		}
+		var vertices = new float[XYZUV_COUNT * vertexOffsets[numMeshes]];
+		var indices = new int[indexOffsets[numMeshes]];
+
+		// 各メッシュの書き込み範囲は重ならないので、そのまま並列にできる
+		var range = IntStream.range(0, numMeshes);
+		if (parallel) {
+			range = range.parallel();
+		}
+		range.forEach(m -> readMesh(meshes[m], ListUtils.getOrNull(translations, m),
+				vertices, XYZUV_COUNT * vertexOffsets[m],
+				indices, indexOffsets[m],
+				// indexもメッシュごとにオフセットが必要
+				vertexOffsets[m]));
+
+		var subMeshes = new ArrayList<SubMesh>(numMeshes);
+		for (int m = 0; m < numMeshes; ++m) {
+			subMeshes.add(new SubMesh(indexOffsets[m], indexOffsets[m + 1] - indexOffsets[m], AIMesh.nmMaterialIndex(meshes[m])));
+		}
+		return new ModelGeometry(vertices, indices, subMeshes);
+	}
+
+	/**
+	 * 1つのメッシュを指定位置に書き込む
+	 * @param mesh AIMeshのアドレス
+	 * @param translation null可
+	 * @param vertices
+	 * @param verticesIndex 書き込み開始位置（floatの位置）
+	 * @param indices
+	 * @param indicesIndex 書き込み開始位置
+	 * @param indexOffset メッシュの先頭の頂点番号
+	 */
+	private static void readMesh(long mesh, FloatVector3 translation, float[] vertices, int verticesIndex, int[] indices, int indicesIndex, int indexOffset) {
+		var numVertices = AIMesh.nmNumVertices(mesh);
+
+		// ループ内で分岐しないように、translationがない場合は-0を足す
+		// （+0だと-0が+0に変わってしまうが、-0ならどの値も変わらない）
+		var translationX = translation != null ? translation.getX() : -0f;
+		var translationY = translation != null ? translation.getY() : -0f;
+		var translationZ = translation != null ? translation.getZ() : -0f;
+
+		// mVerticesはAIVector3Dの配列（x, y, zのfloatが連続）
+		var position = memGetAddress(mesh + AIMesh.MVERTICES);
+
+		// テクスチャ複数の場合は保留
+		// mTextureCoordsもAIVector3Dの配列（uvwのwは使わない）
+		var textureCoord = memGetAddress(mesh + AIMesh.MTEXTURECOORDS);
+
+		for(int v = 0; v < numVertices; ++v) {
+			vertices[verticesIndex++] = memGetFloat(position) + translationX;
+			vertices[verticesIndex++] = memGetFloat(position + Float.BYTES) + translationY;
+			vertices[verticesIndex++] = memGetFloat(position + Float.BYTES * 2) + translationZ;
+			position += AIVector3D.SIZEOF;
+
+			// テクスチャ座標
+			// 画面の中心が（0, 0）、長さ1まで
+			// https://docs.vulkan.org/tutorial/latest/_images/images/normalized_device_coordinates.svg
+			// https://qiita.com/dpals39/items/1681d9101e58b5aefa27
+			// テクスチャ座標がないメッシュは（0, 0）扱い
+			var u = 0f;
+			var textureV = 0f;
+			if (textureCoord != NULL) {
+				u = memGetFloat(textureCoord);
+				textureV = memGetFloat(textureCoord + Float.BYTES);
+				textureCoord += AIVector3D.SIZEOF;
+			}
+			vertices[verticesIndex++] = u;
+
+			// vulkanではy座標が逆なので調整
+			// https://docs.vulkan.org/tutorial/latest/08_Loading_models.html
+			vertices[verticesIndex++] = 1.0f - textureV;
+		}
+
+		//index取得
+		var numFaces = AIMesh.nmNumFaces(mesh);
+		var face = memGetAddress(mesh + AIMesh.MFACES);
+		for(int f = 0; f < numFaces; ++f, face += AIFace.SIZEOF) {
+			var numIndices = memGetInt(face + AIFace.MNUMINDICES);
+			var mIndices = memGetAddress(face + AIFace.MINDICES);
+			for(int i = 0; i < numIndices; ++i) {
+				indices[indicesIndex++] = indexOffset + memGetInt(mIndices + (long) i * Integer.BYTES);
+			}
+		}
+	}
+
+	/**
+	 * ルートの子ノードから、各メッシュの平行移動を取り出す
+	 * @param scene
+	 * @return
+	 */
+	static ArrayList<FloatVector3> readTranslations(AIScene scene) {
+		var translations = new ArrayList<FloatVector3>();
+		var childNodes = scene.mRootNode().mChildren();
+		if (childNodes == null) {
+			return translations;
+		}
+		var childLimit = childNodes.limit();
+		for(int i = 0; i < childLimit; ++i) {
+			// AIMeshと同様、closeしてはいけない
+			var child = AINode.create(childNodes.get(i));
+			// 平行移動を取り出す
+			// https://chaosplant.tech/do/vulkan/5-14/#ping-xing-yi-dong
+			var transformation = child.mTransformation();
+			translations.add(new FloatVector3(transformation.a4(), transformation.b4(), transformation.c4()));
+		}
+		return translations;
+	}
+
+	/**
+	 *
+	 * @return XYZUVの頂点
+	 */
+	public float[] getVertices() {
+		return vertices;
+	}
+
+	public int[] getIndices() {
+		return indices;
+	}
+
+	/**
+	 *
+	 * @return 元のメッシュごとのindexの範囲とマテリアル
+	 */
+	public List<SubMesh> getSubMeshes() {
+		return subMeshes;
+	}
+
+	/**
+	 *
+	 * @return 頂点数（floatの数ではない）
+	 */
+	public int getVertexCount() {
+		return vertices.length / XYZUV_COUNT;
+	}
+
+	public int getIndexCount() {
+		return indices.length;
+	}
+}
@@ -0,0 +1,346 @@
+package lwjgl.ex.vulkan;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+import org.lwjgl.assimp.AIScene;
+import org.lwjgl.assimp.AITexture;
+import org.lwjgl.assimp.Assimp;
+
+/**
+ * Modelの作成のうち、GPUを使わない処理（ファイルの読み込みと展開）の結果
+ * GPUへの送信（ModelMeshの作成）が終わったらcloseする
+ * AISceneは、decodeGeometryとModelCache.storeの後にreleaseSceneで先に解放できる
+ * AssetStreamerで読み込み、展開、GPUへの送信を別のスレッドで行うため、Modelから分けている
+ *
+ * 先頭がBakedModel.MAGICのファイルはメモリマップし、それ以外はAssimpで読み込む
+ */
+public class ModelImport implements AutoCloseable {
+	private final ModelSettings settings;
+	private AIScene scene;
+	private final BakedModel baked;
+	private final long bytes;
+	private final List<Path> dependencies;
+	/**
+	 * ModelCacheのキー（キャッシュしない場合はnull）
+	 */
+	private String hash;
+
+	private GeometryImport geometryImport;
+	private IndexLayout indexLayout;
+	private VertexEncoder encoder;
+	private int[] materialTextureIndices;
+	private List<CompletableFuture<PendingTexture>> textures;
+
+	private ModelImport(ModelSettings settings, AIScene scene, BakedModel baked, long bytes, List<Path> dependencies) {
+		this.settings = settings;
+		this.scene = scene;
+		this.baked = baked;
+		this.bytes = bytes;
+		this.dependencies = dependencies;
+	}
+
+	/**
+	 * 読み込み段
+	 * Assimpはファイルの読み込みと解析を1回で行うので、解析もここで行う
+	 * @param settings
+	 * @return closeは呼び出し側で行う
+	 * @throws IOException
+	 * @throws IllegalArgumentException Assimpで読み込めない場合
+	 */
+	public static ModelImport read(ModelSettings settings) throws IOException {
+		var path = settings.getModelPath();
+		if (BakedModel.isBakedModel(path)) {
+			var baked = new BakedModel(path);
+			try {
+				// 送信時にページフォルトでI/Oを待たないように、ここで読み込んでおく
+				baked.load();
+				return new ModelImport(settings, null, baked, baked.getBytes(), List.of(path.toAbsolutePath().normalize()));
+			} catch (RuntimeException e) {
+				baked.close();
+				throw e;
+			}
+		}
+		AIScene scene;
+		List<Path> dependencies;
+		// Assimpが開いたファイル（glTFの.binなど）を記録する
+		try (var fileIO = new RecordingFileIO()) {
+			scene = Assimp.aiImportFileEx(path.toString(), settings.getImportFileFlag(), fileIO.getFileIO());
+			dependencies = fileIO.getOpenedPaths();
+		}
+		if (scene == null) {
+			throw new IllegalArgumentException("モデルの読み込みに失敗しました " + path + " " + Assimp.aiGetErrorString());
+		}
+		try {
+			var bytes = 0L;
+			for (var dependency : dependencies) {
+				bytes += Files.size(dependency);
+			}
+			// 外部の画像ファイルはAssimpでは開かない
+			dependencies = new ArrayList<>(dependencies);
+			for (var texturePath : AssimpUtils.getExternalTexturePaths(scene, path)) {
+				bytes += Files.size(texturePath);
+				dependencies.add(texturePath.toAbsolutePath().normalize());
+			}
+			return new ModelImport(settings, scene, null, bytes, dependencies);
+		} catch (IOException | RuntimeException e) {
+			Assimp.aiReleaseImport(scene);
+			throw e;
+		}
+	}
+
+	/**
+	 * decodeTextures、decodeGeometryの順に行う
+	 * @param executor 画像の展開を行うExecutor
+	 */
+	public void decode(Executor executor) {
+		decodeTextures(executor);
+		decodeGeometry();
+	}
+
+	/**
+	 * 展開段：画像（外部の画像ファイルを含む）の読み込みと展開を開始する
+	 * TextureCacheにあるものは展開しない
+	 * @param executor 画像の展開を行うExecutor
+	 */
+	public void decodeTextures(Executor executor) {
+		if (textures != null) {
+			throw new IllegalStateException("展開を開始済みです");
+		}
+		if (baked == null && scene == null) {
+			throw new IllegalStateException("AISceneは解放済みです");
+		}
+		textures = baked != null
+				? AssimpUtils.loadTextures(baked.getTextures(), settings.getLogicalDevice(), executor)
+				: AssimpUtils.loadTextures(scene, settings.getModelPath(), settings.getLogicalDevice(), executor);
+	}
+
+	/**
+	 * 展開段：頂点とindexを取り出し、GPUに送る形式に変換する
+	 * （BakedModelは変換済みなので何もしない）
+	 */
+	public void decodeGeometry() {
+		if (baked != null) {
+			return;
+		}
+		if (scene == null) {
+			throw new IllegalStateException("AISceneは解放済みです");
+		}
+		geometryImport = new GeometryImport(scene, settings);
+		var geometry = geometryImport.getGeometry();
+		indexLayout = new IndexLayout(geometry.getIndices(), geometry.getVertexCount());
+		encoder = new VertexEncoder(geometry, settings.getPositionType(), settings.getTextureCoordType());
+		materialTextureIndices = AssimpUtils.getMaterialTextureIndices(scene, settings.getModelPath());
+	}
+
+	/**
+	 * BakedModelとして保存する（ModelCacheのディスクの段）
+	 * decodeGeometryの後、Modelの作成前に呼ぶ
+	 * @param path
+	 * @return 保存できない場合（既にBakedModelの場合、非圧縮の画像を含み圧縮の設定がない場合）はfalse
+	 * @throws IOException
+	 */
+	public boolean writeBaked(Path path) throws IOException {
+		if (baked != null || scene == null) {
+			return false;
+		}
+		if (encoder == null) {
+			throw new IllegalStateException("頂点を展開していません");
+		}
+		var compression = settings.getTextureCompression();
+		if (compression == null && hasUncompressedTexture(scene)) {
+			return false;
+		}
+		var compressedTextures = compression != null
+				? AssimpUtils.encodeTextures(scene, settings.getModelPath(), compression)
+				: AssimpUtils.getCompressedTextures(scene, settings.getModelPath());
+		BakedModel.write(path, encoder, indexLayout, geometryImport.getGeometry().getSubMeshes(), compressedTextures, materialTextureIndices);
+		return true;
+	}
+
+	private static boolean hasUncompressedTexture(AIScene scene) {
+		for (int i = 0; i < scene.mNumTextures(); ++i) {
+			if (AITexture.create(scene.mTextures().get(i)).mHeight() != 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 *
+	 * @return 全ての画像の展開が終わると完了する
+	 */
+	public CompletableFuture<Void> getTexturesDecoded() {
+		if (textures == null) {
+			throw new IllegalStateException("展開を開始していません");
+		}
+		return CompletableFuture.allOf(textures.toArray(CompletableFuture[]::new));
+	}
+
+	/**
+	 *
+	 * @return 展開が終わった画像の数
+	 */
+	public int getDecodedTextureCount() {
+		var list = textures;
+		if (list == null) {
+			return 0;
+		}
+		return (int) list.stream().filter(CompletableFuture::isDone).count();
+	}
+
+	/**
+	 *
+	 * @return 画像の数（展開を開始していない場合は0）
+	 */
+	public int getTextureCount() {
+		var list = textures;
+		return list == null ? 0 : list.size();
+	}
+
+	public ModelSettings getSettings() {
+		return settings;
+	}
+
+	/**
+	 *
+	 * @return 読み込んだファイル（Assimpが開いたものと外部の画像ファイル。絶対パス）
+	 */
+	public List<Path> getDependencies() {
+		return dependencies;
+	}
+
+	/**
+	 *
+	 * @return ModelCacheのキー（キャッシュしない場合はnull）
+	 */
+	public String getHash() {
+		return hash;
+	}
+
+	void setHash(String hash) {
+		this.hash = hash;
+	}
+
+	/**
+	 *
+	 * @return 読み込んだバイト数（getDependenciesの合計。スループットの計測用）
+	 */
+	public long getBytes() {
+		return bytes;
+	}
+
+	/**
+	 *
+	 * @return Assimpで読み込んだ場合はnull
+	 */
+	public BakedModel getBaked() {
+		return baked;
+	}
+
+	/**
+	 *
+	 * @return BakedModelの場合はnull
+	 */
+	public GeometryImport getGeometryImport() {
+		return geometryImport;
+	}
+
+	/**
+	 *
+	 * @return BakedModelの場合はnull
+	 */
+	public IndexLayout getIndexLayout() {
+		return indexLayout;
+	}
+
+	/**
+	 *
+	 * @return BakedModelの場合はnull
+	 */
+	public VertexEncoder getEncoder() {
+		return encoder;
+	}
+
+	/**
+	 *
+	 * @return マテリアルごとの画像のindex（画像がない場合は-1）
+	 */
+	public int[] getMaterialTextureIndices() {
+		return baked != null ? baked.getMaterialTextureIndices() : materialTextureIndices;
+	}
+
+	/**
+	 * 画像の解放をModelMeshに移す
+	 * @return AssimpUtils.uploadTexturesに渡す
+	 */
+	public List<CompletableFuture<PendingTexture>> takeTextures() {
+		if (textures == null) {
+			throw new IllegalStateException("展開を開始していません");
+		}
+		var result = textures;
+		textures = null;
+		return result;
+	}
+
+	/**
+	 * AISceneを解放する（頂点とindexはGeometryImportに取り出し済みなので、送信には不要）
+	 * decodeGeometryとModelCache.storeの後に呼ぶ（その後のwriteBakedはfalseを返す）
+	 * 展開中の画像はAISceneを参照しているので、全て終わってから解放する
+	 */
+	public void releaseScene() {
+		var releasing = takeScene();
+		if (releasing == null) {
+			return;
+		}
+		var pending = textures;
+		if (pending == null) {
+			Assimp.aiReleaseImport(releasing);
+			return;
+		}
+		CompletableFuture.allOf(pending.toArray(CompletableFuture[]::new)).whenComplete((result, e) -> Assimp.aiReleaseImport(releasing));
+	}
+
+	/**
+	 * releaseSceneとcloseが別のスレッドから呼ばれても、1回だけ解放するため
+	 */
+	private synchronized AIScene takeScene() {
+		var result = scene;
+		scene = null;
+		return result;
+	}
+
+	/**
+	 * ModelMeshに移していないものと、AIScene、BakedModelを解放する
+	 * （展開中の画像は、展開が終わった時点で解放する）
+	 */
+	@Override
+	public void close() {
+		var pending = textures;
+		textures = null;
+		var releasing = takeScene();
+		Runnable release = () -> {
+			if (baked != null) {
+				baked.close();
+			}
+			if (releasing != null) {
+				Assimp.aiReleaseImport(releasing);
+			}
+		};
+		if (pending == null) {
+			release.run();
+			return;
+		}
+		for (var texture : pending) {
+			texture.thenAccept(PendingTexture::close);
+		}
+		// 展開中の画像はAISceneやマップした領域を参照しているので、全て終わってから解放する
+		CompletableFuture.allOf(pending.toArray(CompletableFuture[]::new)).whenComplete((result, e) -> release.run());
+	}
+}
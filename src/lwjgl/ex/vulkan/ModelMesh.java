@@ -0,0 +1,403 @@
+package lwjgl.ex.vulkan;
+
+import java.nio.LongBuffer;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.lwjgl.system.MemoryUtil;
+
+import motopgi.utils.AutoCloseableList;
+import motopgi.utils.ExceptionUtils;
+import motopgi.utils.FloatVector3;
+
+import static lwjgl.ex.vulkan.VulkanConstants.*;
+
+/**
+ * Modelのうち、同じファイルを読み込んだModel同士で共有できるGPUのリソース（頂点、index、Texture）
+ * 位置や向き（UniformBufferObject）はModelごとに持つ
+ *
+ * 参照カウントを持ち、ModelCacheに登録したものは最後のcloseで使われていないものの一覧に移る
+ * CPU側に残すもの（頂点、index）はModelSettings.getResidencyによる
+ */
+public final class ModelMesh implements AutoCloseable {
+	private final LogicalDevice logicalDevice;
+	/**
+	 * ModelCacheのキー（キャッシュしない場合はnull）
+	 */
+	private final String hash;
+	private final ModelResidency residency;
+
+	/**
+	 * ModelResidency.HEAPの場合のみ
+	 */
+	private float[] vertices;
+	private int[] indices;
+	private GeometryImport geometryImport;
+	/**
+	 * ModelResidency.OFF_HEAPの場合のみ
+	 */
+	private OffHeapGeometry offHeapGeometry;
+
+	private final int indexCount;
+	private final int indexType;
+	private final List<DrawRange> drawRanges;
+	private final List<SubMesh> subMeshes;
+	private final VertexBindingBuilder binding;
+	private final FloatVector3 dequantizeOffset;
+	private final float dequantizeScale;
+	private final FloatVector3 boundsMin;
+	private final FloatVector3 boundsMax;
+	private final int[] materialTextureIndices;
+
+	private AutoCloseableList<Texture> textures;
+	private StagingBuffer vertexBuffer;
+	private StagingBuffer indexBuffer;
+	private final long bytes;
+
+	private final AtomicInteger references = new AtomicInteger(1);
+	/**
+	 * 最後のcloseで、ModelCacheの使われていないものの一覧に移す
+	 */
+	private Runnable releaseListener;
+
+	/**
+	 * GPUへ送信する（AssetStreamerでは送信用のスレッドで行う）
+	 * @param imported 展開が終わったもの。closeは呼び出し側で行う
+	 * @throws Exception
+	 */
+	public ModelMesh(ModelImport imported) throws Exception {
+		var settings = imported.getSettings();
+		logicalDevice = settings.getLogicalDevice();
+		residency = settings.getResidency();
+		hash = imported.getHash() != null ? ModelCache.getMeshKey(imported.getHash(), residency) : null;
+		var baked = imported.getBaked();
+		var encoder = imported.getEncoder();
+		var indexLayout = imported.getIndexLayout();
+		var geometry = baked == null ? imported.getGeometryImport().getGeometry() : null;
+		var bounds = baked != null ? computeBounds(baked) : computeBounds(geometry.getVertices());
+		boundsMin = new FloatVector3(bounds[0], bounds[1], bounds[2]);
+		boundsMax = new FloatVector3(bounds[3], bounds[4], bounds[5]);
+		if (baked != null) {
+			indexCount = baked.getIndexCount();
+			indexType = baked.getIndexType();
+			drawRanges = baked.getDrawRanges();
+			subMeshes = baked.getSubMeshes();
+			binding = baked.createBinding();
+			dequantizeOffset = baked.getDequantizeOffset();
+			dequantizeScale = baked.getDequantizeScale();
+		}
+		else {
+			indexCount = geometry.getIndexCount();
+			indexType = indexLayout.getIndexType();
+			drawRanges = indexLayout.getRanges();
+			subMeshes = geometry.getSubMeshes();
+			binding = encoder.createBinding();
+			dequantizeOffset = encoder.getOffset();
+			dequantizeScale = encoder.getScale();
+			if (residency == ModelResidency.HEAP) {
+				geometryImport = imported.getGeometryImport();
+				vertices = geometry.getVertices();
+				indices = geometry.getIndices();
+			}
+		}
+		materialTextureIndices = imported.getMaterialTextureIndices();
+
+		// DEVICE_LOCALのメモリに置き、StagingRingからまとめて送る
+		var ring = logicalDevice.getStagingRing();
+		try {
+			// GPUへ送信
+			if (baked != null) {
+				// マップされた領域からringへ直接コピー
+				vertexBuffer = new StagingBuffer(createVertexBufferSettings(baked.getVertexBytes()));
+				ring.copyToBuffer(baked.getVertexBytes(), address -> {
+					MemoryUtil.memCopy(baked.getVertexAddress(), address, baked.getVertexBytes());
+				}, vertexBuffer);
+				indexBuffer = new StagingBuffer(createIndexBufferSettings(baked.getIndexBytes()));
+				ring.copyToBuffer(baked.getIndexBytes(), address -> {
+					MemoryUtil.memCopy(baked.getIndexAddress(), address, baked.getIndexBytes());
+				}, indexBuffer);
+			}
+			else {
+				// 配列はringに書き込むまでの間だけ参照する（HEAP以外はフィールドに残さない）
+				var heapVertices = geometry.getVertices();
+				if (encoder.getPositionType() == VertexAttributeType.FLOAT && encoder.getTextureCoordType() == VertexAttributeType.FLOAT) {
+					// floatのままの場合は、配列をそのままコピー
+					vertexBuffer = new StagingBuffer(createVertexBufferSettings(Float.BYTES * heapVertices.length));
+					ring.copyToBuffer(Float.BYTES * heapVertices.length, address -> {
+						MemoryUtil.memFloatBuffer(address, heapVertices.length).put(heapVertices);
+					}, vertexBuffer);
+				}
+				else {
+					vertexBuffer = new StagingBuffer(createVertexBufferSettings(encoder.getBytes()));
+					ring.copyToBuffer(encoder.getBytes(), encoder::write, vertexBuffer);
+				}
+				// 16bitにできる場合は16bitで、ちょうどのサイズにする
+				indexBuffer = new StagingBuffer(createIndexBufferSettings(indexLayout.getBytes()));
+				ring.copyToBuffer(indexLayout.getBytes(), indexLayout::write, indexBuffer);
+			}
+			if (residency == ModelResidency.OFF_HEAP) {
+				offHeapGeometry = baked != null ? OffHeapGeometry.of(baked) : OffHeapGeometry.of(geometry);
+			}
+
+			// Textureの作成（外部の画像ファイルも含む。同じ画像は他のモデルと共有する）
+			// TextureはUniformBufferObjectを使用しないので、Modelごとのものは渡さない
+			// 頂点、indexと同じsubmitで送られる
+			textures = AssimpUtils.uploadTextures(imported.takeTextures(), logicalDevice, settings.getCommandPool(), settings.getQueue(), null);
+		} catch (Exception e) {
+			try {
+				// 記録済みのコピーが終わってから解放する
+				ring.finish();
+				destroy();
+			} catch (Exception ex) {
+				e.addSuppressed(ex);
+			}
+			throw e;
+		}
+
+		var textureBytes = 0L;
+		for (var texture : textures) {
+			textureBytes += texture.getBytes();
+		}
+		bytes = vertexBuffer.getSettings().getSize() + indexBuffer.getSettings().getSize() + textureBytes;
+	}
+
+	/**
+	 *
+	 * @param vertices XYZUV
+	 * @return 最小のxyz、最大のxyz（頂点がない場合は全て0）
+	 */
+	private static float[] computeBounds(float[] vertices) {
+		var bounds = createEmptyBounds();
+		for (int i = 0; i < vertices.length; i += XYZUV_COUNT) {
+			for (int c = 0; c < XYZ_COUNT; ++c) {
+				bounds[c] = Math.min(bounds[c], vertices[i + c]);
+				bounds[XYZ_COUNT + c] = Math.max(bounds[XYZ_COUNT + c], vertices[i + c]);
+			}
+		}
+		return vertices.length == 0 ? new float[XYZ_COUNT * 2] : bounds;
+	}
+
+	/**
+	 *
+	 * @param baked マップした頂点から、量子化を戻して求める
+	 * @return 最小のxyz、最大のxyz（頂点がない場合は全て0）
+	 */
+	private static float[] computeBounds(BakedModel baked) {
+		var bounds = createEmptyBounds();
+		var xyz = new float[XYZ_COUNT];
+		for (int vertex = 0; vertex < baked.getVertexCount(); ++vertex) {
+			baked.readPosition(vertex, xyz);
+			for (int c = 0; c < XYZ_COUNT; ++c) {
+				bounds[c] = Math.min(bounds[c], xyz[c]);
+				bounds[XYZ_COUNT + c] = Math.max(bounds[XYZ_COUNT + c], xyz[c]);
+			}
+		}
+		return baked.getVertexCount() == 0 ? new float[XYZ_COUNT * 2] : bounds;
+	}
+
+	private static float[] createEmptyBounds() {
+		return new float[] {
+				Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY,
+				Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY};
+	}
+
+	private StagingBufferSettings createVertexBufferSettings(long size) {
+		var settings = new StagingBufferSettings(logicalDevice);
+		settings.setSize(size);
+		settings.setType(BufferType.VERTEX);
+		// DEVICE_LOCAL（StagingRingから送る）
+		settings.setMap(false);
+		return settings;
+	}
+
+	private StagingBufferSettings createIndexBufferSettings(long size) {
+		var settings = new StagingBufferSettings(logicalDevice);
+		settings.setSize(size);
+		settings.setType(BufferType.INDEX);
+		// DEVICE_LOCAL（StagingRingから送る）
+		settings.setMap(false);
+		return settings;
+	}
+
+	/**
+	 * 参照を増やす
+	 * @return 既に最後のcloseが呼ばれていた場合はfalse
+	 */
+	boolean retain() {
+		var count = references.get();
+		while (count > 0) {
+			if (references.compareAndSet(count, count + 1)) {
+				return true;
+			}
+			count = references.get();
+		}
+		return false;
+	}
+
+	/**
+	 * ModelCacheの使われていないものの一覧から、再び使う
+	 * @return 既に使われていた場合はfalse
+	 */
+	boolean revive() {
+		return references.compareAndSet(0, 1);
+	}
+
+	int getReferenceCount() {
+		return references.get();
+	}
+
+	void setReleaseListener(Runnable releaseListener) {
+		this.releaseListener = releaseListener;
+	}
+
+	/**
+	 * GPUのリソースを解放する（ModelCacheから追い出した場合、キャッシュしない場合）
+	 * @throws Exception
+	 */
+	void destroy() throws Exception {
+		try {
+			ExceptionUtils.close(textures, indexBuffer, vertexBuffer, offHeapGeometry);
+		} finally {
+			textures = null;
+			indexBuffer = null;
+			vertexBuffer = null;
+			offHeapGeometry = null;
+		}
+	}
+
+	/**
+	 * 参照を減らし、最後の参照の場合はModelCacheに戻す（登録していない場合は解放する）
+	 */
+	@Override
+	public void close() throws Exception {
+		if (references.decrementAndGet() != 0) {
+			return;
+		}
+		if (releaseListener != null) {
+			releaseListener.run();
+		}
+		else {
+			destroy();
+		}
+	}
+
+	/**
+	 *
+	 * @return ModelCacheのキー（キャッシュしない場合はnull）
+	 */
+	public String getHash() {
+		return hash;
+	}
+
+	public LogicalDevice getLogicalDevice() {
+		return logicalDevice;
+	}
+
+	/**
+	 *
+	 * @return 頂点、index、Textureのバイト数（Textureを他のモデルと共有している場合も含む）
+	 */
+	public long getBytes() {
+		return bytes;
+	}
+
+	public LongBuffer getVertexBufferInGPU() {
+		return vertexBuffer.getForHandler();
+	}
+
+	public long getIndexBufferHandlerInGPU() {
+		return indexBuffer.getHandler();
+	}
+
+	public ModelResidency getResidency() {
+		return residency;
+	}
+
+	/**
+	 *
+	 * @return ModelResidency.HEAP以外、BakedModelから作成した場合はnull
+	 */
+	public float[] getVertices() {
+		return vertices;
+	}
+
+	/**
+	 *
+	 * @return ModelResidency.HEAP以外、BakedModelから作成した場合はnull
+	 */
+	public int[] getIndices() {
+		return indices;
+	}
+
+	/**
+	 *
+	 * @return ModelResidency.HEAP以外、BakedModelから作成した場合はnull
+	 */
+	public GeometryImport getGeometryImport() {
+		return geometryImport;
+	}
+
+	/**
+	 *
+	 * @return ModelResidency.OFF_HEAP以外、destroyの後はnull
+	 */
+	public OffHeapGeometry getOffHeapGeometry() {
+		return offHeapGeometry;
+	}
+
+	/**
+	 *
+	 * @return バウンディングボックスの最小（元の座標）
+	 */
+	public FloatVector3 getBoundsMin() {
+		return boundsMin;
+	}
+
+	/**
+	 *
+	 * @return バウンディングボックスの最大（元の座標）
+	 */
+	public FloatVector3 getBoundsMax() {
+		return boundsMax;
+	}
+
+	public int getIndexCount() {
+		return indexCount;
+	}
+
+	public int getIndexType() {
+		return indexType;
+	}
+
+	public List<DrawRange> getDrawRanges() {
+		return drawRanges;
+	}
+
+	public List<SubMesh> getSubMeshes() {
+		return subMeshes;
+	}
+
+	public VertexBindingBuilder getBinding() {
+		return binding;
+	}
+
+	public FloatVector3 getDequantizeOffset() {
+		return dequantizeOffset;
+	}
+
+	public float getDequantizeScale() {
+		return dequantizeScale;
+	}
+
+	public AutoCloseableList<Texture> getTextures() {
+		return textures;
+	}
+
+	/**
+	 *
+	 * @return マテリアルごとのtexturesのindex（画像がない場合は-1）
+	 */
+	public int[] getMaterialTextureIndices() {
+		return materialTextureIndices;
+	}
+}
@@ -0,0 +1,23 @@
+package lwjgl.ex.vulkan;
+
+/**
+ * GPUへ送信した後、ModelMeshがCPU側に残すもの
+ * どれもAISceneはModelImportのreleaseSceneで解放し、描画に必要なもの（index数、描画範囲、バウンディングボックス）は残す
+ */
+public enum ModelResidency {
+	/**
+	 * float[]の頂点、int[]のindex、GeometryImportをJavaのヒープに残す
+	 * （BakedModelから作成した場合は残らない）
+	 */
+	HEAP,
+	/**
+	 * 座標とindexだけを、ヒープ外に詰めて残す（OffHeapGeometry。ピッキングなど用）
+	 * BakedModelから作成した場合も、マップした領域から作成する
+	 */
+	OFF_HEAP,
+	/**
+	 * 描画に必要なもの以外は残さない
+	 * 頂点とindexは送信の間だけ存在し、ModelImportのcloseで解放される
+	 */
+	GPU_ONLY;
+}
@@ -0,0 +1,237 @@
+package lwjgl.ex.vulkan;
+
+import java.nio.file.Path;
+
+public class ModelSettings {
+	private Path modelPath;
+	private LogicalDevice logicalDevice;
+	private CommandPool commandPool;
+	private Queue queue;
+	private SwapChain swapChain;
+	
+	private int importFileFlag = Model.DEFAULT_IMPORT_FILE_FLAG;
+	
+	/**
+	 * メッシュごとに並列で頂点、indexを取り出すか
+	 */
+	private boolean parallel;
+	
+	/**
+	 * 重複した頂点をまとめるか
+	 */
+	private boolean weld = true;
+	private float weldEpsilon = VertexWelder.EXACT;
+	
+	/**
+	 * 頂点キャッシュのために三角形と頂点を並べ替えるか
+	 */
+	private boolean optimizeVertexCache;
+	
+	/**
+	 * 頂点の型（FLOAT以外は量子化、圧縮される）
+	 */
+	private VertexAttributeType positionType = VertexAttributeType.FLOAT;
+	private VertexAttributeType textureCoordType = VertexAttributeType.FLOAT;
+	
+	/**
+	 * BakedModelに保存するテクスチャの圧縮形式（nullの場合は元の画像のまま）
+	 */
+	private TextureCompression textureCompression;
+	
+	/**
+	 * UniformBufferObjectのレイアウト（SpirvReflectionで読み取ったもの）
+	 */
+	private StructLayout uniformLayout = UniformBufferObject.DEFAULT_LAYOUT;
+	
+	/**
+	 * GPUへ送信した後、CPU側に残すもの
+	 */
+	private ModelResidency residency = ModelResidency.HEAP;
+	
+	public ModelSettings(Path modelPath, LogicalDevice logicalDevice, CommandPool commandPool, Queue queue, SwapChain swapChain) {
+		this.modelPath = modelPath;
+		this.logicalDevice = logicalDevice;
+		this.commandPool = commandPool;
+		this.queue = queue;
+		this.swapChain = swapChain;
+	}
+
+	/**
+	 * 全ての設定をコピーする
+	 * @param settings
+	 */
+	public ModelSettings(ModelSettings settings) {
+		this(settings.modelPath, settings.logicalDevice, settings.commandPool, settings.queue, settings.swapChain);
+		importFileFlag = settings.importFileFlag;
+		parallel = settings.parallel;
+		weld = settings.weld;
+		weldEpsilon = settings.weldEpsilon;
+		optimizeVertexCache = settings.optimizeVertexCache;
+		positionType = settings.positionType;
+		textureCoordType = settings.textureCoordType;
+		textureCompression = settings.textureCompression;
+		uniformLayout = settings.uniformLayout;
+		residency = settings.residency;
+	}
+
+	public Path getModelPath() {
+		return modelPath;
+	}
+
+	public void setModelPath(Path modelPath) {
+		this.modelPath = modelPath;
+	}
+
+	public LogicalDevice getLogicalDevice() {
+		return logicalDevice;
+	}
+
+	public void setLogicalDevice(LogicalDevice logicalDevice) {
+		this.logicalDevice = logicalDevice;
+	}
+
+	public CommandPool getCommandPool() {
+		return commandPool;
+	}
+
+	public void setCommandPool(CommandPool commandPool) {
+		this.commandPool = commandPool;
+	}
+
+	public Queue getQueue() {
+		return queue;
+	}
+
+	public void setQueue(Queue queue) {
+		this.queue = queue;
+	}
+
+	public SwapChain getSwapChain() {
+		return swapChain;
+	}
+
+	public void setSwapChain(SwapChain swapChain) {
+		this.swapChain = swapChain;
+	}
+
+	public int getImportFileFlag() {
+		return importFileFlag;
+	}
+
+	/**
+	 * 
+	 * @param importFileFlag Assimp.aiProcess_〜
+	 */
+	public void setImportFileFlag(int importFileFlag) {
+		this.importFileFlag = importFileFlag;
+	}
+
+	public boolean isParallel() {
+		return parallel;
+	}
+
+	/**
+	 * メッシュが多いモデル用。結果は並列でない場合と同一
+	 * @param parallel
+	 */
+	public void setParallel(boolean parallel) {
+		this.parallel = parallel;
+	}
+
+	public boolean isWeld() {
+		return weld;
+	}
+
+	/**
+	 * 重複した頂点をまとめるか（VertexWelder）
+	 * @param weld
+	 */
+	public void setWeld(boolean weld) {
+		this.weld = weld;
+	}
+
+	public float getWeldEpsilon() {
+		return weldEpsilon;
+	}
+
+	/**
+	 * 
+	 * @param weldEpsilon 0の場合は完全一致のみまとめる
+	 */
+	public void setWeldEpsilon(float weldEpsilon) {
+		this.weldEpsilon = weldEpsilon;
+	}
+
+	public boolean isOptimizeVertexCache() {
+		return optimizeVertexCache;
+	}
+
+	/**
+	 * 三角形と頂点を並べ替えるか（VertexCacheOptimizer）
+	 * 読み込みは遅くなるので、BakedModelで使う想定
+	 * @param optimizeVertexCache
+	 */
+	public void setOptimizeVertexCache(boolean optimizeVertexCache) {
+		this.optimizeVertexCache = optimizeVertexCache;
+	}
+
+	public VertexAttributeType getPositionType() {
+		return positionType;
+	}
+
+	/**
+	 * 
+	 * @param positionType SNORM16、UNORM16の場合はモデルの範囲で正規化する
+	 */
+	public void setPositionType(VertexAttributeType positionType) {
+		this.positionType = positionType;
+	}
+
+	public VertexAttributeType getTextureCoordType() {
+		return textureCoordType;
+	}
+
+	/**
+	 * 
+	 * @param textureCoordType UNORM16の場合は0〜1の範囲外が丸められる（繰り返しのテクスチャには使えない）。SNORM16は不可
+	 */
+	public void setTextureCoordType(VertexAttributeType textureCoordType) {
+		this.textureCoordType = textureCoordType;
+	}
+
+	public TextureCompression getTextureCompression() {
+		return textureCompression;
+	}
+
+	/**
+	 * BakedModel.bakeでのみ使用（モデルファイルから直接読み込む場合は圧縮しない）
+	 * @param textureCompression nullの場合は元の画像（PNGなど）のまま保存する
+	 */
+	public void setTextureCompression(TextureCompression textureCompression) {
+		this.textureCompression = textureCompression;
+	}
+
+	public StructLayout getUniformLayout() {
+		return uniformLayout;
+	}
+
+	/**
+	 * 
+	 * @param uniformLayout shader.getReflection().getBlock(UniformBufferObject.BLOCK_NAME).getLayout()など
+	 */
+	public void setUniformLayout(StructLayout uniformLayout) {
+		this.uniformLayout = uniformLayout;
+	}
+
+	public ModelResidency getResidency() {
+		return residency;
+	}
+
+	/**
+	 * 
+	 * @param residency 大量のモデルを読み込む場合は、OFF_HEAPまたはGPU_ONLYにするとJavaのヒープを使わない
+	 */
+	public void setResidency(ModelResidency residency) {
+		this.residency = residency;
+	}
+}
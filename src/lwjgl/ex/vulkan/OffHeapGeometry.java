@@ -0,0 +1,140 @@
+package lwjgl.ex.vulkan;
+
+import static lwjgl.ex.vulkan.VulkanConstants.*;
+import static org.lwjgl.system.MemoryUtil.*;
+
+import motopgi.utils.FloatVector3;
+
+/**
+ * ピッキングなどのために、CPU側に残す座標とindex（ModelResidency.OFF_HEAP）
+ * Javaのヒープに置かないので、大量のモデルを読み込んでもGCの対象にならない
+ *
+ * 座標は元の座標（量子化を戻したもの）のfloat×3、indexはDrawRangeのvertexOffsetを足したint
+ * closeで解放する（ModelMeshのdestroyで呼ばれる）
+ */
+public class OffHeapGeometry implements AutoCloseable {
+	private final int vertexCount;
+	private final int indexCount;
+	private long positionAddress;
+	private long indexAddress;
+
+	private OffHeapGeometry(int vertexCount, int indexCount) {
+		this.vertexCount = vertexCount;
+		this.indexCount = indexCount;
+		// 0バイトの場合にNULLが返らないように、最低1要素分確保する
+		positionAddress = nmemAlloc(Float.BYTES * XYZ_COUNT * (long) Math.max(vertexCount, 1));
+		indexAddress = nmemAlloc(Integer.BYTES * (long) Math.max(indexCount, 1));
+		if (positionAddress == NULL || indexAddress == NULL) {
+			nmemFree(positionAddress);
+			nmemFree(indexAddress);
+			throw new OutOfMemoryError("OffHeapGeometryの確保に失敗しました 頂点数 " + vertexCount + " index数 " + indexCount);
+		}
+	}
+
+	/**
+	 *
+	 * @param geometry XYZUVの頂点から、座標のみ取り出す
+	 * @return closeは呼び出し側で行う
+	 */
+	public static OffHeapGeometry of(ModelGeometry geometry) {
+		var vertices = geometry.getVertices();
+		var indices = geometry.getIndices();
+		var result = new OffHeapGeometry(geometry.getVertexCount(), indices.length);
+		var address = result.positionAddress;
+		for (int i = 0; i < vertices.length; i += XYZUV_COUNT) {
+			memPutFloat(address, vertices[i]);
+			memPutFloat(address + Float.BYTES, vertices[i + 1]);
+			memPutFloat(address + Float.BYTES * 2, vertices[i + 2]);
+			address += Float.BYTES * XYZ_COUNT;
+		}
+		memIntBuffer(result.indexAddress, indices.length).put(indices);
+		return result;
+	}
+
+	/**
+	 *
+	 * @param baked マップした頂点とindexを読み込む
+	 * @return closeは呼び出し側で行う
+	 */
+	public static OffHeapGeometry of(BakedModel baked) {
+		var result = new OffHeapGeometry(baked.getVertexCount(), baked.getIndexCount());
+		var xyz = new float[XYZ_COUNT];
+		var address = result.positionAddress;
+		for (int vertex = 0; vertex < result.vertexCount; ++vertex) {
+			baked.readPosition(vertex, xyz);
+			memPutFloat(address, xyz[0]);
+			memPutFloat(address + Float.BYTES, xyz[1]);
+			memPutFloat(address + Float.BYTES * 2, xyz[2]);
+			address += Float.BYTES * XYZ_COUNT;
+		}
+		for (var range : baked.getDrawRanges()) {
+			var end = range.getFirstIndex() + range.getIndexCount();
+			for (int i = range.getFirstIndex(); i < end; ++i) {
+				memPutInt(result.indexAddress + (long) Integer.BYTES * i, baked.readIndex(i) + range.getVertexOffset());
+			}
+		}
+		return result;
+	}
+
+	public int getVertexCount() {
+		return vertexCount;
+	}
+
+	public int getIndexCount() {
+		return indexCount;
+	}
+
+	/**
+	 *
+	 * @param vertex
+	 * @return 元の座標
+	 */
+	public FloatVector3 getPosition(int vertex) {
+		var address = positionAddress + Float.BYTES * XYZ_COUNT * (long) vertex;
+		return new FloatVector3(memGetFloat(address), memGetFloat(address + Float.BYTES), memGetFloat(address + Float.BYTES * 2));
+	}
+
+	/**
+	 *
+	 * @param index
+	 * @return 頂点の番号（vertexOffsetを足したもの）
+	 */
+	public int getIndex(int index) {
+		return memGetInt(indexAddress + (long) Integer.BYTES * index);
+	}
+
+	/**
+	 *
+	 * @return float×3 × 頂点数の先頭アドレス（closeした後は使用不可）
+	 */
+	public long getPositionAddress() {
+		return positionAddress;
+	}
+
+	/**
+	 *
+	 * @return int × index数の先頭アドレス（closeした後は使用不可）
+	 */
+	public long getIndexAddress() {
+		return indexAddress;
+	}
+
+	/**
+	 *
+	 * @return 確保したバイト数
+	 */
+	public long getBytes() {
+		return Float.BYTES * XYZ_COUNT * (long) vertexCount + Integer.BYTES * (long) indexCount;
+	}
+
+	@Override
+	public void close() {
+		if (positionAddress == NULL) {
+			return;
+		}
+		nmemFree(positionAddress);
+		nmemFree(indexAddress);
+		positionAddress = NULL;
+		indexAddress = NULL;
+	}
+}
@@ -0,0 +1,133 @@
+package lwjgl.ex.vulkan;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+
+import motopgi.utils.MappedFile;
+
+/**
+ * ワーカースレッドで準備した、GPUへ送る前のTexture
+ * TextureCacheにある場合は展開せずにそのTextureを、ない場合は展開したTextureSourceを持つ
+ */
+public class PendingTexture implements AutoCloseable {
+	/**
+	 * TextureCacheのキー（キャッシュしない場合はnull）
+	 */
+	private final String hash;
+	private Texture cached;
+	private TextureSource source;
+
+	private PendingTexture(String hash, Texture cached, TextureSource source) {
+		this.hash = hash;
+		this.cached = cached;
+		this.source = source;
+	}
+
+	/**
+	 * キャッシュしないもの（非圧縮のaiTexelなど）
+	 * @param source closeで閉じる
+	 */
+	public PendingTexture(TextureSource source) {
+		this(null, null, source);
+	}
+
+	/**
+	 * 圧縮された画像（PNG、KTX2など）を、TextureCacheにない場合のみ展開する
+	 * @param compressed 読み込み位置は変更しない
+	 * @param logicalDevice
+	 * @param generateMipmaps
+	 * @return
+	 */
+	public static PendingTexture decode(ByteBuffer compressed, LogicalDevice logicalDevice, boolean generateMipmaps) {
+		var hash = TextureCache.hash(compressed);
+		var cached = TextureCache.acquire(logicalDevice, hash);
+		if (cached != null) {
+			return new PendingTexture(hash, cached, null);
+		}
+		var source = AssimpUtils.decodeTexture(compressed);
+		return new PendingTexture(hash, null, generateMipmaps ? MipmapGenerator.withMipmaps(source) : source);
+	}
+
+	/**
+	 * 画像ファイルを読み込み、TextureCacheにない場合のみ展開する
+	 * @param path
+	 * @param logicalDevice
+	 * @param generateMipmaps
+	 * @return
+	 */
+	public static PendingTexture load(Path path, LogicalDevice logicalDevice, boolean generateMipmaps) {
+		try {
+			String hash;
+			try (var file = new MappedFile(path)) {
+				var compressed = file.asByteBuffer(0, file.size());
+				hash = TextureCache.hash(compressed);
+				var cached = TextureCache.acquire(logicalDevice, hash);
+				if (cached != null) {
+					return new PendingTexture(hash, cached, null);
+				}
+				if (!Ktx2.isKtx2(compressed)) {
+					// 展開結果はマップした領域を参照しない
+					var source = AssimpUtils.decodeTexture(compressed);
+					return new PendingTexture(hash, null, generateMipmaps ? MipmapGenerator.withMipmaps(source) : source);
+				}
+			}
+			// KTX2はマップした領域から直接送るので、TextureSource側でマップし直す
+			return new PendingTexture(hash, null, Ktx2TextureSource.open(path));
+		} catch (IOException e) {
+			throw new RuntimeException("Textureの読み込みに失敗しました " + path, e);
+		}
+	}
+
+	/**
+	 * Textureを作成し、TextureCacheに登録する（キャッシュにあった場合はそれを返す）
+	 * GPUへ送信するので、呼び出し元のスレッドで順に行う
+	 * @param logicalDevice
+	 * @param commandPool
+	 * @param queue
+	 * @param uniformObject
+	 * @return closeは呼び出し側で行う
+	 */
+	public Texture create(LogicalDevice logicalDevice, CommandPool commandPool, Queue queue, UniformBufferObject uniformObject) {
+		if (cached != null) {
+			var texture = cached;
+			cached = null;
+			return texture;
+		}
+		if (source == null) {
+			throw new IllegalStateException("作成済みです");
+		}
+		try (var source = this.source) {
+			this.source = null;
+			var texture = new Texture(source, logicalDevice, commandPool, queue, uniformObject);
+			return hash == null ? texture : TextureCache.register(hash, texture);
+		}
+	}
+
+	/**
+	 *
+	 * @return TextureCacheにあったため、展開しなかったか
+	 */
+	public boolean isCached() {
+		return cached != null;
+	}
+
+	/**
+	 * createしなかった場合に、展開結果またはキャッシュの参照を解放する
+	 */
+	@Override
+	public void close() {
+		if (source != null) {
+			source.close();
+			source = null;
+		}
+		if (cached != null) {
+			try {
+				cached.close();
+			} catch (Exception e) {
+				throw new RuntimeException("Textureの解放に失敗しました", e);
+			}
+			cached = null;
+		}
+	}
+}
@@ -44,8 +44,36 @@ public class PhysicalDevice {
 	private float maxSamplerAnisotropy;
 	
 	private int[] memoryProperties;
+	/**
+	 * メモリタイプ → ヒープ
+	 */
+	private int[] memoryHeapIndices;
+	private long[] memoryHeapSizes;
+	private int[] memoryHeapFlags;
+	
+	/**
+	 * VK_EXT_memory_budgetに対応しているか
+	 */
+	private boolean memoryBudget;
 	
 	private int msaaSamples;
+	
+	/**
+	 * BCnの圧縮テクスチャに対応しているか
+	 */
+	private boolean textureCompressionBC;
+	
+	// PipelineCacheの保存したデータが、このデバイス、ドライバのものか確認するため
+	private int vendorID;
+	private int deviceID;
+	private int driverVersion;
+	private final byte[] pipelineCacheUUID = new byte[VK_UUID_SIZE];
+	
+	// MemoryAllocatorでメモリを分けて使うため
+	private long bufferImageGranularity;
+	private long nonCoherentAtomSize;
+	private int maxMemoryAllocationCount;
+	private long minUniformBufferOffsetAlignment;
 
 	/**
 	 * getFirstPhysicalDeviceから初期化
@@ -88,6 +116,19 @@ public class PhysicalDevice {
 	        
 	        // 他も必要になったら変数を増やすか、properties自体を保持するように変更する
 	        maxSamplerAnisotropy = properties.limits().maxSamplerAnisotropy();
+	        vendorID = properties.vendorID();
+	        deviceID = properties.deviceID();
+	        driverVersion = properties.driverVersion();
+	        properties.pipelineCacheUUID().get(pipelineCacheUUID);
+	        bufferImageGranularity = properties.limits().bufferImageGranularity();
+	        nonCoherentAtomSize = properties.limits().nonCoherentAtomSize();
+	        maxMemoryAllocationCount = properties.limits().maxMemoryAllocationCount();
+	        minUniformBufferOffsetAlignment = properties.limits().minUniformBufferOffsetAlignment();
+	        
+	        var features = VkPhysicalDeviceFeatures.calloc(stack);
+	        vkGetPhysicalDeviceFeatures(device, features);
+	        textureCompressionBC = features.textureCompressionBC();
+	        memoryBudget = getExtensions(device).contains(EXTMemoryBudget.VK_EXT_MEMORY_BUDGET_EXTENSION_NAME);
 //	        var nameBytes = new byte[properties.deviceName().capacity()];
 //	        properties.deviceName().get(nameBytes);
 //	        System.out.println(new String(nameBytes));
@@ -101,9 +142,17 @@ public class PhysicalDevice {
 	        VkPhysicalDeviceMemoryProperties physicalDeviceMemoryProperties = VkPhysicalDeviceMemoryProperties.calloc(stack);
             vkGetPhysicalDeviceMemoryProperties(device, physicalDeviceMemoryProperties);
             memoryProperties = new int[physicalDeviceMemoryProperties.memoryTypeCount()];
+            memoryHeapIndices = new int[memoryProperties.length];
             for (int i = 0; i < memoryProperties.length; ++i) {
             	// 他も必要になったら変数を増やすか、properties自体を保持するように変更する
             	memoryProperties[i] = physicalDeviceMemoryProperties.memoryTypes(i).propertyFlags();
+            	memoryHeapIndices[i] = physicalDeviceMemoryProperties.memoryTypes(i).heapIndex();
+            }
+            memoryHeapSizes = new long[physicalDeviceMemoryProperties.memoryHeapCount()];
+            memoryHeapFlags = new int[memoryHeapSizes.length];
+            for (int i = 0; i < memoryHeapSizes.length; ++i) {
+            	memoryHeapSizes[i] = physicalDeviceMemoryProperties.memoryHeaps(i).size();
+            	memoryHeapFlags[i] = physicalDeviceMemoryProperties.memoryHeaps(i).flags();
             }
             // 開発環境では[0, 1, 1, 6, 14, 7]
 //            System.out.println("memoryProperties " + Arrays.toString(memoryProperties));
@@ -145,6 +194,25 @@ public class PhysicalDevice {
         }
         throw new IllegalArgumentException("適合するメモリタイプが存在しません");
     }
+	
+	/**
+	 * preferredも含むものがなければ、requiredだけで探す
+	 * @param typeFilter
+	 * @param required VK_MEMORY_PROPERTY_〜
+	 * @param preferred VK_MEMORY_PROPERTY_HOST_CACHED_BITなど（0の場合はrequiredだけ）
+	 * @return
+	 * @throws IllegalArgumentException requiredを満たすものがない場合
+	 */
+	public int findMemoryTypeIndex(int typeFilter, int required, int preferred) throws IllegalArgumentException {
+		if (preferred != 0) {
+			try {
+				return findMemoryTypeIndex(typeFilter, required | preferred);
+			} catch (IllegalArgumentException e) {
+				// requiredだけで探す
+			}
+		}
+		return findMemoryTypeIndex(typeFilter, required);
+	}
 
 	/**
 	 * 条件に合う最初のデバイスを返す
@@ -341,6 +409,122 @@ public class PhysicalDevice {
 	}
 	
 	
+	/**
+	 * 
+	 * @param format
+	 * @return VK_IMAGE_TILING_OPTIMALで、テクスチャとしてサンプリングできるか
+	 */
+	public boolean isSampledImageFormatSupported(int format) {
+		try (var stack = MemoryStack.stackPush()) {
+			var features = getFormatProperties(format, stack).formatProperties().optimalTilingFeatures();
+			return (features & VK_FORMAT_FEATURE_SAMPLED_IMAGE_BIT) != 0;
+		}
+	}
+	
+	public boolean isTextureCompressionBC() {
+		return textureCompressionBC;
+	}
+	
+	/**
+	 * 
+	 * @return VK_EXT_memory_budgetに対応しているか（ヒープごとの予算と使用量を取得できる）
+	 */
+	public boolean isMemoryBudget() {
+		return memoryBudget;
+	}
+	
+	/**
+	 * 
+	 * @param memoryTypeIndex
+	 * @return そのメモリタイプが属するヒープ
+	 */
+	public int getMemoryHeapIndex(int memoryTypeIndex) {
+		return memoryHeapIndices[memoryTypeIndex];
+	}
+	
+	public int getMemoryHeapCount() {
+		return memoryHeapSizes.length;
+	}
+	
+	/**
+	 * 
+	 * @param heapIndex
+	 * @return ヒープの大きさ（VK_EXT_memory_budgetがない場合の予算）
+	 */
+	public long getMemoryHeapSize(int heapIndex) {
+		return memoryHeapSizes[heapIndex];
+	}
+	
+	/**
+	 * 
+	 * @param heapIndex
+	 * @return VK_MEMORY_HEAP_〜
+	 */
+	public int getMemoryHeapFlags(int heapIndex) {
+		return memoryHeapFlags[heapIndex];
+	}
+	
+	public int getVendorID() {
+		return vendorID;
+	}
+	
+	public int getDeviceID() {
+		return deviceID;
+	}
+	
+	public int getDriverVersion() {
+		return driverVersion;
+	}
+	
+	/**
+	 * 
+	 * @return VkPipelineCacheのデータの互換性を表すUUID（ドライバの更新で変わる）
+	 */
+	public byte[] getPipelineCacheUUID() {
+		return pipelineCacheUUID.clone();
+	}
+	
+	/**
+	 * 
+	 * @return 同じVkDeviceMemory内で、BufferとImage（OPTIMAL）を隣り合わせる場合に空ける境界
+	 */
+	public long getBufferImageGranularity() {
+		return bufferImageGranularity;
+	}
+	
+	/**
+	 * 
+	 * @return HOST_COHERENTでないメモリを、vkFlushMappedMemoryRangesする単位
+	 */
+	public long getNonCoherentAtomSize() {
+		return nonCoherentAtomSize;
+	}
+	
+	/**
+	 * 
+	 * @return vkAllocateMemoryで同時に確保できる数（4096の場合が多い）
+	 */
+	public int getMaxMemoryAllocationCount() {
+		return maxMemoryAllocationCount;
+	}
+	
+	/**
+	 * 
+	 * @return UniformBufferのDescriptorの位置（dynamic offsetを含む）の単位（2のべき乗）
+	 */
+	public long getMinUniformBufferOffsetAlignment() {
+		return minUniformBufferOffsetAlignment;
+	}
+	
+	/**
+	 * 
+	 * @param memoryTypeIndex
+	 * @return VK_MEMORY_PROPERTY_〜
+	 */
+	public int getMemoryPropertyFlags(int memoryTypeIndex) {
+		return memoryProperties[memoryTypeIndex];
+	}
+	
 	public int findSupportedFormat(int tiling, int features, int...candidates ) {
 		try (var stack = MemoryStack.stackPush()) {
 			// VkFormatProperties2の方が推奨になっているが、拡張情報がとれるだけのようなので、ここでは不要？
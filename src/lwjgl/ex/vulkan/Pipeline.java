@@ -10,10 +10,16 @@ import static org.lwjgl.vulkan.VK10.vkDestroyPipelineLayout;
 import static org.lwjgl.vulkan.VK10.vkUpdateDescriptorSets;
 import static org.lwjgl.vulkan.VK14.*;
 
+import java.nio.IntBuffer;
 import java.nio.LongBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 
 import org.lwjgl.system.MemoryStack;
 import org.lwjgl.system.MemoryUtil;
@@ -37,12 +43,18 @@ import org.lwjgl.vulkan.VkPipelineVertexInputStateCreateInfo;
 import org.lwjgl.vulkan.VkPipelineViewportStateCreateInfo;
 import org.lwjgl.vulkan.VkWriteDescriptorSet;
 
+import motopgi.utils.AutoCloseableList;
+
 public class Pipeline implements AutoCloseable {
 	private LongBuffer forDescriptorPool;
 	private LongBuffer forDescriptorSet;
 	private LongBuffer forDescriptorLayouts;
 	
 	private List<Descriptor> descriptorList;
+	/**
+	 * Descriptor.isDynamicの数
+	 */
+	private int dynamicCount;
 	
 	
 	private long handler;
@@ -50,20 +62,34 @@ public class Pipeline implements AutoCloseable {
     
     private LogicalDevice logicalDevice;
     private PipelineSettings settings;
+    /**
+     * ShaderLibraryでの再作成用（Computeの場合はnull）
+     */
+    private GraphicPipelineSettings graphicSettings;
+    private VertexBindingBuilder binding;
+    /**
+     * closeでShaderLibraryの監視対象から外す
+     */
+    private Runnable closeListener;
     
 
     /**
      * ComputePipelineとして初期化する
      */
     private void initAsCompute() {
+    	handler = createComputeHandler(settings.getShader());
+    }
+    
+    private long createComputeHandler(Shader shader) {
     	var device = logicalDevice.getDevice();
     	
     	try(var stack = MemoryStack.stackPush()) {    		
     		var compute = VkComputePipelineCreateInfo.calloc(1, stack).sType$Default()
     				.layout(layoutHandler);
-    		settings.write(compute, stack);
+    		settings.write(compute, stack, shader);
         	
         	var forHandler = stack.mallocLong(1);
+        	var start = System.nanoTime();
         	Vulkan.throwExceptionIfFailed(vkCreateComputePipelines(device,
         			// Vulkanのクソ設計によりcacheが必要
         			// （C++版だと恐らく内部生成される）
@@ -72,7 +98,8 @@ public class Pipeline implements AutoCloseable {
 		        	null,
 		        	forHandler),
         			"ComputePipelinesの作成に失敗しました");
-        	handler = forHandler.get(0);
+        	logicalDevice.getPipelineCache().addCreation(System.nanoTime() - start);
+        	return forHandler.get(0);
     	}
     }
     
@@ -85,7 +112,11 @@ public class Pipeline implements AutoCloseable {
     	// 正しい設計方法が分かり次第対処
     	// compute.initDescriptor(settings);
     	
-    	compute.initAsCompute();
+    	try {
+    		compute.initAsCompute();
+    	} catch (RuntimeException e) {
+    		closeOnFailure(compute, e);
+    	}
     	return compute;
     }
     
@@ -94,13 +125,92 @@ public class Pipeline implements AutoCloseable {
     	
     	// どこでDescriptorを初期化するべきか不明、
     	// 正しい設計方法が分かり次第対処
-    	grachics.initDescriptor(settings);
-    	
-    	grachics.initAsGraphics(graphicSettings, binding);
+    	try {
+    		grachics.initDescriptor(settings);
+    		
+    		grachics.initAsGraphics(graphicSettings, binding);
+    	} catch (RuntimeException e) {
+    		closeOnFailure(grachics, e);
+    	}
     	return grachics;
     }
     
+    /**
+     * 途中まで作成したものを解放して、eを投げ直す
+     * @param pipeline
+     * @param e
+     */
+    private static void closeOnFailure(Pipeline pipeline, RuntimeException e) {
+    	try {
+    		pipeline.close();
+    	} catch (Exception ex) {
+    		e.addSuppressed(ex);
+    	}
+    	throw e;
+    }
+    
+    /**
+     * ForkJoinPool.commonPoolで、まとめて並列に作成する
+     * @param builds
+     * @return buildsと同じ順番
+     * @see #createAll(List, Executor)
+     */
+    public static AutoCloseableList<Pipeline> createAll(List<PipelineBuild> builds) {
+    	return createAll(builds, ForkJoinPool.commonPool());
+    }
+    
+    /**
+     * まとめて並列に作成し、全て作成し終わってから返す
+     * （組み合わせの数だけ作成する場合、1つずつだと読み込み時間のほとんどを占めるため）
+     * 
+     * 全てデバイスのPipelineCacheを共有する（VkPipelineCacheは内部で同期されるので、ロックは不要）
+     * DescriptorPoolなどはPipelineごとに作成するため、スレッド間で共有しない
+     * PipelineCache.getCreationNanosは各スレッドの合計なので、経過時間より長くなる
+     * @param builds
+     * @param executor
+     * @return buildsと同じ順番
+     * @throws RuntimeException 1つでも失敗した場合（他の失敗はsuppressed、作成できたものは全て解放する）
+     */
+    public static AutoCloseableList<Pipeline> createAll(List<PipelineBuild> builds, Executor executor) {
+    	var futures = new ArrayList<CompletableFuture<Pipeline>>(builds.size());
+    	for (var build : builds) {
+    		futures.add(CompletableFuture.supplyAsync(build::create, executor));
+    	}
+    	
+    	var list = new AutoCloseableList<Pipeline>();
+    	RuntimeException failure = null;
+    	// 失敗しても、作成中のものは全て待ってから解放する
+    	for (var future : futures) {
+    		try {
+    			list.add(future.join());
+    		} catch (CompletionException e) {
+    			var cause = e.getCause() instanceof RuntimeException runtime ? runtime : e;
+    			if (failure == null) {
+    				failure = cause;
+    			}
+    			else {
+    				failure.addSuppressed(cause);
+    			}
+    		}
+    	}
+    	if (failure != null) {
+    		try {
+    			list.close();
+    		} catch (Exception e) {
+    			failure.addSuppressed(e);
+    		}
+    		throw failure;
+    	}
+    	return list;
+    }
+    
     private void initAsGraphics(GraphicPipelineSettings graphicSettings, VertexBindingBuilder binding) {
+    	this.graphicSettings = graphicSettings;
+    	this.binding = binding;
+    	handler = createGraphicsHandler(settings.getShader());
+    }
+    
+    private long createGraphicsHandler(Shader shader) {
     	var device = logicalDevice.getDevice();
     	
     	try (var stack = MemoryStack.stackPush()) {
@@ -182,15 +292,44 @@ public class Pipeline implements AutoCloseable {
 //                  .pStages(shader.createStageBuffer(stack))
                     ;
             
-            settings.write(createInfo, stack);
+            settings.write(createInfo, stack, shader);
             
             LongBuffer forHandler = stack.mallocLong(1);
+            var start = System.nanoTime();
             Vulkan.throwExceptionIfFailed(vkCreateGraphicsPipelines(device, logicalDevice.getPipelineCache().getHandler(), createInfo, null, forHandler),
                     "GraphicsPipelineの作成に失敗しました");
-            handler = forHandler.get(0);
+            // PipelineCacheがファイルから読み込んだ場合と比較するため
+            logicalDevice.getPipelineCache().addCreation(System.nanoTime() - start);
+            return forHandler.get(0);
         }
     }
     
+    /**
+     * 同じ設定で、Shaderのみ置き換えたVkPipelineを作成する（ShaderLibraryの再読み込み用）
+     * 描画中のものは変更しないので、描画スレッド以外から呼べる
+     * @param shader
+     * @return replaceに渡す
+     */
+    long createHandler(Shader shader) {
+    	return graphicSettings == null ? createComputeHandler(shader) : createGraphicsHandler(shader);
+    }
+    
+    /**
+     * createHandlerで作成したものに置き換え、今のVkPipelineを破棄する
+     * 描画スレッドで、GPUが今のVkPipelineを使い終わってから呼ぶ
+     * @param shader
+     * @param handler
+     */
+    void replace(Shader shader, long handler) {
+    	vkDestroyPipeline(logicalDevice.getDevice(), this.handler, null);
+    	this.handler = handler;
+    	settings.setShader(shader);
+    }
+    
+    void setCloseListener(Runnable closeListener) {
+    	this.closeListener = closeListener;
+    }
+    
     
     
     
@@ -213,15 +352,65 @@ public class Pipeline implements AutoCloseable {
 	 */
     private void initDescriptor(PipelineSettings settings) {
     	// 各バッファの初期化
-    	forDescriptorPool = MemoryUtil.memAllocLong(1);
-    	forDescriptorSet = MemoryUtil.memAllocLong(1);
-    	forDescriptorLayouts = MemoryUtil.memAllocLong(1);
+    	// 途中で失敗した場合にcloseで破棄するため、VK_NULL_HANDLEで初期化する
+    	forDescriptorPool = MemoryUtil.memCallocLong(1);
+    	forDescriptorSet = MemoryUtil.memCallocLong(1);
+    	forDescriptorLayouts = MemoryUtil.memCallocLong(1);
     	
 		var device = logicalDevice.getDevice();
 		
-		// 本来絶対にDescriptorPoolなどいらないが、Vulkanの制約上必須になっているので仕方ない
-		// 事前にdescriptorTypeの種類ごとに数える必要がある
 		descriptorList = settings.getDescriptorList();
+		for(var descriptor: descriptorList) {
+			if (descriptor.isDynamic()) {
+				++dynamicCount;
+			}
+		}
+		
+		try(var stack = MemoryStack.stackPush()) {
+			// 本来絶対にDescriptorPoolなどいらないが、Vulkanの制約上必須になっているので仕方ない
+			createDescriptorPool(descriptorList, 1, forDescriptorPool);
+			
+			var bindings = VkDescriptorSetLayoutBinding.calloc(descriptorList.size(), stack);
+			for(int d = 0; d < descriptorList.size(); ++d) {
+				var descriptor = descriptorList.get(d);
+				descriptor.write(bindings.get(d), d);
+			}
+			
+			var layout = VkDescriptorSetLayoutCreateInfo.calloc(stack).sType$Default()
+					.pBindings(bindings);
+			Vulkan.throwExceptionIfFailed(vkCreateDescriptorSetLayout(device, layout, null, forDescriptorLayouts),
+	                "DescriptorSetLayoutの作成に失敗しました");
+			
+			var allocate = VkDescriptorSetAllocateInfo.calloc(stack).sType$Default()
+					.pSetLayouts(forDescriptorLayouts)
+					.descriptorPool(forDescriptorPool.get(0));
+			Vulkan.throwExceptionIfFailed(vkAllocateDescriptorSets(device, allocate, forDescriptorSet),
+	                "DescriptorSetsの割り当てに失敗しました");
+	        
+	        // さらにDescriptorSetを設定しなければならない。意味不明。
+	        writeDescriptorSet(descriptorList, forDescriptorSet);
+	        
+	        
+	        
+	        // PipelineLayoutの方も対応して初期化しなければいけない。
+	        // PipelineLayoutはpushConstantも含むため
+	        var pipelineLayout = VkPipelineLayoutCreateInfo.calloc(stack).sType$Default()
+					.pSetLayouts(forDescriptorLayouts);
+			
+			var forLayout = stack.mallocLong(1);
+			Vulkan.throwExceptionIfFailed(vkCreatePipelineLayout(device, pipelineLayout, null, forLayout),
+	                "ComputePipelineLayoutの作成に失敗しました");
+			layoutHandler = forLayout.get(0);
+		}
+    }
+    
+    /**
+     * 事前にdescriptorTypeの種類ごとに数える必要がある
+     * @param descriptorList
+     * @param setCount 同じレイアウトで割り当てるDescriptorSetの数
+     * @param forDescriptorPool 作成したもの
+     */
+    private void createDescriptorPool(List<Descriptor> descriptorList, int setCount, LongBuffer forDescriptorPool) {
 		var descriptorTypeMap = new HashMap<Integer, Integer>();
 		
 		try(var stack = MemoryStack.stackPush()) {
@@ -247,7 +436,7 @@ public class Pipeline implements AutoCloseable {
 				for(var e: descriptorTypeEntrySet) {
 					poolSize.get(i)
 					.type(e.getKey())
-					.descriptorCount(e.getValue());
+					.descriptorCount(e.getValue() * setCount);
 					++i;
 				};
 			}
@@ -256,30 +445,21 @@ public class Pipeline implements AutoCloseable {
 					.flags(VK_DESCRIPTOR_POOL_CREATE_FREE_DESCRIPTOR_SET_BIT)
 					// 不明。問題がでたら変更
 					// https://docs.vulkan.org/refpages/latest/refpages/source/VkDescriptorPoolCreateInfo.html
-					.maxSets(1)
+					.maxSets(setCount)
 					.pPoolSizes(poolSize);
 			
-			Vulkan.throwExceptionIfFailed(vkCreateDescriptorPool(device, poolInfo, null, forDescriptorPool), "DescriptorPoolの作成に失敗しました");
-			
-			var bindings = VkDescriptorSetLayoutBinding.calloc(descriptorList.size(), stack);
+			Vulkan.throwExceptionIfFailed(vkCreateDescriptorPool(logicalDevice.getDevice(), poolInfo, null, forDescriptorPool), "DescriptorPoolの作成に失敗しました");
+		}
+    }
+    
+    /**
+     * descriptorListの内容をDescriptorSetに書き込む
+     * @param descriptorList bindingの順
+     * @param forDescriptorSet 先頭のものに書き込む
+     */
+    private void writeDescriptorSet(List<Descriptor> descriptorList, LongBuffer forDescriptorSet) {
+    	try(var stack = MemoryStack.stackPush()) {
 			var descriptorSetBuffer = VkWriteDescriptorSet.calloc(descriptorList.size(), stack).sType$Default();
-			for(int d = 0; d < descriptorList.size(); ++d) {
-				var descriptor = descriptorList.get(d);
-				descriptor.write(bindings.get(d), d);
-			}
-			
-			var layout = VkDescriptorSetLayoutCreateInfo.calloc(stack).sType$Default()
-					.pBindings(bindings);
-			Vulkan.throwExceptionIfFailed(vkCreateDescriptorSetLayout(device, layout, null, forDescriptorLayouts),
-	                "DescriptorSetLayoutの作成に失敗しました");
-			
-			var allocate = VkDescriptorSetAllocateInfo.calloc(stack).sType$Default()
-					.pSetLayouts(forDescriptorLayouts)
-					.descriptorPool(forDescriptorPool.get(0));
-			Vulkan.throwExceptionIfFailed(vkAllocateDescriptorSets(device, allocate, forDescriptorSet),
-	                "DescriptorSetsの割り当てに失敗しました");
-	        
-	        // さらにDescriptorSetを設定しなければならない。意味不明。
 	        for(int d = 0; d < descriptorList.size(); ++d) {
 	        	descriptorList.get(d).write(
 	        			descriptorSetBuffer.get(d).sType$Default(),
@@ -287,27 +467,64 @@ public class Pipeline implements AutoCloseable {
 	        			forDescriptorSet,
 	        			stack);
 	        }
-	        
-	        vkUpdateDescriptorSets(device, descriptorSetBuffer, null);
-	        
-	        
-	        
-	        // PipelineLayoutの方も対応して初期化しなければいけない。
-	        // PipelineLayoutはpushConstantも含むため
-	        var pipelineLayout = VkPipelineLayoutCreateInfo.calloc(stack).sType$Default()
-					.pSetLayouts(forDescriptorLayouts);
-			
-			var forLayout = stack.mallocLong(1);
-			Vulkan.throwExceptionIfFailed(vkCreatePipelineLayout(device, pipelineLayout, null, forLayout),
-	                "ComputePipelineLayoutの作成に失敗しました");
-			layoutHandler = forLayout.get(0);
-		}
+	        vkUpdateDescriptorSets(logicalDevice.getDevice(), descriptorSetBuffer, null);
+    	}
+    }
+    
+    /**
+     * 同じレイアウトのDescriptorSetを追加で作成する（マテリアルごとに画像を切り替える場合など）
+     * Descriptorの種類と順番は、PipelineSettingsに追加したものと同じにすること
+     * @param descriptorLists DescriptorSetごとの、bindingの順のDescriptor
+     * @return closeは呼び出し側で行う（このPipelineより先に）
+     */
+    public DescriptorSets createDescriptorSets(List<List<Descriptor>> descriptorLists) {
+    	if (forDescriptorLayouts == null) {
+    		throw new IllegalStateException("Descriptorを初期化していないPipelineです");
+    	}
+    	for (var list : descriptorLists) {
+    		if (list.size() != descriptorList.size()) {
+    			throw new IllegalArgumentException("Descriptorの数が異なります " + list.size() + " " + descriptorList.size());
+    		}
+    		for (int d = 0; d < list.size(); ++d) {
+    			if (list.get(d).getDescriptorType() != descriptorList.get(d).getDescriptorType()) {
+    				throw new IllegalArgumentException("Descriptorの種類が異なります binding " + d);
+    			}
+    		}
+    	}
+    	var sets = new DescriptorSets(logicalDevice, descriptorLists.size());
+    	if (descriptorLists.isEmpty()) {
+    		return sets;
+    	}
+    	try(var stack = MemoryStack.stackPush()) {
+    		createDescriptorPool(descriptorList, descriptorLists.size(), sets.getForDescriptorPool());
+    		var layouts = stack.mallocLong(descriptorLists.size());
+    		for (int i = 0; i < descriptorLists.size(); ++i) {
+    			layouts.put(i, forDescriptorLayouts.get(0));
+    		}
+    		var allocate = VkDescriptorSetAllocateInfo.calloc(stack).sType$Default()
+    				.pSetLayouts(layouts)
+    				.descriptorPool(sets.getForDescriptorPool().get(0));
+    		Vulkan.throwExceptionIfFailed(vkAllocateDescriptorSets(logicalDevice.getDevice(), allocate, sets.getForDescriptorSets()),
+    				"DescriptorSetsの割り当てに失敗しました");
+    		for (int i = 0; i < descriptorLists.size(); ++i) {
+    			writeDescriptorSet(descriptorLists.get(i), stack.longs(sets.getHandler(i)));
+    		}
+    	} catch (RuntimeException e) {
+    		sets.close();
+    		throw e;
+    	}
+    	return sets;
     }
 	
     @Override
 	public void close() throws Exception {
     	var device = logicalDevice.getDevice();
 		
+		if (closeListener != null) {
+			closeListener.run();
+			closeListener = null;
+		}
+		
 		if (layoutHandler != MemoryUtil.NULL) {
 			vkDestroyPipelineLayout(device, layoutHandler, null);
 			layoutHandler = MemoryUtil.NULL;
@@ -337,6 +554,10 @@ public class Pipeline implements AutoCloseable {
 		return handler;
 	}
 
+	public PipelineSettings getSettings() {
+		return settings;
+	}
+
 	public long getLayoutHandler() {
 		return layoutHandler;
 	}
@@ -344,6 +565,24 @@ public class Pipeline implements AutoCloseable {
 	public LongBuffer getForDescriptorSet() {
 		return forDescriptorSet;
 	}
+	
+	/**
+	 * vkCmdBindDescriptorSetsに渡す、現在のフレームの位置（Descriptor.isDynamicのものをbindingの順に）
+	 * @param stack
+	 * @return isDynamicのDescriptorがない場合はnull
+	 */
+	public IntBuffer createDynamicOffsets(MemoryStack stack) {
+		if (dynamicCount == 0) {
+			return null;
+		}
+		var offsets = stack.mallocInt(dynamicCount);
+		for (var descriptor : descriptorList) {
+			if (descriptor.isDynamic()) {
+				offsets.put(descriptor.getDynamicOffset());
+			}
+		}
+		return offsets.flip();
+	}
 
 	public LongBuffer getForDescriptorLayouts() {
 		return forDescriptorLayouts;
@@ -0,0 +1,60 @@
+package lwjgl.ex.vulkan;
+
+/**
+ * Pipeline.createAllでまとめて作成する、1つ分の設定
+ * graphicSettingsがnullの場合はComputePipelineになる
+ */
+public class PipelineBuild {
+	private final PipelineSettings settings;
+	private final GraphicPipelineSettings graphicSettings;
+	private final VertexBindingBuilder binding;
+
+	/**
+	 * GraphicsPipeline
+	 * @param settings
+	 * @param graphicSettings
+	 * @param binding
+	 */
+	public PipelineBuild(PipelineSettings settings, GraphicPipelineSettings graphicSettings, VertexBindingBuilder binding) {
+		if (graphicSettings == null || binding == null) {
+			throw new IllegalArgumentException("GraphicsPipelineにはgraphicSettingsとbindingが必要です");
+		}
+		this.settings = settings;
+		this.graphicSettings = graphicSettings;
+		this.binding = binding;
+	}
+
+	/**
+	 * ComputePipeline
+	 * @param settings
+	 */
+	public PipelineBuild(PipelineSettings settings) {
+		this.settings = settings;
+		this.graphicSettings = null;
+		this.binding = null;
+	}
+
+	/**
+	 * 呼び出したスレッドで作成する
+	 * @return
+	 */
+	public Pipeline create() {
+		return isCompute() ? Pipeline.createCompute(settings) : Pipeline.createGraphics(settings, graphicSettings, binding);
+	}
+
+	public boolean isCompute() {
+		return graphicSettings == null;
+	}
+
+	public PipelineSettings getSettings() {
+		return settings;
+	}
+
+	public GraphicPipelineSettings getGraphicSettings() {
+		return graphicSettings;
+	}
+
+	public VertexBindingBuilder getBinding() {
+		return binding;
+	}
+}
@@ -1,22 +1,72 @@
 package lwjgl.ex.vulkan;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
 
 import org.lwjgl.system.MemoryStack;
 import org.lwjgl.system.MemoryUtil;
 import org.lwjgl.vulkan.VkPipelineCacheCreateInfo;
 import static org.lwjgl.vulkan.VK14.*;
 
+import motopgi.utils.MappedFile;
+
 // 参考
 // https://github.com/lwjglgamedev/vulkanbook/blob/master/booksamples/chapter-06/src/main/java/org/vulkanb/eng/graph/vk/PipelineCache.java
 
 /**
  * Vulkanのクソ設計により必要。
  * https://docs.vulkan.org/guide/latest/pipeline_cache.html
+ *
+ * LogicalDeviceSettings.setPipelineCachePathを指定した場合は、起動時にファイルから読み込み、closeで保存する
+ * （2回目以降の起動でPipelineの作成が速くなる）
+ *
+ * ファイルの形式（リトルエンディアン）
+ * 0	int	FILE_MAGIC
+ * 4	int	FILE_VERSION
+ * 8	int	driverVersion（VkPipelineCacheHeaderVersionOneに含まれないため）
+ * 12	int	データのバイト数
+ * 16	int	データのCRC32（書き込み途中で終了した場合など）
+ * 20	vkGetPipelineCacheDataのデータ（VkPipelineCacheHeaderVersionOneから始まる）
  */
 public class PipelineCache implements AutoCloseable {
+	/**
+	 * "VKPC"
+	 */
+	public static final int FILE_MAGIC = 0x43504B56;
+	public static final int FILE_VERSION = 1;
+	public static final int FILE_HEADER_BYTES = Integer.BYTES * 5;
+
+	/**
+	 * VkPipelineCacheHeaderVersionOne（headerSize、headerVersion、vendorID、deviceID、pipelineCacheUUID）
+	 */
+	private static final int VULKAN_HEADER_BYTES = Integer.BYTES * 4 + VK_UUID_SIZE;
+
 	private LogicalDevice logicalDevice;
 	private long handler;
+	private final Path path;
+
+	/**
+	 * ファイルから読み込んだデータのバイト数（空から作成した場合は0）
+	 */
+	private long loadedBytes;
+	/**
+	 * ファイルを使わなかった理由（使った場合、保存しない場合はnull）
+	 */
+	private String rejectedReason;
+	private long loadNanos;
+
+	private int creationCount;
+	private long creationNanos;
 
 	/**
 	 * インスタンス生成
@@ -24,28 +74,234 @@ public class PipelineCache implements AutoCloseable {
 	 * @param logicalDevice
 	 */
 	public PipelineCache(LogicalDevice logicalDevice) {
+		this(logicalDevice, null);
+	}
+
+	/**
+	 *
+	 * @param logicalDevice
+	 * @param path 起動時に読み込み、closeで保存する（nullの場合は保存しない）
+	 */
+	public PipelineCache(LogicalDevice logicalDevice, Path path) {
 		this.logicalDevice = logicalDevice;
+		this.path = path;
+		var start = System.nanoTime();
+		MappedFile file = null;
 		try (var stack = MemoryStack.stackPush()) {
-            var createInfo = VkPipelineCacheCreateInfo.calloc(stack).sType$Default();
+			var createInfo = VkPipelineCacheCreateInfo.calloc(stack).sType$Default();
+
+			if (path != null) {
+				try {
+					file = new MappedFile(path);
+					var data = checkData(file.asByteBuffer(0, file.size()), logicalDevice.getPhysicalDevice());
+					createInfo.pInitialData(data);
+					loadedBytes = data.remaining();
+				} catch (NoSuchFileException e) {
+					rejectedReason = "ファイルがありません";
+				} catch (IOException | IllegalArgumentException e) {
+					// 古いドライバのもの、壊れているものは使わずに、空から作成する（closeで上書きする）
+					rejectedReason = e.getMessage();
+				}
+			}
 
             LongBuffer forHandler = stack.mallocLong(1);
             Vulkan.throwExceptionIfFailed(vkCreatePipelineCache(logicalDevice.getDevice(), createInfo, null, forHandler),
                     "PipelineCacheの作成に失敗しました");
             handler = forHandler.get(0);
+        } finally {
+        	// vkCreatePipelineCacheでコピーされるので、作成後は不要
+        	if (file != null) {
+        		file.close();
+        	}
         }
+		loadNanos = System.nanoTime() - start;
+	}
+
+	/**
+	 * 保存したファイルが、このデバイスとドライバのものか確認する
+	 * @param file ファイルの内容
+	 * @param physicalDevice
+	 * @return vkCreatePipelineCacheに渡すデータ
+	 * @throws IllegalArgumentException 使えない場合（メッセージは理由）
+	 */
+	static ByteBuffer checkData(ByteBuffer file, PhysicalDevice physicalDevice) {
+		return checkData(file, physicalDevice.getVendorID(), physicalDevice.getDeviceID(), physicalDevice.getDriverVersion(), physicalDevice.getPipelineCacheUUID());
+	}
+
+	static ByteBuffer checkData(ByteBuffer file, int vendorID, int deviceID, int driverVersion, byte[] pipelineCacheUUID) {
+		file = file.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		if (file.remaining() < FILE_HEADER_BYTES || file.getInt(0) != FILE_MAGIC) {
+			throw new IllegalArgumentException("PipelineCacheのファイルではありません");
+		}
+		if (file.getInt(4) != FILE_VERSION) {
+			throw new IllegalArgumentException("PipelineCacheのファイルの形式が異なります " + file.getInt(4));
+		}
+		if (file.getInt(8) != driverVersion) {
+			throw new IllegalArgumentException("ドライバのバージョンが異なります " + Integer.toUnsignedString(file.getInt(8)) + " → " + Integer.toUnsignedString(driverVersion));
+		}
+		var size = file.getInt(12);
+		if (size < VULKAN_HEADER_BYTES || size != file.remaining() - FILE_HEADER_BYTES) {
+			throw new IllegalArgumentException("PipelineCacheのデータのサイズが不正です " + size);
+		}
+		var data = file.slice(FILE_HEADER_BYTES, size).order(ByteOrder.LITTLE_ENDIAN);
+		if (crc32(data) != file.getInt(16)) {
+			throw new IllegalArgumentException("PipelineCacheのデータが壊れています");
+		}
+
+		// VkPipelineCacheHeaderVersionOne
+		if (data.getInt(0) < VULKAN_HEADER_BYTES || data.getInt(4) != VK_PIPELINE_CACHE_HEADER_VERSION_ONE) {
+			throw new IllegalArgumentException("VkPipelineCacheのヘッダーが不正です");
+		}
+		if (data.getInt(8) != vendorID || data.getInt(12) != deviceID) {
+			throw new IllegalArgumentException("デバイスが異なります " + Integer.toHexString(data.getInt(8)) + ":" + Integer.toHexString(data.getInt(12)));
+		}
+		var uuid = new byte[VK_UUID_SIZE];
+		data.get(16, uuid);
+		if (!Arrays.equals(uuid, pipelineCacheUUID)) {
+			throw new IllegalArgumentException("pipelineCacheUUIDが異なります");
+		}
+		return data;
+	}
+
+	private static int crc32(ByteBuffer data) {
+		var crc = new CRC32();
+		crc.update(data.duplicate());
+		return (int) crc.getValue();
+	}
+
+	/**
+	 * ファイルに保存する（一時ファイルに書き込んでから置き換えるので、途中で終了しても前のファイルは壊れない）
+	 * @throws IOException
+	 */
+	public void save() throws IOException {
+		if (path == null || handler == MemoryUtil.NULL) {
+			return;
+		}
+		ByteBuffer data = null;
+		try (var stack = MemoryStack.stackPush()) {
+			var device = logicalDevice.getDevice();
+			var forSize = stack.mallocPointer(1);
+			Vulkan.throwExceptionIfFailed(vkGetPipelineCacheData(device, handler, forSize, null),
+					"PipelineCacheのサイズの取得に失敗しました");
+			data = MemoryUtil.memAlloc((int) forSize.get(0));
+			Vulkan.throwExceptionIfFailed(vkGetPipelineCacheData(device, handler, forSize, data),
+					"PipelineCacheのデータの取得に失敗しました");
+			data.limit((int) forSize.get(0));
+
+			var header = stack.malloc(FILE_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN)
+					.putInt(FILE_MAGIC)
+					.putInt(FILE_VERSION)
+					.putInt(logicalDevice.getPhysicalDevice().getDriverVersion())
+					.putInt(data.remaining())
+					.putInt(crc32(data))
+					.flip();
+
+			var parent = path.toAbsolutePath().getParent();
+			if (parent != null) {
+				Files.createDirectories(parent);
+			}
+			var temporary = path.resolveSibling(path.getFileName() + ".tmp");
+			try (var channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+				while (header.hasRemaining()) {
+					channel.write(header);
+				}
+				while (data.hasRemaining()) {
+					channel.write(data);
+				}
+				channel.force(false);
+			}
+			Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			MemoryUtil.memFree(data);
+		}
+	}
+
+	/**
+	 * Pipelineの作成時間を記録する（起動時間の比較用）
+	 * @param nanos
+	 */
+	synchronized void addCreation(long nanos) {
+		++creationCount;
+		creationNanos += nanos;
 	}
 
 	public long getHandler() {
 		return handler;
 	}
 
+	public Path getPath() {
+		return path;
+	}
+
+	/**
+	 *
+	 * @return ファイルから読み込んだ場合はtrue（2回目以降の起動）
+	 */
+	public boolean isWarm() {
+		return loadedBytes > 0;
+	}
+
+	public long getLoadedBytes() {
+		return loadedBytes;
+	}
+
+	/**
+	 *
+	 * @return ファイルを使わなかった理由（使った場合、pathがない場合はnull）
+	 */
+	public String getRejectedReason() {
+		return rejectedReason;
+	}
+
+	/**
+	 *
+	 * @return ファイルの読み込みとvkCreatePipelineCacheにかかった時間
+	 */
+	public long getLoadNanos() {
+		return loadNanos;
+	}
+
+	public synchronized int getCreationCount() {
+		return creationCount;
+	}
+
+	/**
+	 *
+	 * @return vkCreateGraphicsPipelines、vkCreateComputePipelinesにかかった時間の合計
+	 */
+	public synchronized long getCreationNanos() {
+		return creationNanos;
+	}
+
+	/**
+	 *
+	 * @return 起動時間の比較用（例：「warm 12 pipelines 3.2ms (load 0.4ms, 184320 bytes)」）
+	 */
+	public String getStatistics() {
+		return String.format("%s %d pipelines %.1fms (load %.1fms, %d bytes)%s",
+				isWarm() ? "warm" : "cold",
+				getCreationCount(),
+				getCreationNanos() / 1e6,
+				loadNanos / 1e6,
+				loadedBytes,
+				rejectedReason == null ? "" : " " + rejectedReason);
+	}
+
+	/**
+	 * 保存してから破棄する
+	 * @throws IOException 保存に失敗した場合（VkPipelineCacheは破棄済み。次回は空から作成するだけ）
+	 */
 	@Override
 	public void close() throws Exception {
 		if (handler == MemoryUtil.NULL) {
 			return;
 		}
-		vkDestroyPipelineCache(logicalDevice.getDevice(), handler, null);
-		handler = MemoryUtil.NULL;
+		try {
+			save();
+		} finally {
+			vkDestroyPipelineCache(logicalDevice.getDevice(), handler, null);
+			handler = MemoryUtil.NULL;
+		}
 	}
 
 }
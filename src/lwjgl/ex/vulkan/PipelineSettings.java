@@ -56,6 +56,16 @@ public class PipelineSettings {
 	 * @param stack
 	 */
 	public void write(VkComputePipelineCreateInfo.Buffer compute, MemoryStack stack) {
+		write(compute, stack, shader);
+	}
+	
+	/**
+	 * 
+	 * @param compute
+	 * @param stack
+	 * @param shader 設定のものの代わりに使う（ShaderLibraryで再読み込みしたもの）
+	 */
+	void write(VkComputePipelineCreateInfo.Buffer compute, MemoryStack stack, Shader shader) {
 		// ComputeのときはShaderStageが絶対にComputeのみ？不明
 		var  shaderStageSettings = shaderStageSettingsList.get(0);
 		var shaderStages = VkPipelineShaderStageCreateInfo.calloc(stack).sType$Default()
@@ -66,6 +76,16 @@ public class PipelineSettings {
 	}
 	
 	public void write(VkGraphicsPipelineCreateInfo.Buffer graphics, MemoryStack stack) {
+		write(graphics, stack, shader);
+	}
+	
+	/**
+	 * 
+	 * @param graphics
+	 * @param stack
+	 * @param shader 設定のものの代わりに使う（ShaderLibraryで再読み込みしたもの）
+	 */
+	void write(VkGraphicsPipelineCreateInfo.Buffer graphics, MemoryStack stack, Shader shader) {
 		// shaderStageSettingsListからVkPipelineShaderStageCreateInfo.Bufferに変換
 		var shaderStages = VkPipelineShaderStageCreateInfo.calloc(shaderStageSettingsList.size(), stack).sType$Default();
 		for(int i = 0; i < shaderStageSettingsList.size(); ++i) {
@@ -85,4 +105,12 @@ public class PipelineSettings {
 	public Shader getShader() {
 		return shader;
 	}
+	
+	/**
+	 * 
+	 * @param shader 作成済みのPipelineには反映されない（ShaderLibraryが再作成時に置き換える）
+	 */
+	public void setShader(Shader shader) {
+		this.shader = shader;
+	}
 }
@@ -0,0 +1,88 @@
+package lwjgl.ex.vulkan;
+
+import java.nio.ByteBuffer;
+
+import static org.lwjgl.system.MemoryUtil.*;
+
+/**
+ * ネイティブメモリ上の非圧縮（1ピクセルPIXEL_BYTES）のTextureSource
+ * ミップマップを含めることができる（TextureSource.getLevelOffsetの順に詰める）
+ */
+public final class PixelTextureSource implements TextureSource {
+	private ByteBuffer pixels;
+	private final int width;
+	private final int height;
+	private final int mipLevels;
+	private final int format;
+
+	/**
+	 * 領域を確保する（内容は未初期化）
+	 * @param width
+	 * @param height
+	 * @param mipLevels
+	 * @param format vk::Format（1ピクセルPIXEL_BYTESのもの）
+	 */
+	public PixelTextureSource(int width, int height, int mipLevels, int format) {
+		this.width = width;
+		this.height = height;
+		this.mipLevels = mipLevels;
+		this.format = format;
+		pixels = memAlloc(Math.toIntExact(getLevelOffset(mipLevels)));
+	}
+
+	/**
+	 * TextureSourceの1段目をコピーする
+	 * @param source 1ピクセルPIXEL_BYTESのもの
+	 * @return closeは呼び出し側で行う
+	 */
+	public static PixelTextureSource copyOf(TextureSource source) {
+		var copy = new PixelTextureSource(source.getWidth(), source.getHeight(), 1, source.getFormat());
+		source.write(copy.getLevelAddress(0));
+		return copy;
+	}
+
+	/**
+	 *
+	 * @param level
+	 * @return levelの先頭のアドレス
+	 */
+	public long getLevelAddress(int level) {
+		if (pixels == null) {
+			throw new IllegalStateException("解放済みです");
+		}
+		return memAddress(pixels) + getLevelOffset(level);
+	}
+
+	@Override
+	public int getWidth() {
+		return width;
+	}
+
+	@Override
+	public int getHeight() {
+		return height;
+	}
+
+	@Override
+	public int getFormat() {
+		return format;
+	}
+
+	@Override
+	public int getMipLevels() {
+		return mipLevels;
+	}
+
+	@Override
+	public void write(long address) {
+		memCopy(getLevelAddress(0), address, getBytes());
+	}
+
+	@Override
+	public void close() {
+		if (pixels != null) {
+			memFree(pixels);
+			pixels = null;
+		}
+	}
+}
@@ -2,34 +2,91 @@ package lwjgl.ex.vulkan;
 
 import org.lwjgl.PointerBuffer;
 import org.lwjgl.system.MemoryStack;
-import org.lwjgl.vulkan.VkCommandBufferSubmitInfo;
+import org.lwjgl.vulkan.KHRSwapchain;
+import org.lwjgl.vulkan.VkPresentInfoKHR;
 import org.lwjgl.vulkan.VkQueue;
+import org.lwjgl.vulkan.VkSubmitInfo;
 import org.lwjgl.vulkan.VkSubmitInfo2;
 
 import static org.lwjgl.vulkan.VK14.*;
 
-import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * GPUの中にあるやることリスト
  * https://chaosplant.tech/do/vulkan/2-3/
+ *
+ * VkQueueへのアクセスは外部で同期する必要があるので、LogicalDeviceのロックを取って行う
+ * （AssetStreamerの転送用スレッドと描画スレッドから使う）
+ * https://docs.vulkan.org/spec/latest/chapters/fundamentals.html#fundamentals-threadingbehavior
  */
 public class Queue {
 	private final QueueSettings settings;
 	private final VkQueue vkQueue;
+	private final ReentrantLock lock;
 
 	public Queue(QueueSettings settings) {
 		this.settings = settings;
+		lock = settings.getLogicalDevice().getQueueLock();
 		try (var stack = MemoryStack.stackPush()) {
 			PointerBuffer queueBuffer = stack.mallocPointer(1);
 			vkGetDeviceQueue(settings.getLogicalDevice().getDevice(), settings.getQueueFamilyIndex(),
 					settings.getQueueIndex(), queueBuffer);
-			vkQueue = new VkQueue(queueBuffer.get(0), settings.getLogicalDevice().getDevice());	
+			vkQueue = new VkQueue(queueBuffer.get(0), settings.getLogicalDevice().getDevice());
 		}
 	}
 
+	/**
+	 *
+	 * @param submitInfo
+	 * @param fence 完了時にsignalするFenceのハンドラ（不要な場合はVK_NULL_HANDLE）
+	 */
+	public void submit(VkSubmitInfo2.Buffer submitInfo, long fence) {
+		// HOST_COHERENTでないメモリに書き込んだものを、GPUから見えるようにする
+		settings.getLogicalDevice().getMemoryAllocator().flush();
+		lock.lock();
+		try {
+			Vulkan.throwExceptionIfFailed(vkQueueSubmit2(vkQueue, submitInfo, fence), "Queueへのコマンドの送信に失敗しました");
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Timeline semaphore用（VkSubmitInfo2を使わない形式）
+	 * @param submitInfo
+	 * @param fence 完了時にsignalするFenceのハンドラ（不要な場合はVK_NULL_HANDLE）
+	 */
+	public void submit(VkSubmitInfo submitInfo, long fence) {
+		settings.getLogicalDevice().getMemoryAllocator().flush();
+		lock.lock();
+		try {
+			Vulkan.throwExceptionIfFailed(vkQueueSubmit(vkQueue, submitInfo, fence), "Queueへのコマンドの送信に失敗しました");
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public void present(VkPresentInfoKHR presentInfo) {
+		lock.lock();
+		try {
+			Vulkan.throwExceptionIfFailed(KHRSwapchain.vkQueuePresentKHR(vkQueue, presentInfo),
+					"KHRSwapchain.vkQueuePresentKHRに失敗しました");
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * 待機中は他のスレッドからsubmitできないので、1つのsubmitの完了を待つ場合はFenceを使う
+	 */
 	public void waitIdle() {
-		vkQueueWaitIdle(vkQueue);
+		lock.lock();
+		try {
+			vkQueueWaitIdle(vkQueue);
+		} finally {
+			lock.unlock();
+		}
 	}
 
 	public VkQueue getVkQueue() {
@@ -0,0 +1,162 @@
+package lwjgl.ex.vulkan;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.lwjgl.assimp.AIFile;
+import org.lwjgl.assimp.AIFileCloseProc;
+import org.lwjgl.assimp.AIFileIO;
+import org.lwjgl.assimp.AIFileOpenProc;
+import org.lwjgl.assimp.AIFileReadProc;
+import org.lwjgl.assimp.AIFileSeek;
+import org.lwjgl.assimp.AIFileTellProc;
+import org.lwjgl.assimp.Assimp;
+import org.lwjgl.system.Callback;
+import org.lwjgl.system.MemoryUtil;
+
+import motopgi.utils.MappedFile;
+
+/**
+ * Assimp.aiImportFileExに渡すファイルの読み込み処理
+ * 読み込みはメモリマップで行い、Assimpが開いたファイル（glTFの.bin、OBJの.mtlなど）を記録する
+ * （ModelCacheで、ベイクしたファイルが古くなっていないかの確認に使う）
+ *
+ * 1回のaiImportFileExでのみ使う
+ */
+public class RecordingFileIO implements AutoCloseable {
+	private final AIFileIO fileIO = AIFileIO.calloc();
+	private final AIFileOpenProc open;
+	private final AIFileCloseProc closeProc;
+	private final AIFileReadProc read;
+	private final AIFileTellProc tell;
+	private final AIFileTellProc size;
+	private final AIFileSeek seek;
+
+	/**
+	 * AIFileのアドレスから、開いているファイル
+	 */
+	private final Map<Long, OpenFile> files = new HashMap<>();
+	private final Set<Path> opened = new LinkedHashSet<>();
+
+	public RecordingFileIO() {
+		open = AIFileOpenProc.create((pFileIO, fileName, openMode) -> open(MemoryUtil.memUTF8(fileName)));
+		closeProc = AIFileCloseProc.create((pFileIO, pFile) -> close(pFile));
+		read = AIFileReadProc.create((pFile, buffer, size, count) -> files.get(pFile).read(buffer, size, count));
+		tell = AIFileTellProc.create(pFile -> files.get(pFile).position);
+		size = AIFileTellProc.create(pFile -> files.get(pFile).file.size());
+		seek = AIFileSeek.create((pFile, offset, origin) -> files.get(pFile).seek(offset, origin));
+		fileIO.OpenProc(open).CloseProc(closeProc);
+	}
+
+	private long open(String fileName) {
+		var path = Path.of(fileName).toAbsolutePath().normalize();
+		MappedFile mapped;
+		try {
+			mapped = new MappedFile(path);
+		} catch (IOException | RuntimeException e) {
+			// 存在するか確認するために開く場合もあるので、記録しない
+			return MemoryUtil.NULL;
+		}
+		opened.add(path);
+		var file = AIFile.calloc()
+				.ReadProc(read)
+				.TellProc(tell)
+				.FileSizeProc(size)
+				.SeekProc(seek);
+		files.put(file.address(), new OpenFile(mapped, file));
+		return file.address();
+	}
+
+	private void close(long pFile) {
+		var file = files.remove(pFile);
+		if (file != null) {
+			file.close();
+		}
+	}
+
+	/**
+	 *
+	 * @return aiImportFileExに渡す
+	 */
+	public AIFileIO getFileIO() {
+		return fileIO;
+	}
+
+	/**
+	 *
+	 * @return 開いたファイル（絶対パス、開いた順）
+	 */
+	public List<Path> getOpenedPaths() {
+		return new ArrayList<>(opened);
+	}
+
+	@Override
+	public void close() {
+		// Assimpが閉じなかったもの（通常はない）
+		for (var file : files.values()) {
+			file.close();
+		}
+		files.clear();
+		fileIO.free();
+		Callback.free(open.address());
+		Callback.free(closeProc.address());
+		Callback.free(read.address());
+		Callback.free(tell.address());
+		Callback.free(size.address());
+		Callback.free(seek.address());
+	}
+
+	private static class OpenFile {
+		private final MappedFile file;
+		private final AIFile aiFile;
+		private long position;
+
+		private OpenFile(MappedFile file, AIFile aiFile) {
+			this.file = file;
+			this.aiFile = aiFile;
+		}
+
+		/**
+		 * fread と同じ
+		 * @return 読み込んだ要素数
+		 */
+		private long read(long buffer, long size, long count) {
+			if (size == 0) {
+				return 0;
+			}
+			var readCount = Math.min(count, (file.size() - position) / size);
+			if (readCount <= 0) {
+				return 0;
+			}
+			MemoryUtil.memCopy(file.address() + position, buffer, readCount * size);
+			position += readCount * size;
+			return readCount;
+		}
+
+		private int seek(long offset, int origin) {
+			var base = switch (origin) {
+			case Assimp.aiOrigin_SET -> 0;
+			case Assimp.aiOrigin_CUR -> position;
+			case Assimp.aiOrigin_END -> file.size();
+			default -> -1;
+			};
+			var next = base + offset;
+			if (base < 0 || next < 0 || next > file.size()) {
+				return Assimp.aiReturn_FAILURE;
+			}
+			position = next;
+			return Assimp.aiReturn_SUCCESS;
+		}
+
+		private void close() {
+			file.close();
+			aiFile.free();
+		}
+	}
+}
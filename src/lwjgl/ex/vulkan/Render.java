@@ -17,13 +17,25 @@ public class Render implements AutoCloseable {
 	private final FrameRender[] renders;
 	private int currentFrame = 0;
 
+	/**
+	 * 
+	 * @param settings
+	 * @throws IllegalArgumentException maxInFlightがUniformArenaのフレーム数より多い場合
+	 */
 	public Render(RenderSettings settings) {
+		var frameCount = settings.getLogicalDevice().getUniformArena().getFrameCount();
+		if (settings.getMaxInFlight() > frameCount) {
+			throw new IllegalArgumentException("maxInFlightがUniformArenaのフレーム数（LogicalDeviceSettings.setUniformFrameCount）を超えています "
+					+ settings.getMaxInFlight() + " > " + frameCount);
+		}
 		this.settings = settings;
 		renders = FrameRender.createArray(settings.getMaxInFlight(), settings);
 	}
 	
 	public void render(Command command) {
 		try(var stack = MemoryStack.stackPush()) {
+			// しきい値をまたいだ場合は、ここで通知される
+			settings.getLogicalDevice().getMemoryTelemetry().refresh();
 			renders[currentFrame].submit(stack, command);
 			
 			// 次のフレームへ
@@ -40,6 +52,9 @@ public class Render implements AutoCloseable {
 
 	@Override
 	public void close() throws Exception {
+		// 描画中のフレームのSemaphore、コマンドバッファを破棄しないように待つ
+		// vkDestroySemaphore(): can't be called on VkSemaphore 0xd000000000d that is currently in use by VkQueue 0x7f7518a340c0.
+		settings.getLogicalDevice().waitIdle();
 		ExceptionUtils.close(renders);
 	}
 
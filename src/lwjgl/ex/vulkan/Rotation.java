@@ -1,16 +1,19 @@
 package lwjgl.ex.vulkan;
 
-import java.nio.FloatBuffer;
-
 import motopgi.utils.FloatVector3;
-import static lwjgl.ex.vulkan.VulkanConstants.DUMMY;
 
 /**
  * 回転のパラメータをまとめたクラス
  */
 public class Rotation {
-	// 下の変数の個数（現状、数えて対応させるしかない）
-	public static final int FLOAT_LENGTH = 8 + 1;// なぜかずれるのでダミー分を追加
+	/**
+	 * shader.slangのstruct Rotation（オフセットはLayoutRuleで求める）
+	 */
+	public static final ShaderType TYPE = ShaderType.struct("Rotation")
+			.add("axis", ShaderType.FLOAT3)
+			.add("oneCosAxis", ShaderType.FLOAT3)
+			.add("cos", ShaderType.FLOAT)
+			.add("sin", ShaderType.FLOAT);
 	
 	// https://techblog.sega.jp/entry/2021/06/15/100000 pdf 130ページ目
 	// ロドリゲスの回転公式 https://w3e.kanazawa-it.ac.jp/math/physics/category/physical_math/linear_algebra/henkan-tex.cgi?target=/math/physics/category/physical_math/linear_algebra/rodrigues_rotation_formula.html
@@ -32,30 +35,45 @@ public class Rotation {
 		oneCosAxis = axis.clone().multiplies(1 - cos);
 	}
 
-	public void write(FloatBuffer buffer) {
-		buffer.put(axis.getX());
-		buffer.put(axis.getY());
-		buffer.put(axis.getZ());
-		
-		// バグ？なのか知らないが、なぜかfloat3がずれる
-		// どうしようもないので非常に嫌だが、ダミーをいれて対処する
-		// 本来はLWJGLに報告するべきだが、面倒なので保留
-		buffer.put(DUMMY);
-		
-		buffer.put(oneCosAxis.getX());
-		buffer.put(oneCosAxis.getY());
-		buffer.put(oneCosAxis.getZ());
-		
-		buffer.put(cos);
-		buffer.put(sin);
-		
-		/* デバッグ用
-		buffer.put(666);//
-		*/ 
-		
-		// 謎の空間が発生する。こう対処するべきではないが、他の方法がない
-		buffer.put(DUMMY);
-		buffer.put(DUMMY);
-		buffer.put(DUMMY);
+	/**
+	 * shaderと同じ計算をCPUで行う
+	 * @param position
+	 * @return 回転後の新しいベクトル
+	 */
+	public FloatVector3 rotate(FloatVector3 position) {
+		// 回転・位置
+		var dot = axis.getX() * position.getX() + axis.getY() * position.getY() + axis.getZ() * position.getZ();
+		// cosθ位置 + (1 - cosθ)(回転・位置)回転 + sinθ(回転×位置)
+		return new FloatVector3(
+				cos * position.getX() + oneCosAxis.getX() * dot + sin * (axis.getY() * position.getZ() - axis.getZ() * position.getY()),
+				cos * position.getY() + oneCosAxis.getY() * dot + sin * (axis.getZ() * position.getX() - axis.getX() * position.getZ()),
+				cos * position.getZ() + oneCosAxis.getZ() * dot + sin * (axis.getX() * position.getY() - axis.getY() * position.getX()));
+	}
+
+	/**
+	 * writeに渡すオフセットを求める
+	 * @param layout
+	 * @param path このRotationのメンバー名（「local」など）
+	 * @return axis, oneCosAxis, cos, sinのオフセット
+	 */
+	public static int[] getOffsets(StructLayout layout, String path) {
+		return new int[] {
+				layout.getOffset(path + ".axis"),
+				layout.getOffset(path + ".oneCosAxis"),
+				layout.getOffset(path + ".cos"),
+				layout.getOffset(path + ".sin")};
+	}
+
+	/**
+	 * 
+	 * @param writer
+	 * @param offsets getOffsetsで求めたもの
+	 */
+	public void write(UniformWriter writer, int[] offsets) {
+		// float3の後の空きは、STD140の規則によるもの（LayoutRule）
+		writer.putFloat3(offsets[0], axis);
+		writer.putFloat3(offsets[1], oneCosAxis);
+		writer.putFloat(offsets[2], cos);
+		writer.putFloat(offsets[3], sin);
 	}
 }
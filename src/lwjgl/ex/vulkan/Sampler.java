@@ -1,8 +1,5 @@
 package lwjgl.ex.vulkan;
 
-// テクスチャが複数になった場合の対処法不明
-
-
 import static org.lwjgl.vulkan.VK14.*;
 
 import java.nio.LongBuffer;
@@ -31,6 +28,8 @@ public class Sampler implements Descriptor, AutoCloseable{
 	        		.addressModeV(VK_SAMPLER_ADDRESS_MODE_REPEAT)
 	        		.addressModeW(VK_SAMPLER_ADDRESS_MODE_REPEAT)
 	        		.mipLodBias(DEFAULT_BIAS)
+	        		// callocの0のままだと、ミップマップの1段目しか使われない
+	        		.maxLod(VK_LOD_CLAMP_NONE)
 	        		.anisotropyEnable(true)
 	        		.maxAnisotropy(settings.getLogicalDevice().getPhysicalDevice().getMaxSamplerAnisotropy())
 	        		.compareEnable(false)
@@ -59,17 +58,44 @@ public class Sampler implements Descriptor, AutoCloseable{
 		// 初期値設定
 		Descriptor.super.write(set, dstBinding, forDescriptorSet, stack);
 		
+		writeImageInfo(set, settings.getTextureImageView(), stack);
+	}
+	
+	private void writeImageInfo(VkWriteDescriptorSet set, ImageView imageView, MemoryStack stack) {
 		var descriptorImageInfo = VkDescriptorImageInfo.calloc(1, stack)
         	.sampler(handler)
-        	
-        	// テクスチャが複数になった場合は？？
-        	.imageView(settings.getTextureImageView().getHandler())
-        	
+        	.imageView(imageView.getHandler())
         	.imageLayout(VK_IMAGE_LAYOUT_SHADER_READ_ONLY_OPTIMAL);
 		
 		// Vulkanのクソ設計により、Samplerの場合はpImageInfoに代入
 		set.pImageInfo(descriptorImageInfo);
 	}
+	
+	/**
+	 * テクスチャが複数の場合に、同じSamplerで別の画像を書き込むもの
+	 * （Pipeline.createDescriptorSetsに渡す。closeはこのSamplerで行う）
+	 * @param imageView
+	 * @return
+	 */
+	public Descriptor withImageView(ImageView imageView) {
+		return new Descriptor() {
+			@Override
+			public int getDescriptorType() {
+				return Sampler.this.getDescriptorType();
+			}
+			
+			@Override
+			public int getShaderStage() {
+				return Sampler.this.getShaderStage();
+			}
+			
+			@Override
+			public void write(VkWriteDescriptorSet set, int dstBinding, LongBuffer forDescriptorSet, MemoryStack stack) {
+				Descriptor.super.write(set, dstBinding, forDescriptorSet, stack);
+				writeImageInfo(set, imageView, stack);
+			}
+		};
+	}
 	@Override
 	public void close() throws Exception {
 		var device = settings.getLogicalDevice().getDevice();
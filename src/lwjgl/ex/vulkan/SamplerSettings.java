@@ -6,7 +6,11 @@ public class SamplerSettings {
 	
 	private ImageView textureImageView;
 	
-	// テクスチャが複数になった場合はどうする？？不明
+	/**
+	 * 
+	 * @param logicalDevice
+	 * @param textureImageView 初期値の画像（他の画像はSampler.withImageViewで書き込む）
+	 */
 	public SamplerSettings(LogicalDevice logicalDevice, ImageView textureImageView) {
 		this.logicalDevice = logicalDevice;
 		this.textureImageView = textureImageView;
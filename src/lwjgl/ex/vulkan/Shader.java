@@ -3,8 +3,8 @@ package lwjgl.ex.vulkan;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.LongBuffer;
-import java.nio.file.Files;
 import java.nio.file.Path;
 
 import org.lwjgl.system.MemoryStack;
@@ -15,24 +15,61 @@ import org.lwjgl.vulkan.VkShaderModuleCreateInfo;
 import static org.lwjgl.vulkan.VK10.VK_SHADER_STAGE_COMPUTE_BIT;
 import static org.lwjgl.vulkan.VK14.*;
 
+import motopgi.utils.HashUtils;
+import motopgi.utils.MappedFile;
+
 // 参考
 // https://github.com/lwjglgamedev/vulkanbook/blob/master/booksamples/chapter-06/src/main/java/org/vulkanb/eng/graph/vk/ShaderModule.java
 
 public class Shader implements AutoCloseable {
+	/**
+	 * SPIR-Vの先頭の4バイト
+	 */
+	public static final int SPIRV_MAGIC = 0x07230203;
+	/**
+	 * magic、version、generator、bound、schemaの5ワード
+	 */
+	public static final int SPIRV_HEADER_BYTES = 5 * Integer.BYTES;
+	
 	private ShaderSettings settings;
 	private long handler;
+	private final String hash;
+	private SpirvReflection reflection;
 
+	/**
+	 * .spvをメモリマップして、そのままvkCreateShaderModuleに渡す
+	 * （同じ内容のShaderを共有したい場合はShaderLibraryを使う）
+	 * @param settings
+	 * @throws IOException
+	 * @throws IllegalArgumentException SPIR-Vの形式でない場合
+	 */
 	public Shader(ShaderSettings settings) throws IOException {
+		try (var file = new MappedFile(settings.getSpv())) {
+			var spv = file.asByteBuffer(0, file.size());
+			checkSpv(spv, settings.getSpv());
+			this.settings = settings;
+			this.hash = hash(spv);
+			init(spv);
+		}
+	}
+	
+	/**
+	 * 
+	 * @param settings
+	 * @param spv checkSpvで確認済みのもの（メモリマップした領域をそのまま使う。作成後は不要）
+	 * @param hash hash(spv)
+	 */
+	Shader(ShaderSettings settings, ByteBuffer spv, String hash) {
 		this.settings = settings;
+		this.hash = hash;
+		init(spv);
+	}
+	
+	private void init(ByteBuffer spv) {
+		// メモリマップした領域は作成後に閉じるので、先に読み取っておく
+		reflection = new SpirvReflection(spv);
 		try (var stack = MemoryStack.stackPush()) {
-			// wrapで型は合うが、実行時エラーになる
-//			 var spv = ByteBuffer.wrap(Files.readAllBytes(settings.getSpv()));
-			
-			// 無駄なコピーが発生するが、正しい方法が不明
-			// LWJGLのファイル読み込みがわかり次第修正
-			var bytes = Files.readAllBytes(settings.getSpv());
-			var spv = stack.malloc(bytes.length).put(0, bytes);
-			
+			// メモリマップした領域はページ境界にあるので、pCodeの4バイト境界を満たす
 			var createInfo = VkShaderModuleCreateInfo.calloc(stack)
                     .sType$Default()
                     .pCode(spv);
@@ -43,6 +80,29 @@ public class Shader implements AutoCloseable {
             handler = forHandler.get(0);
 		}
 	}
+	
+	/**
+	 * 書き込み途中のファイル（slangcの出力中など）を渡さないように確認する
+	 * spvのバイト順は変更しない
+	 * @param spv
+	 * @param path エラーメッセージ用
+	 * @throws IllegalArgumentException SPIR-Vの形式でない場合
+	 */
+	static void checkSpv(ByteBuffer spv, Path path) {
+		if (spv.remaining() < SPIRV_HEADER_BYTES || spv.remaining() % Integer.BYTES != 0
+				|| spv.duplicate().order(ByteOrder.LITTLE_ENDIAN).getInt(spv.position()) != SPIRV_MAGIC) {
+			throw new IllegalArgumentException("SPIR-Vの形式ではありません " + path);
+		}
+	}
+	
+	/**
+	 * 
+	 * @param spv
+	 * @return SPIR-Vの内容のハッシュ（ShaderLibraryで同じ内容のShaderをまとめるのに使う）
+	 */
+	static String hash(ByteBuffer spv) {
+		return HashUtils.hash(spv);
+	}
 
 	@Override
 	public void close() throws Exception {
@@ -61,6 +121,22 @@ public class Shader implements AutoCloseable {
 	public long getHandler() {
 		return handler;
 	}
+	
+	/**
+	 * 
+	 * @return SPIR-Vの内容のハッシュ
+	 */
+	public String getHash() {
+		return hash;
+	}
+	
+	/**
+	 * 
+	 * @return UniformなどのブロックのレイアウトをSPIR-Vから読み取ったもの
+	 */
+	public SpirvReflection getReflection() {
+		return reflection;
+	}
 
 	
 //	public VkPipelineShaderStageCreateInfo.Buffer createStageBuffer(MemoryStack stack) {
@@ -0,0 +1,468 @@
+package lwjgl.ex.vulkan;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.lwjgl.vulkan.VK14.*;
+
+import motopgi.utils.ExceptionUtils;
+import motopgi.utils.MappedFile;
+
+/**
+ * .spvをメモリマップで読み込み、内容が同じものは1つのShader（VkShaderModule）にまとめる
+ * 監視するディレクトリの.spvが変更された場合は、そのShaderを使うPipelineのみ別スレッドで作り直し、
+ * 描画スレッドでapplyReloadsを呼んだ時点で置き換える
+ *
+ * 例：
+ * var shader = library.getShader(SHADER_SPV);
+ * var pipeline = library.createGraphics(SHADER_SPV, pipelineSettings, graphicSettings, binding);
+ * // 毎フレーム
+ * library.applyReloads();
+ *
+ * slangの変更は、build_shader.shで.spvを出力し直すと反映される
+ */
+public class ShaderLibrary implements AutoCloseable {
+	/**
+	 * closeで再作成中のPipelineを待つ時間
+	 */
+	private static final long CLOSE_TIMEOUT_SECONDS = 60;
+
+	private final ShaderLibrarySettings settings;
+	/**
+	 * .spvのパス（絶対パス）から、今のShader
+	 */
+	private final Map<Path, Shader> shaders = new HashMap<>();
+	/**
+	 * SPIR-Vのハッシュから、Shader
+	 */
+	private final Map<String, Shader> modules = new HashMap<>();
+	/**
+	 * 再読み込みの対象のPipelineから、作成に使った.spvのパス
+	 */
+	private final Map<Pipeline, Path> pipelines = new IdentityHashMap<>();
+	/**
+	 * 再作成が終わり、描画スレッドで置き換えるもの
+	 */
+	private final List<Replacement> replacements = new ArrayList<>();
+	/**
+	 * 再読み込みで使われなくなったShader（Pipelineを置き換えた後に破棄する）
+	 */
+	private final List<Shader> retired = new ArrayList<>();
+	/**
+	 * 再読み込みと再作成は、変更された順に1スレッドで行う
+	 */
+	private final ExecutorService reloadExecutor = Executors.newSingleThreadExecutor(task -> {
+		var thread = new Thread(task, "ShaderLibrary-reload");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private final WatchService watchService;
+	private final Thread watchThread;
+
+	private boolean closed;
+	private int reloadCount;
+	private int failedReloadCount;
+	private Exception lastError;
+
+	/**
+	 *
+	 * @param settings
+	 * @throws IOException 監視するディレクトリを登録できなかった場合
+	 */
+	public ShaderLibrary(ShaderLibrarySettings settings) throws IOException {
+		this.settings = settings;
+		if (settings.isWatch()) {
+			watchService = FileSystems.getDefault().newWatchService();
+			try {
+				settings.getDirectory().register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+			} catch (IOException | RuntimeException e) {
+				watchService.close();
+				throw e;
+			}
+			watchThread = Thread.ofVirtual().name("ShaderLibrary-watch").start(this::watch);
+		}
+		else {
+			watchService = null;
+			watchThread = null;
+		}
+	}
+
+	/**
+	 *
+	 * @param spv
+	 * @return 同じパス、同じ内容の場合は同じもの。closeはShaderLibraryが行う
+	 * @throws IOException
+	 * @throws IllegalArgumentException SPIR-Vの形式でない場合
+	 */
+	public synchronized Shader getShader(Path spv) throws IOException {
+		if (closed) {
+			throw new IllegalStateException("ShaderLibraryは終了しています");
+		}
+		var path = toKey(spv);
+		var shader = shaders.get(path);
+		if (shader == null) {
+			shader = load(path);
+			shaders.put(path, shader);
+		}
+		return shader;
+	}
+
+	private static Path toKey(Path spv) {
+		return spv.toAbsolutePath().normalize();
+	}
+
+	/**
+	 * メモリマップしたものをそのままvkCreateShaderModuleに渡す（同じ内容のものがあれば作成しない）
+	 */
+	private Shader load(Path path) throws IOException {
+		try (var file = new MappedFile(path)) {
+			var spv = file.asByteBuffer(0, file.size());
+			Shader.checkSpv(spv, path);
+			var hash = Shader.hash(spv);
+			var shader = modules.get(hash);
+			if (shader == null) {
+				shader = new Shader(new ShaderSettings(settings.getLogicalDevice(), path), spv, hash);
+				modules.put(hash, shader);
+			}
+			return shader;
+		}
+	}
+
+	/**
+	 * Pipeline.createGraphicsと同じ（spvが変更された場合は作り直す）
+	 * @param spv settingsのShaderはこれに置き換える
+	 * @param settings
+	 * @param graphicSettings
+	 * @param binding
+	 * @return closeは呼び出し側で行う
+	 * @throws IOException
+	 */
+	public Pipeline createGraphics(Path spv, PipelineSettings settings, GraphicPipelineSettings graphicSettings, VertexBindingBuilder binding) throws IOException {
+		settings.setShader(getShader(spv));
+		return watch(spv, Pipeline.createGraphics(settings, graphicSettings, binding));
+	}
+
+	/**
+	 * Pipeline.createComputeと同じ（spvが変更された場合は作り直す）
+	 * @param spv settingsのShaderはこれに置き換える
+	 * @param settings
+	 * @return closeは呼び出し側で行う
+	 * @throws IOException
+	 */
+	public Pipeline createCompute(Path spv, PipelineSettings settings) throws IOException {
+		settings.setShader(getShader(spv));
+		return watch(spv, Pipeline.createCompute(settings));
+	}
+
+	private synchronized Pipeline watch(Path spv, Pipeline pipeline) {
+		var path = toKey(spv);
+		pipelines.put(pipeline, path);
+		pipeline.setCloseListener(() -> unwatch(pipeline));
+		if (shaders.get(path) != pipeline.getSettings().getShader()) {
+			// 作成中に再読み込みされた
+			reloadExecutor.execute(() -> rebuild(path, List.of(pipeline)));
+		}
+		return pipeline;
+	}
+
+	private synchronized void unwatch(Pipeline pipeline) {
+		pipelines.remove(pipeline);
+	}
+
+	/**
+	 * 監視用のスレッド（仮想スレッド）
+	 */
+	private void watch() {
+		try {
+			while (true) {
+				var changed = new LinkedHashSet<Path>();
+				collect(watchService.take(), changed);
+				// 続けて変更される間は待つ
+				WatchKey key;
+				while ((key = watchService.poll(settings.getReloadDelayMillis(), TimeUnit.MILLISECONDS)) != null) {
+					collect(key, changed);
+				}
+				for (var path : changed) {
+					reloadExecutor.execute(() -> reload(path));
+				}
+			}
+		} catch (ClosedWatchServiceException | InterruptedException e) {
+			// close
+		} catch (RuntimeException e) {
+			// closeの後にreloadExecutorに入れようとした場合など
+			if (!isClosed()) {
+				report(e);
+			}
+		}
+	}
+
+	private void collect(WatchKey key, Set<Path> changed) {
+		var directory = (Path) key.watchable();
+		for (var event : key.pollEvents()) {
+			if (event.context() instanceof Path name) {
+				changed.add(toKey(directory.resolve(name)));
+			}
+		}
+		key.reset();
+	}
+
+	/**
+	 * 読み込み直し、内容が変わっていれば、そのパスで作成したPipelineを作り直す（再読み込み用のスレッド）
+	 */
+	private void reload(Path path) {
+		List<Pipeline> targets;
+		try {
+			targets = replaceShader(path);
+		} catch (IOException | IllegalArgumentException e) {
+			// 書き込み途中や、削除された場合など。次の変更で読み込む
+			synchronized (this) {
+				++failedReloadCount;
+			}
+			report(e);
+			return;
+		}
+		if (targets != null) {
+			rebuild(path, targets);
+		}
+	}
+
+	/**
+	 * 
+	 * @return 作り直すPipeline。内容が変わっていない場合などはnull
+	 */
+	private synchronized List<Pipeline> replaceShader(Path path) throws IOException {
+		var old = shaders.get(path);
+		if (closed || old == null) {
+			// 使われていないファイル
+			return null;
+		}
+		var shader = load(path);
+		if (shader == old) {
+			return null;
+		}
+		shaders.put(path, shader);
+		if (!shaders.containsValue(old)) {
+			modules.remove(old.getHash());
+			retired.add(old);
+		}
+		var targets = new ArrayList<Pipeline>();
+		for (var e : pipelines.entrySet()) {
+			if (e.getValue().equals(path)) {
+				targets.add(e.getKey());
+			}
+		}
+		return targets;
+	}
+
+	/**
+	 * 描画中のPipelineは変更せずに、新しいVkPipelineを作成する（再読み込み用のスレッド）
+	 */
+	private void rebuild(Path path, List<Pipeline> targets) {
+		Shader shader;
+		synchronized (this) {
+			shader = shaders.get(path);
+			if (closed) {
+				return;
+			}
+		}
+		for (var pipeline : targets) {
+			long handler;
+			try {
+				handler = pipeline.createHandler(shader);
+			} catch (RuntimeException e) {
+				// 今のPipelineを使い続ける
+				synchronized (this) {
+					++failedReloadCount;
+				}
+				report(e);
+				continue;
+			}
+			synchronized (this) {
+				replacements.add(new Replacement(pipeline, shader, handler));
+			}
+		}
+	}
+
+	/**
+	 * 作り直しが終わったPipelineを置き換える。描画スレッドで、フレームの間に呼ぶ
+	 * 置き換えるものがある場合のみ、GPUが今のPipelineを使い終わるまで待つ
+	 * @return 置き換えたPipelineの数
+	 */
+	public int applyReloads() {
+		synchronized (this) {
+			if (replacements.isEmpty()) {
+				return 0;
+			}
+		}
+		var logicalDevice = settings.getLogicalDevice();
+		logicalDevice.waitIdle();
+		synchronized (this) {
+			var count = 0;
+			for (var replacement : replacements) {
+				if (pipelines.containsKey(replacement.pipeline)) {
+					replacement.pipeline.replace(replacement.shader, replacement.handler);
+					++count;
+				}
+				else {
+					// 置き換える前にcloseされた
+					vkDestroyPipeline(logicalDevice.getDevice(), replacement.handler, null);
+				}
+			}
+			replacements.clear();
+			reloadCount += count;
+			destroyRetired();
+			return count;
+		}
+	}
+
+	/**
+	 * どのPipelineにも使われていないものを破棄する（作成済みのVkPipelineはVkShaderModuleを参照しない）
+	 */
+	private void destroyRetired() {
+		var inUse = Collections.newSetFromMap(new IdentityHashMap<Shader, Boolean>());
+		inUse.addAll(shaders.values());
+		for (var pipeline : pipelines.keySet()) {
+			inUse.add(pipeline.getSettings().getShader());
+		}
+		for (var iterator = retired.iterator(); iterator.hasNext();) {
+			var shader = iterator.next();
+			if (inUse.contains(shader)) {
+				continue;
+			}
+			iterator.remove();
+			try {
+				shader.close();
+			} catch (Exception e) {
+				report(e);
+			}
+		}
+	}
+
+	/**
+	 * 再読み込み中の失敗を、getLastErrorとerrorListenerに渡す（描画は今のPipelineで続ける）
+	 */
+	private void report(Exception e) {
+		synchronized (this) {
+			lastError = e;
+		}
+		var listener = settings.getErrorListener();
+		if (listener != null) {
+			listener.accept(e);
+		}
+	}
+
+	/**
+	 *
+	 * @return 再読み込みで最後に発生した例外（なければnull）
+	 */
+	public synchronized Exception getLastError() {
+		return lastError;
+	}
+
+	/**
+	 *
+	 * @return 置き換えたPipelineの数の合計
+	 */
+	public synchronized int getReloadCount() {
+		return reloadCount;
+	}
+
+	/**
+	 *
+	 * @return 読み込み、または作り直しに失敗した数（今のものを使い続けている）
+	 */
+	public synchronized int getFailedReloadCount() {
+		return failedReloadCount;
+	}
+
+	/**
+	 *
+	 * @return 読み込んだ.spvの数
+	 */
+	public synchronized int getShaderCount() {
+		return shaders.size();
+	}
+
+	/**
+	 *
+	 * @return 作成したVkShaderModuleの数（内容が同じ.spvは1つ）
+	 */
+	public synchronized int getModuleCount() {
+		return modules.size();
+	}
+
+	private synchronized boolean isClosed() {
+		return closed;
+	}
+
+	public ShaderLibrarySettings getSettings() {
+		return settings;
+	}
+
+	/**
+	 * 全てのShaderを破棄する（Pipelineのcloseは呼び出し側で行う）
+	 */
+	@Override
+	public void close() throws Exception {
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+		}
+		try {
+			if (watchService != null) {
+				watchService.close();
+				watchThread.join();
+			}
+		} finally {
+			reloadExecutor.shutdown();
+			reloadExecutor.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+			synchronized (this) {
+				var device = settings.getLogicalDevice().getDevice();
+				for (var replacement : replacements) {
+					vkDestroyPipeline(device, replacement.handler, null);
+				}
+				replacements.clear();
+				for (var pipeline : pipelines.keySet()) {
+					pipeline.setCloseListener(null);
+				}
+				pipelines.clear();
+				var all = new ArrayList<AutoCloseable>(modules.values());
+				all.addAll(retired);
+				modules.clear();
+				shaders.clear();
+				retired.clear();
+				ExceptionUtils.close(all);
+			}
+		}
+	}
+
+	private static class Replacement {
+		private final Pipeline pipeline;
+		private final Shader shader;
+		private final long handler;
+
+		private Replacement(Pipeline pipeline, Shader shader, long handler) {
+			this.pipeline = pipeline;
+			this.shader = shader;
+			this.handler = handler;
+		}
+	}
+}
@@ -0,0 +1,79 @@
+package lwjgl.ex.vulkan;
+
+import java.nio.file.Path;
+import java.util.function.Consumer;
+
+public class ShaderLibrarySettings {
+	/**
+	 * build_shader.shが.spvを出力する場所
+	 */
+	public static final Path DEFAULT_DIRECTORY = Path.of("resources", "shader");
+
+	/**
+	 * 最後の変更からこの時間、変更がなければ再読み込みする
+	 * （slangcが書き込んでいる途中のファイルを読まないように）
+	 */
+	public static final long DEFAULT_RELOAD_DELAY_MILLIS = 200;
+
+	private LogicalDevice logicalDevice;
+	private Path directory = DEFAULT_DIRECTORY;
+	private boolean watch = true;
+	private long reloadDelayMillis = DEFAULT_RELOAD_DELAY_MILLIS;
+	private Consumer<Exception> errorListener;
+
+	public ShaderLibrarySettings(LogicalDevice logicalDevice) {
+		this.logicalDevice = logicalDevice;
+	}
+
+	public LogicalDevice getLogicalDevice() {
+		return logicalDevice;
+	}
+
+	public void setLogicalDevice(LogicalDevice logicalDevice) {
+		this.logicalDevice = logicalDevice;
+	}
+
+	public Path getDirectory() {
+		return directory;
+	}
+
+	/**
+	 *
+	 * @param directory 変更を監視するディレクトリ（サブディレクトリは含まない）
+	 */
+	public void setDirectory(Path directory) {
+		this.directory = directory;
+	}
+
+	public boolean isWatch() {
+		return watch;
+	}
+
+	/**
+	 *
+	 * @param watch falseの場合は、再読み込みを行わない（配布時など）
+	 */
+	public void setWatch(boolean watch) {
+		this.watch = watch;
+	}
+
+	public long getReloadDelayMillis() {
+		return reloadDelayMillis;
+	}
+
+	public void setReloadDelayMillis(long reloadDelayMillis) {
+		this.reloadDelayMillis = reloadDelayMillis;
+	}
+
+	public Consumer<Exception> getErrorListener() {
+		return errorListener;
+	}
+
+	/**
+	 *
+	 * @param errorListener 再読み込みに失敗した場合に、失敗したスレッドで呼ばれる（nullの場合はShaderLibrary.getLastErrorで取得する）
+	 */
+	public void setErrorListener(Consumer<Exception> errorListener) {
+		this.errorListener = errorListener;
+	}
+}
@@ -0,0 +1,192 @@
+package lwjgl.ex.vulkan;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * shader側の型（float3、struct Rotationなど）
+ * LayoutRuleでオフセットを求めるために、Java側で.slangの構造体を宣言する場合と、
+ * SpirvReflectionでSPIR-Vから読み取る場合に使う
+ *
+ * 例（shader.slangのstruct Rotation）：
+ * ShaderType.struct("Rotation")
+ * 		.add("axis", ShaderType.FLOAT3)
+ * 		.add("oneCosAxis", ShaderType.FLOAT3)
+ * 		.add("cos", ShaderType.FLOAT)
+ * 		.add("sin", ShaderType.FLOAT);
+ */
+public class ShaderType {
+	public enum Kind {
+		SCALAR,
+		VECTOR,
+		MATRIX,
+		ARRAY,
+		STRUCT
+	}
+
+	/**
+	 * オフセットやstrideをLayoutRuleで求める場合
+	 */
+	public static final int BY_RULE = -1;
+
+	public static final ShaderType FLOAT = scalar("float", Float.BYTES);
+	public static final ShaderType INT = scalar("int", Integer.BYTES);
+	public static final ShaderType UINT = scalar("uint", Integer.BYTES);
+	public static final ShaderType FLOAT2 = vector(FLOAT, 2);
+	public static final ShaderType FLOAT3 = vector(FLOAT, 3);
+	public static final ShaderType FLOAT4 = vector(FLOAT, 4);
+	public static final ShaderType FLOAT4X4 = matrix(FLOAT4, 4);
+
+	private final Kind kind;
+	private final String name;
+	/**
+	 * SCALARのバイト数
+	 */
+	private final int bytes;
+	/**
+	 * VECTORの要素、MATRIXの列、ARRAYの要素
+	 */
+	private final ShaderType element;
+	/**
+	 * VECTORの要素数、MATRIXの列数、ARRAYの長さ（長さが決まっていない場合は0）
+	 */
+	private final int count;
+	/**
+	 * MATRIX、ARRAYのstride（SPIR-VのMatrixStride、ArrayStride）
+	 */
+	private final int stride;
+	private final List<Member> members;
+
+	private ShaderType(Kind kind, String name, int bytes, ShaderType element, int count, int stride, List<Member> members) {
+		this.kind = kind;
+		this.name = name;
+		this.bytes = bytes;
+		this.element = element;
+		this.count = count;
+		this.stride = stride;
+		this.members = members;
+	}
+
+	static ShaderType scalar(String name, int bytes) {
+		return new ShaderType(Kind.SCALAR, name, bytes, null, 0, BY_RULE, null);
+	}
+
+	public static ShaderType vector(ShaderType component, int count) {
+		return new ShaderType(Kind.VECTOR, component.name + count, 0, component, count, BY_RULE, null);
+	}
+
+	/**
+	 *
+	 * @param column 列のベクトル（column-major）
+	 * @param columns
+	 * @return
+	 */
+	public static ShaderType matrix(ShaderType column, int columns) {
+		return matrix(column, columns, BY_RULE);
+	}
+
+	static ShaderType matrix(ShaderType column, int columns, int stride) {
+		return new ShaderType(Kind.MATRIX, column.name + "x" + columns, 0, column, columns, stride, null);
+	}
+
+	public static ShaderType array(ShaderType element, int length) {
+		return array(element, length, BY_RULE);
+	}
+
+	static ShaderType array(ShaderType element, int length, int stride) {
+		return new ShaderType(Kind.ARRAY, element.name + "[" + length + "]", 0, element, length, stride, null);
+	}
+
+	/**
+	 *
+	 * @param name
+	 * @return addでメンバーを追加する
+	 */
+	public static ShaderType struct(String name) {
+		return new ShaderType(Kind.STRUCT, name, 0, null, 0, BY_RULE, new ArrayList<>());
+	}
+
+	/**
+	 * structにメンバーを追加する（.slangでの宣言順）
+	 * @param name
+	 * @param type
+	 * @return this
+	 */
+	public ShaderType add(String name, ShaderType type) {
+		return add(name, type, BY_RULE);
+	}
+
+	ShaderType add(String name, ShaderType type, int offset) {
+		if (kind != Kind.STRUCT) {
+			throw new IllegalStateException("structではありません " + this.name);
+		}
+		members.add(new Member(name, type, offset));
+		return this;
+	}
+
+	public Kind getKind() {
+		return kind;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int getBytes() {
+		return bytes;
+	}
+
+	public ShaderType getElement() {
+		return element;
+	}
+
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 *
+	 * @return 指定されていない場合はBY_RULE
+	 */
+	public int getStride() {
+		return stride;
+	}
+
+	public List<Member> getMembers() {
+		return members == null ? List.of() : Collections.unmodifiableList(members);
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+
+	public static class Member {
+		private final String name;
+		private final ShaderType type;
+		private final int offset;
+
+		private Member(String name, ShaderType type, int offset) {
+			this.name = name;
+			this.type = type;
+			this.offset = offset;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public ShaderType getType() {
+			return type;
+		}
+
+		/**
+		 *
+		 * @return SPIR-VのOffset。指定されていない場合はBY_RULE
+		 */
+		public int getOffset() {
+			return offset;
+		}
+	}
+}
@@ -0,0 +1,288 @@
+package lwjgl.ex.vulkan;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * SPIR-Vから、Uniform、StorageBuffer、PushConstantのブロックのレイアウト（オフセット）を読み取る
+ * （slangcが決めたオフセットをそのまま使うので、Java側で数えて合わせる必要がない）
+ * https://registry.khronos.org/SPIR-V/specs/unified1/SPIRV.html
+ */
+public class SpirvReflection {
+	public static final int STORAGE_CLASS_UNIFORM = 2;
+	public static final int STORAGE_CLASS_PUSH_CONSTANT = 9;
+	public static final int STORAGE_CLASS_STORAGE_BUFFER = 12;
+
+	// 使用する命令
+	private static final int OP_NAME = 5;
+	private static final int OP_MEMBER_NAME = 6;
+	private static final int OP_TYPE_BOOL = 20;
+	private static final int OP_TYPE_INT = 21;
+	private static final int OP_TYPE_FLOAT = 22;
+	private static final int OP_TYPE_VECTOR = 23;
+	private static final int OP_TYPE_MATRIX = 24;
+	private static final int OP_TYPE_ARRAY = 28;
+	private static final int OP_TYPE_RUNTIME_ARRAY = 29;
+	private static final int OP_TYPE_STRUCT = 30;
+	private static final int OP_TYPE_POINTER = 32;
+	private static final int OP_CONSTANT = 43;
+	private static final int OP_VARIABLE = 59;
+	private static final int OP_DECORATE = 71;
+	private static final int OP_MEMBER_DECORATE = 72;
+
+	// 使用する装飾
+	private static final int DECORATION_BLOCK = 2;
+	private static final int DECORATION_BUFFER_BLOCK = 3;
+	private static final int DECORATION_ROW_MAJOR = 4;
+	private static final int DECORATION_ARRAY_STRIDE = 6;
+	private static final int DECORATION_MATRIX_STRIDE = 7;
+	private static final int DECORATION_BINDING = 33;
+	private static final int DECORATION_DESCRIPTOR_SET = 34;
+	private static final int DECORATION_OFFSET = 35;
+
+	private final List<Block> blocks = new ArrayList<>();
+
+	// 読み取り中のみ使う
+	private final Map<Integer, String> names = new HashMap<>();
+	private final Map<Integer, Map<Integer, String>> memberNames = new HashMap<>();
+	private final Map<Integer, Map<Integer, Integer>> memberOffsets = new HashMap<>();
+	private final Map<Integer, Map<Integer, Integer>> memberMatrixStrides = new HashMap<>();
+	private final Map<Integer, Set<Integer>> memberRowMajors = new HashMap<>();
+	private final Map<Integer, Integer> arrayStrides = new HashMap<>();
+	private final Map<Integer, Integer> bindings = new HashMap<>();
+	private final Map<Integer, Integer> descriptorSets = new HashMap<>();
+	private final Set<Integer> blockTypes = new HashSet<>();
+	private final Set<Integer> bufferBlockTypes = new HashSet<>();
+	private final Map<Integer, int[]> types = new HashMap<>();
+	private final Map<Integer, Integer> constants = new HashMap<>();
+	private final Map<Integer, ShaderType> typeCache = new HashMap<>();
+
+	/**
+	 *
+	 * @param spv Shader.checkSpvで確認済みのもの（positionは変更しない）
+	 * @throws IllegalArgumentException 命令の長さが不正な場合
+	 */
+	public SpirvReflection(ByteBuffer spv) {
+		var words = spv.duplicate().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+		var variables = new ArrayList<int[]>();
+		for (int i = Shader.SPIRV_HEADER_BYTES / Integer.BYTES; i < words.limit();) {
+			var first = words.get(i);
+			var wordCount = first >>> 16;
+			var opcode = first & 0xFFFF;
+			if (wordCount == 0 || i + wordCount > words.limit()) {
+				throw new IllegalArgumentException("SPIR-Vの命令の長さが不正です " + i);
+			}
+			var operands = new int[wordCount - 1];
+			words.get(i + 1, operands);
+			read(opcode, operands, words, i + 1, variables);
+			i += wordCount;
+		}
+		for (var variable : variables) {
+			readBlock(variable[1], variable[0], variable[2]);
+		}
+		// 読み取り後は不要
+		names.clear();
+		memberNames.clear();
+		types.clear();
+		typeCache.clear();
+	}
+
+	private void read(int opcode, int[] operands, IntBuffer words, int start, List<int[]> variables) {
+		switch (opcode) {
+		case OP_NAME -> names.put(operands[0], string(words, start + 1, operands.length - 1));
+		case OP_MEMBER_NAME -> memberNames.computeIfAbsent(operands[0], k -> new HashMap<>())
+				.put(operands[1], string(words, start + 2, operands.length - 2));
+		case OP_TYPE_BOOL, OP_TYPE_INT, OP_TYPE_FLOAT, OP_TYPE_VECTOR, OP_TYPE_MATRIX,
+				OP_TYPE_ARRAY, OP_TYPE_RUNTIME_ARRAY, OP_TYPE_STRUCT, OP_TYPE_POINTER -> {
+			var type = new int[operands.length + 1];
+			type[0] = opcode;
+			System.arraycopy(operands, 0, type, 1, operands.length);
+			types.put(operands[0], type);
+		}
+		// 32bitまでの整数の定数（配列の長さ用）
+		case OP_CONSTANT -> {
+			if (operands.length == 3) {
+				constants.put(operands[1], operands[2]);
+			}
+		}
+		// resultType, result, storageClass
+		case OP_VARIABLE -> variables.add(new int[] { operands[0], operands[1], operands[2] });
+		case OP_DECORATE -> {
+			var target = operands[0];
+			switch (operands[1]) {
+			case DECORATION_BLOCK -> blockTypes.add(target);
+			case DECORATION_BUFFER_BLOCK -> bufferBlockTypes.add(target);
+			case DECORATION_ARRAY_STRIDE -> arrayStrides.put(target, operands[2]);
+			case DECORATION_BINDING -> bindings.put(target, operands[2]);
+			case DECORATION_DESCRIPTOR_SET -> descriptorSets.put(target, operands[2]);
+			default -> {}
+			}
+		}
+		case OP_MEMBER_DECORATE -> {
+			var struct = operands[0];
+			var member = operands[1];
+			switch (operands[2]) {
+			case DECORATION_OFFSET -> memberOffsets.computeIfAbsent(struct, k -> new HashMap<>()).put(member, operands[3]);
+			case DECORATION_MATRIX_STRIDE -> memberMatrixStrides.computeIfAbsent(struct, k -> new HashMap<>()).put(member, operands[3]);
+			case DECORATION_ROW_MAJOR -> memberRowMajors.computeIfAbsent(struct, k -> new HashSet<>()).add(member);
+			default -> {}
+			}
+		}
+		default -> {}
+		}
+	}
+
+	/**
+	 * NULL終端のUTF-8
+	 */
+	private static String string(IntBuffer words, int start, int wordCount) {
+		var bytes = new byte[wordCount * Integer.BYTES];
+		for (int i = 0; i < wordCount; ++i) {
+			var word = words.get(start + i);
+			for (int b = 0; b < Integer.BYTES; ++b) {
+				bytes[i * Integer.BYTES + b] = (byte) (word >>> (b * Byte.SIZE));
+			}
+		}
+		var length = 0;
+		while (length < bytes.length && bytes[length] != 0) {
+			++length;
+		}
+		return new String(bytes, 0, length, StandardCharsets.UTF_8);
+	}
+
+	private void readBlock(int variable, int pointerType, int storageClass) {
+		if (storageClass != STORAGE_CLASS_UNIFORM && storageClass != STORAGE_CLASS_STORAGE_BUFFER && storageClass != STORAGE_CLASS_PUSH_CONSTANT) {
+			return;
+		}
+		var pointer = types.get(pointerType);
+		if (pointer == null || pointer[0] != OP_TYPE_POINTER) {
+			return;
+		}
+		var structId = pointer[3];
+		var struct = types.get(structId);
+		if (struct == null || struct[0] != OP_TYPE_STRUCT || !(blockTypes.contains(structId) || bufferBlockTypes.contains(structId))) {
+			return;
+		}
+		// 古い形式のStorageBufferは、UniformにBufferBlockを付けたもの
+		var rule = storageClass == STORAGE_CLASS_UNIFORM && !bufferBlockTypes.contains(structId) ? LayoutRule.STD140 : LayoutRule.STD430;
+		var layout = new StructLayout(type(structId), rule);
+		var name = names.getOrDefault(variable, "");
+		if (name.isEmpty()) {
+			name = layout.getType().getName();
+		}
+		blocks.add(new Block(name, descriptorSets.getOrDefault(variable, 0), bindings.getOrDefault(variable, 0), storageClass, layout));
+	}
+
+	private ShaderType type(int id) {
+		var cached = typeCache.get(id);
+		if (cached != null) {
+			return cached;
+		}
+		var type = types.get(id);
+		if (type == null) {
+			throw new IllegalArgumentException("SPIR-Vの型がありません " + id);
+		}
+		var result = switch (type[0]) {
+		case OP_TYPE_BOOL -> ShaderType.scalar("bool", Integer.BYTES);
+		case OP_TYPE_INT -> ShaderType.scalar((type[3] != 0 ? "int" : "uint") + (type[2] == Integer.SIZE ? "" : type[2]), type[2] / Byte.SIZE);
+		case OP_TYPE_FLOAT -> ShaderType.scalar(type[2] == Float.SIZE ? "float" : type[2] == Double.SIZE ? "double" : "half", type[2] / Byte.SIZE);
+		case OP_TYPE_VECTOR -> ShaderType.vector(type(type[2]), type[3]);
+		case OP_TYPE_MATRIX -> ShaderType.matrix(type(type[2]), type[3]);
+		case OP_TYPE_ARRAY -> ShaderType.array(type(type[2]), constants.getOrDefault(type[3], 0), arrayStrides.getOrDefault(id, ShaderType.BY_RULE));
+		case OP_TYPE_RUNTIME_ARRAY -> ShaderType.array(type(type[2]), 0, arrayStrides.getOrDefault(id, ShaderType.BY_RULE));
+		case OP_TYPE_STRUCT -> struct(id, type);
+		default -> throw new IllegalArgumentException("SPIR-Vのバッファで使用できない型です " + id);
+		};
+		typeCache.put(id, result);
+		return result;
+	}
+
+	private ShaderType struct(int id, int[] type) {
+		var struct = ShaderType.struct(names.getOrDefault(id, "struct" + id));
+		var namesOfMembers = memberNames.getOrDefault(id, Map.of());
+		var offsets = memberOffsets.getOrDefault(id, Map.of());
+		var matrixStrides = memberMatrixStrides.getOrDefault(id, Map.of());
+		var rowMajors = memberRowMajors.getOrDefault(id, Set.of());
+		for (int m = 0; m < type.length - 2; ++m) {
+			var memberType = type(type[m + 2]);
+			var matrixStride = matrixStrides.get(m);
+			if (memberType.getKind() == ShaderType.Kind.MATRIX && matrixStride != null) {
+				// row-majorの場合は行ごとにstrideが付く
+				var vectors = rowMajors.contains(m) ? memberType.getElement().getCount() : memberType.getCount();
+				memberType = ShaderType.matrix(memberType.getElement(), vectors, matrixStride);
+			}
+			struct.add(namesOfMembers.getOrDefault(m, "member" + m), memberType, offsets.getOrDefault(m, ShaderType.BY_RULE));
+		}
+		return struct;
+	}
+
+	/**
+	 *
+	 * @return 全てのブロック（SPIR-Vでの宣言順）
+	 */
+	public List<Block> getBlocks() {
+		return blocks;
+	}
+
+	/**
+	 *
+	 * @param name 変数名（ConstantBuffer<UniformBuffer> uboの場合は「ubo」）または型名
+	 * @return ない場合はnull
+	 */
+	public Block getBlock(String name) {
+		for (var block : blocks) {
+			if (block.getName().equals(name) || block.getLayout().getType().getName().equals(name)) {
+				return block;
+			}
+		}
+		return null;
+	}
+
+	public static class Block {
+		private final String name;
+		private final int set;
+		private final int binding;
+		private final int storageClass;
+		private final StructLayout layout;
+
+		private Block(String name, int set, int binding, int storageClass, StructLayout layout) {
+			this.name = name;
+			this.set = set;
+			this.binding = binding;
+			this.storageClass = storageClass;
+			this.layout = layout;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public int getSet() {
+			return set;
+		}
+
+		public int getBinding() {
+			return binding;
+		}
+
+		/**
+		 *
+		 * @return STORAGE_CLASS_UNIFORMなど
+		 */
+		public int getStorageClass() {
+			return storageClass;
+		}
+
+		public StructLayout getLayout() {
+			return layout;
+		}
+	}
+}
@@ -6,8 +6,6 @@ import org.lwjgl.system.MemoryUtil;
 import org.lwjgl.vulkan.VkBufferCreateInfo;
 import org.lwjgl.vulkan.VkDescriptorBufferInfo;
 import org.lwjgl.vulkan.VkDescriptorImageInfo;
-import org.lwjgl.vulkan.VkMemoryAllocateInfo;
-import org.lwjgl.vulkan.VkMemoryRequirements;
 import org.lwjgl.vulkan.VkWriteDescriptorSet;
 
 import static org.lwjgl.system.MemoryUtil.*;
@@ -17,6 +15,7 @@ import static org.lwjgl.vulkan.VK14.*;
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
 import java.nio.LongBuffer;
+import java.util.function.LongConsumer;
 import java.util.function.Supplier;
 
 import static lwjgl.ex.vulkan.VulkanConstants.*;
@@ -27,10 +26,12 @@ import static lwjgl.ex.vulkan.VulkanConstants.*;
 public class StagingBuffer implements AutoCloseable, Descriptor {
 	private long handler;
 	private LongBuffer forHandler = MemoryUtil.memAllocLong(1);
-	private long memory;
+	/**
+	 * MemoryAllocatorのブロックの一部（BufferごとにvkAllocateMemoryしない）
+	 */
+	private MemoryAllocation allocation;
 //    private long mappedMemory = NULL;
 //    private PointerBuffer forMappedMemory;
-	private LongBuffer forMemory = MemoryUtil.memAllocLong(1);
 	private PointerBuffer forMap = MemoryUtil.memAllocPointer(1);
 
 	private StagingBufferSettings settings;
@@ -62,13 +63,8 @@ public class StagingBuffer implements AutoCloseable, Descriptor {
 					"Bufferの作成に失敗しました");
 			handler = forHandler.get(0);
 			
-			var memoryRequirements = VkMemoryRequirements.calloc(stack);
-			vkGetBufferMemoryRequirements(device, handler, memoryRequirements);
-
-			
-			memory = allocateMemory(handler, settings.getLogicalDevice(), settings.getDestinationMemoryPropertyFlags(), memoryRequirements, stack, forMemory);
-			Vulkan.throwExceptionIfFailed(vkBindBufferMemory(device, handler, memory, DEFAULT_LONG_OFFSETS),
-					"メモリの紐づけに失敗しました");
+			allocation = settings.getLogicalDevice().getMemoryAllocator().bindBuffer(handler, settings.getDestinationMemoryPropertyFlags(), settings.getPreferredMemoryPropertyFlags(),
+					MemoryCategory.of(settings.getType()));
 
 			// 参考
 			// https://github.com/LWJGL/lwjgl3/blob/4ef1eebe4af235b2934a165e82aeefcaf8d9b893/modules/samples/src/test/java/org/lwjgl/demo/vulkan/khronos/HelloTriangle_1_3.java#L460
@@ -77,31 +73,44 @@ public class StagingBuffer implements AutoCloseable, Descriptor {
 			if (!settings.isMap()) {
 				return;
 			}
-			Vulkan.throwExceptionIfFailed(vkMapMemory(device, memory, 0, settings.getSize(), 0, forMap),
-					"vkMapMemoryエラー");
+			// ブロックは他のBufferと共有しているので、ブロック全体をマップしたままにする
+			// （isUnMapでもunmapしない）
+			forMap.put(0, allocation.map());
 			settings.getCopy().accept(forMap);
-			if (settings.isUnMap()) {
-				vkUnmapMemory(device, memory);
-			}
+			allocation.markDirty(0, settings.getSize());
 		}
 	}
 	
+	/**
+	 * copyで全体を書き直す（一部だけの場合はwriteを使う）
+	 */
 	public void update() {
 		// これでいいのか不明
 		settings.getCopy().accept(forMap);
+		allocation.markDirty(0, settings.getSize());
 	}
 	
+	/**
+	 * 一部だけ書き込む（HOST_COHERENTでない場合は、その範囲だけ次のsubmitの前にflushされる）
+	 * @param offset
+	 * @param bytes
+	 * @param write マップしたアドレス + offsetを受け取り、bytes分書き込む
+	 */
+	public void write(long offset, long bytes, LongConsumer write) {
+		if (offset < 0 || bytes < 0 || offset + bytes > settings.getSize()) {
+			throw new IllegalArgumentException("Bufferの範囲外です " + offset + " + " + bytes + " > " + settings.getSize());
+		}
+		write.accept(allocation.map() + offset);
+		allocation.markDirty(offset, bytes);
+	}
 	
-	
-	public static long allocateMemory(long handler, LogicalDevice logicalDevice, int memoryProperty, VkMemoryRequirements memoryRequirements,MemoryStack stack, LongBuffer forMemory) {
-		var memoryAllocateInfo = VkMemoryAllocateInfo.calloc(stack).sType$Default()
-				.allocationSize(memoryRequirements.size())
-				.memoryTypeIndex(logicalDevice.getPhysicalDevice().findMemoryTypeIndex(
-						memoryRequirements.memoryTypeBits(), memoryProperty));
-		Vulkan.throwExceptionIfFailed(vkAllocateMemory(logicalDevice.getDevice(), memoryAllocateInfo, null, forMemory),
-				"メモリの割り当てに失敗しました");
-//		allocationSize = memoryAllocateInfo.allocationSize();
-		return forMemory.get(0);
+	/**
+	 * マップしたアドレスに直接書き込んだ範囲を記録する
+	 * @param offset
+	 * @param bytes
+	 */
+	public void markDirty(long offset, long bytes) {
+		allocation.markDirty(offset, bytes);
 	}
 
 
@@ -113,14 +122,15 @@ public class StagingBuffer implements AutoCloseable, Descriptor {
 //			memFree(forMappedMemory);
 //			forMappedMemory = null;
 //		}
-		if (memory != NULL) {
-			vkFreeMemory(device, memory, null);
-			memory = NULL;
-		}
 		if (handler != NULL) {
 			vkDestroyBuffer(device, handler, null);
 			handler = NULL;
 		}
+		// Bufferを破棄してから、ブロックに返す
+		if (allocation != null) {
+			allocation.close();
+			allocation = null;
+		}
 		if (forHandler != null) {
 			forHandler = null;
 		}
@@ -130,6 +140,14 @@ public class StagingBuffer implements AutoCloseable, Descriptor {
 		return settings;
 	}
 
+	/**
+	 * 
+	 * @return MemoryAllocatorで割り当てたメモリ（HOST_VISIBLEの場合はmapで書き込める）
+	 */
+	public MemoryAllocation getAllocation() {
+		return allocation;
+	}
+
 	public long getHandler() {
 		return handler;
 	}
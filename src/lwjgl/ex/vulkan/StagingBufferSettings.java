@@ -29,6 +29,17 @@ public class StagingBufferSettings implements Cloneable {
 	 */
 	public static final int MEMORY_PROPERTY_FLAGS_VISIBLE = VK_MEMORY_PROPERTY_HOST_VISIBLE_BIT | VK_MEMORY_PROPERTY_HOST_COHERENT_BIT;
 	
+	/**
+	 * CPUから書き込むだけのもの（HOST_COHERENTを要求しない）
+	 * HOST_COHERENTでない場合は、markDirtyした範囲をsubmitの前にvkFlushMappedMemoryRangesする
+	 */
+	public static final int MEMORY_PROPERTY_FLAGS_HOST = VK_MEMORY_PROPERTY_HOST_VISIBLE_BIT;
+	
+	/**
+	 * MEMORY_PROPERTY_FLAGS_HOSTと組み合わせる、あれば使うフラグ（CPU側でキャッシュされる）
+	 */
+	public static final int MEMORY_PROPERTY_FLAGS_CACHED = VK_MEMORY_PROPERTY_HOST_CACHED_BIT;
+	
 	private LogicalDevice logicalDevice;
 	private long size;
 	private BufferType type;
@@ -39,6 +50,10 @@ public class StagingBufferSettings implements Cloneable {
 	 */
 //	private int sourceMemoryPropertyFlags = MEMORY_PROPERTY_FLAGS_SOURCE;
 	private int destinationMemoryPropertyFlags = MEMORY_PROPERTY_FLAGS_DESTINATION;
+	/**
+	 * destinationMemoryPropertyFlagsに加えて、あれば使うフラグ（ない場合は無視）
+	 */
+	private int preferredMemoryPropertyFlags;
 	
 	private Consumer<PointerBuffer> copy;
 
@@ -103,6 +118,16 @@ public class StagingBufferSettings implements Cloneable {
 	public void setDestinationMemoryPropertyFlags(int destinationMemoryPropertyFlags) {
 		this.destinationMemoryPropertyFlags = destinationMemoryPropertyFlags;
 	}
+	public int getPreferredMemoryPropertyFlags() {
+		return preferredMemoryPropertyFlags;
+	}
+	/**
+	 * 
+	 * @param preferredMemoryPropertyFlags MEMORY_PROPERTY_FLAGS_CACHEDなど（初期値0）
+	 */
+	public void setPreferredMemoryPropertyFlags(int preferredMemoryPropertyFlags) {
+		this.preferredMemoryPropertyFlags = preferredMemoryPropertyFlags;
+	}
 	public Consumer<PointerBuffer> getCopy() {
 		return copy;
 	}
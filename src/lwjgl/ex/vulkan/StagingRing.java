@@ -0,0 +1,357 @@
+package lwjgl.ex.vulkan;
+
+import static org.lwjgl.vulkan.VK14.*;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.LongConsumer;
+
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.vulkan.VkBufferCopy;
+import org.lwjgl.vulkan.VkCommandBuffer;
+import org.lwjgl.vulkan.VkDependencyInfo;
+import org.lwjgl.vulkan.VkMemoryBarrier2;
+import org.lwjgl.vulkan.VkSemaphoreSubmitInfo;
+import org.lwjgl.vulkan.VkSubmitInfo2;
+
+import motopgi.utils.AutoCloseableList;
+import motopgi.utils.ExceptionUtils;
+
+import static lwjgl.ex.vulkan.StagingBufferSettings.*;
+
+/**
+ * DEVICE_LOCALのBuffer、Imageへ送るための、マップしたままのHOST_VISIBLEのリングバッファ
+ * LogicalDeviceで自動生成される
+ *
+ * upload、copyToBufferは書き込みとvkCmdCopy〜の記録だけを行い、submitでまとめて1回で送信する
+ * submitしたものはTimelineSemaphoreの値で完了を確認し、その領域を再び使う（空きがない場合のみ待つ）
+ * submitの最後にバリアを置くので、後から同じVkQueueにsubmitした描画では、送った内容を読める
+ *
+ * 複数のスレッドから使える（submitは記録中の他のスレッドの分もまとめて送る）
+ */
+public class StagingRing implements AutoCloseable {
+	public static final long DEFAULT_BYTES = 32L * 1024 * 1024;
+	/**
+	 * vkCmdCopyBufferToImageのbufferOffsetは4とtexelブロック（BCnは最大16バイト）の倍数
+	 */
+	public static final long DEFAULT_ALIGNMENT = 16;
+
+	/**
+	 * 送信先を記録する
+	 */
+	@FunctionalInterface
+	public interface Recorder {
+		/**
+		 *
+		 * @param commandBuffer 記録中のもの（begin、submitは呼ばない）
+		 * @param buffer 書き込んだ内容があるBuffer
+		 * @param offset bufferの中の位置
+		 */
+		void record(VkCommandBuffer commandBuffer, long buffer, long offset);
+	}
+
+	private final LogicalDevice logicalDevice;
+	private final long size;
+	private final StagingBuffer ring;
+	private final long address;
+	private final CommandPool commandPool;
+	private final Queue queue;
+	private final TimelineSemaphore timeline;
+
+	/**
+	 * 次に書き込む位置（増え続ける、sizeの剰余がringの中の位置）
+	 */
+	private long head;
+	/**
+	 * GPUがまだ読んでいる可能性がある、最も古い位置
+	 */
+	private long tail;
+	/**
+	 * 記録中（なければnull）
+	 */
+	private CommandBuffer recording;
+	/**
+	 * ringに入らない大きいもの用に、記録中のものが使う一時的なBuffer
+	 */
+	private final List<StagingBuffer> temporaries = new ArrayList<>();
+	private final ArrayDeque<Batch> inFlight = new ArrayDeque<>();
+	private final ArrayDeque<CommandBuffer> idle = new ArrayDeque<>();
+	private final AutoCloseableList<CommandBuffer> commandBuffers = new AutoCloseableList<>();
+	/**
+	 * 最後にsubmitしたtimelineの値
+	 */
+	private long submitted;
+
+	private int submitCount;
+	private long uploadedBytes;
+	private int stallCount;
+	private int temporaryCount;
+
+	/**
+	 * インスタンス生成
+	 * （LogicalDeviceで自動生成されるため、基本的に作る必要はない）
+	 * @param logicalDevice
+	 * @param size
+	 */
+	public StagingRing(LogicalDevice logicalDevice, long size) {
+		if (size < DEFAULT_ALIGNMENT * 2) {
+			throw new IllegalArgumentException("StagingRingのサイズが小さすぎます " + size);
+		}
+		this.logicalDevice = logicalDevice;
+		this.size = size;
+		var settings = new StagingBufferSettings(logicalDevice, pointer -> {});
+		settings.setSize(size);
+		settings.setType(BufferType.TEXTURE);
+		// HOST_COHERENTでない場合は、書き込んだ範囲だけQueueのsubmitでflushされる
+		settings.setDestinationMemoryPropertyFlags(MEMORY_PROPERTY_FLAGS_HOST);
+		settings.setPreferredMemoryPropertyFlags(MEMORY_PROPERTY_FLAGS_CACHED);
+		ring = new StagingBuffer(settings);
+		address = ring.getAllocation().map();
+		commandPool = new CommandPool(new CommandPoolSettings(logicalDevice));
+		queue = new Queue(new QueueSettings(logicalDevice));
+		timeline = new TimelineSemaphore(logicalDevice);
+	}
+
+	/**
+	 * writeで書き込んだ内容を送るコマンドを、recorderで記録する
+	 * @param bytes
+	 * @param alignment 書き込む位置の境界（2のべき乗）
+	 * @param write ringのマップされたアドレスに、bytes分書き込む
+	 * @param recorder
+	 */
+	public synchronized void upload(long bytes, long alignment, LongConsumer write, Recorder recorder) {
+		if (bytes <= 0) {
+			return;
+		}
+		if (bytes > size / 2) {
+			// ringを使い切ってしまうので、このsubmitだけの一時的なBufferを使う
+			var settings = new StagingBufferSettings(logicalDevice, pointer -> write.accept(pointer.get(0)));
+			settings.setSize(bytes);
+			settings.setType(BufferType.TEXTURE);
+			settings.setDestinationMemoryPropertyFlags(MEMORY_PROPERTY_FLAGS_HOST);
+			settings.setPreferredMemoryPropertyFlags(MEMORY_PROPERTY_FLAGS_CACHED);
+			var temporary = new StagingBuffer(settings);
+			var commandBuffer = begin();
+			temporaries.add(temporary);
+			++temporaryCount;
+			recorder.record(commandBuffer.getBuffer(), temporary.getHandler(), 0);
+		}
+		else {
+			// 空きを待つ間にsubmitする場合があるので、beginより先に確保する
+			var offset = reserve(bytes, alignment);
+			write.accept(address + offset);
+			ring.markDirty(offset, bytes);
+			recorder.record(begin().getBuffer(), ring.getHandler(), offset);
+		}
+		uploadedBytes += bytes;
+	}
+
+	/**
+	 * vkCmdCopyBufferでdestinationの先頭に送る
+	 * @param bytes
+	 * @param write
+	 * @param destination VK_BUFFER_USAGE_TRANSFER_DST_BITを含むもの
+	 */
+	public void copyToBuffer(long bytes, LongConsumer write, StagingBuffer destination) {
+		upload(bytes, DEFAULT_ALIGNMENT, write, (commandBuffer, buffer, offset) -> {
+			try (var stack = MemoryStack.stackPush()) {
+				var region = VkBufferCopy.calloc(1, stack)
+						.srcOffset(offset)
+						.dstOffset(0)
+						.size(bytes);
+				vkCmdCopyBuffer(commandBuffer, buffer, destination.getHandler(), region);
+			}
+		});
+	}
+
+	private long reserve(long bytes, long alignment) {
+		while (true) {
+			var start = (head + alignment - 1) & -alignment;
+			if (start / size != (start + bytes - 1) / size) {
+				// 末尾をまたぐ場合は先頭から
+				start = (start / size + 1) * size;
+			}
+			if (start + bytes - tail <= size) {
+				head = start + bytes;
+				return start % size;
+			}
+			if (reclaim()) {
+				continue;
+			}
+			// 空きがないので、記録中のものを送って最も古いものを待つ
+			if (recording != null) {
+				submit();
+			}
+			++stallCount;
+			waitFor(inFlight.peekFirst().value);
+			reclaim();
+		}
+	}
+
+	/**
+	 * GPUが読み終わった領域とCommandBufferを、再び使えるようにする
+	 * @return 1つでも戻した場合
+	 */
+	private boolean reclaim() {
+		if (inFlight.isEmpty()) {
+			return false;
+		}
+		var completed = timeline.getCounterValue();
+		var reclaimed = false;
+		while (!inFlight.isEmpty() && inFlight.peekFirst().value <= completed) {
+			var batch = inFlight.pollFirst();
+			tail = batch.end;
+			idle.add(batch.commandBuffer);
+			try {
+				ExceptionUtils.close(batch.temporaries);
+			} catch (Exception e) {
+				throw new RuntimeException("StagingRingの一時的なBufferの解放に失敗しました", e);
+			}
+			reclaimed = true;
+		}
+		return reclaimed;
+	}
+
+	private CommandBuffer begin() {
+		if (recording == null) {
+			reclaim();
+			if (idle.isEmpty()) {
+				var commandBuffer = new CommandBuffer(new CommandBufferSettings(commandPool));
+				commandBuffers.add(commandBuffer);
+				idle.add(commandBuffer);
+			}
+			// CommandPoolがRESET_COMMAND_BUFFER_BITなので、beginで前の内容はリセットされる
+			recording = idle.poll();
+			recording.begin();
+		}
+		return recording;
+	}
+
+	/**
+	 * 記録したものをまとめて送信する（完了は待たない）
+	 * 送ったBuffer、Imageを描画に使う前に呼ぶ
+	 * @return 完了するとtimelineがこの値になる（記録したものがない場合は、最後に送ったものの値）
+	 */
+	public synchronized long submit() {
+		if (recording == null) {
+			return submitted;
+		}
+		try (var stack = MemoryStack.stackPush()) {
+			var commandBuffer = recording.getBuffer();
+			// 後のsubmitで、頂点、index、Uniformなどとして読めるようにする
+			// （Imageは記録した側がlayoutの遷移で行う）
+			var barrier = VkMemoryBarrier2.calloc(1, stack).sType$Default()
+					.srcStageMask(VK_PIPELINE_STAGE_2_TRANSFER_BIT)
+					.srcAccessMask(VK_ACCESS_2_TRANSFER_WRITE_BIT)
+					.dstStageMask(VK_PIPELINE_STAGE_2_ALL_COMMANDS_BIT)
+					.dstAccessMask(VK_ACCESS_2_MEMORY_READ_BIT);
+			vkCmdPipelineBarrier2(commandBuffer, VkDependencyInfo.calloc(stack).sType$Default().pMemoryBarriers(barrier));
+			Vulkan.throwExceptionIfFailed(vkEndCommandBuffer(commandBuffer), "CommandBufferの終了に失敗しました");
+
+			var value = submitted + 1;
+			var signal = VkSemaphoreSubmitInfo.calloc(1, stack).sType$Default()
+					.semaphore(timeline.getHandler())
+					.value(value)
+					.stageMask(VK_PIPELINE_STAGE_2_ALL_COMMANDS_BIT);
+			var submitInfo = VkSubmitInfo2.calloc(1, stack).sType$Default()
+					.pCommandBufferInfos(recording.createSubmitInfoBuffer(stack))
+					.pSignalSemaphoreInfos(signal);
+			queue.submit(submitInfo, VK_NULL_HANDLE);
+
+			submitted = value;
+			inFlight.add(new Batch(value, head, recording, new ArrayList<>(temporaries)));
+			temporaries.clear();
+			recording = null;
+			++submitCount;
+			return value;
+		}
+	}
+
+	/**
+	 * submitの完了を待つ
+	 * @param value submitの戻り値
+	 */
+	public void waitFor(long value) {
+		try (var stack = MemoryStack.stackPush()) {
+			timeline.waitSemaphore(value, stack);
+		}
+	}
+
+	/**
+	 * 記録したものを送信し、完了を待つ（失敗時に、送信先を解放する前など）
+	 */
+	public void finish() {
+		waitFor(submit());
+	}
+
+	public long getSize() {
+		return size;
+	}
+
+	public synchronized int getSubmitCount() {
+		return submitCount;
+	}
+
+	public synchronized long getUploadedBytes() {
+		return uploadedBytes;
+	}
+
+	/**
+	 *
+	 * @return 空きがなく、GPUの完了を待った回数
+	 */
+	public synchronized int getStallCount() {
+		return stallCount;
+	}
+
+	/**
+	 *
+	 * @return ringに入らず、一時的なBufferを作った回数
+	 */
+	public synchronized int getTemporaryCount() {
+		return temporaryCount;
+	}
+
+	/**
+	 *
+	 * @return 例：「12 submits, 48.3MB, 0 stalls, 1 temporaries」
+	 */
+	public synchronized String getStatistics() {
+		return String.format("%d submits, %.1fMB, %d stalls, %d temporaries",
+				submitCount, uploadedBytes / 1048576.0, stallCount, temporaryCount);
+	}
+
+	/**
+	 * 送信中のものの完了を待ってから解放する（LogicalDeviceのcloseで呼ばれる）
+	 */
+	@Override
+	public synchronized void close() throws Exception {
+		try {
+			finish();
+			reclaim();
+		} finally {
+			ExceptionUtils.close(commandBuffers, commandPool, timeline, ring);
+		}
+	}
+
+	/**
+	 * submitしたもの
+	 */
+	private static class Batch {
+		private final long value;
+		/**
+		 * 完了したら、ここまで再び使える
+		 */
+		private final long end;
+		private final CommandBuffer commandBuffer;
+		private final List<StagingBuffer> temporaries;
+
+		private Batch(long value, long end, CommandBuffer commandBuffer, List<StagingBuffer> temporaries) {
+			this.value = value;
+			this.end = end;
+			this.commandBuffer = commandBuffer;
+			this.temporaries = temporaries;
+		}
+	}
+}
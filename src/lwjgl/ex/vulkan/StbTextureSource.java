@@ -0,0 +1,98 @@
+package lwjgl.ex.vulkan;
+
+import java.nio.ByteBuffer;
+
+import org.lwjgl.stb.STBImage;
+import org.lwjgl.system.MemoryStack;
+
+import static org.lwjgl.system.MemoryUtil.*;
+import static org.lwjgl.vulkan.VK14.*;
+
+/**
+ * stb_imageで展開したTextureSource
+ * 圧縮された画像（PNGなど）をネイティブメモリ上で直接展開するので、Javaのヒープにはコピーしない
+ * https://github.com/nothings/stb/blob/master/stb_image.h
+ */
+public class StbTextureSource implements TextureSource {
+	/**
+	 * stb_imageはRGBAの順で出力する
+	 */
+	public static final int FORMAT = VK_FORMAT_R8G8B8A8_SRGB;
+
+	private ByteBuffer pixels;
+	private int width;
+	private int height;
+
+	private StbTextureSource(ByteBuffer pixels, int width, int height) {
+		this.pixels = pixels;
+		this.width = width;
+		this.height = height;
+	}
+
+	/**
+	 * 圧縮された画像を展開する
+	 * @param compressed 読み込み位置は変更しない
+	 * @return 展開できない形式の場合はnull
+	 */
+	public static StbTextureSource decode(ByteBuffer compressed) {
+		if (!compressed.isDirect()) {
+			// ネイティブメモリのアドレスを渡すため、ヒープの場合は一時的にコピーする
+			var copy = memAlloc(compressed.remaining()).put(compressed.duplicate()).flip();
+			try {
+				return decode(copy);
+			} finally {
+				memFree(copy);
+			}
+		}
+		try (var stack = MemoryStack.stackPush()) {
+			var width = stack.mallocInt(1);
+			var height = stack.mallocInt(1);
+			var channels = stack.mallocInt(1);
+			// 元のチャンネル数に関係なく、RGBAの4チャンネルにする
+			var pixels = STBImage.stbi_load_from_memory(compressed, width, height, channels, Texture.PIXEL_BYTES);
+			if (pixels == null) {
+				return null;
+			}
+			return new StbTextureSource(pixels, width.get(0), height.get(0));
+		}
+	}
+
+	/**
+	 *
+	 * @return 直前のdecodeが失敗した理由
+	 */
+	public static String getFailureReason() {
+		return STBImage.stbi_failure_reason();
+	}
+
+	@Override
+	public int getWidth() {
+		return width;
+	}
+
+	@Override
+	public int getHeight() {
+		return height;
+	}
+
+	@Override
+	public int getFormat() {
+		return FORMAT;
+	}
+
+	@Override
+	public void write(long address) {
+		if (pixels == null) {
+			throw new IllegalStateException("解放済みです");
+		}
+		memCopy(memAddress(pixels), address, getBytes());
+	}
+
+	@Override
+	public void close() {
+		if (pixels != null) {
+			STBImage.stbi_image_free(pixels);
+			pixels = null;
+		}
+	}
+}
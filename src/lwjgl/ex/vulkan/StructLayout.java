@@ -0,0 +1,168 @@
+package lwjgl.ex.vulkan;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * structの各メンバーの、バッファの先頭からのオフセット
+ * メンバーは「local.axis」「lights[2].color」のようなパスで指定する
+ */
+public class StructLayout {
+	private final ShaderType type;
+	private final LayoutRule rule;
+	private final int size;
+	private final Map<String, Member> members = new LinkedHashMap<>();
+
+	/**
+	 *
+	 * @param struct
+	 * @param rule SPIR-Vで指定されていないオフセットとstrideを求める規則
+	 */
+	public StructLayout(ShaderType struct, LayoutRule rule) {
+		if (struct.getKind() != ShaderType.Kind.STRUCT) {
+			throw new IllegalArgumentException("structではありません " + struct);
+		}
+		this.type = struct;
+		this.rule = rule;
+		this.size = rule.size(struct);
+		flatten("", struct, 0);
+	}
+
+	private void flatten(String prefix, ShaderType struct, int base) {
+		var offsets = rule.offsets(struct);
+		var list = struct.getMembers();
+		for (int i = 0; i < offsets.length; ++i) {
+			var member = list.get(i);
+			var path = prefix + member.getName();
+			var memberType = member.getType();
+			var offset = base + offsets[i];
+			members.put(path, new Member(path, memberType, offset, rule.size(memberType)));
+			if (memberType.getKind() == ShaderType.Kind.STRUCT) {
+				flatten(path + ".", memberType, offset);
+			}
+			else if (memberType.getKind() == ShaderType.Kind.ARRAY && memberType.getElement().getKind() == ShaderType.Kind.STRUCT) {
+				var stride = rule.stride(memberType);
+				for (int e = 0; e < memberType.getCount(); ++e) {
+					var elementPath = path + "[" + e + "]";
+					var elementOffset = offset + stride * e;
+					members.put(elementPath, new Member(elementPath, memberType.getElement(), elementOffset, rule.size(memberType.getElement())));
+					flatten(elementPath + ".", memberType.getElement(), elementOffset);
+				}
+			}
+		}
+	}
+
+	/**
+	 *
+	 * @param path
+	 * @return バッファの先頭からのオフセット
+	 * @throws IllegalArgumentException メンバーがない場合
+	 */
+	public int getOffset(String path) {
+		var member = members.get(path);
+		if (member == null) {
+			throw new IllegalArgumentException(type + "にメンバーがありません " + path);
+		}
+		return member.getOffset();
+	}
+
+	/**
+	 *
+	 * @param path
+	 * @return ない場合はnull
+	 */
+	public Member getMember(String path) {
+		return members.get(path);
+	}
+
+	/**
+	 *
+	 * @return 入れ子のものも含めた全てのメンバー（宣言順）
+	 */
+	public Collection<Member> getMembers() {
+		return Collections.unmodifiableCollection(members.values());
+	}
+
+	/**
+	 *
+	 * @return バッファに必要なバイト数
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	public ShaderType getType() {
+		return type;
+	}
+
+	public LayoutRule getRule() {
+		return rule;
+	}
+
+	/**
+	 * Java側で宣言したものと、SPIR-Vから読み取ったものが一致するか確認する
+	 * @param actual SpirvReflectionで読み取ったもの
+	 * @throws IllegalStateException このレイアウトのメンバーのオフセットかサイズが異なる、またはない場合
+	 */
+	public void checkCompatible(StructLayout actual) {
+		var message = new StringBuilder();
+		for (var member : members.values()) {
+			var other = actual.getMember(member.getPath());
+			if (other == null) {
+				message.append("\n").append(member.getPath()).append(" がshaderにありません");
+			}
+			else if (other.getOffset() != member.getOffset() || other.getSize() != member.getSize()) {
+				message.append("\n").append(member.getPath())
+					.append(" offset ").append(member.getOffset()).append(" → ").append(other.getOffset())
+					.append(" size ").append(member.getSize()).append(" → ").append(other.getSize());
+			}
+		}
+		if (actual.getSize() > size) {
+			message.append("\nsize ").append(size).append(" → ").append(actual.getSize());
+		}
+		if (!message.isEmpty()) {
+			throw new IllegalStateException(type + "のレイアウトがshaderと一致しません" + message);
+		}
+	}
+
+	@Override
+	public String toString() {
+		var builder = new StringBuilder(type + " (" + rule + ", " + size + " bytes)");
+		for (var member : members.values()) {
+			builder.append("\n").append(member.getOffset()).append("\t").append(member.getSize()).append("\t").append(member.getPath());
+		}
+		return builder.toString();
+	}
+
+	public static class Member {
+		private final String path;
+		private final ShaderType type;
+		private final int offset;
+		private final int size;
+
+		private Member(String path, ShaderType type, int offset, int size) {
+			this.path = path;
+			this.type = type;
+			this.offset = offset;
+			this.size = size;
+		}
+
+		public String getPath() {
+			return path;
+		}
+
+		public ShaderType getType() {
+			return type;
+		}
+
+		public int getOffset() {
+			return offset;
+		}
+
+		public int getSize() {
+			return size;
+		}
+	}
+}
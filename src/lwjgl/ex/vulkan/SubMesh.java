@@ -0,0 +1,40 @@
+package lwjgl.ex.vulkan;
+
+/**
+ * 1つにまとめたindexのうち、元のメッシュ（AIMesh）1つ分の範囲
+ * マテリアル（画像）を切り替えて描画するために使う
+ */
+public class SubMesh {
+	private int firstIndex;
+	private int indexCount;
+	private int materialIndex;
+
+	/**
+	 *
+	 * @param firstIndex index buffer内の開始位置
+	 * @param indexCount
+	 * @param materialIndex AIMeshのmMaterialIndex
+	 */
+	public SubMesh(int firstIndex, int indexCount, int materialIndex) {
+		this.firstIndex = firstIndex;
+		this.indexCount = indexCount;
+		this.materialIndex = materialIndex;
+	}
+
+	public int getFirstIndex() {
+		return firstIndex;
+	}
+
+	public int getIndexCount() {
+		return indexCount;
+	}
+
+	public int getMaterialIndex() {
+		return materialIndex;
+	}
+
+	@Override
+	public String toString() {
+		return "SubMesh [firstIndex=" + firstIndex + ", indexCount=" + indexCount + ", materialIndex=" + materialIndex + "]";
+	}
+}
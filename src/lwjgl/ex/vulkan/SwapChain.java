@@ -3,9 +3,9 @@ package lwjgl.ex.vulkan;
 import java.awt.Dimension;
 import java.nio.IntBuffer;
 import java.nio.LongBuffer;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.function.Consumer;
@@ -17,6 +17,7 @@ import static org.lwjgl.vulkan.KHRSwapchain.*;
 import static org.lwjgl.vulkan.VK10.VK_NULL_HANDLE;
 
 import org.lwjgl.vulkan.VkExtent2D;
+import org.lwjgl.vulkan.VkSemaphoreCreateInfo;
 import org.lwjgl.vulkan.VkSwapchainCreateInfoKHR;
 
 import motopgi.utils.ExceptionUtils;
@@ -34,13 +35,21 @@ public class SwapChain implements AutoCloseable {
 	private final SwapChainSettings settings;
 	private long handler;
 	private ImageView[] imageViews;
+	/**
+	 * Imageごとの、描画の完了をvkQueuePresentKHRに渡すbinaryのSemaphore
+	 * （同じImageは前回のpresentが終わるまでacquireされないので、Imageごとに持てば待機中に再びsignalしない）
+	 */
+	private long[] presentSemaphores;
 	private int width;
 	private int height;
 
 	private boolean recreating = false;
 	private final ExecutorService threadPool = Executors.newCachedThreadPool();
 	
-	private final List<Consumer<SwapChain>> recreateListeners = new ArrayList<>();
+	/**
+	 * AssetStreamerの転送用スレッドからも追加されるので、CopyOnWriteArrayList
+	 */
+	private final List<Consumer<SwapChain>> recreateListeners = new CopyOnWriteArrayList<>();
 	
 	private ImageView depthImageView;
 	private ImageView msaaColorImageView;
@@ -126,6 +135,14 @@ public class SwapChain implements AutoCloseable {
 					"Swapchainイメージの取得に失敗しました");
 
 			imageViews = ImageView.createArray(imageCount, swapchainImagesBuffer, settings.getImageViewSettings());
+			presentSemaphores = new long[imageCount];
+			var semaphoreInfo = VkSemaphoreCreateInfo.calloc(stack).sType$Default();
+			var forSemaphore = stack.mallocLong(1);
+			for (int i = 0; i < imageCount; ++i) {
+				Vulkan.throwExceptionIfFailed(vkCreateSemaphore(vkDevice, semaphoreInfo, null, forSemaphore),
+						"Semaphoreの作成に失敗しました");
+				presentSemaphores[i] = forSemaphore.get(0);
+			}
 			
 			// createColorResources()
 			// https://docs.vulkan.org/tutorial/latest/10_Multisampling.html#_setting_up_a_render_target
@@ -170,6 +187,15 @@ public class SwapChain implements AutoCloseable {
 		return imageIndexBuffer.get(0);
 	}
 
+	/**
+	 * 
+	 * @param imageIndex acquireNextImageViewで取得したImageViewのgetIndex
+	 * @return そのImageの描画の完了をsignalし、presentで待つSemaphore
+	 */
+	public long getPresentSemaphore(int imageIndex) {
+		return presentSemaphores[imageIndex];
+	}
+
 	public int getWidth() {
 		return width;
 	}
@@ -226,6 +252,12 @@ public class SwapChain implements AutoCloseable {
 		try {
 			ExceptionUtils.close(imageViews, msaaColorImageView, depthImageView);
 		} finally {
+			if (presentSemaphores != null) {
+				for (var semaphore : presentSemaphores) {
+					vkDestroySemaphore(settings.getLogicalDevice().getDevice(), semaphore, null);
+				}
+				presentSemaphores = null;
+			}
 			vkDestroySwapchainKHR(settings.getLogicalDevice().getDevice(), handler, null);
 			handler = VK_NULL_HANDLE;
 		}
@@ -250,6 +282,15 @@ public class SwapChain implements AutoCloseable {
 		return recreateListeners.add(listener);
 	}
 	
+	/**
+	 * 
+	 * @param listener addRecreateListenerに渡したもの
+	 * @return 登録されていた場合true
+	 */
+	public boolean removeRecreateListener(Consumer<SwapChain> listener) {
+		return recreateListeners.remove(listener);
+	}
+	
 
 	public ImageView getMsaaColorImageView() {
 		return msaaColorImageView;
@@ -0,0 +1,68 @@
+package lwjgl.ex.vulkan;
+
+import org.lwjgl.assimp.AITexel;
+import org.lwjgl.assimp.AITexture;
+
+import static org.lwjgl.system.MemoryUtil.*;
+import static org.lwjgl.vulkan.VK14.*;
+
+/**
+ * Assimpに非圧縮で埋め込まれたテクスチャ（aiTexture::mHeight != 0）のTextureSource
+ * aiTexelはBGRAの順なので、展開せずにpcDataから1回のmemCopyでステージングバッファに送る
+ * https://the-asset-importer-lib-documentation.readthedocs.io/en/latest/usage/use_the_lib.html#textures
+ *
+ * AISceneのメモリを参照しているので、AISceneの解放前にTextureを作成すること
+ */
+public class TexelTextureSource implements TextureSource {
+	/**
+	 * aiTexelはb, g, r, aの順
+	 */
+	public static final int FORMAT = VK_FORMAT_B8G8R8A8_SRGB;
+
+	private final long address;
+	private final int width;
+	private final int height;
+
+	/**
+	 *
+	 * @param texture mHeightが0でないもの
+	 */
+	public TexelTextureSource(AITexture texture) {
+		if (texture.mHeight() == 0) {
+			throw new IllegalArgumentException("圧縮されたTextureです");
+		}
+		if (AITexel.SIZEOF != Texture.PIXEL_BYTES) {
+			throw new IllegalStateException("aiTexelのサイズが想定と異なります " + AITexel.SIZEOF);
+		}
+		width = texture.mWidth();
+		height = texture.mHeight();
+		address = texture.pcData().address();
+	}
+
+	@Override
+	public int getWidth() {
+		return width;
+	}
+
+	@Override
+	public int getHeight() {
+		return height;
+	}
+
+	@Override
+	public int getFormat() {
+		return FORMAT;
+	}
+
+	@Override
+	public void write(long address) {
+		memCopy(this.address, address, getBytes());
+	}
+
+	/**
+	 * AISceneのメモリなので、何もしない
+	 */
+	@Override
+	public void close() {
+	}
+}
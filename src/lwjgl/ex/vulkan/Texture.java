@@ -3,6 +3,8 @@ package lwjgl.ex.vulkan;
 
 import org.lwjgl.system.MemoryStack;
 import org.lwjgl.vulkan.VkBufferImageCopy;
+import org.lwjgl.vulkan.VkCommandBuffer;
+import org.lwjgl.vulkan.VkDependencyInfo;
 import org.lwjgl.vulkan.VkDescriptorBufferInfo;
 import org.lwjgl.vulkan.VkDescriptorImageInfo;
 import org.lwjgl.vulkan.VkExtent3D;
@@ -17,6 +19,7 @@ import static org.lwjgl.vulkan.VK10.VK_SAMPLE_COUNT_1_BIT;
 import static org.lwjgl.vulkan.VK14.*;
 
 import java.awt.image.BufferedImage;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static lwjgl.ex.vulkan.VulkanConstants.*;
 import static lwjgl.ex.vulkan.ImageViewSettings.*;
@@ -24,71 +27,99 @@ import static lwjgl.ex.vulkan.StagingBufferSettings.*;
 
 public class Texture implements AutoCloseable {
 	/**
-	 * おそらくARGB分で4バイト
+	 * RGBA（またはBGRA）で4バイト
 	 */
 	public static final int PIXEL_BYTES = 4;
 	
-	private StagingBuffer textureBuffer;
-	private CommandBuffer commandBuffer;
 	private ImageView textureImageView;
 	
-	private BufferedImage image;
+	private int width;
+	private int height;
+	private long bytes;
 	private LogicalDevice logicalDevice;
 	
 	private Handler imageHandler;
 	
+	/**
+	 * TextureCacheで共有する場合の参照数（最後のcloseで解放する）
+	 */
+	private final AtomicInteger references = new AtomicInteger(1);
+	/**
+	 * 解放時にTextureCacheから削除する
+	 */
+	private Runnable releaseListener;
+	
 	
 	public Texture(BufferedImage image, LogicalDevice logicalDevice, CommandPool commandPool, Queue queue, UniformBufferObject uniformObject) {
-		this.image = image;
+		this(new AwtTextureSource(image), logicalDevice, commandPool, queue, uniformObject);
+	}
+	
+	/**
+	 * コピーはLogicalDeviceのStagingRingに記録するだけなので、描画に使う前にStagingRing.submitを呼ぶ
+	 * （AssimpUtils.uploadTexturesでは呼ばれる）
+	 * @param source closeは呼び出し側で行う
+	 * @param logicalDevice
+	 * @param commandPool 未使用（StagingRingのものを使う）
+	 * @param queue 未使用（StagingRingのものを使う）
+	 * @param uniformObject
+	 */
+	public Texture(TextureSource source, LogicalDevice logicalDevice, CommandPool commandPool, Queue queue, UniformBufferObject uniformObject) {
 		this.logicalDevice = logicalDevice;
-		commandBuffer = new CommandBuffer(new CommandBufferSettings(commandPool));
-		
-		// 画像のピクセルデータと、Imageのインスタンスは別々に送らなければいけないらしい
-		var bufferSettings = new StagingBufferSettings(logicalDevice, buffer -> {
-			AssimpUtils.writeImageToPointer(image, buffer);
-		});
-		bufferSettings.setSize(AssimpUtils.calcSize(image));
-		
-
-		bufferSettings.setType(BufferType.TEXTURE);
 		
-		// 保留
-		// VK_BUFFER_USAGE_2_TRANSFER_SRC_BIT
-//		bufferSettings.setUsage(VK_BUFFER_USAGE_TRANSFER_SRC_BIT);
-		
-		// これは遅いらしいが、動作確認のため一旦こうする
-		bufferSettings.setDestinationMemoryPropertyFlags(MEMORY_PROPERTY_FLAGS_VISIBLE);
+		if (!logicalDevice.getPhysicalDevice().isSampledImageFormatSupported(source.getFormat())) {
+			// BCnなどに対応していないデバイスでは、CPUで展開してから送る
+			try (var decompressed = source.decompress()) {
+				upload(decompressed);
+			}
+		}
+		else if (source.getMipLevels() == 1 && MipmapGenerator.isSupported(source.getFormat())) {
+			// ミップマップが含まれていない場合は、ここで生成する
+			// （AssimpUtils.readTexturesの場合は、展開と同じスレッドで生成済み）
+			try (var mipmaps = MipmapGenerator.generate(source)) {
+				upload(mipmaps);
+			}
+		}
+		else {
+			upload(source);
+		}
+	}
+	
+	private void upload(TextureSource source) {
+		width = source.getWidth();
+		height = source.getHeight();
+		bytes = source.getBytes();
 		
-		textureBuffer = new StagingBuffer(bufferSettings);
-
 		// createImage(texWidth, texHeight, （フォーマットはJavaの都合上、チュートリアルと変更）, vk::ImageTiling::eOptimal, vk::ImageUsageFlagBits::eTransferDst | vk::ImageUsageFlagBits::eSampled, vk::MemoryPropertyFlagBits::eDeviceLocal, textureImage, textureImageMemory);
-		// vkCmdBlitImageこれは転送操作とみなされるため、テクスチャイメージを転送元と転送先の両方として使用することをVulkanに通知する必要がある
-		// https://docs.vulkan.org/tutorial/latest/09_Generating_Mipmaps.html#_generating_mipmaps
-		var imageSettings = new ImageSettings(logicalDevice, image, VK_IMAGE_USAGE_TRANSFER_SRC_BIT | VK_IMAGE_USAGE_TRANSFER_DST_BIT | VK_IMAGE_USAGE_SAMPLED_BIT);
-		imageSettings.setMipLevels(ImageView.calcMipLevel(image));
+		// ミップマップはCPUで生成済みなので、blitは使わずに全段をそのまま送る
+		var imageSettings = new ImageSettings(logicalDevice, width, height, source.getFormat(), VK_IMAGE_USAGE_TRANSFER_DST_BIT | VK_IMAGE_USAGE_SAMPLED_BIT);
+		imageSettings.setMipLevels(source.getMipLevels());
 		
 		// マルチサンプル環境でも、テクスチャのサンプル数は1
 		imageSettings.setSamples(VK_SAMPLE_COUNT_1_BIT);
 		
 		imageHandler = ImageView.createImage(imageSettings);
 		
+		// 画像のピクセルデータと、Imageのインスタンスは別々に送らなければいけないらしい
+		// StagingRingのマップされたメモリに直接書き込み、layoutの遷移とコピーを記録する
+		logicalDevice.getStagingRing().upload(source.getBytes(), StagingRing.DEFAULT_ALIGNMENT, source::write, (commandBuffer, buffer, offset) -> {
+			try (var stack = MemoryStack.stackPush()) {
+				transitionImageLayout(commandBuffer, VK_IMAGE_LAYOUT_UNDEFINED, VK_IMAGE_LAYOUT_TRANSFER_DST_OPTIMAL, imageSettings.getMipLevels(), stack);
+				copyBufferToImage(commandBuffer, source, buffer, offset, stack);
+				transitionImageLayout(commandBuffer, VK_IMAGE_LAYOUT_TRANSFER_DST_OPTIMAL, VK_IMAGE_LAYOUT_SHADER_READ_ONLY_OPTIMAL, imageSettings.getMipLevels(), stack);
+			}
+		});
+		
+		// createImageView
+		var textureImageViewSettings = new ImageViewSettings(logicalDevice, imageSettings);
+		textureImageViewSettings.setFormat(imageSettings.getFormat());
+		textureImageViewSettings.setImageHandler(imageHandler.getHandler());
+		textureImageView = new ImageView(textureImageViewSettings);
 		
-		try(var stack = MemoryStack.stackPush()) {
-			// まとめてsubmitできないのか？
-			transitionImageLayout(VK_IMAGE_LAYOUT_UNDEFINED, VK_IMAGE_LAYOUT_TRANSFER_DST_OPTIMAL, queue, imageSettings.getMipLevels(), stack);
-			copyBufferToImage(stack, queue);
-			ImageView.generateMipmaps(imageHandler, image, ImageViewSettings.DEFAULT_FORMAT, imageSettings.getMipLevels(), logicalDevice, commandBuffer, queue);
-			
-			// createImageView
-			var textureImageViewSettings = new ImageViewSettings(logicalDevice, imageSettings);
-	        textureImageViewSettings.setImageHandler(imageHandler.getHandler());
-	        textureImageView = new ImageView(textureImageViewSettings);
-	        
-	        
-	        // ここでやることでない可能性が高い、現在は不明
-	        // テクスチャが複数あるとバグる可能性大
+		
+		// ここでやることでない可能性が高い、現在は不明
+		// テクスチャが複数あるとバグる可能性大
 	     // ここでやらなくてよくなったはず
-	        
+		
 //	     // https://docs.vulkan.org/tutorial/latest/_attachments/28_model_loading.cpp
 //	        var descriptorImageInfo = VkDescriptorImageInfo.calloc(1, stack)
 //	        	.sampler(pipelineHelper.getSettings().getSampler().getHandler())
@@ -98,8 +129,8 @@ public class Texture implements AutoCloseable {
 //	        var descriptorBufferInfo = VkDescriptorBufferInfo.calloc(1, stack)
 //	        		.buffer(uniformObject.getBuffer().getHandler())
 //	        		.range(UniformBufferObject.BYTES);
-	        
-	        
+		
+		
 //	        var descriptorSetBuffer = VkWriteDescriptorSet.calloc(pipelineHelper.getDescriptorCount(), stack).sType$Default();
 //	        var shaderSettings = descriptionHelper.getShaderSettings();
 //	        for(int i = 0; i < descriptionHelper.getDescriptorCount(); ++i) {
@@ -120,12 +151,13 @@ public class Texture implements AutoCloseable {
 //	        }
 //	        
 //	        vkUpdateDescriptorSets(logicalDevice.getDevice(), descriptorSetBuffer, null);
-		}
 	}
 	
 	
-	private void transitionImageLayout(int oldLayout, int newLayout, Queue queue, int mipLevels, MemoryStack stack) {
-		commandBuffer.begin();
+	/**
+	 * commandBufferに記録する（submitは呼び出し側で行う）
+	 */
+	private void transitionImageLayout(VkCommandBuffer commandBuffer, int oldLayout, int newLayout, int mipLevels, MemoryStack stack) {
 		// 参考
 		// https://docs.vulkan.org/tutorial/latest/_attachments/28_model_loading.cpp
 		var barrier = VkImageMemoryBarrier2.calloc(1, stack).sType$Default()
@@ -150,37 +182,91 @@ public class Texture implements AutoCloseable {
 		else {
 			throw new IllegalArgumentException("不明なlayout遷移です");
 		}
-		commandBuffer.transitionImageLayout(barrier);
-		commandBuffer.submit(stack, queue);
+		vkCmdPipelineBarrier2(commandBuffer, VkDependencyInfo.calloc(stack).sType$Default().pImageMemoryBarriers(barrier));
 	}
 	
-	private void copyBufferToImage(MemoryStack stack, Queue queue)
+	/**
+	 * 
+	 * commandBufferに記録する（submitは呼び出し側で行う）
+	 * @param commandBuffer
+	 * @param source 含まれている全levelを、1回のコピーで送る
+	 * @param buffer sourceを書き込んだBuffer
+	 * @param offset bufferの中の、sourceの先頭
+	 * @param stack
+	 */
+	private void copyBufferToImage(VkCommandBuffer commandBuffer, TextureSource source, long buffer, long offset, MemoryStack stack)
 	{
-		commandBuffer.begin();
-		var region = VkBufferImageCopy.calloc(1, stack)
-			.bufferOffset(DEFAULT_LONG_OFFSETS)
-			// 不明、0で良いのか？
-			.bufferRowLength(0)
-			.bufferImageHeight(0)
-			.imageSubresource(VkImageSubresourceLayers.calloc(stack)
-					.aspectMask(VK_IMAGE_ASPECT_COLOR_BIT)
-					 .mipLevel(DEFAULT_BASE_MIP_LEVEL)
-					.baseArrayLayer(DEFAULT_BASE_ARRAY_LAYER)
-					.layerCount(DEFAULT_LAYER_COUNT)
-					)
-			.imageOffset(DEFAULT_OFFSET_3D)
-		    .imageExtent(VkExtent3D.calloc(stack).set(image.getWidth(), image.getHeight(), 1))
-		    ;
+		var regions = VkBufferImageCopy.calloc(source.getMipLevels(), stack);
+		for (int level = 0; level < source.getMipLevels(); ++level) {
+			regions.get(level)
+				.bufferOffset(offset + source.getLevelOffset(level))
+				// 0の場合は、imageExtentで詰めて並んでいる扱い
+				.bufferRowLength(0)
+				.bufferImageHeight(0)
+				.imageSubresource(VkImageSubresourceLayers.calloc(stack)
+						.aspectMask(VK_IMAGE_ASPECT_COLOR_BIT)
+						.mipLevel(level)
+						.baseArrayLayer(DEFAULT_BASE_ARRAY_LAYER)
+						.layerCount(DEFAULT_LAYER_COUNT)
+						)
+				.imageOffset(DEFAULT_OFFSET_3D)
+			    .imageExtent(VkExtent3D.calloc(stack).set(TextureSource.toLevelSize(width, level), TextureSource.toLevelSize(height, level), 1))
+			    ;
+		}
 		
-		commandBuffer.copyBufferToImage(textureBuffer, imageHandler.getHandler(), VK_IMAGE_LAYOUT_TRANSFER_DST_OPTIMAL, region);
-		commandBuffer.submit(stack, queue);
+		vkCmdCopyBufferToImage(commandBuffer, buffer, imageHandler.getHandler(), VK_IMAGE_LAYOUT_TRANSFER_DST_OPTIMAL, regions);
 	}
 
 
+	/**
+	 * 参照を増やす（TextureCache用）
+	 * @return 既に解放が始まっている場合はfalse
+	 */
+	boolean retain() {
+		var count = references.get();
+		while (count > 0) {
+			if (references.compareAndSet(count, count + 1)) {
+				return true;
+			}
+			count = references.get();
+		}
+		return false;
+	}
+	
+	void setReleaseListener(Runnable releaseListener) {
+		this.releaseListener = releaseListener;
+	}
+
+
+	/**
+	 * 参照を減らし、最後の参照の場合は解放する
+	 */
 	@Override
 	public void close() throws Exception {
-		var device = logicalDevice.getDevice();
-		ExceptionUtils.close(textureImageView, imageHandler, commandBuffer, textureBuffer);
+		if (references.decrementAndGet() != 0) {
+			return;
+		}
+		try {
+			ExceptionUtils.close(textureImageView, imageHandler);
+		} finally {
+			if (releaseListener != null) {
+				releaseListener.run();
+			}
+		}
+	}
+
+
+	/**
+	 * 
+	 * @return 全段のバイト数（ModelCacheの容量の計算用）
+	 */
+	public long getBytes() {
+		return bytes;
+	}
+
+
+	public LogicalDevice getLogicalDevice() {
+		return logicalDevice;
 	}
 
 
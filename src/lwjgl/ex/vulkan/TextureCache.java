@@ -0,0 +1,122 @@
+package lwjgl.ex.vulkan;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import motopgi.utils.HashUtils;
+
+/**
+ * 同じ画像（ファイルの内容が同じもの）から作成したTextureを、プロセス全体で共有する
+ * 複数のモデルが同じアトラスを参照していても、Texture（ImageView）は1つだけ作成する
+ *
+ * Textureは参照カウントを持ち、最後のcloseでキャッシュから削除される
+ */
+public final class TextureCache {
+
+	/**
+	 * LogicalDeviceごとに、内容のハッシュからTexture
+	 */
+	private static final Map<LogicalDevice, Map<String, Texture>> TEXTURES = new IdentityHashMap<>();
+
+	private static long hitCount;
+	private static long missCount;
+
+	private TextureCache() {
+	}
+
+	/**
+	 * 画像の内容のハッシュ（展開前のPNGやKTX2のバイト列から求める）
+	 * @param compressed 読み込み位置は変更しない
+	 * @return
+	 */
+	public static String hash(ByteBuffer compressed) {
+		return HashUtils.hash(compressed);
+	}
+
+	/**
+	 * キャッシュされたTextureの参照を増やして取得する
+	 * @param logicalDevice
+	 * @param hash
+	 * @return ない場合はnull。closeは呼び出し側で行う
+	 */
+	public static synchronized Texture acquire(LogicalDevice logicalDevice, String hash) {
+		var texture = retain(logicalDevice, hash);
+		if (texture == null) {
+			++missCount;
+		}
+		else {
+			++hitCount;
+		}
+		return texture;
+	}
+
+	private static Texture retain(LogicalDevice logicalDevice, String hash) {
+		var textures = TEXTURES.get(logicalDevice);
+		var texture = textures == null ? null : textures.get(hash);
+		// 別のスレッドで最後のcloseが始まっている場合は、使えない
+		if (texture == null || !texture.retain()) {
+			return null;
+		}
+		return texture;
+	}
+
+	/**
+	 * 作成したTextureを登録する
+	 * @param hash
+	 * @param texture 既に同じハッシュのものがある場合はcloseする
+	 * @return 登録されているTexture。closeは呼び出し側で行う
+	 */
+	public static Texture register(String hash, Texture texture) {
+		var logicalDevice = texture.getLogicalDevice();
+		Texture existing;
+		synchronized (TextureCache.class) {
+			existing = retain(logicalDevice, hash);
+			if (existing == null) {
+				TEXTURES.computeIfAbsent(logicalDevice, device -> new HashMap<>()).put(hash, texture);
+				texture.setReleaseListener(() -> remove(logicalDevice, hash, texture));
+				return texture;
+			}
+		}
+		// 並列に読み込んだ場合など、同じものが先に登録されていた
+		try {
+			texture.close();
+		} catch (Exception e) {
+			throw new RuntimeException("Textureの解放に失敗しました", e);
+		}
+		return existing;
+	}
+
+	private static synchronized void remove(LogicalDevice logicalDevice, String hash, Texture texture) {
+		var textures = TEXTURES.get(logicalDevice);
+		// 同じハッシュで作り直されている場合は削除しない
+		if (textures != null && textures.remove(hash, texture) && textures.isEmpty()) {
+			TEXTURES.remove(logicalDevice);
+		}
+	}
+
+	/**
+	 *
+	 * @return キャッシュされているTextureの数（全LogicalDevice）
+	 */
+	public static synchronized int size() {
+		return TEXTURES.values().stream().mapToInt(Map::size).sum();
+	}
+
+	/**
+	 *
+	 * @return acquireで取得できた回数
+	 */
+	public static synchronized long getHitCount() {
+		return hitCount;
+	}
+
+	/**
+	 *
+	 * @return acquireで取得できなかった回数（展開が必要だった回数）
+	 */
+	public static synchronized long getMissCount() {
+		return missCount;
+	}
+}
@@ -0,0 +1,98 @@
+package lwjgl.ex.vulkan;
+
+import static org.lwjgl.vulkan.VK14.*;
+
+/**
+ * テクスチャのブロック圧縮（BCn）の形式
+ * 4x4ピクセルを1ブロックとして、固定のバイト数に圧縮する
+ * https://learn.microsoft.com/ja-jp/windows/win32/direct3d11/texture-block-compression-in-direct3d-11
+ */
+public enum TextureCompression {
+	/**
+	 * RGBのみ、8バイト（1ピクセル0.5バイト）
+	 */
+	BC1(VK_FORMAT_BC1_RGB_SRGB_BLOCK, 8, 128),
+
+	/**
+	 * RGBA、16バイト（アルファはBC4と同じ形式）
+	 */
+	BC3(VK_FORMAT_BC3_SRGB_BLOCK, 16, 130),
+
+	/**
+	 * RGBA、16バイト（BC3より高品質。エンコードはモード6のみ）
+	 */
+	BC7(VK_FORMAT_BC7_SRGB_BLOCK, 16, 134);
+
+	/**
+	 * 1ブロックの1辺のピクセル数
+	 */
+	public static final int BLOCK_SIZE = 4;
+
+	/**
+	 * 1ブロックのピクセル数
+	 */
+	public static final int BLOCK_PIXELS = BLOCK_SIZE * BLOCK_SIZE;
+
+	private final int format;
+	private final int blockBytes;
+	private final int colorModel;
+
+	private TextureCompression(int format, int blockBytes, int colorModel) {
+		this.format = format;
+		this.blockBytes = blockBytes;
+		this.colorModel = colorModel;
+	}
+
+	/**
+	 *
+	 * @param format vk::Format
+	 * @return 対応していない形式の場合はnull
+	 */
+	public static TextureCompression fromFormat(int format) {
+		for (var compression : values()) {
+			if (compression.format == format) {
+				return compression;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 *
+	 * @return vk::Format
+	 */
+	public int getFormat() {
+		return format;
+	}
+
+	public int getBlockBytes() {
+		return blockBytes;
+	}
+
+	/**
+	 * KTX2のData Format DescriptorのcolorModel（KHR_DF_MODEL_BC〜）
+	 * @return
+	 */
+	public int getColorModel() {
+		return colorModel;
+	}
+
+	/**
+	 *
+	 * @param width
+	 * @param height
+	 * @return 圧縮後のバイト数
+	 */
+	public long calcBytes(int width, int height) {
+		return (long) blockBytes * toBlockCount(width) * toBlockCount(height);
+	}
+
+	/**
+	 *
+	 * @param pixels
+	 * @return 端数のブロックも含めた数
+	 */
+	public static int toBlockCount(int pixels) {
+		return (pixels + BLOCK_SIZE - 1) / BLOCK_SIZE;
+	}
+}
@@ -0,0 +1,74 @@
+package lwjgl.ex.vulkan;
+
+/**
+ * Textureの元になる、展開済みのピクセルデータ
+ * （展開方法ごとに、ステージングバッファへの書き込み方が異なるため）
+ *
+ * closeはTextureの作成後に呼び出し側で行う（Textureはピクセルデータを保持しない）
+ */
+public interface TextureSource extends AutoCloseable {
+	public int getWidth();
+	public int getHeight();
+
+	/**
+	 * vk::Format
+	 * @return
+	 */
+	public int getFormat();
+
+	/**
+	 *
+	 * @return 1の場合は、Texture側でミップマップを生成する
+	 */
+	default int getMipLevels() {
+		return 1;
+	}
+
+	/**
+	 *
+	 * @param level
+	 * @return writeで書き込む位置のうち、levelの先頭（デフォルトは1ピクセルPIXEL_BYTESで、levelの順に詰める）
+	 */
+	default long getLevelOffset(int level) {
+		long offset = 0;
+		for (int l = 0; l < level; ++l) {
+			offset += (long) Texture.PIXEL_BYTES * toLevelSize(getWidth(), l) * toLevelSize(getHeight(), l);
+		}
+		return offset;
+	}
+
+	/**
+	 *
+	 * @return writeで書き込むバイト数
+	 */
+	default long getBytes() {
+		return getLevelOffset(getMipLevels());
+	}
+
+	/**
+	 * ピクセルデータを書き込む
+	 * @param address マップされたメモリのアドレス。getBytes分の領域があること
+	 */
+	public void write(long address);
+
+	/**
+	 * デバイスがgetFormatに対応していない場合に、CPUで展開する
+	 * @return closeは呼び出し側で行う
+	 */
+	default TextureSource decompress() {
+		throw new IllegalStateException("CPUでの展開に対応していないフォーマットです " + getFormat());
+	}
+
+	@Override
+	public void close();
+
+	/**
+	 *
+	 * @param size level 0 の幅または高さ
+	 * @param level
+	 * @return
+	 */
+	public static int toLevelSize(int size, int level) {
+		return Math.max(1, size >> level);
+	}
+}
@@ -49,17 +49,32 @@ public class TimelineSemaphore implements AutoCloseable {
 	
 	
 	public void submit(CommandBuffer commandBuffer, Queue queue, IntBuffer waitDestinationStageMask, MemoryStack stack) {
+		submit(commandBuffer, queue, waitDestinationStageMask, MemoryUtil.NULL, stack);
+	}
+	
+	/**
+	 * 完了時に、binaryのSemaphoreも一緒にsignalする
+	 * （vkQueuePresentKHRはTimelineSemaphoreを待てないため）
+	 * @param commandBuffer
+	 * @param queue
+	 * @param waitDestinationStageMask
+	 * @param binarySemaphore signalしない場合はVK_NULL_HANDLE
+	 * @param stack
+	 */
+	public void submit(CommandBuffer commandBuffer, Queue queue, IntBuffer waitDestinationStageMask, long binarySemaphore, MemoryStack stack) {
 		// LWJGLの設計ミスによりBufferを用意しなければならない
 		var waitSemaphoreValue = stack.mallocLong(1);
-		var signalSemaphoreValue = stack.mallocLong(1);
 		
 		// timelineの順番通りに設定（前のsignal = 次のwait）
 		waitSemaphoreValue.put(FIRST_INDEX, timeline);
-		signalSemaphoreValue.put(FIRST_INDEX, ++timeline);
+		++timeline;
+		// binaryの方の値は無視される
+		var signalSemaphoreValue = binarySemaphore == MemoryUtil.NULL ? stack.longs(timeline) : stack.longs(timeline, 0);
+		var signalSemaphores = binarySemaphore == MemoryUtil.NULL ? forHandler : stack.longs(forHandler.get(0), binarySemaphore);
 		var timelineInfo = VkTimelineSemaphoreSubmitInfo.calloc(stack).sType$Default()
 				// 1以外の場合があるのか不明
 				.waitSemaphoreValueCount(1)
-				.signalSemaphoreValueCount(1)
+				.signalSemaphoreValueCount(signalSemaphoreValue.remaining())
 				
 				.pWaitSemaphoreValues(waitSemaphoreValue)
 				.pSignalSemaphoreValues(signalSemaphoreValue);
@@ -71,10 +86,10 @@ public class TimelineSemaphore implements AutoCloseable {
 				.pWaitSemaphores(forHandler)
 				.pWaitDstStageMask(waitDestinationStageMask)
 				.pCommandBuffers(commandBuffer.getPointer())
-				.pSignalSemaphores(forHandler);
+				.pSignalSemaphores(signalSemaphores);
 		
 		// Vulkanの設計ミスにより、Fenceなしのオーバーロードがない
-		Vulkan.throwExceptionIfFailed(vkQueueSubmit(queue.getVkQueue(), submitInfo, MemoryUtil.NULL), "TimelineSemaphoreがQueueへのコマンドの送信に失敗しました");
+		queue.submit(submitInfo, MemoryUtil.NULL);
 	}
 
 	@Override
@@ -109,4 +124,37 @@ public class TimelineSemaphore implements AutoCloseable {
 		Vulkan.throwExceptionIfFailed(vkWaitSemaphores(logicalDevice.getDevice(), info, Long.MAX_VALUE),
 				"vkWaitSemaphoresに失敗しました");
 	}
+
+	/**
+	 * 指定した値になるまで待つ（StagingRingなど、submitを自分で行う場合）
+	 * @param value
+	 * @param stack
+	 */
+	public void waitSemaphore(long value, MemoryStack stack) {
+		var info = VkSemaphoreWaitInfo.calloc(stack).sType$Default()
+				.semaphoreCount(1)
+				.pSemaphores(forHandler)
+				.pValues(stack.longs(value))
+				;
+		
+		Vulkan.throwExceptionIfFailed(vkWaitSemaphores(logicalDevice.getDevice(), info, Long.MAX_VALUE),
+				"vkWaitSemaphoresに失敗しました");
+	}
+	
+	/**
+	 * 
+	 * @return GPUがsignalした最新の値（待たない）
+	 */
+	public long getCounterValue() {
+		try (var stack = MemoryStack.stackPush()) {
+			var forValue = stack.mallocLong(1);
+			Vulkan.throwExceptionIfFailed(vkGetSemaphoreCounterValue(logicalDevice.getDevice(), forHandler.get(0), forValue),
+					"vkGetSemaphoreCounterValueに失敗しました");
+			return forValue.get(0);
+		}
+	}
+	
+	public long getHandler() {
+		return forHandler.get(0);
+	}
 }
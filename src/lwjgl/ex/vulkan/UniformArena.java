@@ -0,0 +1,266 @@
+package lwjgl.ex.vulkan;
+
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.LongConsumer;
+
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.vulkan.VkDescriptorBufferInfo;
+import org.lwjgl.vulkan.VkWriteDescriptorSet;
+
+import static lwjgl.ex.vulkan.StagingBufferSettings.*;
+
+/**
+ * 同時に処理するフレーム（maxInFlight）ごとに領域を分けた、マップしたままのUniformBuffer
+ * LogicalDeviceで自動生成される
+ *
+ * 1フレーム分の領域をBuddyAllocatorでオブジェクトごとに分け、それをフレームの数だけ並べる
+ * オブジェクトはupdateで変更を知らせるだけで、書き込みはbeginFrameでそのフレームの領域にだけ行う
+ * （GPUが読んでいる他のフレームの領域は書き換えないので、vkDeviceWaitIdleで待つ必要がない）
+ * DescriptorはVK_DESCRIPTOR_TYPE_UNIFORM_BUFFER_DYNAMICで、位置（フレーム + オブジェクト）はvkCmdBindDescriptorSetsで渡す
+ */
+public class UniformArena implements AutoCloseable {
+	public static final long DEFAULT_FRAME_BYTES = 256L * 1024;
+	/**
+	 * BuddyAllocatorの最小の割り当て単位（minUniformBufferOffsetAlignmentの方が大きい場合はそちら）
+	 */
+	public static final long MIN_ALLOCATION_BYTES = 64;
+
+	private final int frameCount;
+	private final long frameBytes;
+	private final BuddyAllocator buddy;
+	private final StagingBuffer buffer;
+	private final long address;
+	private final List<Allocation> allocations = new ArrayList<>();
+	private int currentFrame;
+
+	private long copyCount;
+	private long copiedBytes;
+
+	/**
+	 * インスタンス生成
+	 * （LogicalDeviceで自動生成されるため、基本的に作る必要はない）
+	 * @param logicalDevice
+	 * @param frameCount RenderSettings.getMaxInFlight以上
+	 * @param frameBytes 1フレーム分のバイト数（2のべき乗）
+	 */
+	public UniformArena(LogicalDevice logicalDevice, int frameCount, long frameBytes) {
+		var unit = Math.max(logicalDevice.getPhysicalDevice().getMinUniformBufferOffsetAlignment(), MIN_ALLOCATION_BYTES);
+		if (frameCount < 1) {
+			throw new IllegalArgumentException("UniformArenaのフレーム数は1以上にしてください " + frameCount);
+		}
+		// dynamic offsetはuint32_t
+		if (Long.bitCount(frameBytes) != 1 || frameBytes < unit || frameBytes * frameCount > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("UniformArenaの1フレーム分のバイト数が不正です " + frameBytes);
+		}
+		this.frameCount = frameCount;
+		this.frameBytes = frameBytes;
+		buddy = new BuddyAllocator(frameBytes, unit);
+
+		var settings = new StagingBufferSettings(logicalDevice, pointer -> {});
+		settings.setSize(frameBytes * frameCount);
+		settings.setType(BufferType.UNIFORM_DYNAMIC);
+		// HOST_COHERENTでない場合は、beginFrameで書き込んだ範囲だけQueueのsubmitでflushされる
+		settings.setDestinationMemoryPropertyFlags(MEMORY_PROPERTY_FLAGS_HOST);
+		settings.setPreferredMemoryPropertyFlags(MEMORY_PROPERTY_FLAGS_CACHED);
+		buffer = new StagingBuffer(settings);
+		address = buffer.getAllocation().map();
+	}
+
+	/**
+	 * オブジェクト1つ分の領域を割り当てる
+	 * @param size
+	 * @param write beginFrameで、書き込むアドレスを受け取る（updateを呼ぶまで、フレームごとに1回だけ）
+	 * @return
+	 * @throws IllegalStateException 空きがない場合
+	 */
+	public synchronized Allocation allocate(long size, LongConsumer write) {
+		var offset = buddy.allocate(size, buddy.getMinBytes());
+		if (offset == BuddyAllocator.FAILED) {
+			throw new IllegalStateException("UniformArenaに空きがありません（LogicalDeviceSettings.setUniformFrameBytesで増やす） " + size);
+		}
+		var allocation = new Allocation(offset, size, write);
+		allocations.add(allocation);
+		return allocation;
+	}
+
+	/**
+	 * そのフレームの領域に、updateされたものを書き込む
+	 * そのフレームの前回のsubmitの完了を待ってから、記録の前に呼ぶ（FrameRenderで呼ばれる）
+	 * @param frame 0 〜 getFrameCount() - 1
+	 */
+	public synchronized void beginFrame(int frame) {
+		if (frame < 0 || frame >= frameCount) {
+			throw new IllegalArgumentException("UniformArenaのフレーム数を超えています " + frame);
+		}
+		currentFrame = frame;
+		var base = address + frame * frameBytes;
+		for (var allocation : allocations) {
+			if (allocation.written[frame] != allocation.version) {
+				allocation.write.accept(base + allocation.offset);
+				buffer.markDirty(frame * frameBytes + allocation.offset, allocation.size);
+				allocation.written[frame] = allocation.version;
+				++copyCount;
+				copiedBytes += allocation.size;
+			}
+		}
+	}
+
+	public int getFrameCount() {
+		return frameCount;
+	}
+
+	public long getFrameBytes() {
+		return frameBytes;
+	}
+
+	public synchronized int getCurrentFrame() {
+		return currentFrame;
+	}
+
+	public synchronized int getAllocationCount() {
+		return allocations.size();
+	}
+
+	/**
+	 *
+	 * @return 1フレーム分のうち、割り当てたバイト数
+	 */
+	public synchronized long getUsedBytes() {
+		return buddy.getUsedBytes();
+	}
+
+	/**
+	 *
+	 * @return beginFrameで書き込んだ回数（updateされていないものは書き込まない）
+	 */
+	public synchronized long getCopyCount() {
+		return copyCount;
+	}
+
+	public synchronized long getCopiedBytes() {
+		return copiedBytes;
+	}
+
+	/**
+	 *
+	 * @return 例：「3 objects, 0.8/256.0KB x 2 frames, 6 copies (0.6KB)」
+	 */
+	public synchronized String getStatistics() {
+		return String.format("%d objects, %.1f/%.1fKB x %d frames, %d copies (%.1fKB)",
+				allocations.size(),
+				buddy.getUsedBytes() / 1024.0,
+				frameBytes / 1024.0,
+				frameCount,
+				copyCount,
+				copiedBytes / 1024.0);
+	}
+
+	/**
+	 * LogicalDeviceのcloseで呼ばれる（GPUの完了を待ってから）
+	 */
+	@Override
+	public synchronized void close() throws Exception {
+		allocations.clear();
+		buffer.close();
+	}
+
+	/**
+	 * UniformArenaの中の、オブジェクト1つ分の領域
+	 * 全てのフレームで同じ位置にあり、getDynamicOffsetで現在のフレームの位置を返す
+	 */
+	public class Allocation implements Descriptor, AutoCloseable {
+		private final long offset;
+		private final long size;
+		private final LongConsumer write;
+		private long version;
+		/**
+		 * フレームごとの、書き込んだversion
+		 */
+		private final long[] written = new long[frameCount];
+		private boolean closed;
+
+		private Allocation(long offset, long size, LongConsumer write) {
+			this.offset = offset;
+			this.size = size;
+			this.write = write;
+			Arrays.fill(written, -1);
+		}
+
+		/**
+		 * 変更を知らせる（各フレームのbeginFrameで書き込まれる）
+		 */
+		public void update() {
+			synchronized (UniformArena.this) {
+				++version;
+			}
+		}
+
+		/**
+		 *
+		 * @return 1フレーム分の領域の中の位置
+		 */
+		public long getOffset() {
+			return offset;
+		}
+
+		public long getSize() {
+			return size;
+		}
+
+		@Override
+		public int getDescriptorType() {
+			return buffer.getDescriptorType();
+		}
+
+		@Override
+		public int getShaderStage() {
+			return buffer.getShaderStage();
+		}
+
+		@Override
+		public boolean isDynamic() {
+			return true;
+		}
+
+		/**
+		 *
+		 * @return 現在のフレームの領域での位置
+		 */
+		@Override
+		public int getDynamicOffset() {
+			synchronized (UniformArena.this) {
+				return (int) (currentFrame * frameBytes + offset);
+			}
+		}
+
+		@Override
+		public void write(VkWriteDescriptorSet set, int dstBinding, LongBuffer forDescriptorSet, MemoryStack stack) {
+			Descriptor.super.write(set, dstBinding, forDescriptorSet, stack);
+
+			// 位置はvkCmdBindDescriptorSetsで渡すので、ここでは0
+			var descriptorBufferInfo = VkDescriptorBufferInfo.calloc(1, stack)
+					.buffer(buffer.getHandler())
+					.range(size);
+			set.pBufferInfo(descriptorBufferInfo);
+		}
+
+		/**
+		 * 領域を返す
+		 * （他のオブジェクトが再利用しても、書き込みはbeginFrameで行うので、GPUが読んでいるフレームは書き換えない）
+		 */
+		@Override
+		public void close() {
+			synchronized (UniformArena.this) {
+				if (closed) {
+					return;
+				}
+				closed = true;
+				allocations.remove(this);
+				buddy.free(offset);
+			}
+		}
+	}
+}
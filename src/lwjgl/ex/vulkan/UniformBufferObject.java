@@ -3,22 +3,12 @@ package lwjgl.ex.vulkan;
 // https://chaosplant.tech/do/vulkan/5-14/
 
 
-import java.nio.FloatBuffer;
-
-import org.lwjgl.system.MemoryStack;
-
-import motopgi.utils.DoubleVector3;
 import motopgi.utils.FloatVector3;
 
-import static org.lwjgl.vulkan.VK14.*;
-
-
-import static lwjgl.ex.vulkan.StagingBufferSettings.*;
-import static lwjgl.ex.vulkan.VulkanConstants.DUMMY;
-
 /**
  * https://docs.vulkan.org/tutorial/latest/_attachments/28_model_loading.cpp
  * のUniformBufferObject
+ * 領域はLogicalDeviceのUniformArenaにあり、フレームごとに別の場所へ書き込む
  */
 public class UniformBufferObject implements AutoCloseable {	
 	// -------------.slang側と対応しなければならない↓------------
@@ -50,12 +40,38 @@ public class UniformBufferObject implements AutoCloseable {
 	
 	// -------------.slang側と対応しなければならない↑------------
 	
-	// 上の変数の個数（現状、数えて対応させるしかない）
-	private static final int LENGTH = Rotation.FLOAT_LENGTH * 2 + 4 + 1 + 10; // なぜかずれるのでダミー分を追加
-	private static final int BYTES = Float.BYTES * LENGTH;
+	// 量子化した頂点を元の座標に戻すための値（VertexEncoder）
+	// 元の座標 = dequantizeOffset + dequantizeScale * 頂点
+	// shaderを変えずに済むように、translateとscaleに含めて送る
+	private FloatVector3 dequantizeOffset = new FloatVector3(0f, 0f, 0f);
+	private float dequantizeScale = 1f;
 	
+	/**
+	 * shader.slangのstruct UniformBuffer
+	 */
+	public static final ShaderType TYPE = ShaderType.struct("UniformBuffer")
+			.add("translate", ShaderType.FLOAT3)
+			.add("local", Rotation.TYPE)
+			.add("camera", Rotation.TYPE)
+			.add("scale", ShaderType.FLOAT);
 	
-	private StagingBufferSettings settings;
+	/**
+	 * SPIR-Vがない場合のレイアウト（ConstantBufferはSTD140）
+	 */
+	public static final StructLayout DEFAULT_LAYOUT = new StructLayout(TYPE, LayoutRule.STD140);
+	
+	/**
+	 * shader.slangの変数名（ConstantBuffer<UniformBuffer> ubo）
+	 */
+	public static final String BLOCK_NAME = "ubo";
+	
+	
+	private final UniformWriter writer;
+	// 最初に1回だけ求めておく
+	private final int translateOffset;
+	private final int[] localOffsets;
+	private final int[] cameraOffsets;
+	private final int scaleOffset;
 
 	
 	
@@ -73,64 +89,106 @@ public class UniformBufferObject implements AutoCloseable {
 	private static double far = DEFAULT_FAR;
 	
 	
-	private StagingBuffer buffer;
+	private UniformArena.Allocation allocation;
 	
-	private FloatBuffer uniformBuffer = null;
+	public UniformBufferObject(LogicalDevice logicalDevice) {
+		this(logicalDevice, DEFAULT_LAYOUT);
+	}
 	
-	public UniformBufferObject(LogicalDevice logicalDevice) {		
-		settings = new StagingBufferSettings(logicalDevice, (buffer) -> {
-			// バッファの初期化
-			if (uniformBuffer == null) {
-				uniformBuffer = buffer.getFloatBuffer(0, LENGTH);
-			} else {
-				uniformBuffer.clear();
-			}
-			
-			// 先にfloat3をいれないとなぜか0になる
-			
-			// モデルの位置とカメラの位置を相殺
-			uniformBuffer.put(translate.getX() - cameraPosition.getX());
-			uniformBuffer.put(translate.getY() - cameraPosition.getY());
-			uniformBuffer.put(translate.getZ() - cameraPosition.getZ());
-			// バグ？なのか知らないが、なぜかfloat3がずれる
-			// どうしようもないので非常に嫌だが、ダミーをいれて対処する
-			// 本来はLWJGLに報告するべきだが、面倒なので保留
-			uniformBuffer.put(DUMMY);
-			
-			local.write(uniformBuffer);
-			camera.write(uniformBuffer);
-			
-			uniformBuffer.put(scale);
-			
-			/* デバッグ用
-			uniformBuffer.put(666);// 
-			*/
-		});
-		settings.setSize(BYTES);
-		
-		
-		settings.setType(BufferType.UNIFORM);
-		
-		settings.setDestinationMemoryPropertyFlags(MEMORY_PROPERTY_FLAGS_VISIBLE);
-		settings.setUnMap(false);
+	/**
+	 * 
+	 * @param logicalDevice
+	 * @param layout SpirvReflectionでshaderから読み取ったもの（BLOCK_NAME）
+	 * @throws IllegalArgumentException layoutにTYPEのメンバーがない場合
+	 */
+	public UniformBufferObject(LogicalDevice logicalDevice, StructLayout layout) {
+		writer = new UniformWriter(layout);
+		try {
+			translateOffset = writer.getOffset("translate");
+			localOffsets = Rotation.getOffsets(layout, "local");
+			cameraOffsets = Rotation.getOffsets(layout, "camera");
+			scaleOffset = writer.getOffset("scale");
+		} catch (IllegalArgumentException e) {
+			writer.close();
+			throw e;
+		}
 		
-		buffer = new StagingBuffer(settings);
+		// UniformArena.beginFrameで、そのフレームの領域に書き込む
+		try {
+			allocation = logicalDevice.getUniformArena().allocate(layout.getSize(), address -> {
+				// 回転(offset + s * 頂点) * scale + translate
+				// = 回転(頂点) * (s * scale) + (回転(offset) * scale + translate)
+				var offset = local.rotate(dequantizeOffset).multiplies(scale);
+				
+				// モデルの位置とカメラの位置を相殺
+				writer.putFloat3(translateOffset,
+						translate.getX() - cameraPosition.getX() + offset.getX(),
+						translate.getY() - cameraPosition.getY() + offset.getY(),
+						translate.getZ() - cameraPosition.getZ() + offset.getZ());
+				
+				local.write(writer, localOffsets);
+				camera.write(writer, cameraOffsets);
+				
+				writer.putFloat(scaleOffset, scale * dequantizeScale);
+				
+				// マップした領域へまとめてコピー
+				writer.writeTo(address);
+			});
+		} catch (RuntimeException e) {
+			writer.close();
+			throw e;
+		}
 	}
 	
+	/**
+	 * shaderのレイアウトとDEFAULT_LAYOUTが一致するか確認する
+	 * @param shader
+	 * @throws IllegalStateException 一致しない場合、shaderにBLOCK_NAMEがない場合
+	 */
+	public static void checkLayout(Shader shader) {
+		var block = shader.getReflection().getBlock(BLOCK_NAME);
+		if (block == null) {
+			throw new IllegalStateException("shaderに" + BLOCK_NAME + "がありません " + shader.getSettings().getSpv());
+		}
+		DEFAULT_LAYOUT.checkCompatible(block.getLayout());
+	}
+	
+	/**
+	 * 変更を反映する（書き込みは、次に記録するフレームから順に行われる）
+	 */
 	public void update() {
-		buffer.update();
+		allocation.update();
 	}	
 
 	@Override
 	public void close() throws Exception {
-		if (buffer != null) {
-			buffer.close();
-			buffer = null;
+		if (allocation != null) {
+			try {
+				allocation.close();
+			} finally {
+				allocation = null;
+				writer.close();
+			}
 		}
 	}
 
-	public StagingBuffer getBuffer() {
-		return buffer;
+	/**
+	 * 
+	 * @return PipelineSettingsに追加するDescriptor
+	 */
+	public UniformArena.Allocation getAllocation() {
+		return allocation;
+	}
+	
+	/**
+	 * 量子化した頂点を元に戻すための値を設定（update()で反映）
+	 * 元の座標 = offset + scale * 頂点
+	 * @param offset
+	 * @param scale
+	 */
+	public void setDequantize(FloatVector3 offset, float scale) {
+		dequantizeOffset = offset;
+		dequantizeScale = scale;
 	}
 	
 	public void setView(FloatVector3 camera, FloatVector3 direction) {
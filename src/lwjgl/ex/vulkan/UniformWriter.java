@@ -0,0 +1,78 @@
+package lwjgl.ex.vulkan;
+
+import org.lwjgl.system.MemoryUtil;
+
+import motopgi.utils.FloatVector3;
+
+/**
+ * StructLayoutのとおりに値を並べる、メモリ外（off-heap）の領域
+ * オフセットはgetOffsetで最初に1回だけ求めておき、put〜では絶対位置に書き込む（オブジェクトを作らない）
+ * 書き終わったらwriteToで、マップしたバッファへまとめて1回でコピーする
+ */
+public class UniformWriter implements AutoCloseable {
+	private final StructLayout layout;
+	private long address;
+
+	public UniformWriter(StructLayout layout) {
+		this.layout = layout;
+		// パディングは0のままにする
+		address = MemoryUtil.nmemCalloc(1, layout.getSize());
+		if (address == MemoryUtil.NULL) {
+			throw new OutOfMemoryError("UniformWriterの領域を確保できません " + layout.getSize());
+		}
+	}
+
+	/**
+	 *
+	 * @param path 「local.axis」など
+	 * @return put〜に渡すオフセット
+	 * @throws IllegalArgumentException メンバーがない場合
+	 */
+	public int getOffset(String path) {
+		return layout.getOffset(path);
+	}
+
+	public void putFloat(int offset, float value) {
+		MemoryUtil.memPutFloat(address + offset, value);
+	}
+
+	public void putFloat3(int offset, float x, float y, float z) {
+		var pointer = address + offset;
+		MemoryUtil.memPutFloat(pointer, x);
+		MemoryUtil.memPutFloat(pointer + Float.BYTES, y);
+		MemoryUtil.memPutFloat(pointer + Float.BYTES * 2, z);
+	}
+
+	public void putFloat3(int offset, FloatVector3 value) {
+		putFloat3(offset, value.getX(), value.getY(), value.getZ());
+	}
+
+	public void putInt(int offset, int value) {
+		MemoryUtil.memPutInt(address + offset, value);
+	}
+
+	/**
+	 * 全体をまとめてコピーする
+	 * @param destination vkMapMemoryでマップした領域など（getSize()バイト以上）
+	 */
+	public void writeTo(long destination) {
+		MemoryUtil.memCopy(address, destination, layout.getSize());
+	}
+
+	public int getSize() {
+		return layout.getSize();
+	}
+
+	public StructLayout getLayout() {
+		return layout;
+	}
+
+	@Override
+	public void close() {
+		if (address == MemoryUtil.NULL) {
+			return;
+		}
+		MemoryUtil.nmemFree(address);
+		address = MemoryUtil.NULL;
+	}
+}
@@ -0,0 +1,104 @@
+package lwjgl.ex.vulkan;
+
+import static org.lwjgl.system.MemoryUtil.*;
+import static org.lwjgl.vulkan.VK14.*;
+
+/**
+ * 頂点の値の型
+ * FLOAT以外は、頂点バッファを小さくするための量子化、圧縮された型
+ * （shader側では、どれもfloatとして受け取れる）
+ */
+public enum VertexAttributeType {
+	/**
+	 * 32bit float
+	 */
+	FLOAT(Float.BYTES, VK_FORMAT_R32_SFLOAT, VK_FORMAT_R32G32_SFLOAT, VK_FORMAT_R32G32B32_SFLOAT, VK_FORMAT_R32G32B32A32_SFLOAT),
+	
+	/**
+	 * 16bit 符号付き正規化整数（-1〜1）
+	 */
+	SNORM16(Short.BYTES, VK_FORMAT_R16_SNORM, VK_FORMAT_R16G16_SNORM, VK_FORMAT_R16G16B16_SNORM, VK_FORMAT_R16G16B16A16_SNORM),
+	
+	/**
+	 * 16bit 符号なし正規化整数（0〜1）
+	 */
+	UNORM16(Short.BYTES, VK_FORMAT_R16_UNORM, VK_FORMAT_R16G16_UNORM, VK_FORMAT_R16G16B16_UNORM, VK_FORMAT_R16G16B16A16_UNORM),
+	
+	/**
+	 * 16bit float
+	 */
+	HALF(Short.BYTES, VK_FORMAT_R16_SFLOAT, VK_FORMAT_R16G16_SFLOAT, VK_FORMAT_R16G16B16_SFLOAT, VK_FORMAT_R16G16B16A16_SFLOAT);
+	
+	private static final float SNORM16_MAX = Short.MAX_VALUE;
+	private static final float UNORM16_MAX = 0xFFFF;
+	
+	private final int componentBytes;
+	
+	/**
+	 * 要素数ごとのformat
+	 * Vulkanのクソ設計によりRGBformatが流用されている
+	 */
+	private final int[] formats;
+	
+	private VertexAttributeType(int componentBytes, int... formats) {
+		this.componentBytes = componentBytes;
+		this.formats = formats;
+	}
+	
+	/**
+	 * 
+	 * @param valueCount 1〜4
+	 * @return VK_FORMAT_〜
+	 */
+	public int getFormat(int valueCount) {
+		if (valueCount < 1 || valueCount > formats.length) {
+			throw new IllegalArgumentException(valueCount + " 個のVertexBindingは定義できません");
+		}
+		return formats[valueCount - 1];
+	}
+	
+	/**
+	 * 
+	 * @return 1要素のバイト数
+	 */
+	public int getComponentBytes() {
+		return componentBytes;
+	}
+	
+	/**
+	 * 正規化整数か（shaderで受け取る値の範囲が-1〜1、0〜1に制限される）
+	 * @return
+	 */
+	public boolean isNormalized() {
+		return this == SNORM16 || this == UNORM16;
+	}
+	
+	/**
+	 * 1要素を書き込む
+	 * @param address
+	 * @param value 正規化整数の場合は範囲外の値は丸められる
+	 */
+	public void put(long address, float value) {
+		switch (this) {
+			case FLOAT -> memPutFloat(address, value);
+			case SNORM16 -> memPutShort(address, (short) Math.round(Math.clamp(value, -1f, 1f) * SNORM16_MAX));
+			case UNORM16 -> memPutShort(address, (short) Math.round(Math.clamp(value, 0f, 1f) * UNORM16_MAX));
+			case HALF -> memPutShort(address, Float.floatToFloat16(value));
+		}
+	}
+
+	/**
+	 * putで書き込んだ1要素を読み込む
+	 * @param address
+	 * @return 正規化整数の場合は -1〜1（0〜1）
+	 */
+	public float get(long address) {
+		return switch (this) {
+			case FLOAT -> memGetFloat(address);
+			// -32768は-1として扱う
+			case SNORM16 -> Math.max(memGetShort(address) / SNORM16_MAX, -1f);
+			case UNORM16 -> (memGetShort(address) & 0xFFFF) / UNORM16_MAX;
+			case HALF -> Float.float16ToFloat(memGetShort(address));
+		};
+	}
+}
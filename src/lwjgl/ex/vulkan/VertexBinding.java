@@ -12,6 +12,7 @@ public class VertexBinding {
 	private float[] values;
 	private int bytes;
 	private int format;
+	private VertexAttributeType type;
 	
 	
 	
@@ -25,22 +26,21 @@ public class VertexBinding {
 	}
 	
 	public VertexBinding(int valueCount) {		
-		// VertexInputAttributeDescriptionのために、バイト数のoffsetが必要
-		bytes = Float.BYTES * valueCount;
-
-		setFormat(valueCount);
+		this(valueCount, VertexAttributeType.FLOAT);
 	}
 	
-	private void setFormat(int valueCount) {
-		// format設定、Vulkanのクソ設計によりRGBformatが流用されている
-		format = switch(valueCount)  {
-			// 個数によってformatをわけるしかない
-			case 1 -> VK_FORMAT_R32_SFLOAT;
-			case 2 -> VK_FORMAT_R32G32_SFLOAT;
-			case 3 -> VK_FORMAT_R32G32B32_SFLOAT;
-			case 4 -> VK_FORMAT_R32G32B32A32_SFLOAT;
-			default -> throw new IllegalArgumentException(values.length + " 個のVertexBindingは定義できません");
-		};
+	/**
+	 * 
+	 * @param valueCount
+	 * @param type FLOAT以外の場合、値の紐づけ（createCopy）は使えない
+	 */
+	public VertexBinding(int valueCount, VertexAttributeType type) {
+		this.type = type;
+		// VertexInputAttributeDescriptionのために、バイト数のoffsetが必要
+		bytes = type.getComponentBytes() * valueCount;
+
+		// 個数によってformatをわけるしかない
+		format = type.getFormat(valueCount);
 	}
 	
 	/**
@@ -57,6 +57,9 @@ public class VertexBinding {
 	public int getFormat() {
 		return format;
 	}
+	public VertexAttributeType getType() {
+		return type;
+	}
 	
 	
 
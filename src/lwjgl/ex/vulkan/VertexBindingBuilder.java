@@ -43,6 +43,11 @@ public class VertexBindingBuilder {
 	 * @return
 	 */
 	public Consumer<PointerBuffer> createCopy() {
+		for(var binding: bindings) {
+			if (binding.getType() != VertexAttributeType.FLOAT) {
+				throw new IllegalStateException("float以外のVertexBindingはコピーできません " + binding.getType());
+			}
+		}
 		return (buffer) -> {
 			var vertexBuffer = buffer.getFloatBuffer(0, allBytes);
 			for(var binding: bindings) {
@@ -0,0 +1,331 @@
+package lwjgl.ex.vulkan;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static lwjgl.ex.vulkan.VulkanConstants.*;
+
+/**
+ * GPUの頂点キャッシュ（変換済み頂点の再利用）が効きやすいように、三角形と頂点を並べ替える
+ * 三角形はForsythのアルゴリズム
+ * https://tomforsyth1000.github.io/papers/fast_vert_cache_opt.html
+ * 頂点は、並べ替えた後のindexで初めて使われる順にする（頂点の読み込みを連続させるため）
+ *
+ * 乱数などは使わないので、同じ入力なら常に同じ結果になる
+ */
+public final class VertexCacheOptimizer {
+	/**
+	 * 三角形の頂点数
+	 */
+	public static final int TRIANGLE_VERTEX_COUNT = 3;
+
+	/**
+	 * ACMR、ATVRの計算に使うFIFOキャッシュのサイズ
+	 * （実際のGPUのキャッシュサイズは公開されていないことが多いので、よく使われる値）
+	 */
+	public static final int DEFAULT_SIMULATE_CACHE_SIZE = 16;
+
+	// Forsythのパラメータ（論文の値そのまま）
+	private static final int CACHE_SIZE = 32;
+	private static final float CACHE_DECAY_POWER = 1.5f;
+	private static final float LAST_TRIANGLE_SCORE = 0.75f;
+	private static final float VALENCE_BOOST_SCALE = 2.0f;
+	private static final float VALENCE_BOOST_POWER = 0.5f;
+
+	private static final int NOT_IN_CACHE = -1;
+
+	private VertexCacheOptimizer() {
+	}
+
+	/**
+	 * 三角形と頂点を並べ替える
+	 * 使われていない頂点は削除される
+	 * @param geometry indexは三角形リストであること
+	 * @return
+	 */
+	public static VertexCacheResult optimize(ModelGeometry geometry) {
+		var before = analyze(geometry.getIndices(), geometry.getVertexCount(), DEFAULT_SIMULATE_CACHE_SIZE);
+		var indices = reorderTriangles(geometry.getIndices(), geometry.getVertexCount(), geometry.getSubMeshes());
+		var reordered = reorderVertices(geometry.getVertices(), indices, geometry.getVertexCount());
+		var optimized = new ModelGeometry(reordered.getVertices(), reordered.getIndices(), geometry.getSubMeshes());
+		var after = analyze(optimized.getIndices(), optimized.getVertexCount(), DEFAULT_SIMULATE_CACHE_SIZE);
+		return new VertexCacheResult(optimized, before, after);
+	}
+
+	/**
+	 * Forsythのアルゴリズムで三角形を並べ替える
+	 * @param indices 三角形リスト
+	 * @param vertexCount
+	 * @return 並べ替えた新しいindex
+	 */
+	public static int[] reorderTriangles(int[] indices, int vertexCount) {
+		checkTriangles(indices);
+		var order = orderTriangles(indices, vertexCount);
+		var result = new int[indices.length];
+		for (int i = 0; i < order.length; ++i) {
+			System.arraycopy(indices, order[i] * TRIANGLE_VERTEX_COUNT, result, i * TRIANGLE_VERTEX_COUNT, TRIANGLE_VERTEX_COUNT);
+		}
+		return result;
+	}
+
+	/**
+	 * Forsythのアルゴリズムで三角形を並べ替える
+	 * SubMeshをまたいで混ざらないように、各SubMeshの範囲内に戻す（SubMeshの位置と数は変わらない）
+	 * @param indices 三角形リスト
+	 * @param vertexCount
+	 * @param subMeshes 範囲は三角形の境界であること
+	 * @return 並べ替えた新しいindex
+	 */
+	public static int[] reorderTriangles(int[] indices, int vertexCount, List<SubMesh> subMeshes) {
+		checkTriangles(indices);
+		var triangleCount = indices.length / TRIANGLE_VERTEX_COUNT;
+		// 三角形ごとの、元のSubMeshの番号
+		var owner = new int[triangleCount];
+		Arrays.fill(owner, NOT_IN_CACHE);
+		// SubMeshごとの、次に書き込む位置
+		var cursor = new int[subMeshes.size()];
+		for (int s = 0; s < subMeshes.size(); ++s) {
+			var subMesh = subMeshes.get(s);
+			if (subMesh.getFirstIndex() % TRIANGLE_VERTEX_COUNT != 0 || subMesh.getIndexCount() % TRIANGLE_VERTEX_COUNT != 0
+					|| subMesh.getFirstIndex() < 0 || subMesh.getFirstIndex() + subMesh.getIndexCount() > indices.length) {
+				throw new IllegalArgumentException("SubMeshの範囲が三角形の境界ではありません " + subMesh);
+			}
+			var end = (subMesh.getFirstIndex() + subMesh.getIndexCount()) / TRIANGLE_VERTEX_COUNT;
+			for (int t = subMesh.getFirstIndex() / TRIANGLE_VERTEX_COUNT; t < end; ++t) {
+				owner[t] = s;
+			}
+			cursor[s] = subMesh.getFirstIndex();
+		}
+
+		var order = orderTriangles(indices, vertexCount);
+		// SubMeshに含まれない三角形は、元の位置のまま
+		var result = indices.clone();
+		// Forsythの順序を保ったまま、SubMeshごとに分ける（安定な振り分け）
+		for (var t : order) {
+			var s = owner[t];
+			if (s == NOT_IN_CACHE) {
+				continue;
+			}
+			System.arraycopy(indices, t * TRIANGLE_VERTEX_COUNT, result, cursor[s], TRIANGLE_VERTEX_COUNT);
+			cursor[s] += TRIANGLE_VERTEX_COUNT;
+		}
+		return result;
+	}
+
+	/**
+	 *
+	 * @param indices 三角形リスト
+	 * @param vertexCount
+	 * @return 出力する順の三角形の番号
+	 */
+	private static int[] orderTriangles(int[] indices, int vertexCount) {
+		var triangleCount = indices.length / TRIANGLE_VERTEX_COUNT;
+
+		// 頂点ごとの、まだ出力していない三角形の一覧（CSR形式）
+		var valence = new int[vertexCount];
+		for (var index : indices) {
+			++valence[index];
+		}
+		var adjacencyStart = new int[vertexCount + 1];
+		for (int v = 0; v < vertexCount; ++v) {
+			adjacencyStart[v + 1] = adjacencyStart[v] + valence[v];
+		}
+		var adjacency = new int[indices.length];
+		var filled = new int[vertexCount];
+		for (int i = 0; i < indices.length; ++i) {
+			var v = indices[i];
+			adjacency[adjacencyStart[v] + filled[v]++] = i / TRIANGLE_VERTEX_COUNT;
+		}
+
+		var vertexScore = new float[vertexCount];
+		for (int v = 0; v < vertexCount; ++v) {
+			vertexScore[v] = score(NOT_IN_CACHE, valence[v]);
+		}
+		var emitted = new boolean[triangleCount];
+
+		// 三角形の頂点が追加される分、少し大きく取る
+		var cache = new int[CACHE_SIZE + TRIANGLE_VERTEX_COUNT];
+		var nextCache = new int[CACHE_SIZE + TRIANGLE_VERTEX_COUNT];
+		var cacheCount = 0;
+
+		var order = new int[triangleCount];
+		// キャッシュ内に候補がない場合に、先頭から探すための位置
+		var scanStart = 0;
+		var best = -1;
+		for (int emittedCount = 0; emittedCount < triangleCount; ++emittedCount) {
+			if (best < 0) {
+				// キャッシュから続けられる三角形がないので、まだ出力していない最初の三角形から始める
+				while (emitted[scanStart]) {
+					++scanStart;
+				}
+				best = scanStart;
+			}
+
+			// 出力
+			emitted[best] = true;
+			order[emittedCount] = best;
+			var start = best * TRIANGLE_VERTEX_COUNT;
+			for (int i = 0; i < TRIANGLE_VERTEX_COUNT; ++i) {
+				var v = indices[start + i];
+
+				// 頂点の未出力の三角形から削除
+				var from = adjacencyStart[v];
+				var to = from + valence[v];
+				// 縮退した三角形（同じ頂点を2回使う）は、その頂点の一覧に2回入っているので1回ずつ削除する
+				// 縮退した三角形も出力から除かず、他の三角形と同じようにスコアを計算する
+				for (int a = from; a < to; ++a) {
+					if (adjacency[a] == best) {
+						adjacency[a] = adjacency[to - 1];
+						--valence[v];
+						break;
+					}
+				}
+			}
+
+			// LRU: 今の三角形の頂点を先頭に、残りをその後ろに
+			var nextCount = 0;
+			for (int i = 0; i < TRIANGLE_VERTEX_COUNT; ++i) {
+				var v = indices[start + i];
+				if (i == 0 || (v != indices[start] && (i == 1 || v != indices[start + 1]))) {
+					nextCache[nextCount++] = v;
+				}
+			}
+			for (int c = 0; c < cacheCount; ++c) {
+				var v = cache[c];
+				if (v != indices[start] && v != indices[start + 1] && v != indices[start + 2]) {
+					nextCache[nextCount++] = v;
+				}
+			}
+			var swap = cache;
+			cache = nextCache;
+			nextCache = swap;
+			cacheCount = nextCount;
+
+			// キャッシュから押し出された頂点
+			for (int c = CACHE_SIZE; c < cacheCount; ++c) {
+				var v = cache[c];
+				vertexScore[v] = score(NOT_IN_CACHE, valence[v]);
+			}
+			cacheCount = Math.min(cacheCount, CACHE_SIZE);
+
+			for (int c = 0; c < cacheCount; ++c) {
+				var v = cache[c];
+				vertexScore[v] = score(c, valence[v]);
+			}
+
+			// キャッシュ内の頂点を使う三角形から、次に出力するものを選ぶ
+			best = -1;
+			var bestScore = -1f;
+			for (int c = 0; c < cacheCount; ++c) {
+				var v = cache[c];
+				var from = adjacencyStart[v];
+				var to = from + valence[v];
+				for (int a = from; a < to; ++a) {
+					var t = adjacency[a];
+					// キャッシュ内の頂点を使う三角形だけ、その都度計算する
+					var newScore = triangleScore(indices, t, vertexScore);
+					// 同点の場合は番号の小さい方（結果を決定的にするため）
+					if (newScore > bestScore || (newScore == bestScore && t < best)) {
+						bestScore = newScore;
+						best = t;
+					}
+				}
+			}
+		}
+		return order;
+	}
+
+	/**
+	 * 頂点を、indexで初めて使われる順に並べ替える
+	 * @param vertices XYZUV
+	 * @param indices
+	 * @param vertexCount
+	 * @return 使われていない頂点は削除される
+	 */
+	public static ModelGeometry reorderVertices(float[] vertices, int[] indices, int vertexCount) {
+		var remap = new int[vertexCount];
+		Arrays.fill(remap, NOT_IN_CACHE);
+		var newIndices = new int[indices.length];
+		var newCount = 0;
+		for (int i = 0; i < indices.length; ++i) {
+			var v = indices[i];
+			if (remap[v] == NOT_IN_CACHE) {
+				remap[v] = newCount++;
+			}
+			newIndices[i] = remap[v];
+		}
+		var newVertices = new float[XYZUV_COUNT * newCount];
+		for (int v = 0; v < vertexCount; ++v) {
+			if (remap[v] != NOT_IN_CACHE) {
+				System.arraycopy(vertices, XYZUV_COUNT * v, newVertices, XYZUV_COUNT * remap[v], XYZUV_COUNT);
+			}
+		}
+		return new ModelGeometry(newVertices, newIndices);
+	}
+
+	/**
+	 * FIFOキャッシュを再現して、ACMR、ATVRを求める
+	 * @param indices 三角形リスト
+	 * @param vertexCount
+	 * @param cacheSize
+	 * @return
+	 */
+	public static VertexCacheStatistics analyze(int[] indices, int vertexCount, int cacheSize) {
+		checkTriangles(indices);
+		// 各頂点がキャッシュに入った時刻。キャッシュに入った回数との差がcacheSize以内ならキャッシュにある
+		var insertedAt = new int[vertexCount];
+		Arrays.fill(insertedAt, Integer.MIN_VALUE / 2);
+		var used = new boolean[vertexCount];
+		var misses = 0;
+		var usedCount = 0;
+		for (var v : indices) {
+			if (!used[v]) {
+				used[v] = true;
+				++usedCount;
+			}
+			if (misses - insertedAt[v] >= cacheSize) {
+				insertedAt[v] = misses++;
+			}
+		}
+		return new VertexCacheStatistics(misses, indices.length / TRIANGLE_VERTEX_COUNT, usedCount, cacheSize);
+	}
+
+	/**
+	 * Forsythの頂点のスコア
+	 * @param position キャッシュ内の位置
+	 * @param valence まだ出力していない三角形の数
+	 * @return
+	 */
+	private static float score(int position, int valence) {
+		if (valence == 0) {
+			// もう使われない
+			return -1f;
+		}
+		var score = 0f;
+		if (position >= 0) {
+			if (position < TRIANGLE_VERTEX_COUNT) {
+				// 直前の三角形の頂点は、同じ三角形を繰り返しにくいように固定値
+				score = LAST_TRIANGLE_SCORE;
+			}
+			else {
+				var scaler = 1.0f / (CACHE_SIZE - TRIANGLE_VERTEX_COUNT);
+				score = 1.0f - (position - TRIANGLE_VERTEX_COUNT) * scaler;
+				score = (float) Math.pow(score, CACHE_DECAY_POWER);
+			}
+		}
+		// 残りの三角形が少ない頂点を優先して、取り残しを防ぐ
+		score += VALENCE_BOOST_SCALE * (float) Math.pow(valence, -VALENCE_BOOST_POWER);
+		return score;
+	}
+
+	private static float triangleScore(int[] indices, int triangle, float[] vertexScore) {
+		var start = triangle * TRIANGLE_VERTEX_COUNT;
+		return vertexScore[indices[start]] + vertexScore[indices[start + 1]] + vertexScore[indices[start + 2]];
+	}
+
+	private static void checkTriangles(int[] indices) {
+		if (indices.length % TRIANGLE_VERTEX_COUNT != 0) {
+			throw new IllegalArgumentException("indexが三角形リストではありません " + indices.length);
+		}
+	}
+}
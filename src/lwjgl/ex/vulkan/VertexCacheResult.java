@@ -0,0 +1,37 @@
+package lwjgl.ex.vulkan;
+
+/**
+ * VertexCacheOptimizerの結果
+ */
+public class VertexCacheResult {
+	private ModelGeometry geometry;
+	private VertexCacheStatistics before;
+	private VertexCacheStatistics after;
+	
+	public VertexCacheResult(ModelGeometry geometry, VertexCacheStatistics before, VertexCacheStatistics after) {
+		this.geometry = geometry;
+		this.before = before;
+		this.after = after;
+	}
+
+	/**
+	 * 
+	 * @return 並べ替えた後のジオメトリ
+	 */
+	public ModelGeometry getGeometry() {
+		return geometry;
+	}
+
+	public VertexCacheStatistics getBefore() {
+		return before;
+	}
+
+	public VertexCacheStatistics getAfter() {
+		return after;
+	}
+
+	@Override
+	public String toString() {
+		return before + " -> " + after;
+	}
+}
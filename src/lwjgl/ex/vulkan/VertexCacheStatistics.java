@@ -0,0 +1,65 @@
+package lwjgl.ex.vulkan;
+
+/**
+ * 頂点キャッシュの効率
+ * ACMR（三角形あたりの頂点シェーダー実行回数）とATVR（頂点あたりの頂点シェーダー実行回数）
+ * どちらも小さいほど良い。ATVRは1が最小
+ */
+public class VertexCacheStatistics {
+	private int transformedVertexCount;
+	private int triangleCount;
+	private int vertexCount;
+	private int cacheSize;
+	
+	/**
+	 * 
+	 * @param transformedVertexCount キャッシュミスの回数
+	 * @param triangleCount
+	 * @param vertexCount 使われている頂点数
+	 * @param cacheSize 計算に使ったキャッシュサイズ
+	 */
+	public VertexCacheStatistics(int transformedVertexCount, int triangleCount, int vertexCount, int cacheSize) {
+		this.transformedVertexCount = transformedVertexCount;
+		this.triangleCount = triangleCount;
+		this.vertexCount = vertexCount;
+		this.cacheSize = cacheSize;
+	}
+
+	/**
+	 * Average Cache Miss Ratio
+	 * 0.5〜3.0の範囲になる
+	 * @return
+	 */
+	public double getAcmr() {
+		return triangleCount == 0 ? 0 : (double) transformedVertexCount / triangleCount;
+	}
+
+	/**
+	 * Average Transformed Vertex Ratio
+	 * @return
+	 */
+	public double getAtvr() {
+		return vertexCount == 0 ? 0 : (double) transformedVertexCount / vertexCount;
+	}
+
+	public int getTransformedVertexCount() {
+		return transformedVertexCount;
+	}
+
+	public int getTriangleCount() {
+		return triangleCount;
+	}
+
+	public int getVertexCount() {
+		return vertexCount;
+	}
+
+	public int getCacheSize() {
+		return cacheSize;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("ACMR %.3f ATVR %.3f", getAcmr(), getAtvr());
+	}
+}
@@ -0,0 +1,175 @@
+package lwjgl.ex.vulkan;
+
+import motopgi.utils.FloatVector3;
+
+import static lwjgl.ex.vulkan.VulkanConstants.*;
+
+/**
+ * XYZUVの頂点を、VertexAttributeTypeで指定した型の頂点バッファに書き込む
+ * 
+ * 正規化整数の座標は、モデルの範囲（バウンディングボックス）で -1〜1（0〜1）に変換する
+ * 元の座標 = offset + scale * 書き込んだ値
+ * 軸ごとに別の倍率にするとshaderで戻す必要があるため、倍率は全軸で共通にして
+ * UniformBufferObjectの平行移動、拡大に含める（shaderの変更は不要）
+ */
+public class VertexEncoder {
+	private final ModelGeometry geometry;
+	private final VertexAttributeType positionType;
+	private final VertexAttributeType textureCoordType;
+	private final int positionCount;
+	private final FloatVector3 offset;
+	private final float scale;
+	
+	public VertexEncoder(ModelGeometry geometry, VertexAttributeType positionType, VertexAttributeType textureCoordType) {
+		if (textureCoordType == VertexAttributeType.SNORM16) {
+			throw new IllegalArgumentException("テクスチャ座標には使用できません " + textureCoordType);
+		}
+		this.geometry = geometry;
+		this.positionType = positionType;
+		this.textureCoordType = textureCoordType;
+		positionCount = toPositionCount(positionType);
+		
+		if (!positionType.isNormalized()) {
+			offset = new FloatVector3(0, 0, 0);
+			scale = 1;
+			return;
+		}
+		
+		// バウンディングボックス
+		var vertices = geometry.getVertices();
+		var min = new float[] {Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY};
+		var max = new float[] {Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY};
+		for (int i = 0; i < vertices.length; i += XYZUV_COUNT) {
+			for (int c = 0; c < XYZ_COUNT; ++c) {
+				min[c] = Math.min(min[c], vertices[i + c]);
+				max[c] = Math.max(max[c], vertices[i + c]);
+			}
+		}
+		if (vertices.length == 0) {
+			min = new float[XYZ_COUNT];
+			max = new float[XYZ_COUNT];
+		}
+		var size = Math.max(max[0] - min[0], Math.max(max[1] - min[1], max[2] - min[2]));
+		// 全頂点が同じ位置の場合に0除算にならないように
+		if (size <= 0) {
+			size = 1;
+		}
+		if (positionType == VertexAttributeType.SNORM16) {
+			// 中心から -1〜1
+			offset = new FloatVector3((min[0] + max[0]) / 2, (min[1] + max[1]) / 2, (min[2] + max[2]) / 2);
+			scale = size / 2;
+		}
+		else {
+			// 最小の位置から 0〜1
+			offset = new FloatVector3(min[0], min[1], min[2]);
+			scale = size;
+		}
+	}
+	
+	/**
+	 * 
+	 * @param positionType
+	 * @return 座標の要素数
+	 */
+	public static int toPositionCount(VertexAttributeType positionType) {
+		// 16bitの3要素のformatは対応していないGPUが多いので、4要素にする
+		return positionType == VertexAttributeType.FLOAT ? XYZ_COUNT : XYZ_COUNT + 1;
+	}
+	
+	/**
+	 * shader.slangのVSInputと対応
+	 * @param positionType
+	 * @param textureCoordType
+	 * @return
+	 */
+	public static VertexBindingBuilder createBinding(VertexAttributeType positionType, VertexAttributeType textureCoordType) {
+		return VertexBindingBuilder.create(new VertexBinding(toPositionCount(positionType), positionType))
+				.add(new VertexBinding(Model.VERTEX_TEXTURE_COORD_FLOAT_NUM, textureCoordType));
+	}
+	
+	public VertexBindingBuilder createBinding() {
+		return createBinding(positionType, textureCoordType);
+	}
+	
+	/**
+	 * 
+	 * @return 1頂点のバイト数
+	 */
+	public int getStride() {
+		return getStride(positionType, textureCoordType);
+	}
+	
+	/**
+	 * 
+	 * @param positionType
+	 * @param textureCoordType
+	 * @return 1頂点のバイト数
+	 */
+	public static int getStride(VertexAttributeType positionType, VertexAttributeType textureCoordType) {
+		return positionType.getComponentBytes() * toPositionCount(positionType)
+				+ textureCoordType.getComponentBytes() * Model.VERTEX_TEXTURE_COORD_FLOAT_NUM;
+	}
+	
+	/**
+	 * 
+	 * @return 頂点バッファのバイト数
+	 */
+	public long getBytes() {
+		return (long) getStride() * geometry.getVertexCount();
+	}
+	
+	/**
+	 * 頂点バッファに書き込む
+	 * @param address getBytes()以上の領域
+	 */
+	public void write(long address) {
+		var vertices = geometry.getVertices();
+		var inverseScale = 1 / scale;
+		var offsetX = offset.getX();
+		var offsetY = offset.getY();
+		var offsetZ = offset.getZ();
+		var positionBytes = positionType.getComponentBytes();
+		var textureCoordBytes = textureCoordType.getComponentBytes();
+		for (int i = 0; i < vertices.length; i += XYZUV_COUNT) {
+			positionType.put(address, (vertices[i] - offsetX) * inverseScale);
+			address += positionBytes;
+			positionType.put(address, (vertices[i + 1] - offsetY) * inverseScale);
+			address += positionBytes;
+			positionType.put(address, (vertices[i + 2] - offsetZ) * inverseScale);
+			address += positionBytes;
+			if (positionCount > XYZ_COUNT) {
+				// 使わない4要素目
+				positionType.put(address, 0);
+				address += positionBytes;
+			}
+			textureCoordType.put(address, vertices[i + 3]);
+			address += textureCoordBytes;
+			textureCoordType.put(address, vertices[i + 4]);
+			address += textureCoordBytes;
+		}
+	}
+	
+	/**
+	 * 
+	 * @return 元の座標 = offset + scale * 書き込んだ値
+	 */
+	public FloatVector3 getOffset() {
+		return offset;
+	}
+	
+	/**
+	 * 
+	 * @return 元の座標 = offset + scale * 書き込んだ値
+	 */
+	public float getScale() {
+		return scale;
+	}
+
+	public VertexAttributeType getPositionType() {
+		return positionType;
+	}
+
+	public VertexAttributeType getTextureCoordType() {
+		return textureCoordType;
+	}
+}
@@ -0,0 +1,136 @@
+package lwjgl.ex.vulkan;
+
+import java.util.Arrays;
+
+import static lwjgl.ex.vulkan.VulkanConstants.*;
+
+/**
+ * XYZUVが同じ頂点を1つにまとめて、indexを付け替える
+ * （aiProcess_JoinIdenticalVerticesを指定しても重複が残るため）
+ */
+public final class VertexWelder {
+	/**
+	 * 完全に一致する頂点だけをまとめる
+	 */
+	public static final float EXACT = 0f;
+
+	/**
+	 * ハッシュ表の空き
+	 */
+	private static final int EMPTY = -1;
+
+	/**
+	 * 丸めた値がこれ以上の場合（とNaN、無限大）は、丸めずにfloatのビットで比較する
+	 * （longの範囲内で、丸めた値と重ならないようにするため）
+	 */
+	private static final double ROUNDED_KEY_LIMIT = 0x1p62;
+
+	private VertexWelder() {
+	}
+
+	/**
+	 *
+	 * @param geometry
+	 * @param epsilon 0の場合は完全一致のみ。0より大きい場合は、各値をepsilon単位に丸めて一致するものをまとめる
+	 * @return
+	 */
+	public static WeldResult weld(ModelGeometry geometry, float epsilon) {
+		if (epsilon < 0 || Float.isNaN(epsilon)) {
+			throw new IllegalArgumentException("epsilonは0以上である必要があります " + epsilon);
+		}
+		var vertices = geometry.getVertices();
+		var indices = geometry.getIndices();
+		var vertexCount = geometry.getVertexCount();
+
+		// 比較用の値（丸めた値、またはfloatのビット）
+		// まとめた後の頂点の分だけ保持する
+		var keys = new long[XYZUV_COUNT * vertexCount];
+		var key = new long[XYZUV_COUNT];
+
+		// オープンアドレス法。要素数の2倍以上の2のべき乗にして、衝突を減らす
+		var table = new int[tableSize(vertexCount)];
+		Arrays.fill(table, EMPTY);
+		var mask = table.length - 1;
+
+		var welded = new float[vertices.length];
+		var remap = new int[vertexCount];
+		var weldedCount = 0;
+		var inverse = epsilon > 0 ? 1.0 / epsilon : 0;
+		for (int v = 0; v < vertexCount; ++v) {
+			var start = XYZUV_COUNT * v;
+			var hash = 0;
+			for (int i = 0; i < XYZUV_COUNT; ++i) {
+				key[i] = toKey(vertices[start + i], inverse);
+				hash = (hash ^ Long.hashCode(key[i])) * 0x9E3779B1;
+			}
+			// floatのビットは下位が0になりやすいので、上位のビットを下位に混ぜてから使う
+			// （MurmurHash3のfmix32）
+			hash ^= hash >>> 16;
+			hash *= 0x85EBCA6B;
+			hash ^= hash >>> 13;
+			hash *= 0xC2B2AE35;
+			hash ^= hash >>> 16;
+
+			var slot = hash & mask;
+			while (true) {
+				var found = table[slot];
+				if (found == EMPTY) {
+					// 初めての頂点
+					table[slot] = weldedCount;
+					System.arraycopy(key, 0, keys, XYZUV_COUNT * weldedCount, XYZUV_COUNT);
+					System.arraycopy(vertices, start, welded, XYZUV_COUNT * weldedCount, XYZUV_COUNT);
+					remap[v] = weldedCount++;
+					break;
+				}
+				if (equals(keys, XYZUV_COUNT * found, key)) {
+					remap[v] = found;
+					break;
+				}
+				slot = (slot + 1) & mask;
+			}
+		}
+
+		var weldedIndices = new int[indices.length];
+		for (int i = 0; i < indices.length; ++i) {
+			weldedIndices[i] = remap[indices[i]];
+		}
+		var weldedVertices = weldedCount == vertexCount ? welded : Arrays.copyOf(welded, XYZUV_COUNT * weldedCount);
+		return new WeldResult(new ModelGeometry(weldedVertices, weldedIndices, geometry.getSubMeshes()), vertexCount, weldedCount);
+	}
+
+	/**
+	 *
+	 * @param value
+	 * @param inverse 1 / epsilon（完全一致の場合は0）
+	 * @return
+	 */
+	private static long toKey(float value, double inverse) {
+		if (inverse == 0) {
+			// 0と-0は同じ頂点として扱う
+			return value == 0 ? 0 : Float.floatToIntBits(value);
+		}
+		var scaled = value * inverse;
+		if (!(Math.abs(scaled) < ROUNDED_KEY_LIMIT)) {
+			// 範囲外の値は丸めずに、丸めた値の範囲（±2^62未満）の外に置く
+			return Long.MIN_VALUE | Integer.toUnsignedLong(Float.floatToIntBits(value));
+		}
+		return Math.round(scaled);
+	}
+
+	private static boolean equals(long[] keys, int offset, long[] key) {
+		for (int i = 0; i < key.length; ++i) {
+			if (keys[offset + i] != key[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int tableSize(int count) {
+		var size = Integer.highestOneBit(Math.max(count, 1)) << 2;
+		if (size <= 0) {
+			throw new IllegalArgumentException("頂点数が多すぎます " + count);
+		}
+		return size;
+	}
+}
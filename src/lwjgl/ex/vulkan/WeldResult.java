@@ -0,0 +1,47 @@
+package lwjgl.ex.vulkan;
+
+import static lwjgl.ex.vulkan.VulkanConstants.*;
+
+/**
+ * VertexWelderの結果
+ */
+public class WeldResult {
+	private ModelGeometry geometry;
+	private int beforeVertexCount;
+	private int afterVertexCount;
+	
+	public WeldResult(ModelGeometry geometry, int beforeVertexCount, int afterVertexCount) {
+		this.geometry = geometry;
+		this.beforeVertexCount = beforeVertexCount;
+		this.afterVertexCount = afterVertexCount;
+	}
+
+	/**
+	 * 
+	 * @return まとめた後のジオメトリ
+	 */
+	public ModelGeometry getGeometry() {
+		return geometry;
+	}
+
+	public int getBeforeVertexCount() {
+		return beforeVertexCount;
+	}
+
+	public int getAfterVertexCount() {
+		return afterVertexCount;
+	}
+	
+	/**
+	 * 
+	 * @return 頂点バッファの削減量（バイト）
+	 */
+	public long getSavedBytes() {
+		return (long) Float.BYTES * XYZUV_COUNT * (beforeVertexCount - afterVertexCount);
+	}
+
+	@Override
+	public String toString() {
+		return "頂点数 " + beforeVertexCount + " -> " + afterVertexCount + "（" + getSavedBytes() + "バイト削減）";
+	}
+}
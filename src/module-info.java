@@ -12,6 +12,7 @@ module bemighty {
 	
 	requires org.lwjgl.openal.natives;
 	
+	requires org.lwjgl.stb;
 	requires org.lwjgl.stb.natives;
 	
 	requires org.lwjgl.vulkan;
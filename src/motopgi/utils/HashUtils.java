@@ -0,0 +1,49 @@
+package motopgi.utils;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * キャッシュのキーなどに使う、内容のハッシュ（SHA-256）
+ */
+public final class HashUtils {
+	public static final String HASH_ALGORITHM = "SHA-256";
+
+	private HashUtils() {
+	}
+
+	/**
+	 *
+	 * @return 複数の内容をまとめてハッシュにする場合に、updateしてからtoHexに渡す
+	 */
+	public static MessageDigest createDigest() {
+		try {
+			return MessageDigest.getInstance(HASH_ALGORITHM);
+		} catch (NoSuchAlgorithmException e) {
+			// SHA-256は全てのJava実装で必須
+			throw new IllegalStateException(HASH_ALGORITHM + "が使用できません", e);
+		}
+	}
+
+	/**
+	 *
+	 * @param digest
+	 * @return 16進数の文字列（ファイル名に使える）
+	 */
+	public static String toHex(MessageDigest digest) {
+		return HexFormat.of().formatHex(digest.digest());
+	}
+
+	/**
+	 *
+	 * @param buffer 読み込み位置は変更しない
+	 * @return
+	 */
+	public static String hash(ByteBuffer buffer) {
+		var digest = createDigest();
+		digest.update(buffer.duplicate());
+		return toHex(digest);
+	}
+}
@@ -0,0 +1,83 @@
+package motopgi.utils;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * ファイルを読み取り専用でメモリマップする
+ * （MappedByteBufferはGCされるまでunmapされないので、Arenaで管理してcloseでunmapする）
+ */
+public class MappedFile implements AutoCloseable {
+	private final Arena arena = Arena.ofShared();
+	private final MemorySegment segment;
+	private final Path path;
+
+	public MappedFile(Path path) throws IOException {
+		this.path = path;
+		try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			// channelを閉じてもマップは残る
+			segment = channel.map(MapMode.READ_ONLY, 0, channel.size(), arena);
+		} catch (IOException | RuntimeException e) {
+			arena.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * マップされた先頭のアドレス
+	 * （MemoryUtil.memCopyなどにそのまま渡せる）
+	 * @return
+	 */
+	public long address() {
+		return segment.address();
+	}
+
+	/**
+	 *
+	 * @return （バイト）
+	 */
+	public long size() {
+		return segment.byteSize();
+	}
+
+	/**
+	 * 指定範囲をByteBufferとして取得（コピーは発生しない）
+	 * @param offset （バイト）
+	 * @param length （バイト）
+	 * @return ネイティブのバイト順のダイレクトバッファ
+	 */
+	public ByteBuffer asByteBuffer(long offset, long length) {
+		return segment.asSlice(offset, length).asByteBuffer().order(ByteOrder.nativeOrder());
+	}
+
+	/**
+	 * 全てのページを物理メモリに読み込む
+	 * （読み込み用のスレッドで呼んでおき、コピー時にページフォルトでI/Oを待たないようにする）
+	 */
+	public void load() {
+		segment.load();
+	}
+
+	public MemorySegment getSegment() {
+		return segment;
+	}
+
+	public Path getPath() {
+		return path;
+	}
+
+	@Override
+	public void close() {
+		// 複数回closeされても問題ないようにする
+		if (arena.scope().isAlive()) {
+			arena.close();
+		}
+	}
+}